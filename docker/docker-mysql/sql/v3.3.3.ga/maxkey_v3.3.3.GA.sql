@@ -334,7 +334,8 @@ CREATE TABLE `mxk_group_member` (
   `CREATEDDATE` datetime DEFAULT CURRENT_TIMESTAMP,
   `INSTID` varchar(45) NOT NULL,
   PRIMARY KEY (`ID`),
-  KEY `FK_APPROLEU_REFERENCE_APPROLES` (`GROUPID`)
+  KEY `FK_APPROLEU_REFERENCE_APPROLES` (`GROUPID`),
+  KEY `MEMBERID_INDEX` (`MEMBERID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='group member,USERS OR GROUPS';
 /*!40101 SET character_set_client = @saved_cs_client */;
 
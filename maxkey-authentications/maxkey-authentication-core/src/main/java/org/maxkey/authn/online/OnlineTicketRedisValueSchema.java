@@ -0,0 +1,62 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authn.online;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.HashMap;
+
+import org.maxkey.entity.apps.Apps;
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+
+/**
+ * OnlineTicket schema,Authentication and authorizedApps by Java serialization.
+ *
+ */
+public class OnlineTicketRedisValueSchema extends RedisValueSchema<OnlineTicket> {
+
+    public static final int SCHEMA_ID = 1;
+
+    public OnlineTicketRedisValueSchema() {
+        super(SCHEMA_ID, OnlineTicket.class);
+    }
+
+    @Override
+    public void write(DataOutput out, OnlineTicket onlineTicket) throws IOException {
+        writeString(out, onlineTicket.getTicketId());
+        LocalTime ticketTime = onlineTicket.getTicketTime();
+        out.writeLong(ticketTime == null ? -1 : ticketTime.toNanoOfDay());
+        writeObject(out, onlineTicket.getAuthentication());
+        HashMap<String, Apps> authorizedApps = onlineTicket.getAuthorizedApps();
+        writeObject(out, authorizedApps == null || authorizedApps.isEmpty() ? null : authorizedApps);
+    }
+
+    @Override
+    public OnlineTicket read(DataInput in) throws IOException {
+        OnlineTicket onlineTicket = new OnlineTicket(readString(in));
+        long ticketTime = in.readLong();
+        onlineTicket.setTicketTime(ticketTime < 0 ? null : LocalTime.ofNanoOfDay(ticketTime));
+        onlineTicket.setAuthentication(readObject(in));
+        HashMap<String, Apps> authorizedApps = readObject(in);
+        if (authorizedApps != null) {
+            onlineTicket.setAuthorizedApps(authorizedApps);
+        }
+        return onlineTicket;
+    }
+}
@@ -31,6 +31,21 @@ public class OnlineTicketServicesFactory {
 			 	int persistence,
 			 	JdbcTemplate jdbcTemplate,
 	            RedisConnectionFactory redisConnFactory){
+		 return getService(persistence, jdbcTemplate, redisConnFactory, false, 0, 0);
+	 }
+	 
+	 /**
+	  * @param nearCacheEnabled Redis持久化时启用本地L1缓存
+	  * @param nearCacheSize L1最大数量
+	  * @param nearCacheExpire L1过期时间(秒)
+	  */
+	 public OnlineTicketServices getService(
+			 	int persistence,
+			 	JdbcTemplate jdbcTemplate,
+	            RedisConnectionFactory redisConnFactory,
+	            boolean nearCacheEnabled,
+	            int nearCacheSize,
+	            int nearCacheExpire){
 		 
 		 OnlineTicketServices onlineTicketServices = null;
 		if (persistence == ConstsPersistence.INMEMORY) {
@@ -38,6 +53,10 @@ public class OnlineTicketServicesFactory {
 		    _logger.debug("InMemoryOnlineTicketServices");
 		} else if (persistence == ConstsPersistence.JDBC) {
 		    _logger.debug("OnlineTicketServices not support "); 
+		} else if (persistence == ConstsPersistence.REDIS && nearCacheEnabled) {
+		    onlineTicketServices = new RedisNearCacheOnlineTicketServices(
+		    		redisConnFactory, nearCacheSize, nearCacheExpire);
+		    _logger.debug("RedisNearCacheOnlineTicketServices");
 		} else if (persistence == ConstsPersistence.REDIS) {
 		    onlineTicketServices = new RedisOnlineTicketServices(redisConnFactory);
 		    _logger.debug("RedisOnlineTicketServices");
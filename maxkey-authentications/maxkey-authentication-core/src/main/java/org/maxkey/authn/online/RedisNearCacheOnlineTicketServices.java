@@ -0,0 +1,155 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authn.online;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.persistence.redis.RedisChannelSubscriber;
+import org.maxkey.persistence.redis.RedisConnection;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * 两级OnlineTicket存储,L1为本节点Caffeine缓存,L2为Redis.
+ * <p>
+ * get优先读取L1,未命中时读取Redis并回填;store/remove写Redis后通过Redis频道通知其他节点失效L1.
+ * refresh只对Redis执行EXPIRE,ticketTime仅在L1中更新,用于本节点控制刷新频率.
+ * </p>
+ * <p>
+ * L1按写入时间过期(默认60秒),即使失效通知丢失,其他节点的过期数据也只会保留一个L1周期;
+ * 订阅断线重连后清空L1.命中率通过actuator metrics的cache.gets{cache=onlineTicket}查看.
+ * </p>
+ */
+public class RedisNearCacheOnlineTicketServices extends RedisOnlineTicketServices implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(RedisNearCacheOnlineTicketServices.class);
+
+    public static final String CACHE_NAME = "onlineTicket";
+
+    public static final String INVALIDATE_CHANNEL = "REDIS_ONLINE_TICKET_INVALIDATE";
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+    public static final int DEFAULT_EXPIRE_SECONDS = 60;
+
+    final Cache<String, OnlineTicket> nearCache;
+
+    final RedisChannelSubscriber subscriber;
+
+    public RedisNearCacheOnlineTicketServices(RedisConnectionFactory connectionFactory) {
+        this(connectionFactory, DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * @param connectionFactory
+     * @param maximumSize L1最大数量
+     * @param expireSeconds L1写入后过期时间
+     */
+    public RedisNearCacheOnlineTicketServices(
+            RedisConnectionFactory connectionFactory, int maximumSize, int expireSeconds) {
+        super(connectionFactory);
+        this.nearCache = Caffeine.newBuilder()
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        this.subscriber = new RedisChannelSubscriber(
+                connectionFactory,
+                INVALIDATE_CHANNEL,
+                new RedisChannelSubscriber.MessageListener() {
+                    @Override
+                    public void onMessage(String ticketId) {
+                        _logger.trace("invalidate OnlineTicket {}", ticketId);
+                        nearCache.invalidate(ticketId);
+                    }
+
+                    @Override
+                    public void onSubscribe() {
+                        //messages may be lost while disconnected
+                        nearCache.invalidateAll();
+                    }
+                });
+        this.subscriber.start();
+        _logger.debug("near cache maximumSize {} , expireSeconds {}", maximumSize, expireSeconds);
+    }
+
+    @Override
+    public void store(String ticketId, OnlineTicket ticket) {
+        RedisConnection conn = connectionFactory.getConnection();
+        conn.openPipeline();
+        conn.setexObject(PREFIX + ticketId, serviceTicketValiditySeconds, ticket);
+        subscriber.publish(conn, ticketId);
+        conn.closePipeline();
+        conn.close();
+        nearCache.put(ticketId, ticket);
+    }
+
+    @Override
+    public OnlineTicket remove(String ticketId) {
+        nearCache.invalidate(ticketId);
+        RedisConnection conn = connectionFactory.getConnection();
+        OnlineTicket ticket = conn.getDelObject(PREFIX + ticketId);
+        subscriber.publish(conn, ticketId);
+        conn.close();
+        return ticket;
+    }
+
+    @Override
+    public OnlineTicket get(String ticketId) {
+        OnlineTicket ticket = nearCache.getIfPresent(ticketId);
+        if (ticket == null) {
+            ticket = super.get(ticketId);
+            if (ticket != null) {
+                nearCache.put(ticketId, ticket);
+            }
+        }
+        return ticket;
+    }
+
+    @Override
+    public void refresh(String ticketId, LocalTime refreshTime) {
+        OnlineTicket ticket = nearCache.getIfPresent(ticketId);
+        if (ticket != null) {
+            ticket.setTicketTime(refreshTime);
+        }
+        super.refresh(ticketId, refreshTime);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, nearCache, CACHE_NAME);
+    }
+
+    public CacheStats getCacheStats() {
+        return nearCache.stats();
+    }
+
+    public void shutdown() {
+        subscriber.stop();
+        _logger.debug("near cache {}", nearCache.stats());
+    }
+}
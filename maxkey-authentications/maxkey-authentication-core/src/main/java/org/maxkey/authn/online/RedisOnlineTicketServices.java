@@ -63,8 +63,7 @@ public class RedisOnlineTicketServices implements OnlineTicketServices {
 	@Override
 	public OnlineTicket remove(String ticketId) {
 		RedisConnection conn=connectionFactory.getConnection();
-		OnlineTicket ticket = conn.getObject(PREFIX+ticketId);
-		conn.delete(PREFIX+ticketId);
+		OnlineTicket ticket = conn.getDelObject(PREFIX+ticketId);
 		conn.close();
 		return ticket;
 	}
@@ -83,27 +82,45 @@ public class RedisOnlineTicketServices implements OnlineTicketServices {
         
     }
 
+    /**
+     * 只延长过期时间(EXPIRE),不重写整个OnlineTicket
+     */
     @Override
     public void refresh(String ticketId,LocalTime refreshTime) {
-        OnlineTicket onlineTicket = get(ticketId);
-        onlineTicket.setTicketTime(refreshTime);
-        store(ticketId , onlineTicket);
+        RedisConnection conn=connectionFactory.getConnection();
+        conn.expire(PREFIX+ticketId, serviceTicketValiditySeconds);
+        conn.close();
     }
     
     @Override
     public void refresh(String ticketId) {
         OnlineTicket onlineTicket = get(ticketId);
-        
+        if(onlineTicket == null) {
+            return;
+        }
         LocalTime currentTime = LocalTime.now();
-        Duration duration = Duration.between(currentTime, onlineTicket.getTicketTime());
-        
-        _logger.trace("OnlineTicket duration " + duration.getSeconds());
-        
-        if(duration.getSeconds() > OnlineTicket.MAX_EXPIRY_DURATION) {
+        if(isRefreshRequired(onlineTicket,currentTime)) {
             onlineTicket.setTicketTime(currentTime);
             refresh(ticketId,currentTime);
         }
     }
 
-	
+    /**
+     * ticketTime距当前时间超过MAX_EXPIRY_DURATION时需要刷新,跨零点时按24小时补齐
+     * @param onlineTicket
+     * @param currentTime
+     * @return
+     */
+    protected boolean isRefreshRequired(OnlineTicket onlineTicket,LocalTime currentTime) {
+        if(onlineTicket.getTicketTime() == null) {
+            return true;
+        }
+        Duration duration = Duration.between(onlineTicket.getTicketTime(), currentTime);
+        if(duration.isNegative()) {
+            duration = duration.plusDays(1);
+        }
+        _logger.trace("OnlineTicket duration " + duration.getSeconds());
+        return duration.getSeconds() > OnlineTicket.MAX_EXPIRY_DURATION;
+    }
+
 }
@@ -149,9 +149,11 @@ public abstract class AbstractAuthenticationRealm {
         historyLogin.setBrowser(browser.getName());
         historyLogin.setPlatform(browser.getPlatform());
         historyLogin.setSourceIp(userInfo.getLastLoginIp());
-        //TODO: 
-        //historyLogin.setIpRegion(IpRegionFactory.getFactory().region(userInfo.getLastLoginIp()));
-        //historyLogin.setIpLocation(IpRegionFactory.getFactory().getLocation(historyLogin.getIpRegion()));
+        //only offline database , no network latency on login
+        if(IpRegionFactory.isEnabled()) {
+            historyLogin.setIpRegion(IpRegionFactory.getFactory().region(userInfo.getLastLoginIp()));
+            historyLogin.setIpLocation(IpRegionFactory.getFactory().getLocation(historyLogin.getIpRegion()));
+        }
         historyLogin.setProvider(provider);
         historyLogin.setCode(code);
         historyLogin.setLoginType(type);
@@ -0,0 +1,54 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authn.support.rememberme;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+
+/**
+ * RemeberMe schema.
+ *
+ */
+public class RemeberMeRedisValueSchema extends RedisValueSchema<RemeberMe> {
+
+    public static final int SCHEMA_ID = 2;
+
+    public RemeberMeRedisValueSchema() {
+        super(SCHEMA_ID, RemeberMe.class);
+    }
+
+    @Override
+    public void write(DataOutput out, RemeberMe remeberMe) throws IOException {
+        writeString(out, remeberMe.getId());
+        writeString(out, remeberMe.getUsername());
+        writeString(out, remeberMe.getAuthKey());
+        writeDate(out, remeberMe.getLastLogin());
+    }
+
+    @Override
+    public RemeberMe read(DataInput in) throws IOException {
+        RemeberMe remeberMe = new RemeberMe();
+        remeberMe.setId(readString(in));
+        remeberMe.setUsername(readString(in));
+        remeberMe.setAuthKey(readString(in));
+        remeberMe.setLastLogin(readDate(in));
+        return remeberMe;
+    }
+}
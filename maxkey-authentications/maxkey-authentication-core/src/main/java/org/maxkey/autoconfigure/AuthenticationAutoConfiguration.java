@@ -17,11 +17,15 @@
 
 package org.maxkey.autoconfigure;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.maxkey.authn.AbstractAuthenticationProvider;
 import org.maxkey.authn.RealmAuthenticationProvider;
 import org.maxkey.authn.SavedRequestAwareAuthenticationSuccessHandler;
 import org.maxkey.authn.online.OnlineTicketServices;
 import org.maxkey.authn.online.OnlineTicketServicesFactory;
+import org.maxkey.authn.online.RedisNearCacheOnlineTicketServices;
 import org.maxkey.authn.realm.AbstractAuthenticationRealm;
 import org.maxkey.authn.support.rememberme.AbstractRemeberMeService;
 import org.maxkey.authn.support.rememberme.RemeberMeServiceFactory;
@@ -31,11 +35,16 @@ import org.maxkey.password.onetimepwd.AbstractOtpAuthn;
 import org.maxkey.password.onetimepwd.OtpAuthnService;
 import org.maxkey.password.onetimepwd.token.RedisOtpTokenStore;
 import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.repository.LoginAuditWriter;
 import org.maxkey.persistence.repository.LoginHistoryRepository;
+import org.maxkey.persistence.repository.LoginPrincipalCache;
 import org.maxkey.persistence.repository.LoginRepository;
 import org.maxkey.persistence.repository.PasswordPolicyValidator;
 import org.maxkey.persistence.service.EmailSendersService;
 import org.maxkey.persistence.service.SmsProviderService;
+import org.maxkey.web.ipregion.IpRegion;
+import org.maxkey.web.ipregion.IpRegionFactory;
+import org.maxkey.web.ipregion.IpRegionOffline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -45,6 +54,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 
 @Configuration
 public class AuthenticationAutoConfiguration  implements InitializingBean {
@@ -101,19 +112,95 @@ public class AuthenticationAutoConfiguration  implements InitializingBean {
     }
     
     @Bean(name = "passwordPolicyValidator")
-    public PasswordPolicyValidator passwordPolicyValidator(JdbcTemplate jdbcTemplate,MessageSource messageSource) {
-        return new PasswordPolicyValidator(jdbcTemplate,messageSource);
+    public PasswordPolicyValidator passwordPolicyValidator(
+            JdbcTemplate jdbcTemplate,
+            MessageSource messageSource,
+            LoginPrincipalCache loginPrincipalCache) {
+        PasswordPolicyValidator passwordPolicyValidator = 
+                new PasswordPolicyValidator(jdbcTemplate,messageSource);
+        passwordPolicyValidator.setPrincipalCache(loginPrincipalCache);
+        return passwordPolicyValidator;
+    }
+    
+    /**
+     * 登录用户、组、授权应用及userinfo用户信息缓存.
+     * 只在Redis持久化时启用,集群间通知失效;否则只接收失效调用,读取全部走数据库.
+     */
+    @Bean(name = "loginPrincipalCache", destroyMethod = "shutdown")
+    public LoginPrincipalCache loginPrincipalCache(
+            @Value("${maxkey.server.persistence}") int persistence,
+            RedisConnectionFactory redisConnFactory,
+            @Value("${maxkey.login.cache.enabled:true}") boolean cacheEnabled,
+            @Value("${maxkey.login.cache.size:100000}") int maximumSize,
+            @Value("${maxkey.login.cache.expire:300}") int expireSeconds,
+            @Value("${maxkey.login.cache.profile.expire:60}") int profileExpireSeconds) {
+        LoginPrincipalCache loginPrincipalCache = 
+                new LoginPrincipalCache(maximumSize, expireSeconds, profileExpireSeconds);
+        if (cacheEnabled && persistence == ConstsPersistence.REDIS) {
+            loginPrincipalCache.subscribe(redisConnFactory);
+        } else if (cacheEnabled) {
+            _logger.info("login principal cache disabled , requires redis persistence for cluster invalidation");
+        }
+        return loginPrincipalCache;
     }
     
     @Bean(name = "loginRepository")
-    public LoginRepository loginRepository(JdbcTemplate jdbcTemplate) {
-        return new LoginRepository(jdbcTemplate);
+    public LoginRepository loginRepository(
+            JdbcTemplate jdbcTemplate,
+            LoginPrincipalCache loginPrincipalCache) {
+        LoginRepository loginRepository = new LoginRepository(jdbcTemplate);
+        if (loginPrincipalCache.isEnabled()) {
+            loginRepository.setPrincipalCache(loginPrincipalCache);
+        }
+        return loginRepository;
     }
     @Bean(name = "loginHistoryRepository")
     public LoginHistoryRepository LoginHistoryRepository(JdbcTemplate jdbcTemplate) {
         return new LoginHistoryRepository(jdbcTemplate);
     }
     
+    /**
+     * 登录日志及最后登录时间异步批量写入,maxkey.login.audit.async=false时同步写入.
+     */
+    @Bean(name = "loginAuditWriter", destroyMethod = "shutdown")
+    public LoginAuditWriter loginAuditWriter(
+            JdbcTemplate jdbcTemplate,
+            LoginRepository loginRepository,
+            LoginHistoryRepository loginHistoryRepository,
+            @Value("${maxkey.login.audit.async:true}") boolean async,
+            @Value("${maxkey.login.audit.queue.capacity:65536}") int capacity,
+            @Value("${maxkey.login.audit.flush.size:500}") int flushSize,
+            @Value("${maxkey.login.audit.flush.interval:1000}") long flushInterval,
+            @Value("${maxkey.login.audit.spill.directory:${user.home}/.maxkey/${spring.application.name:maxkey}/audit}") String spillDirectory) {
+        LoginAuditWriter loginAuditWriter = 
+                new LoginAuditWriter(jdbcTemplate, loginRepository, loginHistoryRepository, capacity);
+        loginAuditWriter.setFlushSize(flushSize);
+        loginAuditWriter.setFlushInterval(flushInterval);
+        loginAuditWriter.setSpillDirectory(new File(spillDirectory));
+        if (async) {
+            loginAuditWriter.start();
+        }
+        return loginAuditWriter;
+    }
+    
+    /**
+     * 登录IP归属地,配置离线库后登录日志记录归属地,在线查询默认关闭.
+     */
+    @Bean(name = "ipRegion")
+    public IpRegion ipRegion(
+            @Value("${maxkey.login.ipregion.database:}") String database,
+            @Value("${maxkey.login.ipregion.online:false}") boolean online,
+            @Value("${maxkey.login.ipregion.check.interval:60000}") long checkInterval) throws IOException {
+        IpRegionOffline ipRegionOffline = null;
+        if (database != null && database.trim().length() > 0) {
+            ipRegionOffline = new IpRegionOffline(new File(database.trim()));
+            ipRegionOffline.setCheckInterval(checkInterval);
+        }
+        IpRegionFactory.init(ipRegionOffline, online);
+        _logger.debug("ip region database {} , online {}", database, online);
+        return IpRegionFactory.getFactory();
+    }
+    
     /**
      * remeberMeService .
      * @return
@@ -132,15 +219,31 @@ public class AuthenticationAutoConfiguration  implements InitializingBean {
             @Value("${maxkey.server.persistence}") int persistence,
             JdbcTemplate jdbcTemplate,
             RedisConnectionFactory redisConnFactory,
-            @Value("${server.servlet.session.timeout:1800}") int timeout
+            @Value("${server.servlet.session.timeout:1800}") int timeout,
+            @Value("${maxkey.session.nearcache.enabled:true}") boolean nearCacheEnabled,
+            @Value("${maxkey.session.nearcache.size:100000}") int nearCacheSize,
+            @Value("${maxkey.session.nearcache.expire:60}") int nearCacheExpire
             ) {
         OnlineTicketServices  onlineTicketServices  = 
-                new OnlineTicketServicesFactory().getService(persistence, jdbcTemplate, redisConnFactory);
+                new OnlineTicketServicesFactory().getService(
+                        persistence, jdbcTemplate, redisConnFactory,
+                        nearCacheEnabled, nearCacheSize, nearCacheExpire);
         onlineTicketServices.setValiditySeconds(timeout);
         _logger.trace("onlineTicket timeout " + timeout);
         return onlineTicketServices;
     }
     
+    /**
+     * OnlineTicket L1缓存命中率,未启用L1时不注册
+     */
+    @Bean
+    public MeterBinder onlineTicketCacheMetrics(OnlineTicketServices onlineTicketServices) {
+        if (onlineTicketServices instanceof RedisNearCacheOnlineTicketServices) {
+            return (RedisNearCacheOnlineTicketServices) onlineTicketServices;
+        }
+        return registry -> { };
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         
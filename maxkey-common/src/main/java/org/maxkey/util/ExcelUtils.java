@@ -14,15 +14,43 @@
  * limitations under the License.
  */
  
-
 package org.maxkey.util;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 public class ExcelUtils {
 
@@ -39,12 +67,10 @@ public class ExcelUtils {
 		} else if (cell.getCellType() == CellType.BOOLEAN) {
 			return String.valueOf(cell.getBooleanCellValue());
 		} else if (cell.getCellType() == CellType.NUMERIC) {
-			if ("General".equals(cell.getCellStyle().getDataFormatString())) {
-				return new DecimalFormat("0").format(cell.getNumericCellValue());
-			} else if ("m/d/yy".equals(cell.getCellStyle().getDataFormatString())) {
-				return new SimpleDateFormat("yyyy-MM-dd").format(cell.getDateCellValue());
+			if ("m/d/yy".equals(cell.getCellStyle().getDataFormatString())) {
+				return formatDate(cell.getDateCellValue());
 			} else {
-				return new DecimalFormat("0").format(cell.getNumericCellValue());
+				return formatNumber(cell.getNumericCellValue());
 			}
 		} else {
 			return String.valueOf(cell.getStringCellValue().trim());
@@ -54,4 +80,194 @@ public class ExcelUtils {
 	public static String getValue(Row row,int i) {
 		return getValue(row.getCell(i));
 	}
+	
+	/**
+	 * 流式读取的行数据
+	 * @param values
+	 * @param i 列
+	 * @return 超出或空单元格返回""
+	 */
+	public static String getValue(List<String> values,int i) {
+		return i < values.size() && values.get(i) != null ? values.get(i) : "";
+	}
+	
+	static String formatNumber(double value) {
+		return new DecimalFormat("0").format(value);
+	}
+	
+	static String formatDate(Date date) {
+		return new SimpleDateFormat("yyyy-MM-dd").format(date);
+	}
+	
+	/**
+	 * 逐行读取Excel所有sheet页,xlsx使用SAX事件模型(XSSFReader)流式解析,内存占用与行数无关;
+	 * xls(最多65536行)使用HSSFWorkbook.单元格取值与getValue(Cell)一致,空行略过.
+	 *
+	 * @param file .xls或.xlsx文件
+	 * @param firstRow 第一个数据行(从0开始),之前的行略过
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void read(File file,int firstRow,RowHandler handler) throws IOException {
+		String fileName = file.getName().toLowerCase();
+		if (fileName.endsWith(".xlsx")) {
+			readXlsx(file, firstRow, handler);
+		} else if (fileName.endsWith(".xls")) {
+			try (POIFSFileSystem fileSystem = new POIFSFileSystem(file, true);
+					HSSFWorkbook workbook = new HSSFWorkbook(fileSystem)) {
+				read(workbook, firstRow, handler);
+			}
+		} else {
+			throw new IllegalArgumentException("Excel suffix error.");
+		}
+	}
+	
+	public static void read(Workbook workbook,int firstRow,RowHandler handler) {
+		for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+			Sheet sheet = workbook.getSheetAt(i);
+			handler.sheet(i, sheet.getLastRowNum());
+			for (int j = firstRow; j <= sheet.getLastRowNum(); j++) {
+				Row row = sheet.getRow(j);
+				if (row == null) {
+					continue;
+				}
+				List<String> values = new ArrayList<String>();
+				for (int c = 0; c < row.getLastCellNum(); c++) {
+					values.add(getValue(row, c));
+				}
+				if (!isBlank(values)) {
+					handler.row(i, j, values);
+				}
+			}
+		}
+	}
+	
+	static void readXlsx(File file,int firstRow,RowHandler handler) throws IOException {
+		OPCPackage pkg = null;
+		try {
+			pkg = OPCPackage.open(file, PackageAccess.READ);
+			XSSFReader reader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			StylesTable styles = reader.getStylesTable();
+			DataFormatter formatter = new CellValueFormatter();
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+			int sheetIndex = 0;
+			while (sheets.hasNext()) {
+				try (InputStream sheet = sheets.next()) {
+					SheetRows rows = new SheetRows(sheetIndex, firstRow, handler);
+					XMLReader parser = XMLHelper.newXMLReader();
+					parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, rows, formatter, false) {
+						@Override
+						public void startElement(String uri, String localName, String qName, Attributes attributes)
+								throws SAXException {
+							//<dimension ref="A1:AU200003"/> precedes sheetData
+							if ("dimension".equals(localName) && attributes.getValue("ref") != null) {
+								String ref = attributes.getValue("ref");
+								handler.sheet(rows.sheetIndex,
+										new CellReference(ref.substring(ref.indexOf(':') + 1)).getRow());
+							}
+							super.startElement(uri, localName, qName, attributes);
+						}
+					});
+					parser.parse(new InputSource(sheet));
+				}
+				sheetIndex++;
+			}
+		} catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+			throw new IOException(e);
+		} finally {
+			if (pkg != null) {
+				//read only package , close would try to save
+				pkg.revert();
+			}
+		}
+	}
+	
+	static boolean isBlank(List<String> values) {
+		for (String value : values) {
+			if (value != null && value.length() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 行数据回调
+	 */
+	public interface RowHandler {
+		/**
+		 * 开始读取sheet页
+		 * @param sheetIndex
+		 * @param lastRowNum 最后一行(从0开始),xlsx未记录时为-1
+		 */
+		default void sheet(int sheetIndex,int lastRowNum) {
+		}
+		
+		/**
+		 * @param sheetIndex
+		 * @param rowNum 行号(从0开始)
+		 * @param values 各列的值,空单元格为""
+		 */
+		void row(int sheetIndex,int rowNum,List<String> values);
+	}
+	
+	/**
+	 * 数字格式化与getValue(Cell)一致
+	 */
+	static class CellValueFormatter extends DataFormatter {
+		@Override
+		public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+			if ("m/d/yy".equals(formatString)) {
+				return formatDate(DateUtil.getJavaDate(value, use1904Windowing));
+			}
+			return formatNumber(value);
+		}
+	}
+	
+	static class SheetRows implements SheetContentsHandler {
+		final int sheetIndex;
+		
+		final int firstRow;
+		
+		final RowHandler handler;
+		
+		List<String> values;
+		
+		SheetRows(int sheetIndex, int firstRow, RowHandler handler) {
+			this.sheetIndex = sheetIndex;
+			this.firstRow = firstRow;
+			this.handler = handler;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			values = rowNum < firstRow ? null : new ArrayList<String>();
+		}
+
+		@Override
+		public void endRow(int rowNum) {
+			if (values != null && !isBlank(values)) {
+				handler.row(sheetIndex, rowNum, values);
+			}
+			values = null;
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			if (values == null) {
+				return;
+			}
+			//missing cell reference means next column
+			int column = cellReference == null ? values.size() : new CellReference(cellReference).getCol();
+			while (values.size() < column) {
+				values.add("");
+			}
+			values.add(formattedValue == null ? "" : formattedValue.trim());
+		}
+
+		@Override
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+		}
+	}
 }
@@ -17,6 +17,9 @@
 
 package org.maxkey.util;
 
+/**
+ * 主键生成,strategy : uuid , SnowFlake , uuidv7(按时间有序的UUID) , 其他为随机字符串.
+ */
 public class IdGenerator {
 
 	String strategy = "uuid";
@@ -25,7 +28,7 @@ public class IdGenerator {
 	
 	int machineId;
 	
-	SnowFlakeId snowFlakeId = new SnowFlakeId(0,0);
+	volatile SnowFlakeId snowFlakeId = new SnowFlakeId(0,0);
 	
 	StringGenerator stringGenerator = new StringGenerator();
 
@@ -34,7 +37,9 @@ public class IdGenerator {
 		if(strategy.equalsIgnoreCase("uuid")) {
 			return stringGenerator.uuidGenerate();
 		}else if(strategy.equalsIgnoreCase("SnowFlake")) {
-			return snowFlakeId.nextId()+"";
+			return Long.toString(snowFlakeId.nextId());
+		}else if(strategy.equalsIgnoreCase("uuidv7")) {
+			return stringGenerator.uuidv7Generate();
 		}else {
 			return stringGenerator.randomGenerate();
 		}
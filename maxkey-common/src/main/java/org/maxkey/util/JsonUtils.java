@@ -25,6 +25,11 @@ import com.google.gson.Gson;
 import java.io.IOException;
 
 public class JsonUtils {
+    
+    //thread safe once configured , shared to avoid rebuilding serializers per call
+    static final ObjectMapper objectMapper = new ObjectMapper();
+    
+    static final Gson gson = new Gson();
 
     /**
      * Transform json string to java bean object.
@@ -35,7 +40,7 @@ public class JsonUtils {
      */
     public static Object json2Object(String json, Object bean) {
         try {
-            bean = (new ObjectMapper()).readValue(json, bean.getClass());
+            bean = objectMapper.readValue(json, bean.getClass());
         } catch (JsonParseException e) {
             e.printStackTrace();
         } catch (JsonMappingException e) {
@@ -56,7 +61,7 @@ public class JsonUtils {
     public static <T> T json2Object(String json, Class<T> cls) {
         T bean = null;
         try {
-            bean = (new ObjectMapper()).readValue(json, cls);
+            bean = objectMapper.readValue(json, cls);
         } catch (JsonParseException e) {
             e.printStackTrace();
         } catch (JsonMappingException e) {
@@ -76,7 +81,7 @@ public class JsonUtils {
     public static String object2Json(Object bean) {
         String json = "";
         try {
-            json = (new ObjectMapper()).writeValueAsString(bean);
+            json = objectMapper.writeValueAsString(bean);
         } catch (JsonGenerationException e) {
             e.printStackTrace();
         } catch (JsonMappingException e) {
@@ -96,7 +101,7 @@ public class JsonUtils {
      */
 
     public static <T> T gson2Object(String json, Class<T> cls) {
-        T newBean = (new Gson()).fromJson(json, cls);
+        T newBean = gson.fromJson(json, cls);
         return newBean;
     }
 
@@ -110,7 +115,7 @@ public class JsonUtils {
         String json = "";
         // convert java object to JSON format,
         // and returned as JSON formatted string
-        json = (new Gson()).toJson(bean);
+        json = gson.toJson(bean);
 
         return json;
     }
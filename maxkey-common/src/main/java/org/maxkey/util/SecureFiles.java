@@ -0,0 +1,96 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 仅进程所属用户可读写的目录及文件,用于落盘待重放的数据.
+ * 不支持POSIX权限的文件系统退化为File.setReadable/setWritable.
+ */
+public final class SecureFiles {
+    private static final Logger _logger = LoggerFactory.getLogger(SecureFiles.class);
+
+    static final Set<PosixFilePermission> OWNER_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+
+    static final Set<PosixFilePermission> OWNER_FILE = PosixFilePermissions.fromString("rw-------");
+
+    static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private SecureFiles() {
+    }
+
+    /**
+     * 创建目录,已存在的目录同样收紧为仅所属用户可访问
+     * @return false when the directory can not be created
+     */
+    public static boolean mkdirs(File directory) {
+        Path path = directory.toPath();
+        try {
+            if (!Files.isDirectory(path)) {
+                Files.createDirectories(path);
+            }
+            if (POSIX) {
+                Files.setPosixFilePermissions(path, OWNER_DIRECTORY);
+            } else {
+                ownerOnly(directory, true);
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            _logger.warn("can not create directory " + directory + " : " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 新建仅所属用户可读写的文件,文件已存在时失败
+     */
+    public static OutputStream create(File file) throws IOException {
+        Path path = file.toPath();
+        if (POSIX) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_FILE));
+        } else {
+            Files.createFile(path);
+            ownerOnly(file, false);
+        }
+        return Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    static void ownerOnly(File file, boolean executable) {
+        file.setReadable(false, false);
+        file.setWritable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(true, true);
+        if (executable) {
+            file.setExecutable(false, false);
+            file.setExecutable(true, true);
+        }
+    }
+}
@@ -19,9 +19,14 @@ package org.maxkey.util;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 描述: Twitter的分布式自增ID雪花算法snowflake (Java版)
+ * <p>
+ * 上一次生成的ID保存在AtomicLong中,通过CAS生成下一个ID,不加锁.
+ * 时钟回拨不超过maxBackwardMillis时沿用上一次的时间戳继续递增序列号,超过时拒绝生成.
+ * </p>
  *
  * @author Crystal.Sea
  * @create 2021-04-17
@@ -54,11 +59,19 @@ public class SnowFlakeId {
     private final static long DATACENTER_LEFT = SEQUENCE_BIT + MACHINE_BIT;
     private final static long TIMESTMP_LEFT = DATACENTER_LEFT + DATACENTER_BIT;
 
+    /**
+     * 默认允许的时钟回拨毫秒数
+     */
+    public final static long DEFAULT_MAX_BACKWARD_MILLIS = 5000;
+
     private long datacenterId;  //数据中心
     private long machineId;     //机器标识
     private long sequence = 0L; //序列号
     private long lastStmp = -1L;//上一次时间戳
     private String dateTime;
+    private final AtomicLong lastId = new AtomicLong(-1L);//上一次生成的ID
+    private long maxBackwardMillis = DEFAULT_MAX_BACKWARD_MILLIS;
+    private volatile long leaseExpireMillis = Long.MAX_VALUE;//workerId租约到期时间,之后拒绝生成
 
     public SnowFlakeId(long datacenterId, long machineId) {
         if (datacenterId > MAX_DATACENTER_NUM || datacenterId < 0) {
@@ -77,6 +90,9 @@ public class SnowFlakeId {
 		this.machineId = machineId;
 		this.sequence = sequence;
 		this.lastStmp = lastStmp;
+		if (lastStmp >= START_STMP) {
+		    this.lastId.set(currId());
+		}
 		dateTime =DateUtils.toUtc( fromatTime(lastStmp));
 	}
 
@@ -85,34 +101,48 @@ public class SnowFlakeId {
      *
      * @return
      */
-    public synchronized long nextId() {
-        long currStmp = getNewstmp();
-        if (currStmp < lastStmp) {
-            throw new RuntimeException("Clock moved backwards.  Refusing to generate id");
+    public long nextId() {
+        if (System.currentTimeMillis() > leaseExpireMillis) {
+            throw new IllegalStateException("worker id " + datacenterId + "-" + machineId
+                    + " lease expired.  Refusing to generate id");
         }
-
-        if (currStmp == lastStmp) {
-            //相同毫秒内，序列号自增
-            sequence = (sequence + 1) & MAX_SEQUENCE;
-            //同一毫秒的序列数已经达到最大
-            if (sequence == 0L) {
-                currStmp = getNextMill();
+        long workerBits = datacenterId << DATACENTER_LEFT | machineId << MACHINE_LEFT;
+        while (true) {
+            long last = lastId.get();
+            long lastTime = last < 0 ? -1L : last >>> TIMESTMP_LEFT;
+            long currTime = getNewstmp() - START_STMP;
+            long next;
+            if (currTime > lastTime) {
+                //不同毫秒内，序列号置为0
+                next = currTime << TIMESTMP_LEFT | workerBits;
+            } else {
+                if (lastTime - currTime > maxBackwardMillis) {
+                    throw new RuntimeException("Clock moved backwards " 
+                            + (lastTime - currTime) + " ms.  Refusing to generate id");
+                }
+                if ((last & MAX_SEQUENCE) < MAX_SEQUENCE) {
+                    //相同毫秒内或时钟回拨，序列号自增
+                    next = last + 1;
+                } else {
+                    //同一毫秒的序列数已经达到最大，等待下一毫秒
+                    while (getNewstmp() - START_STMP <= lastTime) {
+                        Thread.yield();
+                    }
+                    continue;
+                }
+            }
+            if (lastId.compareAndSet(last, next)) {
+                return next;
             }
-        } else {
-            //不同毫秒内，序列号置为0
-            sequence = 0L;
         }
-
-        lastStmp = currStmp;
-
-        return (currStmp - START_STMP) << TIMESTMP_LEFT //时间戳部分
-                | datacenterId << DATACENTER_LEFT       //数据中心部分
-                | machineId << MACHINE_LEFT             //机器标识部分
-                | sequence;                             //序列号部分
     }
     
     
     public  long currId() {
+        long last = lastId.get();
+        if (last >= 0) {
+            return last;
+        }
         long currStmp = lastStmp;
         
         return (currStmp - START_STMP) << TIMESTMP_LEFT //时间戳部分
@@ -122,14 +152,6 @@ public class SnowFlakeId {
     }
     
 
-    private long getNextMill() {
-        long mill = getNewstmp();
-        while (mill <= lastStmp) {
-            mill = getNewstmp();
-        }
-        return mill;
-    }
-
     private long getNewstmp() {
         return System.currentTimeMillis();
     }
@@ -181,7 +203,8 @@ public class SnowFlakeId {
 	}
 
 	public long getSequence() {
-		return sequence;
+		long last = lastId.get();
+		return last < 0 ? sequence : last & MAX_SEQUENCE;
 	}
 
 	public void setSequence(long sequence) {
@@ -189,13 +212,34 @@ public class SnowFlakeId {
 	}
 
 	public long getLastStmp() {
-		return lastStmp;
+		long last = lastId.get();
+		return last < 0 ? lastStmp : (last >>> TIMESTMP_LEFT) + START_STMP;
 	}
 
 	public void setLastStmp(long lastStmp) {
 		this.lastStmp = lastStmp;
 	}
 
+	public long getMaxBackwardMillis() {
+		return maxBackwardMillis;
+	}
+
+	public void setMaxBackwardMillis(long maxBackwardMillis) {
+		this.maxBackwardMillis = maxBackwardMillis;
+	}
+
+	public long getLeaseExpireMillis() {
+		return leaseExpireMillis;
+	}
+
+	/**
+	 * workerId租约(如Redis)续期后更新,0立即停止生成
+	 * @param leaseExpireMillis
+	 */
+	public void setLeaseExpireMillis(long leaseExpireMillis) {
+		this.leaseExpireMillis = leaseExpireMillis;
+	}
+
 	public String getDateTime() {
 		return dateTime;
 	}
@@ -104,6 +104,19 @@ public class StringGenerator {
         return UUID.randomUUID().toString().toLowerCase();
     }
 
+    /**
+     * time-ordered UUID version 7 (RFC 9562),48 bits unix milliseconds + 74 random bits,
+     * same length as uuidGenerate but inserted in order into B-tree indexes.
+     * @return uuid v7 string
+     */
+    public String uuidv7Generate() {
+        long millis = System.currentTimeMillis();
+        long randA = random.nextInt(1 << 12);
+        long mostSigBits = (millis << 16) | 0x7000L | randA;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
     /**
      * uniqueGenerate.
      * @return
@@ -0,0 +1,95 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+public class ExcelUtilsTest {
+
+	@Test
+	public void readXlsx() throws Exception {
+		read(new XSSFWorkbook(), ".xlsx");
+	}
+
+	@Test
+	public void readXls() throws Exception {
+		read(new HSSFWorkbook(), ".xls");
+	}
+
+	void read(Workbook workbook, String suffix) throws Exception {
+		Sheet sheet = workbook.createSheet();
+		sheet.createRow(0).createCell(0).setCellValue("title");
+		Row row = sheet.createRow(3);
+		row.createCell(0).setCellValue(" maxkey ");
+		row.createCell(1).setCellValue(13800138000D);
+		//column 2 missing
+		CellStyle dateStyle = workbook.createCellStyle();
+		dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("m/d/yy"));
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2022, Calendar.MARCH, 8);
+		row.createCell(3).setCellValue(calendar.getTime());
+		row.getCell(3).setCellStyle(dateStyle);
+		//blank row
+		sheet.createRow(4).createCell(0).setCellValue("");
+		sheet.createRow(5).createCell(1).setCellValue(1);
+
+		File file = File.createTempFile("excel-utils-test", suffix);
+		try {
+			try (OutputStream output = new FileOutputStream(file)) {
+				workbook.write(output);
+			}
+			workbook.close();
+
+			List<Integer> rowNums = new ArrayList<Integer>();
+			List<List<String>> rows = new ArrayList<List<String>>();
+			ExcelUtils.read(file, 3, (sheetIndex, rowNum, values) -> {
+				rowNums.add(rowNum);
+				rows.add(values);
+			});
+
+			assertEquals(2, rows.size());
+			assertEquals(3, rowNums.get(0).intValue());
+			assertEquals("maxkey", ExcelUtils.getValue(rows.get(0), 0));
+			assertEquals("13800138000", ExcelUtils.getValue(rows.get(0), 1));
+			assertEquals("", ExcelUtils.getValue(rows.get(0), 2));
+			assertEquals("2022-03-08", ExcelUtils.getValue(rows.get(0), 3));
+			assertEquals("", ExcelUtils.getValue(rows.get(0), 40));
+			assertEquals(5, rowNums.get(1).intValue());
+			assertEquals("", ExcelUtils.getValue(rows.get(1), 0));
+			assertEquals("1", ExcelUtils.getValue(rows.get(1), 1));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -17,7 +17,11 @@
 
 package org.maxkey.util;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.joda.time.DateTime;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class SonwFlakeIdTest {
@@ -45,4 +49,65 @@ public class SonwFlakeIdTest {
     
         System.out.println(System.currentTimeMillis() - start);
 	}
+	
+	@Test
+	public void concurrentUnique() throws InterruptedException  {
+	    final SnowFlakeId snowFlake = new SnowFlakeId(1, 1);
+	    final Set<Long> ids = ConcurrentHashMap.newKeySet();
+	    Thread[] threads = new Thread[8];
+	    for (int t = 0; t < threads.length; t++) {
+	        threads[t] = new Thread(() -> {
+	            for (int i = 0; i < 100000; i++) {
+	                ids.add(snowFlake.nextId());
+	            }
+	        });
+	        threads[t].start();
+	    }
+	    for (Thread thread : threads) {
+	        thread.join();
+	    }
+	    Assert.assertEquals(800000, ids.size());
+	}
+	
+	@Test
+	public void clockBackwards()  {
+	    //last id 2 seconds in the future , as if the clock moved back
+	    SnowFlakeId snowFlake = new SnowFlakeId(1, 1, 0, System.currentTimeMillis() + 2000);
+	    long last = snowFlake.currId();
+	    long next = snowFlake.nextId();
+	    Assert.assertTrue(next > last);
+	    
+	    snowFlake = new SnowFlakeId(1, 1, 0, System.currentTimeMillis() + 60000);
+	    try {
+	        snowFlake.nextId();
+	        Assert.fail("clock moved backwards beyond tolerance");
+	    }catch(RuntimeException e) {
+	        System.out.println(e.getMessage());
+	    }
+	}
+	
+	@Test
+	public void leaseExpired()  {
+	    SnowFlakeId snowFlake = new SnowFlakeId(1, 1);
+	    snowFlake.setLeaseExpireMillis(System.currentTimeMillis() + 60000);
+	    long last = snowFlake.nextId();
+	    
+	    snowFlake.setLeaseExpireMillis(0);
+	    try {
+	        snowFlake.nextId();
+	        Assert.fail("lease expired");
+	    }catch(IllegalStateException e) {
+	        System.out.println(e.getMessage());
+	    }
+	    Assert.assertEquals(last, snowFlake.currId());
+	}
+	
+	@Test
+	public void uuidv7()  {
+	    StringGenerator stringGenerator = new StringGenerator();
+	    String first = stringGenerator.uuidv7Generate();
+	    System.out.println(first);
+	    Assert.assertEquals(36, first.length());
+	    Assert.assertEquals('7', first.charAt(14));
+	}
 }
@@ -19,8 +19,11 @@ package org.maxkey.autoconfigure;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import javax.sql.DataSource;
 
+import org.maxkey.constants.ConstsPersistence;
 import org.maxkey.crypto.keystore.KeyStoreLoader;
 import org.maxkey.crypto.password.LdapShaPasswordEncoder;
 import org.maxkey.crypto.password.Md4PasswordEncoder;
@@ -29,10 +32,13 @@ import org.maxkey.crypto.password.MessageDigestPasswordEncoder;
 import org.maxkey.crypto.password.PasswordReciprocal;
 import org.maxkey.crypto.password.SM3PasswordEncoder;
 import org.maxkey.crypto.password.StandardPasswordEncoder;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.repository.AppsConfigCache;
 import org.maxkey.persistence.repository.InstitutionsRepository;
 import org.maxkey.persistence.repository.LocalizationRepository;
 import org.maxkey.util.IdGenerator;
 import org.maxkey.util.SnowFlakeId;
+import org.maxkey.web.HttpClientPool;
 import org.maxkey.web.WebContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,9 +71,55 @@ public class ApplicationAutoConfiguration  implements InitializingBean {
         return new DataSourceTransactionManager(dataSource);
     }
     
-    @Bean(name = "institutionsRepository")
-    public InstitutionsRepository InstitutionsRepository(JdbcTemplate jdbcTemplate) {
-        return new InstitutionsRepository(jdbcTemplate);
+    /**
+     * 机构域名索引,Redis持久化时集群间通知刷新,并按refresh.interval(分钟)定期重建.
+     */
+    @Bean(name = "institutionsRepository", destroyMethod = "shutdown")
+    public InstitutionsRepository InstitutionsRepository(
+            @Value("${maxkey.server.persistence}") int persistence,
+            @Value("${maxkey.institutions.refresh.interval:60}") long refreshInterval,
+            JdbcTemplate jdbcTemplate,
+            RedisConnectionFactory redisConnFactory) {
+        InstitutionsRepository institutionsRepository = new InstitutionsRepository(jdbcTemplate);
+        institutionsRepository.setRefreshInterval(TimeUnit.MINUTES.toMillis(refreshInterval));
+        if (persistence == ConstsPersistence.REDIS) {
+            institutionsRepository.subscribe(redisConnFactory);
+        }
+        return institutionsRepository;
+    }
+    
+    /**
+     * 应用配置缓存,Redis持久化时集群间通知失效.
+     */
+    @Bean(name = "appsConfigCache", destroyMethod = "shutdown")
+    public AppsConfigCache appsConfigCache(
+            @Value("${maxkey.server.persistence}") int persistence,
+            @Value("${maxkey.apps.cache.size:10000}") int maximumSize,
+            @Value("${maxkey.apps.cache.expire:1800}") int expireSeconds,
+            @Value("${maxkey.apps.cache.refresh:300}") int refreshSeconds,
+            RedisConnectionFactory redisConnFactory) {
+        AppsConfigCache appsConfigCache = new AppsConfigCache(maximumSize, expireSeconds, refreshSeconds);
+        if (persistence == ConstsPersistence.REDIS) {
+            appsConfigCache.subscribe(redisConnFactory);
+        }
+        return appsConfigCache;
+    }
+    
+    /**
+     * 出站HTTP连接池,HttpRequestAdapter共享.
+     */
+    @Bean(name = "httpClientPool", destroyMethod = "close")
+    public HttpClientPool httpClientPool(
+            @Value("${maxkey.http.client.max.total:200}") int maxTotal,
+            @Value("${maxkey.http.client.max.per.route:20}") int maxPerRoute,
+            @Value("${maxkey.http.client.keepalive:30000}") long keepAlive,
+            @Value("${maxkey.http.client.circuit.failure.threshold:5}") int failureThreshold,
+            @Value("${maxkey.http.client.circuit.open.interval:30000}") long openInterval,
+            @Value("${maxkey.http.client.circuit.max.destinations:10000}") int maxDestinations) {
+        HttpClientPool httpClientPool = new HttpClientPool(
+                maxTotal, maxPerRoute, keepAlive, failureThreshold, openInterval, maxDestinations);
+        HttpClientPool.setInstance(httpClientPool);
+        return httpClientPool;
     }
     
     @Bean(name = "localizationRepository")
@@ -169,7 +221,10 @@ public class ApplicationAutoConfiguration  implements InitializingBean {
             @Value("${maxkey.id.machineId:0}") int machineId) {
     	IdGenerator idGenerator = new IdGenerator(strategy);
     	SnowFlakeId SnowFlakeId = new SnowFlakeId(datacenterId,machineId);
+    	idGenerator.setDatacenterId(datacenterId);
+    	idGenerator.setMachineId(machineId);
     	idGenerator.setSnowFlakeId(SnowFlakeId);
+    	_logger.debug("IdGenerator strategy {} , datacenterId {} , machineId {}", strategy, datacenterId, machineId);
     	WebContext.idGenerator = idGenerator;
         return idGenerator;
     }
@@ -18,10 +18,16 @@
 package org.maxkey.autoconfigure;
 
 import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.redis.RedisConnectionMetrics;
+import org.maxkey.persistence.redis.RedisWorkerIdLease;
+import org.maxkey.persistence.redis.codec.CompactRedisValueCodec;
+import org.maxkey.persistence.redis.codec.HexRedisValueCodec;
+import org.maxkey.util.IdGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import redis.clients.jedis.JedisPoolConfig;
@@ -40,6 +46,8 @@ public class RedisAutoConfiguration implements InitializingBean {
      * @param maxWait int
      * @param maxIdle int
      * @param minIdle int
+     * @param codec compact or hex
+     * @param compressThreshold int
      * @return RedisConnectionFactory
      */
     @Bean
@@ -59,7 +67,11 @@ public class RedisAutoConfiguration implements InitializingBean {
             @Value("${spring.redis.jedis.pool.max-idle:100}")
             int maxIdle,
             @Value("${spring.redis.lettuce.pool.min-idle:0}")
-            int minIdle) {
+            int minIdle,
+            @Value("${maxkey.redis.codec:compact}")
+            String codec,
+            @Value("${maxkey.redis.codec.compress-threshold:1024}")
+            int compressThreshold) {
         _logger.debug("redisConnFactory init .");
         RedisConnectionFactory factory = new RedisConnectionFactory();
         factory.setHostName(host);
@@ -74,9 +86,44 @@ public class RedisAutoConfiguration implements InitializingBean {
         poolConfig.setMaxWaitMillis(maxWait);
         
         factory.setPoolConfig(poolConfig);
+        if (HexRedisValueCodec.CODEC_NAME.equalsIgnoreCase(codec)) {
+            factory.setCodec(new HexRedisValueCodec());
+        } else {
+            factory.setCodec(new CompactRedisValueCodec(compressThreshold));
+        }
+        _logger.debug("redis value codec {}", codec);
+        factory.initConnectionFactory();
         
         return factory;
     }
+    
+    /**
+     * Redis pool and command metrics, bound to actuator MeterRegistry.
+     * @param redisConnFactory
+     * @return RedisConnectionMetrics
+     */
+    @Bean
+    public RedisConnectionMetrics redisConnectionMetrics(RedisConnectionFactory redisConnFactory) {
+        return redisConnFactory.getMetrics();
+    }
+
+    /**
+     * SnowFlake workerId leased from redis , maxkey.id.lease=redis.
+     * @param redisConnFactory
+     * @param idGenerator
+     * @param ttl lease seconds
+     * @return RedisWorkerIdLease
+     */
+    @Bean(destroyMethod = "release")
+    @ConditionalOnProperty(value = "maxkey.id.lease", havingValue = "redis", matchIfMissing = false)
+    public RedisWorkerIdLease redisWorkerIdLease(
+            RedisConnectionFactory redisConnFactory,
+            IdGenerator idGenerator,
+            @Value("${maxkey.id.lease.ttl:60}") int ttl) {
+        RedisWorkerIdLease lease = new RedisWorkerIdLease(redisConnFactory, idGenerator, ttl);
+        lease.acquire();
+        return lease;
+    }
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -19,8 +19,11 @@ package org.maxkey.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import javax.persistence.Column;
 import javax.persistence.GeneratedValue;
@@ -105,6 +108,26 @@ public class ExcelImport extends JpaBaseEntity {
     	return workbook;
     }
     
+    /**
+     * 上传文件保存为临时文件,供后台导入任务读取(请求结束后上传文件即被清理)
+     * @return 与上传文件扩展名相同的临时文件,由调用方删除
+     * @throws IOException
+     */
+    public File transferToTempFile() throws IOException {
+        String fileName = excelFile.getOriginalFilename().toLowerCase();
+        if (!fileName.endsWith(".xls") && !fileName.endsWith(".xlsx")) {
+            throw new RuntimeException("Excel suffix error.");
+        }
+        File file = File.createTempFile("maxkey-import-", fileName.substring(fileName.lastIndexOf('.')));
+        try (InputStream input = excelFile.getInputStream()) {
+            Files.copy(input, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        return file;
+    }
+    
     public void closeWorkbook() {
     	if (inputStream != null) {
             try {
@@ -0,0 +1,214 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ 
+
+package org.maxkey.persistence.ldap;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * Active Directory DirSync控件(LDAP_SERVER_DIRSYNC_OID),按cookie只返回上次之后变更的对象(包括删除).
+ * <p>
+ * 请求值 SEQUENCE { flags INTEGER, maxBytes INTEGER, cookie OCTET STRING },
+ * 响应值 SEQUENCE { moreResults INTEGER, unused INTEGER, cookie OCTET STRING }.
+ * 查询基准必须是命名上下文的根,需要"复制目录更改"权限或使用OBJECT_SECURITY标志.
+ * </p>
+ */
+public class DirSyncControl extends BasicControl {
+    private static final long serialVersionUID = 4652735217684870531L;
+
+    public static final String OID = "1.2.840.113556.1.4.841";
+    
+    /**
+     * LDAP_SERVER_SHOW_DELETED_OID,查询已删除对象(tombstone)
+     */
+    public static final String SHOW_DELETED_OID = "1.2.840.113556.1.4.417";
+    
+    public static final int OBJECT_SECURITY      = 0x00000001;
+    
+    public static final int ANCESTORS_FIRST_ORDER = 0x00000800;
+    
+    public static final int PUBLIC_DATA_ONLY     = 0x00002000;
+    
+    public static final int INCREMENTAL_VALUES   = 0x80000000;
+    
+    static final int TAG_INTEGER = 0x02;
+    
+    static final int TAG_OCTET_STRING = 0x04;
+    
+    static final int TAG_SEQUENCE = 0x30;
+    
+    /**
+     * @param flags
+     * @param maxBytes 每次返回的最大字节数,0使用服务器默认
+     * @param cookie 上次返回的cookie,首次为null
+     */
+    public DirSyncControl(int flags, int maxBytes, byte[] cookie) {
+        super(OID, true, encode(flags, maxBytes, cookie));
+    }
+    
+    public static Control showDeleted() {
+        return new BasicControl(SHOW_DELETED_OID, true, null);
+    }
+    
+    static byte[] encode(int flags, int maxBytes, byte[] cookie) {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        writeInteger(value, flags);
+        writeInteger(value, maxBytes);
+        writeTagged(value, TAG_OCTET_STRING, cookie == null ? new byte[0] : cookie);
+        ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        writeTagged(sequence, TAG_SEQUENCE, value.toByteArray());
+        return sequence.toByteArray();
+    }
+    
+    static void writeInteger(ByteArrayOutputStream out, int value) {
+        //minimal two's complement
+        int length = 4;
+        while (length > 1) {
+            int high = value >> ((length - 1) * 8);
+            int next = (value >> ((length - 2) * 8)) & 0x80;
+            if ((high == 0 && next == 0) || (high == -1 && next != 0)) {
+                length--;
+            } else {
+                break;
+            }
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >> ((length - 1 - i) * 8));
+        }
+        writeTagged(out, TAG_INTEGER, bytes);
+    }
+    
+    static void writeTagged(ByteArrayOutputStream out, int tag, byte[] content) {
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length <= 0xFF) {
+            out.write(0x81);
+            out.write(length);
+        } else if (length <= 0xFFFF) {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x84);
+            out.write(length >> 24);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        out.write(content, 0, length);
+    }
+    
+    /**
+     * 从响应控件中解析DirSync响应
+     * @param responseControls
+     * @return 没有DirSync响应返回null
+     */
+    public static Response parse(Control[] responseControls) {
+        if (responseControls != null) {
+            for (Control control : responseControls) {
+                if (OID.equals(control.getID())) {
+                    return Response.decode(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+    
+    public static class Response {
+        final boolean moreResults;
+        
+        final byte[] cookie;
+        
+        Response(boolean moreResults, byte[] cookie) {
+            this.moreResults = moreResults;
+            this.cookie = cookie;
+        }
+        
+        static Response decode(byte[] encoded) {
+            Reader reader = new Reader(encoded);
+            reader.expect(TAG_SEQUENCE);
+            reader.readLength();
+            int moreResults = reader.readInteger();
+            reader.readInteger();
+            reader.expect(TAG_OCTET_STRING);
+            int length = reader.readLength();
+            byte[] cookie = new byte[length];
+            System.arraycopy(encoded, reader.position, cookie, 0, length);
+            return new Response(moreResults != 0, cookie);
+        }
+        
+        public boolean hasMoreResults() {
+            return moreResults;
+        }
+        
+        public byte[] getCookie() {
+            return cookie;
+        }
+    }
+    
+    static class Reader {
+        final byte[] bytes;
+        
+        int position;
+        
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        
+        void expect(int tag) {
+            if (position >= bytes.length || (bytes[position] & 0xFF) != tag) {
+                throw new IllegalArgumentException("DirSync response , expect tag " + tag + " at " + position);
+            }
+            position++;
+        }
+        
+        int readLength() {
+            int first = bytes[position++] & 0xFF;
+            if (first < 0x80) {
+                return checkLength(first);
+            }
+            int length = 0;
+            for (int i = 0; i < (first & 0x7F); i++) {
+                length = (length << 8) | (bytes[position++] & 0xFF);
+            }
+            return checkLength(length);
+        }
+        
+        int checkLength(int length) {
+            if (length < 0 || position + length > bytes.length) {
+                throw new IllegalArgumentException("DirSync response , invalid length " + length);
+            }
+            return length;
+        }
+        
+        int readInteger() {
+            expect(TAG_INTEGER);
+            int length = readLength();
+            int value = length > 0 && bytes[position] < 0 ? -1 : 0;
+            for (int i = 0; i < length; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
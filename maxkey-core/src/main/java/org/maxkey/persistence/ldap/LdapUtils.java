@@ -17,16 +17,25 @@
 
 package org.maxkey.persistence.ldap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 
 import javax.naming.Context;
+import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -100,7 +109,8 @@ public class LdapUtils {
     protected DirContext createDirContext(Properties properties) {
     	DirContext ctx = null;
         try {
-        	ctx = new InitialDirContext(properties);
+        	//LdapContext for request controls , e.g. paged results
+        	ctx = new InitialLdapContext(properties, null);
             _logger.info("connect to ldap " + providerUrl + " seccessful.");
         } catch (NamingException e) {
             _logger.error("connect to ldap " + providerUrl + " fail.");
@@ -186,6 +196,89 @@ public class LdapUtils {
         return ctx;
     }
 
+    public LdapContext getLdapContext() throws NamingException {
+        DirContext dirContext = getConnection();
+        if (dirContext instanceof LdapContext) {
+            return (LdapContext) dirContext;
+        }
+        throw new NamingException("connection is not a LdapContext , controls not supported");
+    }
+    
+    /**
+     * 分页查询(RFC 2696),避免超过服务器的返回数量限制,结果逐条回调不在内存中累积.
+     * 服务器不支持分页时(非关键控件)按普通查询返回.
+     * @param baseDN
+     * @param filter
+     * @param constraints
+     * @param pageSize 每页数量,小于等于0不分页
+     * @param requestControls 附加的请求控件,可为null
+     * @param handler 结果处理
+     * @return 结果数量
+     * @throws NamingException
+     */
+    public long pagedSearch(String baseDN, String filter, SearchControls constraints, int pageSize,
+            Control[] requestControls, SearchResultHandler handler) throws NamingException {
+        LdapContext ldapContext = getLdapContext();
+        long count = 0;
+        byte[] cookie = null;
+        try {
+            do {
+                List<Control> controls = new ArrayList<Control>();
+                if (requestControls != null) {
+                    controls.addAll(Arrays.asList(requestControls));
+                }
+                if (pageSize > 0) {
+                    try {
+                        controls.add(new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL));
+                    } catch (java.io.IOException e) {
+                        throw new NamingException("paged results control encode error " + e.getMessage());
+                    }
+                }
+                ldapContext.setRequestControls(controls.toArray(new Control[controls.size()]));
+                NamingEnumeration<SearchResult> results = ldapContext.search(baseDN, filter, constraints);
+                try {
+                    while (results.hasMore()) {
+                        handler.handle(results.next());
+                        count++;
+                    }
+                } finally {
+                    results.close();
+                }
+                cookie = pageSize > 0 ? pagedResultsCookie(ldapContext.getResponseControls()) : null;
+                _logger.trace("paged search {} results , more {}", count, cookie != null);
+            } while (cookie != null);
+        } finally {
+            ldapContext.setRequestControls(null);
+        }
+        return count;
+    }
+    
+    static byte[] pagedResultsCookie(Control[] responseControls) {
+        if (responseControls != null) {
+            for (Control control : responseControls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+                    return cookie == null || cookie.length == 0 ? null : cookie;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 读取RootDSE属性,如AD的highestCommittedUSN,defaultNamingContext
+     */
+    public Attributes getRootDSE(String... attributes) throws NamingException {
+        return getConnection().getAttributes("", attributes);
+    }
+    
+    /**
+     * 查询结果处理
+     */
+    public interface SearchResultHandler {
+        void handle(SearchResult result) throws NamingException;
+    }
+
     /**
      * @return the baseDN
      */
@@ -290,6 +383,18 @@ public class LdapUtils {
         this.trustStorePassword = trustStorePassword;
     }
 
+    /**
+     * 与条件组合,如增量同步追加(modifyTimestamp>=...)
+     * @param filter 原过滤条件,可不带括号
+     * @param condition 追加的条件
+     */
+    public static String andFilter(String filter, String condition) {
+        if (!filter.startsWith("(")) {
+            filter = "(" + filter + ")";
+        }
+        return "(&" + filter + condition + ")";
+    }
+
     public static String getAttrStringValue(Attributes attrs, String elem) {
     	StringBuffer  values = new StringBuffer("");
         try {
@@ -0,0 +1,197 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.redis;
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Redis频道订阅,用于集群节点间的缓存失效通知.
+ * <p>
+ * 订阅占用一个独立的连接和一个守护线程,连接断开后按reconnectMillis间隔重连,
+ * 重连成功后回调{@link MessageListener#onSubscribe()},订阅期间丢失的消息由调用方自行补偿(如清空本地缓存).
+ * </p>
+ * <p>
+ * 发布消息格式为 nodeId:message,本节点发布的消息不会回调onMessage.
+ * </p>
+ */
+public class RedisChannelSubscriber {
+    private static final Logger _logger = LoggerFactory.getLogger(RedisChannelSubscriber.class);
+
+    public static final long DEFAULT_RECONNECT_MILLIS = 5000;
+
+    /**
+     * 当前节点标识,进程内唯一
+     */
+    public static final String NODE_ID = UUID.randomUUID().toString().replace("-", "");
+
+    public interface MessageListener {
+
+        public void onMessage(String message);
+
+        /**
+         * 订阅成功,包括首次订阅及断线重连
+         */
+        public default void onSubscribe() {
+        }
+    }
+
+    final RedisConnectionFactory connectionFactory;
+
+    final String channel;
+
+    final MessageListener listener;
+
+    long reconnectMillis = DEFAULT_RECONNECT_MILLIS;
+
+    volatile boolean running;
+
+    volatile JedisPubSub pubSub;
+
+    Thread subscribeThread;
+
+    public RedisChannelSubscriber(RedisConnectionFactory connectionFactory, String channel, MessageListener listener) {
+        this.connectionFactory = connectionFactory;
+        this.channel = channel;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        subscribeThread = new Thread(this::subscribe, "redis-subscriber-" + channel);
+        subscribeThread.setDaemon(true);
+        subscribeThread.start();
+        _logger.debug("subscribe channel {} , node {}", channel, NODE_ID);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        JedisPubSub current = pubSub;
+        if (current != null && current.isSubscribed()) {
+            current.unsubscribe();
+        }
+        if (subscribeThread != null) {
+            subscribeThread.interrupt();
+        }
+    }
+
+    /**
+     * 发布消息,自动附加当前节点标识
+     * @param conn
+     * @param message
+     */
+    public void publish(RedisConnection conn, String message) {
+        conn.publish(channel, message(message));
+    }
+
+    /**
+     * 附加当前节点标识,用于不经订阅者直接发布
+     * @param message
+     * @return nodeId:message
+     */
+    public static String message(String message) {
+        return NODE_ID + ":" + message;
+    }
+
+    public void publish(String message) {
+        RedisConnection conn = connectionFactory.getConnection();
+        try {
+            publish(conn, message);
+        } finally {
+            conn.close();
+        }
+    }
+
+    void subscribe() {
+        while (running) {
+            Jedis jedis = null;
+            try {
+                jedis = connectionFactory.getJedisPool().getResource();
+                pubSub = new JedisPubSub() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        listener.onSubscribe();
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        dispatch(message);
+                    }
+                };
+                //blocks until unsubscribe or connection lost
+                jedis.subscribe(pubSub, channel);
+            } catch (Exception e) {
+                if (running) {
+                    _logger.warn("channel {} subscribe error , reconnect after {} ms : {}",
+                            channel, reconnectMillis, e.getMessage());
+                }
+            } finally {
+                if (jedis != null) {
+                    try {
+                        jedis.close();
+                    } catch (Exception e) {
+                        _logger.trace("close subscribe connection error", e);
+                    }
+                }
+            }
+            if (running) {
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    void dispatch(String message) {
+        int split = message.indexOf(':');
+        if (split < 0) {
+            return;
+        }
+        if (NODE_ID.equals(message.substring(0, split))) {
+            return;
+        }
+        try {
+            listener.onMessage(message.substring(split + 1));
+        } catch (Exception e) {
+            _logger.error("channel " + channel + " message " + message + " error", e);
+        }
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setReconnectMillis(long reconnectMillis) {
+        this.reconnectMillis = reconnectMillis;
+    }
+}
@@ -18,14 +18,39 @@
 package org.maxkey.persistence.redis;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.maxkey.util.ObjectTransformer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.maxkey.persistence.redis.codec.RedisValueCodec;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
 
+/**
+ * Redis连接,使用完成后必须close归还连接池.
+ * <p>
+ * openPipeline后set/setex/expire/delete/rPush/lRem等写命令进入pipeline,
+ * closePipeline时一次提交;批量读写使用mGetObject/mSetexObject,读取并删除使用getDelObject,均一次往返完成.
+ * 对象使用{@link RedisValueCodec}编码,通过Jedis binary命令读写.
+ * </p>
+ */
 public class RedisConnection {
+	
+	//lua script -> sha1
+	static final ConcurrentHashMap<String, byte[]> SCRIPT_SHA1 = new ConcurrentHashMap<String, byte[]>();
+	
+	static final String GETDEL_SCRIPT = 
+			"local value = redis.call('GET', KEYS[1]) "
+			+ "if value then redis.call('DEL', KEYS[1]) end "
+			+ "return value";
 
 	Jedis conn ;
 	RedisConnectionFactory connectionFactory;
@@ -46,7 +71,13 @@ public class RedisConnection {
 	 * @param value
 	 */
 	public  void set(String key, String value){
-		conn.set(key, value);
+		if(pipeline != null) {
+			pipeline.set(key, value);
+		}else {
+			long startTime = System.nanoTime();
+			conn.set(key, value);
+			recordCommand("set", startTime);
+		}
 	}
 	
 
@@ -55,11 +86,26 @@ public class RedisConnection {
 	 * @param value
 	 */
 	public  void setObject(String key, Serializable object){
-		set(key, ObjectTransformer.serialize(object));
+		byte[] value = encode(object);
+		if(pipeline != null) {
+			pipeline.set(SafeEncoder.encode(key), value);
+		}else {
+			long startTime = System.nanoTime();
+			conn.set(SafeEncoder.encode(key), value);
+			recordCommand("set", startTime);
+		}
 	}
 	
 	public  void setexObject(String key,int seconds, Serializable object){
-		setex(key, seconds, ObjectTransformer.serialize(object));
+		long lifetime = seconds == 0 ? RedisConnectionFactory.DEFAULT_CONFIG.DEFAULT_LIFETIME : seconds;
+		byte[] value = encode(object);
+		if(pipeline != null) {
+			pipeline.setex(SafeEncoder.encode(key), lifetime, value);
+		}else {
+			long startTime = System.nanoTime();
+			conn.setex(SafeEncoder.encode(key), lifetime, value);
+			recordCommand("setex", startTime);
+		}
 	}
 	
 	/**
@@ -69,13 +115,66 @@ public class RedisConnection {
 	 */
 	public  void setex(String key,long seconds, String value){
 		if(seconds==0){
-			conn.setex(key, RedisConnectionFactory.DEFAULT_CONFIG.DEFAULT_LIFETIME, value);
-		}else{
+			seconds = RedisConnectionFactory.DEFAULT_CONFIG.DEFAULT_LIFETIME;
+		}
+		if(pipeline != null) {
+			pipeline.setex(key, seconds, value);
+		}else {
+			long startTime = System.nanoTime();
 			conn.setex(key, seconds, value);
+			recordCommand("setex", startTime);
 		}
 	}
 	
 	
+	/**
+	 * SET key value NX EX seconds
+	 * @param key
+	 * @param seconds
+	 * @param value
+	 * @return true if the key was set
+	 */
+	public  boolean setnx(String key,long seconds, String value){
+		long startTime = System.nanoTime();
+		String result = conn.set(key, value, SetParams.setParams().nx().ex(seconds));
+		recordCommand("setnx", startTime);
+		return "OK".equals(result);
+	}
+	
+	/**
+	 * EVAL lua script
+	 * @param script
+	 * @param keys
+	 * @param args
+	 * @return script result
+	 */
+	public  Object eval(String script,List<String> keys,List<String> args){
+		long startTime = System.nanoTime();
+		Object result = conn.eval(script, keys, args);
+		recordCommand("eval", startTime);
+		return result;
+	}
+	
+	/**
+	 * EVALSHA binary lua script , load by EVAL when the script is not cached by server
+	 * @param script
+	 * @param keys
+	 * @param args
+	 * @return script result , bulk reply as byte[]
+	 */
+	public  Object evalBinary(String script,List<byte[]> keys,List<byte[]> args){
+		long startTime = System.nanoTime();
+		Object result;
+		try {
+			byte[] sha1 = SCRIPT_SHA1.computeIfAbsent(script, text -> SafeEncoder.encode(DigestUtils.sha1Hex(text)));
+			result = conn.evalsha(sha1, keys, args);
+		}catch(JedisNoScriptException e) {
+			result = conn.eval(SafeEncoder.encode(script), keys, args);
+		}
+		recordCommand("eval", startTime);
+		return result;
+	}
+	
 	/**
 	 * @param key
 	 * @return String 
@@ -83,44 +182,221 @@ public class RedisConnection {
 	public  String get(String key){
 		String value = null;
 		if(key != null){
+			long startTime = System.nanoTime();
 			value = conn.get(key);
+			recordCommand("get", startTime);
 		}
 		return value;
 	}
 	
+	/**
+	 * @param key
+	 * @param fields
+	 * @return values , same order as fields , null when the field does not exist
+	 */
+	public  List<String> hmget(String key, String... fields){
+		long startTime = System.nanoTime();
+		List<String> values = conn.hmget(key, fields);
+		recordCommand("hmget", startTime);
+		return values;
+	}
+	
 	/**
 	 * @param key
 	 * @return String 
 	 */
 	public  <T> T getObject(String key){
-		String value = null;
 		if(key != null){
-			value = get(key);
-			if(value!=null){
-				return ObjectTransformer.deserialize(value);
-			}
+			long startTime = System.nanoTime();
+			byte[] value = conn.get(SafeEncoder.encode(key));
+			recordCommand("get", startTime);
+			return decode(value);
 		}
 		return null;
 	}
 	
+	/**
+	 * 批量读取,一次MGET往返,不存在的key返回null
+	 * @param keys
+	 * @return List of object ,same order as keys
+	 */
+	public  <T> List<T> mGetObject(String... keys){
+		List<T> objects = new ArrayList<T>(keys.length);
+		if(keys.length == 0) {
+			return objects;
+		}
+		long startTime = System.nanoTime();
+		List<byte[]> values = conn.mget(SafeEncoder.encodeMany(keys));
+		recordCommand("mget", startTime);
+		for(byte[] value : values) {
+			T object = decode(value);
+			objects.add(object);
+		}
+		return objects;
+	}
+	
+	/**
+	 * 批量写入并设置过期时间,使用pipeline一次往返
+	 * @param objects key and object
+	 * @param seconds
+	 */
+	public  void mSetexObject(Map<String, ? extends Serializable> objects,long seconds){
+		if(objects.isEmpty()) {
+			return;
+		}
+		if(seconds==0){
+			seconds = RedisConnectionFactory.DEFAULT_CONFIG.DEFAULT_LIFETIME;
+		}
+		Pipeline batch = pipeline != null ? pipeline : conn.pipelined();
+		long startTime = System.nanoTime();
+		for(Map.Entry<String, ? extends Serializable> entry : objects.entrySet()) {
+			batch.setex(SafeEncoder.encode(entry.getKey()), seconds, encode(entry.getValue()));
+		}
+		if(pipeline == null) {
+			batch.sync();
+			recordCommand("msetex", startTime);
+		}
+	}
+	
+	/**
+	 * 读取并删除,Lua脚本原子执行,一次往返(EVALSHA),兼容Redis 6.2以前版本(无GETDEL).
+	 * 并发读取同一个key时只有一个调用方得到对象
+	 * @param key
+	 * @return object or null
+	 */
+	public  <T> T getDelObject(String key){
+		if(key == null) {
+			return null;
+		}
+		byte[] value = (byte[]) evalBinary(GETDEL_SCRIPT, 
+				Collections.singletonList(SafeEncoder.encode(key)), Collections.<byte[]>emptyList());
+		return decode(value);
+	}
+	
 	public void expire(String key,long seconds){
-		conn.expire(key, seconds);
+		if(pipeline != null) {
+			pipeline.expire(key, seconds);
+		}else {
+			long startTime = System.nanoTime();
+			conn.expire(key, seconds);
+			recordCommand("expire", startTime);
+		}
 	}
 	
 	public void delete(String key){
-		conn.del(key);
+		if(pipeline != null) {
+			pipeline.del(key);
+		}else {
+			long startTime = System.nanoTime();
+			conn.del(key);
+			recordCommand("del", startTime);
+		}
 	}
 	
+	/**
+	 * delete keys by one DEL command
+	 * @param keys
+	 */
+	public void delete(String... keys){
+		if(pipeline != null) {
+			pipeline.del(keys);
+		}else {
+			long startTime = System.nanoTime();
+			conn.del(keys);
+			recordCommand("del", startTime);
+		}
+	}
+	
+	public long publish(String channel,String message){
+		if(pipeline != null) {
+			pipeline.publish(channel, message);
+			return 0;
+		}
+		long startTime = System.nanoTime();
+		Long receivers = conn.publish(channel, message);
+		recordCommand("publish", startTime);
+		return receivers == null ? 0 : receivers;
+	}
+
 	public  void rPush(String key, Serializable object){
-		conn.rpush(key, ObjectTransformer.serialize(object));
+		byte[] value = encode(object);
+		if(pipeline != null) {
+			pipeline.rpush(SafeEncoder.encode(key), value);
+		}else {
+			long startTime = System.nanoTime();
+			conn.rpush(SafeEncoder.encode(key), value);
+			recordCommand("rpush", startTime);
+		}
 	}
+	
+	/**
+	 * @return removed count, 0 when in pipeline
+	 */
 	public long  lRem(String key,int count,String value){
-		return conn.lrem(key, count, value);
+		if(pipeline != null) {
+			pipeline.lrem(key, count, value);
+			return 0;
+		}
+		long startTime = System.nanoTime();
+		long removed = conn.lrem(key, count, value);
+		recordCommand("lrem", startTime);
+		return removed;
 	}
 	
 	
+	/**
+	 * remove encoded value pushed by rPush
+	 * @return removed count, 0 when in pipeline
+	 */
+	public long  lRem(String key,int count,byte[] value){
+		if(pipeline != null) {
+			pipeline.lrem(SafeEncoder.encode(key), count, value);
+			return 0;
+		}
+		long startTime = System.nanoTime();
+		long removed = conn.lrem(SafeEncoder.encode(key), count, value);
+		recordCommand("lrem", startTime);
+		return removed;
+	}
+	
 	public List<String>  lRange(String key,int start,int end){
-		return conn.lrange(key, start, end);
+		long startTime = System.nanoTime();
+		List<String> values = conn.lrange(key, start, end);
+		recordCommand("lrange", startTime);
+		return values;
+	}
+	
+	/**
+	 * @return objects pushed by rPush
+	 */
+	public <T> List<T>  lRangeObject(String key,int start,int end){
+		long startTime = System.nanoTime();
+		List<byte[]> values = conn.lrange(SafeEncoder.encode(key), start, end);
+		recordCommand("lrange", startTime);
+		List<T> objects = new ArrayList<T>(values.size());
+		for(byte[] value : values) {
+			T object = decode(value);
+			objects.add(object);
+		}
+		return objects;
+	}
+	
+	/**
+	 * sorted set members with min &lt;= score &lt;= max
+	 * @param key
+	 * @param min
+	 * @param max
+	 * @param offset
+	 * @param count negative for all
+	 * @return members , ordered by score
+	 */
+	public List<String>  zRangeByScore(String key,double min,double max,int offset,int count){
+		long startTime = System.nanoTime();
+		Set<String> members = count < 0 
+				? conn.zrangeByScore(key, min, max)
+				: conn.zrangeByScore(key, min, max, offset, count);
+		recordCommand("zrangebyscore", startTime);
+		return new ArrayList<String>(members);
 	}
 	
 	public void openPipeline(){
@@ -128,8 +404,30 @@ public class RedisConnection {
 	}
 	
 	public List<Object> closePipeline(){
-		return pipeline.syncAndReturnAll();
+		long startTime = System.nanoTime();
+		List<Object> results = pipeline.syncAndReturnAll();
+		this.pipeline = null;
+		recordCommand("pipeline", startTime);
+		return results;
+	}
+	
+	public byte[] encode(Serializable object) {
+		return connectionFactory.getCodec().encode(object);
 	}
+	
+	public <T> T decode(byte[] value) {
+		if(value == null) {
+			return null;
+		}
+		return connectionFactory.getCodec().decode(value);
+	}
+	
+	void recordCommand(String command, long startTime) {
+		if(connectionFactory != null) {
+			connectionFactory.getMetrics().recordCommand(command, startTime);
+		}
+	}
+	
 	/**
      * 释放jedis资源
      * @param jedis
@@ -17,11 +17,24 @@
 
 package org.maxkey.persistence.redis;
 
+import org.maxkey.persistence.redis.codec.CompactRedisValueCodec;
+import org.maxkey.persistence.redis.codec.RedisValueCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
+/**
+ * Redis连接工厂.
+ * <p>
+ * JedisPool只初始化一次,获取连接时不再加锁,连接借用等待时间及命令耗时由{@link RedisConnectionMetrics}统计.
+ * 对象序列化由{@link RedisValueCodec}完成,默认{@link CompactRedisValueCodec}.
+ * </p>
+ */
 public class RedisConnectionFactory {
+    private static final Logger _logger = LoggerFactory.getLogger(RedisConnectionFactory.class);
 
     public static class DEFAULT_CONFIG {
         /**
@@ -66,7 +79,11 @@ public class RedisConnectionFactory {
 
     JedisPoolConfig poolConfig;
 
-    private JedisPool jedisPool = null;
+    private volatile JedisPool jedisPool = null;
+
+    private RedisConnectionMetrics metrics = new RedisConnectionMetrics(this);
+
+    private RedisValueCodec codec = new CompactRedisValueCodec();
 
     private String hostName;
     private int port;
@@ -79,36 +96,47 @@ public class RedisConnectionFactory {
 
     public void initConnectionFactory() {
         if (jedisPool == null) {
-            try {
-                if (this.hostName == null || hostName.equals("")) {
-                    hostName = DEFAULT_CONFIG.DEFAULT_ADDRESS;
-                }
-                if (port == 0) {
-                    port = DEFAULT_CONFIG.DEFAULT_PORT;
+            synchronized (this) {
+                if (jedisPool == null) {
+                    try {
+                        if (this.hostName == null || hostName.equals("")) {
+                            hostName = DEFAULT_CONFIG.DEFAULT_ADDRESS;
+                        }
+                        if (port == 0) {
+                            port = DEFAULT_CONFIG.DEFAULT_PORT;
+                        }
+                        if (timeOut == 0) {
+                            timeOut = DEFAULT_CONFIG.DEFAULT_TIMEOUT;
+                        }
+        
+                        if (this.password == null || this.password.equals("") || this.password.equalsIgnoreCase("password")) {
+                            this.password = null;
+                        }
+                        if (poolConfig == null) {
+                            poolConfig = new JedisPoolConfig();
+                        }
+                        jedisPool = new JedisPool(poolConfig, hostName, port, timeOut, password);
+                        _logger.debug("JedisPool init {}:{}", hostName, port);
+                    } catch (Exception e) {
+                        _logger.error("JedisPool init error", e);
+                    }
                 }
-                if (timeOut == 0) {
-                    timeOut = DEFAULT_CONFIG.DEFAULT_TIMEOUT;
-                }
-
-                if (this.password == null || this.password.equals("") || this.password.equalsIgnoreCase("password")) {
-                    this.password = null;
-                }
-                jedisPool = new JedisPool(poolConfig, hostName, port, timeOut, password);
-
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
     }
 
-    public synchronized RedisConnection getConnection() {
-        initConnectionFactory();
-        RedisConnection redisConnection = new RedisConnection(this);
-        return redisConnection;
+    public RedisConnection getConnection() {
+        if (jedisPool == null) {
+            initConnectionFactory();
+        }
+        return new RedisConnection(this);
     }
 
     public Jedis open() {
-        return jedisPool.getResource();
+        long startTime = System.nanoTime();
+        Jedis jedis = jedisPool.getResource();
+        metrics.recordBorrow(startTime);
+        return jedis;
     }
 
     public void close(Jedis conn) {
@@ -116,6 +144,22 @@ public class RedisConnectionFactory {
         conn.close();
     }
 
+    public JedisPool getJedisPool() {
+        return jedisPool;
+    }
+
+    public RedisConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RedisValueCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(RedisValueCodec codec) {
+        this.codec = codec;
+    }
+
    
     public String getHostName() {
         return hostName;
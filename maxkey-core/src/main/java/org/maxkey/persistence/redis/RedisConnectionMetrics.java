@@ -0,0 +1,113 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.redis;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Redis连接池及命令耗时指标,通过actuator metrics暴露给boot monitor.
+ * <pre>
+ * maxkey.redis.pool.active      活动连接数
+ * maxkey.redis.pool.idle        空闲连接数
+ * maxkey.redis.pool.waiters     等待连接的线程数
+ * maxkey.redis.pool.borrow      连接借用等待时间
+ * maxkey.redis.command          命令耗时,按command区分
+ * </pre>
+ * 未绑定MeterRegistry时不做任何统计.
+ */
+public class RedisConnectionMetrics implements MeterBinder {
+
+    public static final String METRIC_PREFIX = "maxkey.redis";
+
+    final RedisConnectionFactory connectionFactory;
+
+    MeterRegistry registry;
+
+    Timer borrowTimer;
+
+    final ConcurrentHashMap<String, Timer> commandTimers = new ConcurrentHashMap<String, Timer>();
+
+    public RedisConnectionMetrics(RedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(METRIC_PREFIX + ".pool.active", connectionFactory,
+                    factory -> poolValue(factory.getJedisPool(), PoolValue.ACTIVE))
+            .description("Redis pool active connections")
+            .register(registry);
+        Gauge.builder(METRIC_PREFIX + ".pool.idle", connectionFactory,
+                    factory -> poolValue(factory.getJedisPool(), PoolValue.IDLE))
+            .description("Redis pool idle connections")
+            .register(registry);
+        Gauge.builder(METRIC_PREFIX + ".pool.waiters", connectionFactory,
+                    factory -> poolValue(factory.getJedisPool(), PoolValue.WAITERS))
+            .description("Threads waiting for a Redis connection")
+            .register(registry);
+
+        this.borrowTimer = Timer.builder(METRIC_PREFIX + ".pool.borrow")
+            .description("Redis connection borrow wait time")
+            .publishPercentileHistogram()
+            .register(registry);
+        this.registry = registry;
+    }
+
+    public void recordBorrow(long startTime) {
+        if (borrowTimer != null) {
+            borrowTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @param command redis command or batch name
+     * @param startTime System.nanoTime() before the command
+     */
+    public void recordCommand(String command, long startTime) {
+        if (registry != null) {
+            commandTimers.computeIfAbsent(command, key ->
+                        Timer.builder(METRIC_PREFIX + ".command")
+                            .description("Redis command latency")
+                            .tag("command", key)
+                            .publishPercentileHistogram()
+                            .register(registry)
+                    ).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    enum PoolValue { ACTIVE, IDLE, WAITERS }
+
+    static double poolValue(JedisPool jedisPool, PoolValue poolValue) {
+        if (jedisPool == null || jedisPool.isClosed()) {
+            return 0;
+        }
+        switch (poolValue) {
+            case ACTIVE  : return jedisPool.getNumActive();
+            case IDLE    : return jedisPool.getNumIdle();
+            case WAITERS : return jedisPool.getNumWaiters();
+            default      : return 0;
+        }
+    }
+}
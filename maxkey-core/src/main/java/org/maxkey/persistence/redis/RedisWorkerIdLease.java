@@ -0,0 +1,179 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.redis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.util.IdGenerator;
+import org.maxkey.util.SnowFlakeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 通过Redis为SnowFlake分配workerId(datacenterId + machineId,共1024个),避免同一配置部署的多个节点ID冲突.
+ * <p>
+ * 启动时使用SET NX EX占用一个空闲的workerId,之后每ttl/3续期一次;
+ * 占用或续期成功后SnowFlakeId只在ttl*2/3内生成ID,续期失败(如Redis不可用)超过该时间后拒绝生成,
+ * 早于Redis中的占用过期,避免其他节点获取同一workerId后重复.
+ * 续期发现已失去占用(如长时间停顿后过期被其他节点获取)时立即停止生成并重新申请新的workerId,
+ * 申请失败时下次续期重试.
+ * 停止时释放占用.
+ * </p>
+ */
+public class RedisWorkerIdLease {
+    private static final Logger _logger = LoggerFactory.getLogger(RedisWorkerIdLease.class);
+
+    public static final String PREFIX = "REDIS_ID_WORKER_";
+
+    public static final int MAX_WORKER_ID = 1024;
+
+    public static final int DEFAULT_TTL_SECONDS = 60;
+
+    static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+          + "return redis.call('expire', KEYS[1], ARGV[2]) else return 0 end";
+
+    static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+          + "return redis.call('del', KEYS[1]) else return 0 end";
+
+    final RedisConnectionFactory connectionFactory;
+
+    final IdGenerator idGenerator;
+
+    final int ttlSeconds;
+
+    volatile int workerId = -1;
+
+    volatile SnowFlakeId snowFlakeId;
+
+    ScheduledExecutorService renewExecutor;
+
+    public RedisWorkerIdLease(RedisConnectionFactory connectionFactory, IdGenerator idGenerator, int ttlSeconds) {
+        this.connectionFactory = connectionFactory;
+        this.idGenerator = idGenerator;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * 申请workerId并替换IdGenerator的SnowFlakeId,启动续期
+     */
+    public synchronized void acquire() {
+        int start = (RedisChannelSubscriber.NODE_ID.hashCode() & Integer.MAX_VALUE) % MAX_WORKER_ID;
+        long leaseStart = System.currentTimeMillis();
+        RedisConnection conn = connectionFactory.getConnection();
+        try {
+            for (int i = 0; i < MAX_WORKER_ID; i++) {
+                int candidate = (start + i) % MAX_WORKER_ID;
+                if (conn.setnx(PREFIX + candidate, ttlSeconds, RedisChannelSubscriber.NODE_ID)) {
+                    workerId = candidate;
+                    break;
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        if (workerId < 0) {
+            throw new IllegalStateException("No free SnowFlake worker id in redis , all " + MAX_WORKER_ID + " leased");
+        }
+        snowFlakeId = new SnowFlakeId(workerId >> 5, workerId & 31);
+        snowFlakeId.setLeaseExpireMillis(leaseStart + leaseMillis());
+        idGenerator.setDatacenterId((int) snowFlakeId.getDatacenterId());
+        idGenerator.setMachineId((int) snowFlakeId.getMachineId());
+        idGenerator.setSnowFlakeId(snowFlakeId);
+        _logger.info("SnowFlake worker id {} leased , datacenterId {} , machineId {}",
+                workerId, snowFlakeId.getDatacenterId(), snowFlakeId.getMachineId());
+
+        if (renewExecutor == null) {
+            renewExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "id-worker-lease");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, ttlSeconds / 3);
+            renewExecutor.scheduleWithFixedDelay(this::renew, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    synchronized void renew() {
+        try {
+            if (workerId < 0) {
+                acquire();
+                return;
+            }
+            long leaseStart = System.currentTimeMillis();
+            RedisConnection conn = connectionFactory.getConnection();
+            Object renewed;
+            try {
+                renewed = conn.eval(RENEW_SCRIPT,
+                        Collections.singletonList(PREFIX + workerId),
+                        Arrays.asList(RedisChannelSubscriber.NODE_ID, String.valueOf(ttlSeconds)));
+            } finally {
+                conn.close();
+            }
+            if (Long.valueOf(1L).equals(renewed)) {
+                snowFlakeId.setLeaseExpireMillis(leaseStart + leaseMillis());
+            } else {
+                _logger.error("SnowFlake worker id {} lease lost , acquire a new one", workerId);
+                snowFlakeId.setLeaseExpireMillis(0);
+                workerId = -1;
+                acquire();
+            }
+        } catch (Exception e) {
+            _logger.warn("SnowFlake worker id {} renew error , ids refused after {} : {}",
+                    workerId, snowFlakeId.getLeaseExpireMillis(), e.getMessage());
+        }
+    }
+
+    /**
+     * 租约内可生成ID的时间,留ttl/3余量
+     */
+    long leaseMillis() {
+        return ttlSeconds * 1000L * 2 / 3;
+    }
+
+    public synchronized void release() {
+        if (renewExecutor != null) {
+            renewExecutor.shutdownNow();
+        }
+        if (workerId < 0) {
+            return;
+        }
+        try {
+            RedisConnection conn = connectionFactory.getConnection();
+            try {
+                conn.eval(RELEASE_SCRIPT,
+                        Collections.singletonList(PREFIX + workerId),
+                        Collections.singletonList(RedisChannelSubscriber.NODE_ID));
+            } finally {
+                conn.close();
+            }
+            _logger.info("SnowFlake worker id {} released", workerId);
+        } catch (Exception e) {
+            _logger.warn("SnowFlake worker id {} release error : {}", workerId, e.getMessage());
+        }
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+}
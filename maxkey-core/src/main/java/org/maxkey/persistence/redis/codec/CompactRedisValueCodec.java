@@ -0,0 +1,231 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.persistence.redis.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.maxkey.util.ObjectTransformer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact binary Redis value codec.
+ * <pre>
+ * byte  0 : FORMAT_MAGIC
+ * byte  1 : flags , FLAG_DEFLATE when payload is compressed
+ * byte  2 : schema id , 0 is Java serialization for types without schema
+ * byte 3- : payload
+ * </pre>
+ * <p>
+ * Payloads larger than compressThreshold are deflated when it makes them smaller.
+ * Values written by HexRedisValueCodec (and raw Java serialization) are still readable,
+ * so entries written before upgrade decode until they expire.
+ * </p>
+ * Schemas are loaded by {@link ServiceLoader} from
+ * META-INF/services/org.maxkey.persistence.redis.codec.RedisValueSchema of each module,
+ * so every node registers the same schemas as soon as the module jar is on the classpath.
+ * 
+ * @author Crystal.Sea
+ *
+ */
+public class CompactRedisValueCodec implements RedisValueCodec {
+    private static final Logger _logger = LoggerFactory.getLogger(CompactRedisValueCodec.class);
+
+    public static final String CODEC_NAME = "compact";
+
+    public static final byte FORMAT_MAGIC = 0x01;
+
+    public static final byte FLAG_DEFLATE = 0x01;
+
+    public static final int SCHEMA_JAVA = 0;
+
+    static final int HEADER_LENGTH = 3;
+
+    /**
+     * Java serialization stream magic 0xACED
+     */
+    static final byte JAVA_STREAM_MAGIC = (byte) 0xAC;
+
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 1024;
+
+    static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    final ConcurrentHashMap<Class<?>, RedisValueSchema<?>> schemaTypes = new ConcurrentHashMap<Class<?>, RedisValueSchema<?>>();
+
+    final RedisValueSchema<?>[] schemaIds = new RedisValueSchema<?>[256];
+
+    int compressThreshold = DEFAULT_COMPRESS_THRESHOLD;
+
+    public CompactRedisValueCodec() {
+        for (RedisValueSchema<?> schema : 
+                ServiceLoader.load(RedisValueSchema.class, RedisValueSchema.class.getClassLoader())) {
+            register(schema);
+        }
+    }
+
+    public CompactRedisValueCodec(int compressThreshold) {
+        this();
+        this.compressThreshold = compressThreshold;
+    }
+
+    public synchronized void register(RedisValueSchema<?> schema) {
+        int schemaId = schema.getSchemaId();
+        if (schemaId <= SCHEMA_JAVA || schemaId > 255) {
+            throw new IllegalArgumentException("schema id must be 1-255 , " + schemaId);
+        }
+        if (schemaIds[schemaId] != null && schemaIds[schemaId].getType() != schema.getType()) {
+            throw new IllegalArgumentException("schema id " + schemaId + " is used by " + schemaIds[schemaId].getType());
+        }
+        _logger.debug("register schema {} for {}", schemaId, schema.getType().getName());
+        schemaIds[schemaId] = schema;
+        schemaTypes.put(schema.getType(), schema);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Serializable object) {
+        RedisValueSchema<Serializable> schema = (RedisValueSchema<Serializable>) schemaTypes.get(object.getClass());
+        if (schema != null && !schema.supports(object)) {
+            schema = null;
+        }
+        byte[] payload;
+        if (schema == null) {
+            payload = ObjectTransformer.object2Bytes(object);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                schema.write(out, object);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            payload = bytes.toByteArray();
+        }
+
+        byte flags = 0;
+        int payloadLength = payload.length;
+        if (payloadLength > compressThreshold) {
+            byte[] compressed = deflate(payload);
+            if (compressed.length < payloadLength) {
+                payload = compressed;
+                payloadLength = compressed.length;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+
+        byte[] value = new byte[HEADER_LENGTH + payloadLength];
+        value[0] = FORMAT_MAGIC;
+        value[1] = flags;
+        value[2] = (byte) (schema == null ? SCHEMA_JAVA : schema.getSchemaId());
+        System.arraycopy(payload, 0, value, HEADER_LENGTH, payloadLength);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (value[0] == JAVA_STREAM_MAGIC) {
+            return ObjectTransformer.bytes2Object(value);
+        }
+        if (value[0] != FORMAT_MAGIC) {
+            //HEX String written by ObjectTransformer.serialize
+            return ObjectTransformer.deserialize(new String(value, StandardCharsets.US_ASCII));
+        }
+
+        byte[] payload = value;
+        int offset = HEADER_LENGTH;
+        int length = value.length - HEADER_LENGTH;
+        if ((value[1] & FLAG_DEFLATE) != 0) {
+            payload = inflate(value, HEADER_LENGTH, length);
+            offset = 0;
+            length = payload.length;
+        }
+        int schemaId = value[2] & 0xFF;
+        if (schemaId == SCHEMA_JAVA) {
+            return ObjectTransformer.bytes2Object(
+                    offset == 0 ? payload : Arrays.copyOfRange(payload, offset, offset + length));
+        }
+        RedisValueSchema<?> schema = schemaIds[schemaId];
+        if (schema == null) {
+            throw new IllegalArgumentException("schema " + schemaId + " is not registered");
+        }
+        try {
+            return (T) schema.read(new DataInputStream(new ByteArrayInputStream(payload, offset, length)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    byte[] deflate(byte[] payload) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2);
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    byte[] inflate(byte[] value, int offset, int length) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(value, offset, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+        byte[] buffer = new byte[1024];
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated deflate payload");
+                }
+                out.write(buffer, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.redis.codec;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import org.maxkey.util.ObjectTransformer;
+
+/**
+ * Java serialization as HEX String, the format used before CompactRedisValueCodec.
+ * <p>
+ * Use it while old and new nodes are running together in a rolling upgrade.
+ * </p>
+ * @author Crystal.Sea
+ *
+ */
+public class HexRedisValueCodec implements RedisValueCodec {
+
+    public static final String CODEC_NAME = "hex";
+
+    @Override
+    public byte[] encode(Serializable object) {
+        return ObjectTransformer.serialize(object).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public <T> T decode(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        return ObjectTransformer.deserialize(new String(value, StandardCharsets.US_ASCII));
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.persistence.redis.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.maxkey.util.ObjectTransformer;
+
+/**
+ * Binary schema of one ticket/token type for CompactRedisValueCodec.
+ * <p>
+ * Fields are written in a fixed order without names or class descriptors,
+ * nested graphs without a schema (e.g. Authentication) are written by Java serialization.
+ * Schema id is persisted with the value, so never reuse an id for another type.
+ * </p>
+ * <pre>
+ * 1-9   authentication (OnlineTicket,RemeberMe)
+ * 10-19 OAuth 2.0 (OAuth2Authentication,access/refresh token)
+ * 20-29 CAS (ServiceTicketImpl,TicketGrantingTicketImpl)
+ * </pre>
+ * @param <T> type
+ */
+public abstract class RedisValueSchema<T extends Serializable> {
+
+    final int schemaId;
+
+    final Class<T> type;
+
+    protected RedisValueSchema(int schemaId, Class<T> type) {
+        this.schemaId = schemaId;
+        this.type = type;
+    }
+
+    public abstract void write(DataOutput out, T value) throws IOException;
+
+    public abstract T read(DataInput in) throws IOException;
+
+    /**
+     * @return false to write the value by Java serialization
+     */
+    public boolean supports(T value) {
+        return true;
+    }
+
+    public int getSchemaId() {
+        return schemaId;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * write String as length prefixed UTF-8, not limited to 64K like writeUTF
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeDate(DataOutput out, Date value) throws IOException {
+        out.writeLong(value == null ? Long.MIN_VALUE : value.getTime());
+    }
+
+    public static Date readDate(DataInput in) throws IOException {
+        long time = in.readLong();
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    public static void writeZonedDateTime(DataOutput out, ZonedDateTime value) throws IOException {
+        writeString(out, value == null ? null : value.getZone().getId());
+        if (value != null) {
+            Instant instant = value.toInstant();
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+
+    public static ZonedDateTime readZonedDateTime(DataInput in) throws IOException {
+        String zone = readString(in);
+        if (zone == null) {
+            return null;
+        }
+        Instant instant = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        return ZonedDateTime.ofInstant(instant, ZoneId.of(zone));
+    }
+
+    public static void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    public static Set<String> readStringSet(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Set<String> values = new HashSet<String>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    public static void writeStringMap(DataOutput out, Map<String, String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    public static Map<String, String> readStringMap(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<String, String>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            values.put(readString(in), readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * write nested object by Java serialization, length prefixed
+     */
+    public static void writeObject(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = ObjectTransformer.object2Bytes(value);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static <V> V readObject(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return ObjectTransformer.bytes2Object(bytes);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.repository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.maxkey.persistence.redis.RedisChannelSubscriber;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * 应用配置缓存,应用基本信息及各协议配置(CAS/SAML/JWT/OAuth2...)共用.
+ * <p>
+ * 每类配置一个区域(region),按查询键缓存,数量有上限;写入refreshSeconds后的访问在后台重新加载(不阻塞请求),
+ * expireSeconds未访问的配置过期.查询不到的配置不缓存.
+ * </p>
+ * <p>
+ * maxkey-mgt修改应用后调用invalidate(appId),失效所有区域中该应用的配置(包括按CAS service等非id键缓存的条目),
+ * 配置Redis时通过频道通知其他节点(包括maxkey与maxkey-mgt之间);订阅断线重连后清空.
+ * </p>
+ */
+public class AppsConfigCache implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(AppsConfigCache.class);
+
+    public static final String INVALIDATE_CHANNEL = "REDIS_APPS_CONFIG_INVALIDATE";
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final int DEFAULT_EXPIRE_SECONDS = 1800;
+
+    public static final int DEFAULT_REFRESH_SECONDS = 300;
+
+    static final String MESSAGE_ALL = "*";
+
+    final ConcurrentHashMap<String, Region<?>> regions = new ConcurrentHashMap<String, Region<?>>();
+
+    final int maximumSize;
+
+    final int expireSeconds;
+
+    final int refreshSeconds;
+
+    MeterRegistry registry;
+
+    RedisChannelSubscriber subscriber;
+
+    public AppsConfigCache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_SECONDS, DEFAULT_REFRESH_SECONDS);
+    }
+
+    /**
+     * @param maximumSize 每个区域的最大数量
+     * @param expireSeconds 未访问过期时间
+     * @param refreshSeconds 写入后后台刷新时间
+     */
+    public AppsConfigCache(int maximumSize, int expireSeconds, int refreshSeconds) {
+        this.maximumSize = maximumSize;
+        this.expireSeconds = expireSeconds;
+        this.refreshSeconds = refreshSeconds;
+        _logger.debug("maximumSize {} , expireSeconds {} , refreshSeconds {}",
+                maximumSize, expireSeconds, refreshSeconds);
+    }
+
+    /**
+     * 启用集群失效通知
+     * @param connectionFactory
+     */
+    public void subscribe(RedisConnectionFactory connectionFactory) {
+        this.subscriber = new RedisChannelSubscriber(
+                connectionFactory,
+                INVALIDATE_CHANNEL,
+                new RedisChannelSubscriber.MessageListener() {
+                    @Override
+                    public void onMessage(String message) {
+                        _logger.trace("invalidate {}", message);
+                        if (MESSAGE_ALL.equals(message)) {
+                            evictAll();
+                        } else {
+                            evict(message);
+                        }
+                    }
+
+                    @Override
+                    public void onSubscribe() {
+                        //messages may be lost while disconnected
+                        evictAll();
+                    }
+                });
+        this.subscriber.start();
+    }
+
+    /**
+     * 注册区域,同名区域只创建一次
+     * @param name 区域名称,用于指标
+     * @param loader 按查询键从数据库加载,不存在返回null
+     * @param appId 从配置中取应用id,查询键即应用id时可为null
+     * @return region
+     */
+    @SuppressWarnings("unchecked")
+    public <V> Region<V> region(String name, Function<String, V> loader, Function<V, String> appId) {
+        return (Region<V>) regions.computeIfAbsent(name, key -> {
+            Region<V> region = new Region<V>(name, loader, appId,
+                    Caffeine.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterAccess(expireSeconds, TimeUnit.SECONDS)
+                        .refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS)
+                        .recordStats()
+                        .build(loader::apply));
+            if (registry != null) {
+                CaffeineCacheMetrics.monitor(registry, region.cache, "apps." + name);
+            }
+            return region;
+        });
+    }
+
+    /**
+     * 应用配置变更,失效本节点并通知其他节点
+     * @param appId
+     */
+    public void invalidate(String appId) {
+        evict(appId);
+        publish(appId);
+    }
+
+    public void invalidateAll() {
+        evictAll();
+        publish(MESSAGE_ALL);
+    }
+
+    void evict(String appId) {
+        for (Region<?> region : regions.values()) {
+            region.evict(appId);
+        }
+    }
+
+    void evictAll() {
+        for (Region<?> region : regions.values()) {
+            region.cache.invalidateAll();
+        }
+    }
+
+    void publish(String message) {
+        if (subscriber == null) {
+            return;
+        }
+        try {
+            subscriber.publish(message);
+        } catch (Exception e) {
+            _logger.warn("publish {} error : {}", message, e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        for (Region<?> region : regions.values()) {
+            CaffeineCacheMetrics.monitor(registry, region.cache, "apps." + region.name);
+        }
+    }
+
+    public void shutdown() {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+    }
+
+    public static class Region<V> {
+        final String name;
+
+        final Function<String, V> loader;
+
+        final Function<V, String> appId;
+
+        final LoadingCache<String, V> cache;
+
+        Region(String name, Function<String, V> loader, Function<V, String> appId, LoadingCache<String, V> cache) {
+            this.name = name;
+            this.loader = loader;
+            this.appId = appId;
+            this.cache = cache;
+        }
+
+        /**
+         * @param key 查询键
+         * @return 缓存的配置,不存在返回null
+         */
+        public V get(String key) {
+            return key == null ? null : cache.get(key);
+        }
+
+        /**
+         * 不经过缓存直接加载
+         */
+        public V load(String key) {
+            return loader.apply(key);
+        }
+
+        void evict(String id) {
+            cache.invalidate(id);
+            if (appId != null) {
+                //keyed by other than app id , e.g. CAS service
+                cache.asMap().values().removeIf(value -> id.equals(appId.apply(value)));
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
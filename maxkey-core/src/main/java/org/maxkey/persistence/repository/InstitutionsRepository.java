@@ -19,12 +19,18 @@ package org.maxkey.persistence.repository;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.maxkey.constants.ConstsStatus;
 import org.maxkey.entity.Institutions;
+import org.maxkey.persistence.redis.RedisChannelSubscriber;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -33,44 +39,158 @@ import org.springframework.jdbc.core.RowMapper;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 
+/**
+ * 机构(租户)按域名解析.
+ * <p>
+ * 启动时加载全部有效机构,生成不可变的 域名->机构 索引,机构变更后调用refresh整体重建并原子替换.
+ * 域名支持通配符,如 *.maxkey.top 匹配 sso.maxkey.top 及 a.sso.maxkey.top,精确匹配优先,
+ * 通配符按最长后缀匹配.
+ * </p>
+ * <p>
+ * 索引未命中的域名查询一次数据库(其他节点新增机构的情况),查询不到的域名记入未知域名缓存,
+ * 过期前不再查询数据库,返回默认机构(id=1).
+ * 配置Redis时refresh通过频道通知其他节点(包括maxkey与maxkey-mgt之间)重建索引.
+ * 索引超过refreshInterval(默认60分钟)后在下一次查询时重建,未配置Redis或通知丢失时其他节点的变更最迟一个周期后生效.
+ * </p>
+ */
 public class InstitutionsRepository {
     private static Logger _logger = LoggerFactory.getLogger(InstitutionsRepository.class);
     
+    public static final String DEFAULT_INSTITUTION_ID = "1";
+    
+    public static final String REFRESH_CHANNEL = "REDIS_INSTITUTIONS_REFRESH";
+    
+    public static final long DEFAULT_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(60);
+    
+    private static final String WILDCARD_PREFIX = "*.";
+    
     private static final String SELECT_STATEMENT = 
     						"select * from  mxk_institutions where domain = ? and status = " + ConstsStatus.ACTIVE;
 
     private static final String SELECT_STATEMENT_BY_ID = 
     						"select * from  mxk_institutions where id = ? and status = " + ConstsStatus.ACTIVE;
+    
+    private static final String SELECT_ALL_STATEMENT = 
+                            "select * from  mxk_institutions where status = " + ConstsStatus.ACTIVE;
 
-    protected static final Cache<String, Institutions> institutionsStore = 
+    //unknown hosts , not query database until expired
+    protected final Cache<String, Boolean> unknownHosts = 
             Caffeine.newBuilder()
-                	.expireAfterWrite(60, TimeUnit.MINUTES)
+                	.expireAfterWrite(5, TimeUnit.MINUTES)
+                	.maximumSize(10000)
                 	.build();
     
-    //id domain mapping
-    protected static final  ConcurrentHashMap<String,String> mapper = new ConcurrentHashMap<String,String>();
+    protected volatile InstitutionsIndex index = new InstitutionsIndex(Collections.<Institutions>emptyList());
     
     protected JdbcTemplate jdbcTemplate;
     
+    protected RedisChannelSubscriber subscriber;
+    
+    protected long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    
+    protected volatile long refreshedTime;
+    
+    protected final AtomicBoolean refreshing = new AtomicBoolean();
+    
     public InstitutionsRepository(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        refreshIndex();
+    }
+    
+    /**
+     * 启用集群刷新通知
+     * @param connectionFactory
+     */
+    public void subscribe(RedisConnectionFactory connectionFactory) {
+        this.subscriber = new RedisChannelSubscriber(
+                connectionFactory,
+                REFRESH_CHANNEL,
+                new RedisChannelSubscriber.MessageListener() {
+                    @Override
+                    public void onMessage(String message) {
+                        refreshIndex();
+                    }
+
+                    @Override
+                    public void onSubscribe() {
+                        //messages may be lost while disconnected
+                        refreshIndex();
+                    }
+                });
+        this.subscriber.start();
+    }
+    
+    /**
+     * 机构变更后重建索引,并通知其他节点
+     */
+    public void refresh() {
+        refreshIndex();
+        if (subscriber != null) {
+            try {
+                subscriber.publish(String.valueOf(System.currentTimeMillis()));
+            } catch (Exception e) {
+                _logger.warn("publish refresh error : {}", e.getMessage());
+            }
+        }
+    }
+    
+    protected void refreshIndex() {
+        try {
+            List<Institutions> institutions = 
+                    jdbcTemplate.query(SELECT_ALL_STATEMENT, new InstitutionsRowMapper());
+            index = new InstitutionsIndex(institutions);
+            refreshedTime = System.currentTimeMillis();
+            unknownHosts.invalidateAll();
+            _logger.debug("institutions index refreshed , size {}", institutions.size());
+        } catch (Exception e) {
+            //keep the previous index
+            _logger.error("institutions index refresh error", e);
+        }
+    }
+    
+    /**
+     * 索引过期后由一个请求线程重建,其他线程继续使用旧索引
+     */
+    protected void refreshIfExpired() {
+        if (System.currentTimeMillis() - refreshedTime < refreshInterval 
+                || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (System.currentTimeMillis() - refreshedTime >= refreshInterval) {
+                refreshIndex();
+                //retry after a full interval when the database is unavailable
+                refreshedTime = System.currentTimeMillis();
+            }
+        } finally {
+            refreshing.set(false);
+        }
     }
         
     public Institutions findByDomain(String domain) {
         _logger.trace(" domain {}" , domain);
-        Institutions inst = institutionsStore.getIfPresent(domain);
+        refreshIfExpired();
+        String host = normalize(domain);
+        Institutions inst = index.match(host);
         if(inst == null) {
-	        List<Institutions> institutions = 
-	        		jdbcTemplate.query(SELECT_STATEMENT,new InstitutionsRowMapper(),domain);
-	        
-	        if (institutions != null && institutions.size() > 0) {
-	        	inst = institutions.get(0);
-	        	institutionsStore.put(domain, inst);
-		        mapper.put(inst.getId(), domain);
-	        }else {
-	        	//default institution
-	        	inst = get("1"); 
-	        }
+            if(host.length() > 0 && unknownHosts.getIfPresent(host) == null) {
+                List<Institutions> institutions = 
+                        jdbcTemplate.query(SELECT_STATEMENT,new InstitutionsRowMapper(),host);
+                if (institutions != null && institutions.size() > 0) {
+                    //created on another node
+                    refreshIndex();
+                    inst = index.match(host);
+                    if(inst == null) {
+                        inst = institutions.get(0);
+                    }
+                }else {
+                    unknownHosts.put(host, Boolean.TRUE);
+                }
+            }
+            if(inst == null) {
+                //default institution
+                inst = get(DEFAULT_INSTITUTION_ID); 
+            }
         }
         
         return inst;
@@ -78,21 +198,89 @@ public class InstitutionsRepository {
     
     public Institutions get(String instId) {
         _logger.trace(" instId {}" , instId);
-        Institutions inst = institutionsStore.getIfPresent(mapper.get(instId)==null ? "1" : mapper.get(instId) );
+        refreshIfExpired();
+        Institutions inst = index.byId.get(instId);
         if(inst == null) {
 	        List<Institutions> institutions = 
 	        		jdbcTemplate.query(SELECT_STATEMENT_BY_ID,new InstitutionsRowMapper(),instId);
 	        
 	        if (institutions != null && institutions.size() > 0) {
 	        	inst = institutions.get(0);
+	        	refreshIndex();
 	        }
-	        institutionsStore.put(inst.getDomain(), inst);
-	        mapper.put(inst.getId(), inst.getDomain());
         }
         
         return inst;
     }
     
+    /**
+     * @param refreshInterval 索引过期时间,毫秒
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+    
+    public void shutdown() {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+    }
+    
+    static String normalize(String domain) {
+        if(domain == null) {
+            return "";
+        }
+        String host = domain.trim().toLowerCase(Locale.ROOT);
+        if(host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host;
+    }
+    
+    /**
+     * immutable domain index , replaced as a whole on refresh
+     */
+    static class InstitutionsIndex {
+        final Map<String, Institutions> byId;
+        
+        final Map<String, Institutions> byDomain;
+        
+        //suffix with leading dot , e.g. .maxkey.top
+        final Map<String, Institutions> byWildcard;
+        
+        InstitutionsIndex(List<Institutions> institutions) {
+            Map<String, Institutions> byId = new HashMap<String, Institutions>();
+            Map<String, Institutions> byDomain = new HashMap<String, Institutions>();
+            Map<String, Institutions> byWildcard = new HashMap<String, Institutions>();
+            for(Institutions inst : institutions) {
+                byId.put(inst.getId(), inst);
+                String domain = normalize(inst.getDomain());
+                if(domain.startsWith(WILDCARD_PREFIX)) {
+                    byWildcard.putIfAbsent(domain.substring(1), inst);
+                }else if(domain.length() > 0) {
+                    byDomain.putIfAbsent(domain, inst);
+                }
+            }
+            this.byId = Collections.unmodifiableMap(byId);
+            this.byDomain = Collections.unmodifiableMap(byDomain);
+            this.byWildcard = Collections.unmodifiableMap(byWildcard);
+        }
+        
+        Institutions match(String host) {
+            Institutions inst = byDomain.get(host);
+            if(inst == null && !byWildcard.isEmpty()) {
+                //longest suffix first
+                for(int dot = host.indexOf('.'); dot > -1; dot = host.indexOf('.', dot + 1)) {
+                    inst = byWildcard.get(host.substring(dot));
+                    if(inst != null) {
+                        break;
+                    }
+                }
+            }
+            return inst;
+        }
+    }
+    
     public class InstitutionsRowMapper implements RowMapper<Institutions> {
         @Override
         public Institutions mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -0,0 +1,656 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.maxkey.entity.HistoryLogin;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.util.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 登录日志及最后登录/退出时间异步批量写入.
+ * <p>
+ * 请求线程只将事件放入有界队列,由单一写入线程按flushSize或flushInterval批量提交:
+ * 登录日志合并为JDBC批量INSERT,同一用户的最后登录/退出更新只保留最后一次.
+ * 队列满时请求线程最多等待offerTimeout毫秒,仍无法入队则直接落盘.
+ * </p>
+ * <p>
+ * 每批在一个事务内提交,失败时整批按固定格式写入spillDirectory(仅所属用户可访问,每个应用独立目录),
+ * 数据库恢复后按文件顺序重放,重放成功后删除文件,进程启动时同样重放遗留文件.
+ * 最后登录/退出按绝对值更新,写入前先重放,仍有待重放文件时新批次同样落盘,保证旧批次不会覆盖新批次.
+ * 数据库可用时仍连续maxReplayAttempts次重放失败的文件改名为.bad隔离,不阻塞后续文件.
+ * 未设置spillDirectory或落盘失败时spill返回失败,请求线程改为同步写入,写入线程的批次则丢弃并计入dropped.
+ * </p>
+ * <pre>
+ * maxkey.login.audit.queue          队列长度
+ * maxkey.login.audit.spill.files    待重放文件数
+ * maxkey.login.audit.flush          批量写入耗时
+ * maxkey.login.audit.events         事件数,按result区分written/spilled/dropped
+ * </pre>
+ */
+public class LoginAuditWriter implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(LoginAuditWriter.class);
+
+    public static final String METRIC_PREFIX = "maxkey.login.audit";
+
+    public static final String SPILL_FILE_SUFFIX = ".spill";
+
+    public static final String BAD_FILE_SUFFIX = ".bad";
+
+    public static final int DEFAULT_MAX_REPLAY_ATTEMPTS = 3;
+
+    static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    public static final int DEFAULT_FLUSH_SIZE = 500;
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    public static final long DEFAULT_OFFER_TIMEOUT = 50;
+
+    static final int HISTORY_LOGIN = 1;
+
+    static final int HISTORY_LOGOFF = 2;
+
+    static final int USER_LOGIN = 3;
+
+    static final int USER_LOGOFF = 4;
+
+    //spill file format version
+    static final int SPILL_FORMAT = 1;
+
+    static final int MAX_SPILL_EVENTS = 1000000;
+
+    static final int MAX_SPILL_STRING_LENGTH = 1024 * 1024;
+
+    static class AuditEvent {
+        final int type;
+
+        final long sequence;
+
+        final HistoryLogin historyLogin;
+
+        final UserInfo userInfo;
+
+        AuditEvent(int type, long sequence, HistoryLogin historyLogin, UserInfo userInfo) {
+            this.type = type;
+            this.sequence = sequence;
+            this.historyLogin = historyLogin;
+            this.userInfo = userInfo;
+        }
+    }
+
+    final JdbcTemplate jdbcTemplate;
+
+    final LoginRepository loginRepository;
+
+    final LoginHistoryRepository loginHistoryRepository;
+
+    final TransactionTemplate transactionTemplate;
+
+    final ArrayBlockingQueue<AuditEvent> queue;
+
+    final AtomicLong sequence = new AtomicLong();
+
+    //spill file name -> failed replay attempts while the database is reachable
+    final HashMap<String, Integer> replayFailures = new HashMap<String, Integer>();
+
+    int flushSize = DEFAULT_FLUSH_SIZE;
+
+    long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    long offerTimeout = DEFAULT_OFFER_TIMEOUT;
+
+    int maxReplayAttempts = DEFAULT_MAX_REPLAY_ATTEMPTS;
+
+    File spillDirectory;
+
+    volatile boolean running;
+
+    Thread flushThread;
+
+    Timer flushTimer;
+
+    Counter writtenCounter;
+
+    Counter spilledCounter;
+
+    Counter droppedCounter;
+
+    public LoginAuditWriter(JdbcTemplate jdbcTemplate,
+            LoginRepository loginRepository,
+            LoginHistoryRepository loginHistoryRepository,
+            int capacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.loginRepository = loginRepository;
+        this.loginHistoryRepository = loginHistoryRepository;
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.queue = new ArrayBlockingQueue<AuditEvent>(capacity);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (spillDirectory != null && !SecureFiles.mkdirs(spillDirectory)) {
+            _logger.warn("can not create spill directory {}", spillDirectory);
+        }
+        loginRepository.setAuditWriter(this);
+        loginHistoryRepository.setAuditWriter(this);
+        running = true;
+        flushThread = new Thread(this::run, "login-audit-writer");
+        flushThread.setDaemon(true);
+        flushThread.start();
+        _logger.info("LoginAuditWriter started , capacity {} , flushSize {} , flushInterval {}ms , spill {}",
+                queue.remainingCapacity(), flushSize, flushInterval, spillDirectory);
+    }
+
+    /**
+     * 停止接收事件,写入队列中剩余事件
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        loginRepository.setAuditWriter(null);
+        loginHistoryRepository.setAuditWriter(null);
+        running = false;
+        flushThread.interrupt();
+        try {
+            flushThread.join(flushInterval * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _logger.info("LoginAuditWriter stopped , remaining {}", queue.size());
+    }
+
+    public boolean historyLogin(HistoryLogin historyLogin) {
+        return offer(HISTORY_LOGIN, historyLogin, null);
+    }
+
+    public boolean historyLogoff(String sessionId, String logoutTime) {
+        HistoryLogin historyLogin = new HistoryLogin();
+        historyLogin.setSessionId(sessionId);
+        historyLogin.setLogoutTime(logoutTime);
+        return offer(HISTORY_LOGOFF, historyLogin, null);
+    }
+
+    /**
+     * 按当前UserInfo取快照,loginCount在此时加1
+     */
+    public boolean lastLogin(UserInfo userInfo) {
+        UserInfo snapshot = new UserInfo();
+        snapshot.setId(userInfo.getId());
+        snapshot.setLastLoginTime(userInfo.getLastLoginTime());
+        snapshot.setLastLoginIp(userInfo.getLastLoginIp());
+        snapshot.setLoginCount(userInfo.getLoginCount() + 1);
+        return offer(USER_LOGIN, null, snapshot);
+    }
+
+    public boolean lastLogoff(UserInfo userInfo) {
+        UserInfo snapshot = new UserInfo();
+        snapshot.setId(userInfo.getId());
+        snapshot.setLastLogoffTime(userInfo.getLastLogoffTime());
+        return offer(USER_LOGOFF, null, snapshot);
+    }
+
+    /**
+     * @return false when the writer is stopped , caller should write synchronously
+     */
+    boolean offer(int type, HistoryLogin historyLogin, UserInfo userInfo) {
+        if (!running) {
+            return false;
+        }
+        AuditEvent event = new AuditEvent(type, sequence.incrementAndGet(), historyLogin, userInfo);
+        try {
+            if (queue.offer(event, offerTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _logger.warn("login audit queue is full , spill event to disk");
+        return spill(new ArrayList<AuditEvent>(Arrays.asList(event)));
+    }
+
+    void run() {
+        replaySpill();
+        ArrayList<AuditEvent> batch = new ArrayList<AuditEvent>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < flushSize) {
+                    long waitMillis = deadline - System.currentTimeMillis();
+                    AuditEvent event = running ?
+                            queue.poll(Math.max(waitMillis, 0), TimeUnit.MILLISECONDS) : queue.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                    queue.drainTo(batch, flushSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                //shutdown , drain without waiting
+                queue.drainTo(batch, flushSize - batch.size());
+            }
+
+            if (!batch.isEmpty()) {
+                //older spilled batches first , keep spilling while any remain
+                if (!(replaySpill() && flush(batch)) && !spill(new ArrayList<AuditEvent>(batch))) {
+                    _logger.error("{} login audit events can not be written or spilled , dropped", batch.size());
+                    drop(batch.size());
+                }
+                batch.clear();
+            } else if (running) {
+                replaySpill();
+            }
+        }
+    }
+
+    /**
+     * 事务内批量写入,同一用户的最后登录/退出更新合并,保证按发生顺序执行
+     */
+    boolean flush(List<AuditEvent> events) {
+        long startTime = System.nanoTime();
+        final ArrayList<HistoryLogin> historyLogins = new ArrayList<HistoryLogin>();
+        final ArrayList<HistoryLogin> historyLogoffs = new ArrayList<HistoryLogin>();
+        HashMap<String, AuditEvent> userLogins = new HashMap<String, AuditEvent>();
+        HashMap<String, AuditEvent> userLogoffs = new HashMap<String, AuditEvent>();
+        for (AuditEvent event : events) {
+            switch (event.type) {
+                case HISTORY_LOGIN  : historyLogins.add(event.historyLogin); break;
+                case HISTORY_LOGOFF : historyLogoffs.add(event.historyLogin); break;
+                case USER_LOGIN     : userLogins.put(event.userInfo.getId(), event); break;
+                case USER_LOGOFF    : userLogoffs.put(event.userInfo.getId(), event); break;
+                default             : break;
+            }
+        }
+        //the earlier of login/logoff per user goes first , the later one decides online status
+        final ArrayList<UserInfo> firstLogins = new ArrayList<UserInfo>();
+        final ArrayList<UserInfo> firstLogoffs = new ArrayList<UserInfo>();
+        final ArrayList<UserInfo> lastLogins = new ArrayList<UserInfo>();
+        final ArrayList<UserInfo> lastLogoffs = new ArrayList<UserInfo>();
+        for (Map.Entry<String, AuditEvent> entry : userLogins.entrySet()) {
+            AuditEvent logoff = userLogoffs.get(entry.getKey());
+            if (logoff != null && logoff.sequence > entry.getValue().sequence) {
+                firstLogins.add(entry.getValue().userInfo);
+            } else {
+                lastLogins.add(entry.getValue().userInfo);
+            }
+        }
+        for (Map.Entry<String, AuditEvent> entry : userLogoffs.entrySet()) {
+            AuditEvent login = userLogins.get(entry.getKey());
+            if (login != null && login.sequence > entry.getValue().sequence) {
+                firstLogoffs.add(entry.getValue().userInfo);
+            } else {
+                lastLogoffs.add(entry.getValue().userInfo);
+            }
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                loginHistoryRepository.loginBatch(historyLogins);
+                loginHistoryRepository.logoffBatch(historyLogoffs);
+                loginRepository.updateLastLoginBatch(firstLogins);
+                loginRepository.updateLastLogoffBatch(firstLogoffs);
+                loginRepository.updateLastLoginBatch(lastLogins);
+                loginRepository.updateLastLogoffBatch(lastLogoffs);
+            });
+            if (writtenCounter != null) {
+                writtenCounter.increment(events.size());
+            }
+            _logger.debug("flush {} events , history {} , logoff {} , user {}",
+                    events.size(), historyLogins.size(), historyLogoffs.size(),
+                    userLogins.size() + userLogoffs.size());
+            return true;
+        } catch (Exception e) {
+            _logger.error("flush login audit events error : " + e.getMessage());
+            return false;
+        } finally {
+            if (flushTimer != null) {
+                flushTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return false when the events can not be persisted to disk
+     */
+    synchronized boolean spill(ArrayList<AuditEvent> events) {
+        if (spillDirectory == null) {
+            _logger.error("spill directory not set , can not spill {} login audit events", events.size());
+            return false;
+        }
+        String fileName = String.format("login-audit-%013d-%019d", System.currentTimeMillis(), sequence.incrementAndGet());
+        File tmpFile = new File(spillDirectory, fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(SecureFiles.create(tmpFile)))) {
+            write(out, events);
+        } catch (IOException e) {
+            _logger.error("spill " + events.size() + " login audit events error", e);
+            tmpFile.delete();
+            return false;
+        }
+        if (!tmpFile.renameTo(new File(spillDirectory, fileName + SPILL_FILE_SUFFIX))) {
+            _logger.error("rename spill file {} error", tmpFile);
+            tmpFile.delete();
+            return false;
+        }
+        if (spilledCounter != null) {
+            spilledCounter.increment(events.size());
+        }
+        return true;
+    }
+
+    void drop(int count) {
+        if (droppedCounter != null) {
+            droppedCounter.increment(count);
+        }
+    }
+
+    /**
+     * 按文件名顺序重放.
+     * 写入失败时检查数据库连接,不可用则停止等待下一周期;
+     * 可用则说明该文件本身无法写入,记录失败次数后继续重放后续文件,
+     * 达到maxReplayAttempts次后改名为.bad隔离.
+     * @return true when no spill file is left
+     */
+    boolean replaySpill() {
+        File[] spillFiles = listSpillFiles();
+        if (spillFiles.length == 0) {
+            return true;
+        }
+        boolean replayed = true;
+        Arrays.sort(spillFiles);
+        for (File spillFile : spillFiles) {
+            ArrayList<AuditEvent> events;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(spillFile)))) {
+                events = read(in);
+            } catch (Exception e) {
+                _logger.error("read spill file " + spillFile + " error , rename to " + BAD_FILE_SUFFIX, e);
+                quarantine(spillFile);
+                continue;
+            }
+            if (!flush(events)) {
+                if (!isDatabaseAvailable()) {
+                    return false;
+                }
+                Integer failures = replayFailures.getOrDefault(spillFile.getName(), 0) + 1;
+                if (failures >= maxReplayAttempts) {
+                    _logger.error("replay spill file {} failed {} times , rename to {}",
+                            spillFile.getName(), failures, BAD_FILE_SUFFIX);
+                    quarantine(spillFile);
+                } else {
+                    _logger.warn("replay spill file {} failed , attempt {}", spillFile.getName(), failures);
+                    replayFailures.put(spillFile.getName(), failures);
+                    replayed = false;
+                }
+                continue;
+            }
+            replayFailures.remove(spillFile.getName());
+            if (!spillFile.delete()) {
+                //written , must not be replayed again
+                _logger.warn("delete spill file {} error , rename to {}", spillFile, BAD_FILE_SUFFIX);
+                quarantine(spillFile);
+            }
+            _logger.info("replay spill file {} , {} events", spillFile.getName(), events.size());
+        }
+        return replayed;
+    }
+
+    /**
+     * 落盘格式:版本,事件数,每个事件的类型,序号及批量写入用到的字段.
+     * 批量语句增加字段时需同步修改此处及read.
+     */
+    static void write(DataOutput out, List<AuditEvent> events) throws IOException {
+        out.writeInt(SPILL_FORMAT);
+        out.writeInt(events.size());
+        for (AuditEvent event : events) {
+            out.writeInt(event.type);
+            out.writeLong(event.sequence);
+            switch (event.type) {
+                case HISTORY_LOGIN  :
+                    HistoryLogin historyLogin = event.historyLogin;
+                    writeString(out, historyLogin.getId());
+                    writeString(out, historyLogin.getSessionId());
+                    writeString(out, historyLogin.getUserId());
+                    writeString(out, historyLogin.getUsername());
+                    writeString(out, historyLogin.getDisplayName());
+                    writeString(out, historyLogin.getLoginType());
+                    writeString(out, historyLogin.getMessage());
+                    writeString(out, historyLogin.getCode());
+                    writeString(out, historyLogin.getProvider());
+                    writeString(out, historyLogin.getSourceIp());
+                    writeString(out, historyLogin.getIpRegion());
+                    writeString(out, historyLogin.getIpLocation());
+                    writeString(out, historyLogin.getBrowser());
+                    writeString(out, historyLogin.getPlatform());
+                    writeString(out, historyLogin.getLoginUrl());
+                    out.writeInt(historyLogin.getSessionStatus());
+                    writeString(out, historyLogin.getInstId());
+                    break;
+                case HISTORY_LOGOFF :
+                    writeString(out, event.historyLogin.getSessionId());
+                    writeString(out, event.historyLogin.getLogoutTime());
+                    break;
+                case USER_LOGIN     :
+                    writeString(out, event.userInfo.getId());
+                    writeString(out, event.userInfo.getLastLoginTime());
+                    writeString(out, event.userInfo.getLastLoginIp());
+                    out.writeInt(event.userInfo.getLoginCount() == null ? 0 : event.userInfo.getLoginCount());
+                    break;
+                case USER_LOGOFF    :
+                    writeString(out, event.userInfo.getId());
+                    writeString(out, event.userInfo.getLastLogoffTime());
+                    break;
+                default             :
+                    throw new IOException("unknown event type " + event.type);
+            }
+        }
+    }
+
+    static ArrayList<AuditEvent> read(DataInput in) throws IOException {
+        int format = in.readInt();
+        if (format != SPILL_FORMAT) {
+            throw new IOException("unsupported spill format " + format);
+        }
+        int size = in.readInt();
+        if (size < 0 || size > MAX_SPILL_EVENTS) {
+            throw new IOException("invalid event count " + size);
+        }
+        ArrayList<AuditEvent> events = new ArrayList<AuditEvent>(size);
+        for (int i = 0; i < size; i++) {
+            int type = in.readInt();
+            long sequence = in.readLong();
+            HistoryLogin historyLogin = null;
+            UserInfo userInfo = null;
+            switch (type) {
+                case HISTORY_LOGIN  :
+                    historyLogin = new HistoryLogin();
+                    historyLogin.setId(readString(in));
+                    historyLogin.setSessionId(readString(in));
+                    historyLogin.setUserId(readString(in));
+                    historyLogin.setUsername(readString(in));
+                    historyLogin.setDisplayName(readString(in));
+                    historyLogin.setLoginType(readString(in));
+                    historyLogin.setMessage(readString(in));
+                    historyLogin.setCode(readString(in));
+                    historyLogin.setProvider(readString(in));
+                    historyLogin.setSourceIp(readString(in));
+                    historyLogin.setIpRegion(readString(in));
+                    historyLogin.setIpLocation(readString(in));
+                    historyLogin.setBrowser(readString(in));
+                    historyLogin.setPlatform(readString(in));
+                    historyLogin.setLoginUrl(readString(in));
+                    historyLogin.setSessionStatus(in.readInt());
+                    historyLogin.setInstId(readString(in));
+                    break;
+                case HISTORY_LOGOFF :
+                    historyLogin = new HistoryLogin();
+                    historyLogin.setSessionId(readString(in));
+                    historyLogin.setLogoutTime(readString(in));
+                    break;
+                case USER_LOGIN     :
+                    userInfo = new UserInfo();
+                    userInfo.setId(readString(in));
+                    userInfo.setLastLoginTime(readString(in));
+                    userInfo.setLastLoginIp(readString(in));
+                    userInfo.setLoginCount(in.readInt());
+                    break;
+                case USER_LOGOFF    :
+                    userInfo = new UserInfo();
+                    userInfo.setId(readString(in));
+                    userInfo.setLastLogoffTime(readString(in));
+                    break;
+                default             :
+                    throw new IOException("unknown event type " + type);
+            }
+            events.add(new AuditEvent(type, sequence, historyLogin, userInfo));
+        }
+        return events;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_SPILL_STRING_LENGTH) {
+            throw new IOException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void quarantine(File spillFile) {
+        replayFailures.remove(spillFile.getName());
+        if (!spillFile.renameTo(new File(spillFile.getPath() + BAD_FILE_SUFFIX))) {
+            _logger.error("rename spill file {} to {} error", spillFile, BAD_FILE_SUFFIX);
+        }
+    }
+
+    boolean isDatabaseAvailable() {
+        try {
+            Boolean valid = jdbcTemplate.execute(
+                    (ConnectionCallback<Boolean>) connection -> connection.isValid(VALIDATION_TIMEOUT_SECONDS));
+            return Boolean.TRUE.equals(valid);
+        } catch (Exception e) {
+            _logger.debug("database is not available : {}", e.getMessage());
+            return false;
+        }
+    }
+
+    File[] listSpillFiles() {
+        if (spillDirectory == null) {
+            return new File[0];
+        }
+        File[] spillFiles = spillDirectory.listFiles((dir, name) -> name.endsWith(SPILL_FILE_SUFFIX));
+        return spillFiles == null ? new File[0] : spillFiles;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(METRIC_PREFIX + ".queue", queue, ArrayBlockingQueue::size)
+            .description("Login audit events waiting to be written")
+            .register(registry);
+        Gauge.builder(METRIC_PREFIX + ".spill.files", this, writer -> writer.listSpillFiles().length)
+            .description("Login audit spill files waiting to be replayed")
+            .register(registry);
+        this.writtenCounter = Counter.builder(METRIC_PREFIX + ".events")
+            .tag("result", "written")
+            .register(registry);
+        this.spilledCounter = Counter.builder(METRIC_PREFIX + ".events")
+            .tag("result", "spilled")
+            .register(registry);
+        this.droppedCounter = Counter.builder(METRIC_PREFIX + ".events")
+            .tag("result", "dropped")
+            .register(registry);
+        this.flushTimer = Timer.builder(METRIC_PREFIX + ".flush")
+            .description("Login audit batch write latency")
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public void setFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    public void setMaxReplayAttempts(int maxReplayAttempts) {
+        this.maxReplayAttempts = maxReplayAttempts;
+    }
+
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+}
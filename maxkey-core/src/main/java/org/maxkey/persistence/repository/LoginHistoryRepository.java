@@ -18,6 +18,8 @@
 package org.maxkey.persistence.repository;
 
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.maxkey.entity.HistoryLogin;
 import org.maxkey.web.WebContext;
@@ -30,10 +32,19 @@ public class LoginHistoryRepository {
     
     private static final String HISTORY_LOGIN_INSERT_STATEMENT = "insert into mxk_history_login (id , sessionid , userid , username , displayname , logintype , message , code , provider , sourceip , ipregion , iplocation, browser , platform , application , loginurl , sessionstatus ,instid)values( ? , ? , ? , ? , ? , ? , ? , ? , ?, ? , ? , ?, ? , ? , ?, ? , ? , ?)";
 
+    private static final int[] HISTORY_LOGIN_INSERT_TYPES = new int[] { 
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, 
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, 
+            Types.VARCHAR ,Types.INTEGER, Types.VARCHAR
+            };
+
     private static final String HISTORY_LOGOUT_UPDATE_STATEMENT = "update mxk_history_login set logouttime = ? ,sessionstatus = 7 where  sessionid = ?";
 
     protected JdbcTemplate jdbcTemplate;
     
+    protected LoginAuditWriter auditWriter;
+    
     public LoginHistoryRepository(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
@@ -42,26 +53,40 @@ public class LoginHistoryRepository {
         historyLogin.setId(WebContext.genId());
         historyLogin.setLoginUrl(WebContext.getRequest().getRequestURI());
         _logger.debug(" historyLogin " + historyLogin);
-        jdbcTemplate.update(HISTORY_LOGIN_INSERT_STATEMENT,
-                new Object[] { 
-                        historyLogin.getId(), historyLogin.getSessionId(), historyLogin.getUserId(), historyLogin.getUsername(),
-                        historyLogin.getDisplayName(), historyLogin.getLoginType(), historyLogin.getMessage(), historyLogin.getCode(), 
-                        historyLogin.getProvider(), historyLogin.getSourceIp(),historyLogin.getIpRegion(),historyLogin.getIpLocation(),
-                        historyLogin.getBrowser(), historyLogin.getPlatform(),"Browser", historyLogin.getLoginUrl() , 
-                        historyLogin.getSessionStatus(),historyLogin.getInstId()
-                        },
-                new int[] { 
-                        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, 
-                        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
-                        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, 
-                        Types.VARCHAR ,Types.INTEGER, Types.VARCHAR
-                        });
+        if(auditWriter != null && auditWriter.historyLogin(historyLogin)) {
+            return;
+        }
+        jdbcTemplate.update(HISTORY_LOGIN_INSERT_STATEMENT, loginArgs(historyLogin), HISTORY_LOGIN_INSERT_TYPES);
+    }
+    
+    public void loginBatch(List<HistoryLogin> historyLogins) {
+        if(historyLogins.isEmpty()) {
+            return;
+        }
+        ArrayList<Object[]> batchArgs = new ArrayList<Object[]>(historyLogins.size());
+        for(HistoryLogin historyLogin : historyLogins) {
+            batchArgs.add(loginArgs(historyLogin));
+        }
+        jdbcTemplate.batchUpdate(HISTORY_LOGIN_INSERT_STATEMENT, batchArgs, HISTORY_LOGIN_INSERT_TYPES);
+    }
+    
+    Object[] loginArgs(HistoryLogin historyLogin) {
+        return new Object[] { 
+                historyLogin.getId(), historyLogin.getSessionId(), historyLogin.getUserId(), historyLogin.getUsername(),
+                historyLogin.getDisplayName(), historyLogin.getLoginType(), historyLogin.getMessage(), historyLogin.getCode(), 
+                historyLogin.getProvider(), historyLogin.getSourceIp(),historyLogin.getIpRegion(),historyLogin.getIpLocation(),
+                historyLogin.getBrowser(), historyLogin.getPlatform(),"Browser", historyLogin.getLoginUrl() , 
+                historyLogin.getSessionStatus(),historyLogin.getInstId()
+                };
     }
     
     
     
     public void logoff(String lastLogoffTime,String sessionId) {
         _logger.debug(" sessionId {} , lastlogofftime {}" ,sessionId, lastLogoffTime);
+        if(auditWriter != null && auditWriter.historyLogoff(sessionId, lastLogoffTime)) {
+            return;
+        }
         jdbcTemplate.update(HISTORY_LOGOUT_UPDATE_STATEMENT,
                 new Object[] { lastLogoffTime, sessionId },                           
                 new int[] { Types.VARCHAR, Types.VARCHAR });
@@ -71,8 +96,27 @@ public class LoginHistoryRepository {
         _logger.debug(" sessionId {} , LogoutTime {}" ,
                     historyLogin.getSessionId(), historyLogin.getLogoutTime()
                 );
+        if(auditWriter != null && auditWriter.historyLogoff(historyLogin.getSessionId(), historyLogin.getLogoutTime())) {
+            return;
+        }
         jdbcTemplate.update(HISTORY_LOGOUT_UPDATE_STATEMENT,
                 new Object[] { historyLogin.getLogoutTime(), historyLogin.getSessionId() },                           
                 new int[] { Types.VARCHAR, Types.VARCHAR });
     }
+    
+    public void logoffBatch(List<HistoryLogin> historyLogins) {
+        if(historyLogins.isEmpty()) {
+            return;
+        }
+        ArrayList<Object[]> batchArgs = new ArrayList<Object[]>(historyLogins.size());
+        for(HistoryLogin historyLogin : historyLogins) {
+            batchArgs.add(new Object[] { historyLogin.getLogoutTime(), historyLogin.getSessionId() });
+        }
+        jdbcTemplate.batchUpdate(HISTORY_LOGOUT_UPDATE_STATEMENT, batchArgs, 
+                new int[] { Types.VARCHAR, Types.VARCHAR });
+    }
+    
+    public void setAuditWriter(LoginAuditWriter auditWriter) {
+        this.auditWriter = auditWriter;
+    }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.repository;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.maxkey.entity.Groups;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.persistence.redis.RedisChannelSubscriber;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * 登录用户缓存,供LoginRepository使用.
+ * <p>
+ * principals 登录名(username/mobile/email) -> 用户id<br>
+ * users 用户id -> 用户快照,读取时返回副本,调用方修改不影响缓存<br>
+ * userGroups 用户id -> 所属组<br>
+ * groupApps 组id -> 授权应用id<br>
+ * profiles 用户id -> 完整用户信息,供OAuth2 userinfo等接口使用,过期时间较短(默认60秒)
+ * </p>
+ * <p>
+ * UserInfoService、GroupMemberService、GroupPrivilegesService变更数据后调用invalidate*,
+ * 通过Redis频道通知其他节点(包括maxkey与maxkey-mgt之间).
+ * 所有缓存按写入时间过期(默认300秒),通知丢失时过期数据最多保留一个周期;订阅断线重连后清空.
+ * </p>
+ * <p>
+ * 缓存中包含密码、状态及锁定信息,只有订阅失效通知后才启用读写;
+ * 未配置Redis时各方法直接返回未命中,mgt中锁定、禁用、删除用户立即对maxkey生效.
+ * 登录时间等本地写入只更新本节点快照,不通知其他节点.
+ * </p>
+ */
+public class LoginPrincipalCache implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(LoginPrincipalCache.class);
+
+    public static final String INVALIDATE_CHANNEL = "REDIS_LOGIN_PRINCIPAL_INVALIDATE";
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+    public static final int DEFAULT_EXPIRE_SECONDS = 300;
+
+    public static final int DEFAULT_PROFILE_EXPIRE_SECONDS = 60;
+
+    static final String MESSAGE_USER = "user:";
+
+    static final String MESSAGE_GROUP_MEMBER = "groupMember";
+
+    static final String MESSAGE_GROUP_PRIVILEGES = "groupPrivileges";
+
+    final Cache<String, String> principals;
+
+    final Cache<String, UserInfo> users;
+
+    final Cache<String, List<Groups>> userGroups;
+
+    final Cache<String, List<String>> groupApps;
+
+    final Cache<String, String> profileIds;
+
+    final Cache<String, UserInfo> profiles;
+
+    RedisChannelSubscriber subscriber;
+
+    volatile boolean enabled;
+
+    public LoginPrincipalCache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * @param maximumSize 每个缓存的最大数量
+     * @param expireSeconds 写入后过期时间
+     */
+    public LoginPrincipalCache(int maximumSize, int expireSeconds) {
+        this(maximumSize, expireSeconds, DEFAULT_PROFILE_EXPIRE_SECONDS);
+    }
+
+    /**
+     * @param maximumSize 每个缓存的最大数量
+     * @param expireSeconds 写入后过期时间
+     * @param profileExpireSeconds 完整用户信息写入后过期时间
+     */
+    public LoginPrincipalCache(int maximumSize, int expireSeconds, int profileExpireSeconds) {
+        this.principals = build(maximumSize, expireSeconds);
+        this.users = build(maximumSize, expireSeconds);
+        this.userGroups = build(maximumSize, expireSeconds);
+        this.groupApps = build(maximumSize, expireSeconds);
+        this.profileIds = build(maximumSize, profileExpireSeconds);
+        this.profiles = build(maximumSize, profileExpireSeconds);
+        _logger.debug("maximumSize {} , expireSeconds {} , profileExpireSeconds {}",
+                maximumSize, expireSeconds, profileExpireSeconds);
+    }
+
+    static <V> Cache<String, V> build(int maximumSize, int expireSeconds) {
+        return Caffeine.newBuilder()
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 启用集群失效通知
+     * @param connectionFactory
+     */
+    public void subscribe(RedisConnectionFactory connectionFactory) {
+        this.subscriber = new RedisChannelSubscriber(
+                connectionFactory,
+                INVALIDATE_CHANNEL,
+                new RedisChannelSubscriber.MessageListener() {
+                    @Override
+                    public void onMessage(String message) {
+                        _logger.trace("invalidate {}", message);
+                        if (message.startsWith(MESSAGE_USER)) {
+                            evictUser(message.substring(MESSAGE_USER.length()));
+                        } else if (message.equals(MESSAGE_GROUP_MEMBER)) {
+                            userGroups.invalidateAll();
+                        } else if (message.equals(MESSAGE_GROUP_PRIVILEGES)) {
+                            groupApps.invalidateAll();
+                        }
+                    }
+
+                    @Override
+                    public void onSubscribe() {
+                        //messages may be lost while disconnected
+                        invalidateAll();
+                    }
+                });
+        this.subscriber.start();
+        this.enabled = true;
+    }
+
+    /**
+     * @return true when cluster invalidation is active and the cache serves reads
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 按登录名查找用户
+     * @param principal username/mobile/email
+     * @return 用户副本,未缓存返回null
+     */
+    public UserInfo getUser(String principal) {
+        if (!enabled) {
+            return null;
+        }
+        String userId = principals.getIfPresent(principal);
+        if (userId == null) {
+            return null;
+        }
+        UserInfo userInfo = users.getIfPresent(userId);
+        if (userInfo == null || !matches(userInfo, principal)) {
+            //username/mobile/email changed
+            principals.invalidate(principal);
+            return null;
+        }
+        return copy(userInfo);
+    }
+
+    public void putUser(String principal, UserInfo userInfo) {
+        if (!enabled) {
+            return;
+        }
+        users.put(userInfo.getId(), copy(userInfo));
+        principals.put(principal, userInfo.getId());
+    }
+
+    /**
+     * 登录过程中的本地写入(最后登录/退出时间)同步到本节点快照.
+     * 不通知其他节点,避免每次登录都使集群内的缓存失效;其他节点的快照在过期前登录次数等信息可能滞后
+     * @param userId
+     * @param updater
+     */
+    public void updateUser(String userId, Consumer<UserInfo> updater) {
+        users.asMap().computeIfPresent(userId, (id, cached) -> {
+            UserInfo updated = copy(cached);
+            updater.accept(updated);
+            return updated;
+        });
+    }
+
+    /**
+     * 按用户名查找完整用户信息
+     * @param username
+     * @return 用户副本,未缓存返回null
+     */
+    public UserInfo getProfile(String username) {
+        if (!enabled) {
+            return null;
+        }
+        String userId = profileIds.getIfPresent(username);
+        if (userId == null) {
+            return null;
+        }
+        UserInfo userInfo = profiles.getIfPresent(userId);
+        if (userInfo == null || !username.equals(userInfo.getUsername())) {
+            profileIds.invalidate(username);
+            return null;
+        }
+        return copy(userInfo);
+    }
+
+    public void putProfile(UserInfo userInfo) {
+        if (!enabled) {
+            return;
+        }
+        profiles.put(userInfo.getId(), copy(userInfo));
+        profileIds.put(userInfo.getUsername(), userInfo.getId());
+    }
+
+    public List<Groups> getGroups(String userId) {
+        if (!enabled) {
+            return null;
+        }
+        return userGroups.getIfPresent(userId);
+    }
+
+    public void putGroups(String userId, List<Groups> groups) {
+        if (!enabled) {
+            return;
+        }
+        userGroups.put(userId, groups);
+    }
+
+    public List<String> getApps(String groupId) {
+        if (!enabled) {
+            return null;
+        }
+        return groupApps.getIfPresent(groupId);
+    }
+
+    public void putApps(String groupId, List<String> appIds) {
+        if (!enabled) {
+            return;
+        }
+        groupApps.put(groupId, appIds);
+    }
+
+    public void invalidateUser(String userId) {
+        evictUser(userId);
+        publish(MESSAGE_USER + userId);
+    }
+
+    public void invalidateGroupMember() {
+        userGroups.invalidateAll();
+        publish(MESSAGE_GROUP_MEMBER);
+    }
+
+    public void invalidateGroupPrivileges() {
+        groupApps.invalidateAll();
+        publish(MESSAGE_GROUP_PRIVILEGES);
+    }
+
+    public void invalidateAll() {
+        principals.invalidateAll();
+        users.invalidateAll();
+        userGroups.invalidateAll();
+        groupApps.invalidateAll();
+        profileIds.invalidateAll();
+        profiles.invalidateAll();
+    }
+
+    void evictUser(String userId) {
+        UserInfo userInfo = users.getIfPresent(userId);
+        users.invalidate(userId);
+        userGroups.invalidate(userId);
+        profiles.invalidate(userId);
+        if (userInfo != null) {
+            principals.invalidate(userInfo.getUsername());
+            if (userInfo.getMobile() != null) {
+                principals.invalidate(userInfo.getMobile());
+            }
+            if (userInfo.getEmail() != null) {
+                principals.invalidate(userInfo.getEmail());
+            }
+        }
+    }
+
+    void publish(String message) {
+        if (subscriber == null) {
+            return;
+        }
+        try {
+            subscriber.publish(message);
+        } catch (Exception e) {
+            _logger.warn("publish {} error : {}", message, e.getMessage());
+        }
+    }
+
+    static boolean matches(UserInfo userInfo, String principal) {
+        return principal.equals(userInfo.getUsername())
+                || principal.equals(userInfo.getMobile())
+                || principal.equals(userInfo.getEmail());
+    }
+
+    static UserInfo copy(UserInfo userInfo) {
+        UserInfo target = new UserInfo();
+        BeanUtils.copyProperties(userInfo, target);
+        return target;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, principals, "loginPrincipal");
+        CaffeineCacheMetrics.monitor(registry, users, "loginUser");
+        CaffeineCacheMetrics.monitor(registry, userGroups, "loginUserGroups");
+        CaffeineCacheMetrics.monitor(registry, groupApps, "loginGroupApps");
+        CaffeineCacheMetrics.monitor(registry, profiles, "userProfile");
+    }
+
+    public void shutdown() {
+        enabled = false;
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+    }
+}
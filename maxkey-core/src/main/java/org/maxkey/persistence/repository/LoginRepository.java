@@ -21,8 +21,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.maxkey.constants.ConstsStatus;
 import org.maxkey.entity.Groups;
@@ -31,6 +35,7 @@ import org.maxkey.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -54,16 +59,40 @@ public class LoginRepository {
 
     private static final String GROUPS_SELECT_STATEMENT = "select distinct g.id,g.name from mxk_userinfo u,mxk_groups g,mxk_group_member gm where u.id = ?  and u.id=gm.memberid and gm.groupid=g.id ";
 
-    private static final String DEFAULT_USERINFO_SELECT_STATEMENT = "select * from  mxk_userinfo where username = ? ";
+    /**
+     * projected columns for login , picture is not loaded
+     */
+    private static final String USERINFO_SELECT_COLUMNS = "select id,username,password,sharedsecret,sharedcounter,decipherable,windowsaccount,usertype,"
+            + "displayname,nickname,namezhspell,namezhshortspell,givenname,middlename,familyname,honorificprefix,honorificsuffix,formattedname,"
+            + "gender,birthdate,married,idtype,idcardno,website,authntype,mobile,mobileverified,email,emailverified,passwordquestion,passwordanswer,"
+            + "apploginauthntype,apploginpassword,protectedapps,passwordlastsettime,passwordsettype,badpasswordcount,badpasswordtime,unlocktime,islocked,"
+            + "lastlogintime,lastloginip,lastlogofftime,logincount,regionhistory,passwordhistory,timezone,locale,preferredlanguage,"
+            + "workemail,workphonenumber,workcountry,workregion,worklocality,workstreetaddress,workaddressformatted,workpostalcode,workfax,"
+            + "homeemail,homephonenumber,homecountry,homeregion,homelocality,homestreetaddress,homeaddressformatted,homepostalcode,homefax,"
+            + "employeenumber,division,costcenter,organization,departmentid,department,jobtitle,joblevel,managerid,manager,assistantid,assistant,"
+            + "entrydate,quitdate,startworkdate,extraattribute,createdby,createddate,modifiedby,modifieddate,status,gridlist,description,theme,instid "
+            + "from mxk_userinfo ";
+
+    private static final String DEFAULT_USERINFO_SELECT_STATEMENT = USERINFO_SELECT_COLUMNS + "where username = ? ";
     
-    private static final String DEFAULT_USERINFO_SELECT_STATEMENT_USERNAME_MOBILE = "select * from  mxk_userinfo where (username = ? or mobile = ?)";
+    private static final String DEFAULT_USERINFO_SELECT_STATEMENT_USERNAME_MOBILE = USERINFO_SELECT_COLUMNS + "where (username = ? or mobile = ?)";
     
-    private static final String DEFAULT_USERINFO_SELECT_STATEMENT_USERNAME_MOBILE_EMAIL = "select * from  mxk_userinfo where (username = ? or mobile = ? or email = ?) ";
+    private static final String DEFAULT_USERINFO_SELECT_STATEMENT_USERNAME_MOBILE_EMAIL = USERINFO_SELECT_COLUMNS + "where (username = ? or mobile = ? or email = ?) ";
     
-    private static final String DEFAULT_MYAPPS_SELECT_STATEMENT = "select distinct app.id,app.name from mxk_apps app,mxk_group_privileges gp,mxk_groups g  where app.id=gp.appid and gp.groupid=g.id and g.id in(%s)";
+    /**
+     * group ids are bound in fixed size batches , so the statement is always the same
+     */
+    private static final int GROUP_APPS_BATCH_SIZE = 16;
+    
+    private static final String DEFAULT_MYAPPS_SELECT_STATEMENT = "select distinct g.id as groupid,app.id from mxk_apps app,mxk_group_privileges gp,mxk_groups g  where app.id=gp.appid and gp.groupid=g.id and g.id in("
+            + String.join(",", Collections.nCopies(GROUP_APPS_BATCH_SIZE, "?")) + ")";
     
     protected JdbcTemplate jdbcTemplate;
     
+    protected LoginAuditWriter auditWriter;
+    
+    protected LoginPrincipalCache principalCache;
+    
     /**
      * 1 (USERNAME)  2 (USERNAME | MOBILE) 3 (USERNAME | MOBILE | EMAIL)
      */
@@ -78,6 +107,14 @@ public class LoginRepository {
     }
     
     public UserInfo find(String username, String password) {
+        if(principalCache != null) {
+            UserInfo userInfo = principalCache.getUser(username);
+            if(userInfo != null) {
+                _logger.debug("load cached UserInfo : " + userInfo.getUsername());
+                return userInfo;
+            }
+        }
+        
         List<UserInfo> listUserInfo = null ;
         if( LOGIN_ATTRIBUTE_TYPE == 1) {
         	listUserInfo = findByUsername(username,password);
@@ -90,6 +127,9 @@ public class LoginRepository {
         UserInfo userInfo = null;
         if (listUserInfo != null && listUserInfo.size() > 0) {
             userInfo = listUserInfo.get(0);
+            if(principalCache != null) {
+                principalCache.putUser(username, userInfo);
+            }
         }
         _logger.debug("load UserInfo : " + userInfo);
         return userInfo;
@@ -132,6 +172,7 @@ public class LoginRepository {
                         new Object[] { ConstsStatus.LOCK, new Date(), userInfo.getId() },
                         new int[] { Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR });
                 userInfo.setIsLocked(ConstsStatus.LOCK);
+                invalidate(userInfo);
             }
         } catch (Exception e) {
             _logger.error("lockUser Exception",e);
@@ -150,6 +191,7 @@ public class LoginRepository {
                         new Object[] { ConstsStatus.ACTIVE, new Date(), userInfo.getId() },
                         new int[] { Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR });
                 userInfo.setIsLocked(ConstsStatus.ACTIVE);
+                invalidate(userInfo);
             }
         } catch (Exception e) {
             _logger.error("unlockUser Exception",e);
@@ -168,6 +210,7 @@ public class LoginRepository {
                         new Object[] { 0, ConstsStatus.ACTIVE, new Date(), userInfo.getId() },
                         new int[] { Types.INTEGER, Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR });
                 userInfo.setIsLocked(ConstsStatus.ACTIVE);
+                invalidate(userInfo);
             }
         } catch (Exception e) {
             _logger.error("resetBadPasswordCountAndLockout Exception",e);
@@ -187,6 +230,7 @@ public class LoginRepository {
                 jdbcTemplate.update(BADPASSWORDCOUNT_UPDATE_STATEMENT,
                         new Object[] { badPasswordCount, new Date(), userInfo.getId() },
                         new int[] { Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR });
+                invalidate(userInfo);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -195,34 +239,93 @@ public class LoginRepository {
     }
     
     public ArrayList<GrantedAuthority> queryAuthorizedApps(ArrayList<GrantedAuthority> grantedAuthoritys) {
-        String grantedAuthorityString="'ROLE_ALL_USER'";
+        LinkedHashSet<String> groupIds = new LinkedHashSet<String>();
+        groupIds.add("ROLE_ALL_USER");
         for(GrantedAuthority grantedAuthority : grantedAuthoritys) {
-            grantedAuthorityString += ",'"+ grantedAuthority.getAuthority()+"'";
+            groupIds.add(grantedAuthority.getAuthority());
         }
         
-        ArrayList<GrantedAuthority> listAuthorizedApps = (ArrayList<GrantedAuthority>) jdbcTemplate.query(
-                String.format(DEFAULT_MYAPPS_SELECT_STATEMENT, grantedAuthorityString), 
-                new RowMapper<GrantedAuthority>() {
-            public GrantedAuthority mapRow(ResultSet rs, int rowNum) throws SQLException {
-                return new SimpleGrantedAuthority(rs.getString("id"));
+        LinkedHashSet<String> appIds = new LinkedHashSet<String>();
+        ArrayList<String> missGroupIds = new ArrayList<String>();
+        for(String groupId : groupIds) {
+            List<String> groupAppIds = principalCache == null ? null : principalCache.getApps(groupId);
+            if(groupAppIds == null) {
+                missGroupIds.add(groupId);
+            }else {
+                appIds.addAll(groupAppIds);
             }
-        });
+        }
+        
+        if(!missGroupIds.isEmpty()) {
+            Map<String, List<String>> loadGroupApps = queryGroupApps(missGroupIds);
+            for(String groupId : missGroupIds) {
+                List<String> groupAppIds = loadGroupApps.get(groupId);
+                if(groupAppIds == null) {
+                    groupAppIds = Collections.emptyList();
+                }
+                appIds.addAll(groupAppIds);
+                if(principalCache != null) {
+                    principalCache.putApps(groupId, groupAppIds);
+                }
+            }
+        }
+        
+        ArrayList<GrantedAuthority> listAuthorizedApps = new ArrayList<GrantedAuthority>(appIds.size());
+        for(String appId : appIds) {
+            listAuthorizedApps.add(new SimpleGrantedAuthority(appId));
+        }
 
         _logger.debug("list Authorized Apps  " + listAuthorizedApps);
         return listAuthorizedApps;
     }
     
+    /**
+     * query apps of groups , group ids are bound in batches of GROUP_APPS_BATCH_SIZE,
+     * the last batch is padded with the last group id
+     * 
+     * @param groupIds
+     * @return group id -> app ids
+     */
+    Map<String, List<String>> queryGroupApps(List<String> groupIds) {
+        final Map<String, List<String>> groupApps = new HashMap<String, List<String>>();
+        for(int from = 0; from < groupIds.size(); from += GROUP_APPS_BATCH_SIZE) {
+            List<String> batch = groupIds.subList(from, Math.min(from + GROUP_APPS_BATCH_SIZE, groupIds.size()));
+            Object[] args = new Object[GROUP_APPS_BATCH_SIZE];
+            for(int i = 0; i < GROUP_APPS_BATCH_SIZE; i++) {
+                args[i] = batch.get(Math.min(i, batch.size() - 1));
+            }
+            jdbcTemplate.query(DEFAULT_MYAPPS_SELECT_STATEMENT, new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    String groupId = rs.getString("groupid");
+                    List<String> appIds = groupApps.get(groupId);
+                    if(appIds == null) {
+                        appIds = new ArrayList<String>();
+                        groupApps.put(groupId, appIds);
+                    }
+                    appIds.add(rs.getString("id"));
+                }
+            }, args);
+        }
+        return groupApps;
+    }
+    
     public List<Groups> queryGroups(UserInfo userInfo) {
-        List<Groups> listGroups = jdbcTemplate.query(GROUPS_SELECT_STATEMENT, new RowMapper<Groups>() {
-            public Groups mapRow(ResultSet rs, int rowNum) throws SQLException {
-                Groups group = new Groups(rs.getString("id"), rs.getString("name"), 0);
-
-                return group;
+        List<Groups> listGroups = principalCache == null ? null : principalCache.getGroups(userInfo.getId());
+        if(listGroups == null) {
+            listGroups = jdbcTemplate.query(GROUPS_SELECT_STATEMENT, new RowMapper<Groups>() {
+                public Groups mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    Groups group = new Groups(rs.getString("id"), rs.getString("name"), 0);
+    
+                    return group;
+                }
+            }, userInfo.getId());
+            if(principalCache != null) {
+                principalCache.putGroups(userInfo.getId(), Collections.unmodifiableList(listGroups));
             }
-        }, userInfo.getId());
+        }
 
         _logger.debug("list Groups  " + listGroups);
-        return listGroups;
+        return new ArrayList<Groups>(listGroups);
     }
 
     /**
@@ -250,6 +353,18 @@ public class LoginRepository {
     
     
     public void updateLastLogin(UserInfo userInfo) {
+        if(principalCache != null) {
+            final int loginCount = userInfo.getLoginCount() + 1;
+            principalCache.updateUser(userInfo.getId(), cached -> {
+                cached.setLastLoginTime(userInfo.getLastLoginTime());
+                cached.setLastLoginIp(userInfo.getLastLoginIp());
+                cached.setLoginCount(loginCount);
+                cached.setOnline(UserInfo.ONLINE.ONLINE);
+            });
+        }
+        if(auditWriter != null && auditWriter.lastLogin(userInfo)) {
+            return;
+        }
         jdbcTemplate.update(LOGIN_USERINFO_UPDATE_STATEMENT,
                 new Object[] { 
                 				userInfo.getLastLoginTime(), 
@@ -261,11 +376,67 @@ public class LoginRepository {
     }
     
     public void updateLastLogoff(UserInfo userInfo) {
+        if(principalCache != null) {
+            principalCache.updateUser(userInfo.getId(), cached -> {
+                cached.setLastLogoffTime(userInfo.getLastLogoffTime());
+                cached.setOnline(UserInfo.ONLINE.OFFLINE);
+            });
+        }
+        if(auditWriter != null && auditWriter.lastLogoff(userInfo)) {
+            return;
+        }
         jdbcTemplate.update(	LOGOUT_USERINFO_UPDATE_STATEMENT, 
         		new Object[] { 	userInfo.getLastLogoffTime(), userInfo.getId() },
                 new int[] { 	Types.TIMESTAMP, Types.VARCHAR });
     }
     
+    /**
+     * batch update , loginCount is already increased
+     * @param userInfos
+     */
+    public void updateLastLoginBatch(List<UserInfo> userInfos) {
+        if(userInfos.isEmpty()) {
+            return;
+        }
+        ArrayList<Object[]> batchArgs = new ArrayList<Object[]>(userInfos.size());
+        for(UserInfo userInfo : userInfos) {
+            batchArgs.add(new Object[] { 
+                            userInfo.getLastLoginTime(), 
+                            userInfo.getLastLoginIp(), 
+                            userInfo.getLoginCount(), 
+                            userInfo.getId() 
+                        });
+        }
+        jdbcTemplate.batchUpdate(LOGIN_USERINFO_UPDATE_STATEMENT, batchArgs,
+                new int[] { Types.TIMESTAMP, Types.VARCHAR, Types.INTEGER, Types.VARCHAR });
+    }
+    
+    public void updateLastLogoffBatch(List<UserInfo> userInfos) {
+        if(userInfos.isEmpty()) {
+            return;
+        }
+        ArrayList<Object[]> batchArgs = new ArrayList<Object[]>(userInfos.size());
+        for(UserInfo userInfo : userInfos) {
+            batchArgs.add(new Object[] { userInfo.getLastLogoffTime(), userInfo.getId() });
+        }
+        jdbcTemplate.batchUpdate(LOGOUT_USERINFO_UPDATE_STATEMENT, batchArgs,
+                new int[] { Types.TIMESTAMP, Types.VARCHAR });
+    }
+    
+    public void setAuditWriter(LoginAuditWriter auditWriter) {
+        this.auditWriter = auditWriter;
+    }
+    
+    public void setPrincipalCache(LoginPrincipalCache principalCache) {
+        this.principalCache = principalCache;
+    }
+    
+    void invalidate(UserInfo userInfo) {
+        if(principalCache != null) {
+            principalCache.invalidateUser(userInfo.getId());
+        }
+    }
+    
     public class UserInfoRowMapper implements RowMapper<UserInfo> {
         @Override
         public UserInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -293,7 +464,6 @@ public class LoginRepository {
 
             userInfo.setGender(rs.getInt("gender"));
             userInfo.setBirthDate(rs.getString("birthdate"));
-            userInfo.setPicture(rs.getBytes("picture"));
             userInfo.setMarried(rs.getInt("married"));
             userInfo.setIdType(rs.getInt("idtype"));
             userInfo.setIdCardNo(rs.getString("idcardno"));
@@ -48,6 +48,8 @@ public class PasswordPolicyValidator {
     
     MessageSource messageSource;
     
+    LoginPrincipalCache principalCache;
+    
     public static final String PASSWORD_POLICY_VALIDATE_RESULT = "PASSWORD_POLICY_SESSION_VALIDATE_RESULT_KEY";
     
     private static final String LOCK_USER_UPDATE_STATEMENT = "update mxk_userinfo set islocked = ?  , unlocktime = ? where id = ?";
@@ -225,6 +227,7 @@ public class PasswordPolicyValidator {
                        new Object[] { ConstsStatus.LOCK, new Date(), userInfo.getId() },
                        new int[] { Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR });
                userInfo.setIsLocked(ConstsStatus.LOCK);
+               invalidate(userInfo.getId());
            }
        } catch (Exception e) {
            _logger.error("lockUser Exception",e);
@@ -244,6 +247,7 @@ public class PasswordPolicyValidator {
                        new Object[] { ConstsStatus.ACTIVE, new Date(), userInfo.getId() },
                        new int[] { Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR });
                userInfo.setIsLocked(ConstsStatus.ACTIVE);
+               invalidate(userInfo.getId());
            }
        } catch (Exception e) {
            _logger.error("unlockUser Exception",e);
@@ -262,6 +266,7 @@ public class PasswordPolicyValidator {
                        new Object[] { 0, ConstsStatus.ACTIVE, new Date(), userInfo.getId() },
                        new int[] { Types.INTEGER, Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR });
                userInfo.setIsLocked(ConstsStatus.ACTIVE);
+               invalidate(userInfo.getId());
            }
        } catch (Exception e) {
            _logger.error("resetAttempts Exception",e);
@@ -278,6 +283,7 @@ public class PasswordPolicyValidator {
            jdbcTemplate.update(BADPASSWORDCOUNT_UPDATE_STATEMENT,
                    new Object[] { badPasswordCount, new Date(), userId },
                    new int[] { Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR });
+           invalidate(userId);
        } catch (Exception e) {
            _logger.error("setBadPasswordCount Exception",e);
        }
@@ -317,4 +323,14 @@ public class PasswordPolicyValidator {
 		return passwordPolicyRepository;
 	}
 
+   public void setPrincipalCache(LoginPrincipalCache principalCache) {
+       this.principalCache = principalCache;
+   }
+
+   void invalidate(String userId) {
+       if (principalCache != null) {
+           principalCache.invalidateUser(userId);
+       }
+   }
+
 }
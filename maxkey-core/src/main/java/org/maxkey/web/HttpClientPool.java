@@ -0,0 +1,433 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.web;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 共享的出站HTTP连接池,单点注销、CAS回调、同步器及扩展API均通过{@link HttpRequestAdapter}使用.
+ * <p>
+ * 同步及异步客户端各自维护连接池(总数及每个目标地址上限),连接保持(keep-alive)复用,
+ * 按目标地址(host:port)统计耗时及结果,连续失败达到阈值后熔断,熔断期间请求直接失败,
+ * 到期后放行一个试探请求,成功则恢复.
+ * </p>
+ * <p>
+ * 目标地址包括客户端提交的地址(如CAS pgtUrl),熔断状态最多保留maxDestinations个,闲置后过期;
+ * 耗时指标只为最先出现的maxTaggedDestinations个目标地址单独打标签,其余合并为other,Timer只注册一次.
+ * </p>
+ * <p>
+ * 未配置时{@link #getInstance()}使用默认参数创建,Spring配置的实例通过{@link #setInstance(HttpClientPool)}替换,
+ * 关闭后不再作为共享实例.
+ * </p>
+ */
+public class HttpClientPool implements MeterBinder {
+	private static final Logger _logger = LoggerFactory.getLogger(HttpClientPool.class);
+
+	public static final String METRIC_PREFIX = "maxkey.http.client";
+
+	public static final int DEFAULT_MAX_TOTAL = 200;
+
+	public static final int DEFAULT_MAX_PER_ROUTE = 20;
+
+	public static final long DEFAULT_KEEP_ALIVE = 30 * 1000;
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	public static final long DEFAULT_OPEN_INTERVAL = 30 * 1000;
+
+	public static final int DEFAULT_MAX_DESTINATIONS = 10000;
+
+	public static final int DEFAULT_MAX_TAGGED_DESTINATIONS = 100;
+
+	public static final String OTHER_DESTINATION = "other";
+
+	static final long MIN_BREAKER_IDLE = 10 * 60 * 1000;
+
+	static final BiFunction<Integer, String, String> RESPONSE_BODY = (statusCode, content) -> content;
+
+	static volatile HttpClientPool instance;
+
+	final PoolingHttpClientConnectionManager connectionManager;
+
+	final CloseableHttpClient httpClient;
+
+	final CloseableHttpAsyncClient httpAsyncClient;
+
+	final int failureThreshold;
+
+	final long openInterval;
+
+	final Cache<String, CircuitBreaker> circuitBreakers;
+
+	//destinations with their own metric tag
+	final Set<String> taggedDestinations = ConcurrentHashMap.newKeySet();
+
+	//destination , method , outcome -> timer
+	final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+	int maxTaggedDestinations = DEFAULT_MAX_TAGGED_DESTINATIONS;
+
+	volatile MeterRegistry registry;
+
+	public HttpClientPool() {
+		this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_KEEP_ALIVE, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_INTERVAL);
+	}
+
+	/**
+	 * @param maxTotal connections of the pool
+	 * @param maxPerRoute connections per destination
+	 * @param keepAlive milliseconds an idle connection is kept , unless the server sends a shorter Keep-Alive
+	 * @param failureThreshold consecutive failures to open the circuit of a destination , 0 disabled
+	 * @param openInterval milliseconds the circuit stays open
+	 */
+	public HttpClientPool(int maxTotal, int maxPerRoute, long keepAlive, int failureThreshold, long openInterval) {
+		this(maxTotal, maxPerRoute, keepAlive, failureThreshold, openInterval, DEFAULT_MAX_DESTINATIONS);
+	}
+
+	/**
+	 * @param maxTotal connections of the pool
+	 * @param maxPerRoute connections per destination
+	 * @param keepAlive milliseconds an idle connection is kept , unless the server sends a shorter Keep-Alive
+	 * @param failureThreshold consecutive failures to open the circuit of a destination , 0 disabled
+	 * @param openInterval milliseconds the circuit stays open
+	 * @param maxDestinations circuit breakers kept , idle ones expire
+	 */
+	public HttpClientPool(int maxTotal, int maxPerRoute, long keepAlive, 
+			int failureThreshold, long openInterval, int maxDestinations) {
+		this.failureThreshold = failureThreshold;
+		this.openInterval = openInterval;
+		this.circuitBreakers = Caffeine.newBuilder()
+				.maximumSize(maxDestinations)
+				.expireAfterAccess(Math.max(openInterval * 2, MIN_BREAKER_IDLE), TimeUnit.MILLISECONDS)
+				.build();
+
+		ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+		};
+
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		connectionManager.setValidateAfterInactivity(2000);
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections()
+				.evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+				.build();
+
+		httpAsyncClient = HttpAsyncClients.custom()
+				.setMaxConnTotal(maxTotal)
+				.setMaxConnPerRoute(maxPerRoute)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.build();
+		httpAsyncClient.start();
+		_logger.debug("http client pool maxTotal {} , maxPerRoute {} , keepAlive {}", maxTotal, maxPerRoute, keepAlive);
+	}
+
+	public static HttpClientPool getInstance() {
+		if(instance == null) {
+			synchronized (HttpClientPool.class) {
+				if(instance == null) {
+					instance = new HttpClientPool();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * replace the shared pool , the previous one is closed
+	 * @param httpClientPool
+	 */
+	public static void setInstance(HttpClientPool httpClientPool) {
+		HttpClientPool previous;
+		synchronized (HttpClientPool.class) {
+			previous = instance;
+			instance = httpClientPool;
+		}
+		if(previous != null && previous != httpClientPool) {
+			previous.close();
+		}
+	}
+
+	/**
+	 * execute and read the response body , the connection returns to the pool
+	 * @param request
+	 * @return response body
+	 * @throws IOException connection error or circuit open
+	 */
+	public String execute(HttpRequestBase request) throws IOException {
+		String destination = destination(request.getURI());
+		CircuitBreaker circuitBreaker = circuitBreaker(destination);
+		if(!circuitBreaker.allowRequest()) {
+			record(destination, request.getMethod(), "REJECTED", 0L);
+			throw new IOException("circuit open , destination " + destination);
+		}
+
+		long startTime = System.nanoTime();
+		try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+			return complete(destination, request, circuitBreaker, httpResponse, startTime, RESPONSE_BODY);
+		}catch(IOException e) {
+			failed(destination, request, circuitBreaker, startTime);
+			throw e;
+		}
+	}
+
+	/**
+	 * execute without blocking the caller
+	 * @param request
+	 * @return response body , completed exceptionally on connection error or circuit open
+	 */
+	public CompletableFuture<String> executeAsync(HttpRequestBase request) {
+		return executeAsync(request, RESPONSE_BODY);
+	}
+
+	/**
+	 * execute without blocking the caller
+	 * @param request
+	 * @param result maps status code and response body to the result
+	 * @return result , completed exceptionally on connection error or circuit open
+	 */
+	public <T> CompletableFuture<T> executeAsync(HttpRequestBase request, BiFunction<Integer, String, T> result) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		String destination = destination(request.getURI());
+		CircuitBreaker circuitBreaker = circuitBreaker(destination);
+		if(!circuitBreaker.allowRequest()) {
+			record(destination, request.getMethod(), "REJECTED", 0L);
+			future.completeExceptionally(new IOException("circuit open , destination " + destination));
+			return future;
+		}
+
+		long startTime = System.nanoTime();
+		httpAsyncClient.execute(request, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse httpResponse) {
+				try {
+					future.complete(complete(destination, request, circuitBreaker, httpResponse, startTime, result));
+				} catch (IOException e) {
+					failed(e);
+				}
+			}
+
+			@Override
+			public void failed(Exception e) {
+				HttpClientPool.this.failed(destination, request, circuitBreaker, startTime);
+				future.completeExceptionally(e);
+			}
+
+			@Override
+			public void cancelled() {
+				future.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	<T> T complete(String destination, HttpRequestBase request, CircuitBreaker circuitBreaker,
+			HttpResponse httpResponse, long startTime, BiFunction<Integer, String, T> result) throws IOException {
+		HttpEntity entity = httpResponse.getEntity();
+		String content = entity == null ? null : EntityUtils.toString(entity);
+		int statusCode = httpResponse.getStatusLine().getStatusCode();
+		_logger.debug("Http Response StatusCode {} , Content {}", statusCode, content);
+		if(statusCode >= 500) {
+			circuitBreaker.onFailure(destination);
+			record(destination, request.getMethod(), "SERVER_ERROR", System.nanoTime() - startTime);
+		}else {
+			circuitBreaker.onSuccess(destination);
+			record(destination, request.getMethod(), statusCode >= 400 ? "CLIENT_ERROR" : "SUCCESS", System.nanoTime() - startTime);
+		}
+		return result.apply(statusCode, content);
+	}
+
+	void failed(String destination, HttpRequestBase request, CircuitBreaker circuitBreaker, long startTime) {
+		circuitBreaker.onFailure(destination);
+		record(destination, request.getMethod(), "ERROR", System.nanoTime() - startTime);
+	}
+
+	void record(String destination, String method, String outcome, long duration) {
+		MeterRegistry meterRegistry = registry;
+		if(meterRegistry == null) {
+			return;
+		}
+		String tag = tagDestination(destination);
+		timers.computeIfAbsent(tag + ' ' + method + ' ' + outcome, 
+				key -> Timer.builder(METRIC_PREFIX + ".requests")
+						.description("Outbound http request latency by destination")
+						.tag("destination", tag)
+						.tag("method", method)
+						.tag("outcome", outcome)
+						.register(meterRegistry))
+			.record(duration, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param destination
+	 * @return destination while fewer than maxTaggedDestinations are tagged , otherwise other
+	 */
+	public String tagDestination(String destination) {
+		if(taggedDestinations.contains(destination)) {
+			return destination;
+		}
+		synchronized (taggedDestinations) {
+			if(taggedDestinations.size() < maxTaggedDestinations) {
+				taggedDestinations.add(destination);
+				return destination;
+			}
+		}
+		return OTHER_DESTINATION;
+	}
+
+	CircuitBreaker circuitBreaker(String destination) {
+		return circuitBreakers.get(destination, key -> new CircuitBreaker());
+	}
+
+	/**
+	 * @param uri
+	 * @return host:port , pool route and circuit breaker key
+	 */
+	public static String destination(URI uri) {
+		int port = uri.getPort();
+		if(port < 0) {
+			port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+		}
+		return uri.getHost() + ":" + port;
+	}
+
+	/**
+	 * close connections , no longer the shared instance
+	 */
+	public void close() {
+		synchronized (HttpClientPool.class) {
+			if(instance == this) {
+				instance = null;
+			}
+		}
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			_logger.warn("close http client error", e);
+		}
+		try {
+			httpAsyncClient.close();
+		} catch (IOException e) {
+			_logger.warn("close http async client error", e);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder(METRIC_PREFIX + ".pool.leased", connectionManager, manager -> manager.getTotalStats().getLeased())
+				.description("Leased connections of the outbound http pool")
+				.register(registry);
+		Gauge.builder(METRIC_PREFIX + ".pool.pending", connectionManager, manager -> manager.getTotalStats().getPending())
+				.description("Requests waiting for an outbound http connection")
+				.register(registry);
+		Gauge.builder(METRIC_PREFIX + ".pool.available", connectionManager, manager -> manager.getTotalStats().getAvailable())
+				.description("Idle connections of the outbound http pool")
+				.register(registry);
+		Gauge.builder(METRIC_PREFIX + ".circuit.open", circuitBreakers,
+				breakers -> breakers.asMap().values().stream().filter(CircuitBreaker::isOpen).count())
+				.description("Destinations with an open circuit")
+				.register(registry);
+		timers.clear();
+		this.registry = registry;
+	}
+
+	public void setMaxTaggedDestinations(int maxTaggedDestinations) {
+		this.maxTaggedDestinations = maxTaggedDestinations;
+	}
+
+	/**
+	 * 单个目标地址的熔断状态
+	 */
+	class CircuitBreaker {
+		final AtomicInteger failures = new AtomicInteger();
+
+		volatile long openUntil;
+
+		boolean allowRequest() {
+			long until = openUntil;
+			if(until == 0) {
+				return true;
+			}
+			long now = System.currentTimeMillis();
+			synchronized (this) {
+				//half open , one trial request per open interval
+				if(openUntil != 0 && now >= openUntil) {
+					openUntil = now + openInterval;
+					return true;
+				}
+				return openUntil == 0;
+			}
+		}
+
+		void onSuccess(String destination) {
+			if(openUntil != 0) {
+				_logger.info("destination {} recovered , circuit closed", destination);
+			}
+			failures.set(0);
+			openUntil = 0;
+		}
+
+		void onFailure(String destination) {
+			if(failureThreshold > 0 && failures.incrementAndGet() >= failureThreshold) {
+				if(openUntil == 0) {
+					_logger.warn("destination {} failed {} times , circuit open {} ms", destination, failures.get(), openInterval);
+				}
+				openUntil = System.currentTimeMillis() + openInterval;
+			}
+		}
+
+		boolean isOpen() {
+			return openUntil != 0 && System.currentTimeMillis() < openUntil;
+		}
+	}
+}
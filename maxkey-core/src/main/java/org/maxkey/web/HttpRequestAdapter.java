@@ -17,7 +17,6 @@
 
 package org.maxkey.web;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -26,29 +25,38 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
-import org.apache.http.HttpEntity;
+import java.util.concurrent.CompletableFuture;
+
 import org.apache.http.NameValuePair;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.maxkey.util.JsonUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+/**
+ * 出站HTTP请求,连接来自共享的{@link HttpClientPool},超时可按调用方设置.
+ */
 @Component
 public class HttpRequestAdapter {
 	private static final Logger _logger = LoggerFactory.getLogger(HttpRequestAdapter.class);
+	
+	public static final int DEFAULT_CONNECT_TIMEOUT = 35000;
+	
+	public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
 	 
     private String mediaType = MediaType.FORM;
     
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    
+    private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    
     public static class MediaType{
         public static String JSON   =   "JSON";
         public static String XML    =   "XML";
@@ -61,6 +69,17 @@ public class HttpRequestAdapter {
         this.mediaType = mediaType;
     }
     
+    /**
+     * @param mediaType
+     * @param connectTimeout milliseconds to connect , also to wait for a pooled connection
+     * @param socketTimeout milliseconds to wait for data
+     */
+    public HttpRequestAdapter(String mediaType,int connectTimeout,int socketTimeout){
+        this.mediaType = mediaType;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+    }
+    
 	public String post(String url,Map<String, Object> parameterMap) {
 		HashMap<String,String> headers = new HashMap<String,String>();
 		headers.put("Content-Type", "application/x-www-form-urlencoded");
@@ -68,29 +87,55 @@ public class HttpRequestAdapter {
 	}
 	
     public String post(String url,Map<String, Object> parameterMap,HashMap<String,String> headers) {
-        // 创建httpClient实例
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-        CloseableHttpResponse httpResponse = null;
+        try {
+            return HttpClientPool.getInstance().execute(buildPost(url , parameterMap , headers));
+        } catch (Exception e) {
+            _logger.error("Http Post " + url + " error", e);
+        }
+        return null;
+    }
+    
+    /**
+     * post without blocking the caller
+     * @return response body , completed exceptionally on error
+     */
+    public CompletableFuture<String> postAsync(String url,Map<String, Object> parameterMap) {
+        HashMap<String,String> headers = new HashMap<String,String>();
+        headers.put("Content-Type", "application/x-www-form-urlencoded");
+        return postAsync(url , parameterMap , headers);
+    }
+    
+    public CompletableFuture<String> postAsync(String url,Map<String, Object> parameterMap,HashMap<String,String> headers) {
+        return HttpClientPool.getInstance().executeAsync(buildPost(url , parameterMap , headers));
+    }
+    
+	public String get(String url) {
+		HashMap<String,String> headers = new HashMap<String,String>();
+		headers.put("Content-Type", "application/x-www-form-urlencoded");
+		return get(url ,  headers);
+	}
+	
+    public String get(String url,HashMap<String,String> headers) {
+        try {
+            return HttpClientPool.getInstance().execute(buildGet(url , headers));
+        } catch (Exception e) {
+            _logger.error("Http Get " + url + " error", e);
+        }
+        return null;
+    }
+    
+    /**
+     * get without blocking the caller
+     * @return response body , completed exceptionally on error
+     */
+    public CompletableFuture<String> getAsync(String url,HashMap<String,String> headers) {
+        return HttpClientPool.getInstance().executeAsync(buildGet(url , headers));
+    }
+    
+    HttpPost buildPost(String url,Map<String, Object> parameterMap,HashMap<String,String> headers) {
         // 创建httpPost远程连接实例
         HttpPost httpPost = new HttpPost(url);
-        // 配置请求参数实例
-        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(35000)// 设置连接主机服务超时时间
-                .setConnectionRequestTimeout(35000)// 设置连接请求超时时间
-                .setSocketTimeout(60000)// 设置读取数据连接超时时间
-                .build();
-        // 为httpPost实例设置配置
-        httpPost.setConfig(requestConfig);
-        // 设置请求头
-        if (null != headers && headers.size() > 0) {
-        	  Set<Entry<String, String>> entrySet = headers.entrySet();
-              // 循环遍历，获取迭代器
-              Iterator<Entry<String, String>> iterator = entrySet.iterator();
-              while (iterator.hasNext()) {
-                  Entry<String, String> mapEntry = iterator.next();
-                  _logger.trace("Name " + mapEntry.getKey() + " , Value " +mapEntry.getValue());
-                  httpPost.addHeader(mapEntry.getKey(), mapEntry.getValue());
-              }
-        }
+        configure(httpPost , headers);
         
         // 封装post请求参数
         if (null != parameterMap && parameterMap.size() > 0) {
@@ -122,61 +167,23 @@ public class HttpRequestAdapter {
             }
             _logger.debug("Post Message \n{} ", httpPost.getEntity().toString());
         }
-        
-        
-        try {
-            // httpClient对象执行post请求,并返回响应参数对象
-            httpResponse = httpClient.execute(httpPost);
-            // 从响应对象中获取响应内容
-            HttpEntity entity = httpResponse.getEntity();
-            String content = EntityUtils.toString(entity);
-            _logger.debug("Http Response StatusCode {} , Content {}",
-                    httpResponse.getStatusLine().getStatusCode(),
-                    content
-            );
-            return content;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // 关闭资源
-            if (null != httpResponse) {
-                try {
-                    httpResponse.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (null != httpClient) {
-                try {
-                    httpClient.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return null;
+        return httpPost;
     }
     
-    
-	public String get(String url) {
-		HashMap<String,String> headers = new HashMap<String,String>();
-		headers.put("Content-Type", "application/x-www-form-urlencoded");
-		return get(url ,  headers);
-	}
-	
-    public String get(String url,HashMap<String,String> headers) {
-        // 创建httpClient实例
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-        CloseableHttpResponse httpResponse = null;
-        // 创建httpPost远程连接实例
+    HttpGet buildGet(String url,HashMap<String,String> headers) {
+        // 创建httpGet远程连接实例
         HttpGet httpGet = new HttpGet(url);
+        configure(httpGet , headers);
+        return httpGet;
+    }
+    
+    void configure(HttpRequestBase httpRequest,HashMap<String,String> headers) {
         // 配置请求参数实例
-        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(35000)// 设置连接主机服务超时时间
-                .setConnectionRequestTimeout(35000)// 设置连接请求超时时间
-                .setSocketTimeout(60000)// 设置读取数据连接超时时间
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)// 设置连接主机服务超时时间
+                .setConnectionRequestTimeout(connectTimeout)// 设置从连接池获取连接超时时间
+                .setSocketTimeout(socketTimeout)// 设置读取数据连接超时时间
                 .build();
-        // 为httpGet实例设置配置
-        httpGet.setConfig(requestConfig);
+        httpRequest.setConfig(requestConfig);
         // 设置请求头
         if (null != headers && headers.size() > 0) {
         	  Set<Entry<String, String>> entrySet = headers.entrySet();
@@ -185,41 +192,17 @@ public class HttpRequestAdapter {
               while (iterator.hasNext()) {
                   Entry<String, String> mapEntry = iterator.next();
                   _logger.trace("Name " + mapEntry.getKey() + " , Value " +mapEntry.getValue());
-                  httpGet.addHeader(mapEntry.getKey(), mapEntry.getValue());
+                  httpRequest.addHeader(mapEntry.getKey(), mapEntry.getValue());
               }
-        }        
-        
-        try {
-            // httpClient对象执行post请求,并返回响应参数对象
-            httpResponse = httpClient.execute(httpGet);
-            // 从响应对象中获取响应内容
-            HttpEntity entity = httpResponse.getEntity();
-            String content = EntityUtils.toString(entity);
-            _logger.debug("Http Response StatusCode {} , Content {}",
-                    httpResponse.getStatusLine().getStatusCode(),
-                    content
-            );
-            return content;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // 关闭资源
-            if (null != httpResponse) {
-                try {
-                    httpResponse.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (null != httpClient) {
-                try {
-                    httpClient.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
-        return null;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
     }
     
 }
@@ -18,6 +18,7 @@
 package org.maxkey.web;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import org.maxkey.constants.ContentType;
@@ -38,22 +39,29 @@ public class HttpResponseAdapter {
         }
     }
     
-	public void write(HttpServletResponse response,String content, String format) {
-
-		setContentType(response , format);
-		
+    /**
+     * set content type and no-cache headers before writing the body
+     */
+    public void prepare(HttpServletResponse response, String format) {
+        setContentType(response , format);
+        
         // Set to expire far in the past.
         response.setDateHeader("Expires", 0);
         // Set standard HTTP/1.1 no-cache headers.
         response.setHeader("Cache-Control", "no-store, no-cache, must-revalidate");
         // Set IE extended HTTP/1.1 no-cache headers (use addHeader).
         response.addHeader("Cache-Control", "post-check=0, pre-check=0");
+    }
+    
+	public void write(HttpServletResponse response,String content, String format) {
+
+		prepare(response , format);
         
         ServletOutputStream out = null;
             try {
 				out = response.getOutputStream();
             	// write the data out
-                out.write(content.getBytes());
+                out.write(content.getBytes(StandardCharsets.UTF_8));
                 out.flush();
             }catch (IOException e) {
 				e.printStackTrace();
@@ -1,39 +1,70 @@
 package org.maxkey.web.ipregion;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
+/**
+ * IP归属地,依次查询本地、离线库,在线查询(网页抓取)仅在启用时使用.
+ * 离线库通过{@link #init(IpRegionOffline, boolean)}配置,未配置离线库时登录不记录归属地.
+ */
 public class IpRegionFactory extends AbstractIpRegion  implements IpRegion{
 
 	static IpRegionFactory factory = new IpRegionFactory();
-	
-	static final ArrayList<IpRegion> ipRegionList;
-	
+
+	//immutable , replaced as a whole
+	static volatile List<IpRegion> ipRegionList = Collections.emptyList();
+
+	static volatile boolean enabled = false;
+
 	static {
-		ipRegionList = new ArrayList<IpRegion>();
-		ipRegionList.add(new IpRegionLocal());
-		ipRegionList.add(new IpRegionIp138());
-		ipRegionList.add(new IpRegionIpchaxun());
-		ipRegionList.add(new IpRegionIpcn());
-		ipRegionList.add(new IpRegionIp360());
-		ipRegionList.add(new IpRegionPconline());
+		init(null, true);
 	}
-	
+
 	public static IpRegion getFactory() {
 		return factory;
 	}
-	
+
+	/**
+	 * @param offline 离线库,可为null
+	 * @param online 是否使用在线查询
+	 */
+	public static synchronized void init(IpRegionOffline offline, boolean online) {
+		List<IpRegion> regions = new ArrayList<IpRegion>();
+		regions.add(new IpRegionLocal());
+		if(offline != null) {
+			regions.add(offline);
+		}
+		if(online) {
+			regions.add(new IpRegionIp138());
+			regions.add(new IpRegionIpchaxun());
+			regions.add(new IpRegionIpcn());
+			regions.add(new IpRegionIp360());
+			regions.add(new IpRegionPconline());
+		}
+		//replace as a whole , readers iterate the previous snapshot
+		ipRegionList = Collections.unmodifiableList(regions);
+		enabled = offline != null;
+	}
+
+	/**
+	 * @return true if offline database configured , region lookup adds no network latency
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
 	@Override
 	public String region(String ipAddress) {
-		for(int i = 0 ; i<ipRegionList.size() ; i++ ) {
-			IpRegion ipRegion = ipRegionList.get(i);
+		for(IpRegion ipRegion : ipRegionList) {
 			String region = ipRegion.region(ipAddress);
 			if(StringUtils.isNotBlank(region)) {
 				return region;
 			}else {
 				if(ipRegion.getFailCount() > 6) {
-					ipRegionList.remove(i);//remove from list
+					remove(ipRegion);//remove from list
 				}
 				//fail plus 1
 				ipRegion.plusFailCount();
@@ -41,17 +72,24 @@ public class IpRegionFactory extends AbstractIpRegion  implements IpRegion{
 		}
 		return "unknown";
 	}
-	
+
+	static synchronized void remove(IpRegion ipRegion) {
+		List<IpRegion> regions = new ArrayList<IpRegion>(ipRegionList);
+		if(regions.remove(ipRegion)) {
+			ipRegionList = Collections.unmodifiableList(regions);
+		}
+	}
+
 	public String getLocation(String region) {
 		if(region.endsWith("电信") || region.endsWith("移动") || region.endsWith("联通")) {
-			region.substring(0, region.length() - 2).trim();
+			region = region.substring(0, region.length() - 2).trim();
 		}
-		
+
 		if(region.indexOf(" ") > 0) {
 			return region.split(" ")[0];
 		}
-		
+
 		return region;
 	}
-	
+
 }
@@ -9,4 +9,12 @@ public class IpRegionLocal extends AbstractIpRegion implements IpRegion{
 		}
 		return null;
 	}
+
+	/**
+	 * non-local address is not failure
+	 */
+	@Override
+	public int getFailCount() {
+		return 0;
+	}
 }
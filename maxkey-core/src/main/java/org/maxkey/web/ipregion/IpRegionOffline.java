@@ -0,0 +1,314 @@
+package org.maxkey.web.ipregion;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 离线IP归属地,基于内存映射的IPv4区段文件,不访问网络.
+ * <p>
+ * 文件格式(大端):
+ * <pre>
+ * magic    int  0x4D584950 (MXIP)
+ * version  int  1
+ * count    int  区段数
+ * regions  int  归属地数
+ * count 个区段 , 按startIp升序 , 不重叠 : startIp int , endIp int , regionIndex int
+ * regions 个归属地 : length short , UTF-8 bytes
+ * </pre>
+ * 区段二分查找,归属地字符串加载时解码,查询不分配对象.
+ * 按/24网段缓存完整覆盖该网段的区段,缓存为直接映射数组,冲突时覆盖.
+ * </p>
+ * <p>
+ * 文件修改后(按checkInterval检查修改时间)重新映射,替换期间的查询使用原文件.
+ * 文件可由{@link #build(BufferedReader, File)}从 startIp,endIp,region 格式的CSV生成,
+ * 生成时先写入同目录临时文件再原子改名替换.已映射的文件不能原地改写(会导致读取到不完整数据或SIGBUS),
+ * 手工更新时同样需要先复制为临时文件再改名.
+ * </p>
+ */
+public class IpRegionOffline extends AbstractIpRegion implements IpRegion{
+	private static final Logger _logger = LoggerFactory.getLogger(IpRegionOffline.class);
+
+	public static final int MAGIC 		= 0x4D584950;
+
+	public static final int VERSION 	= 1;
+
+	static final int HEADER_SIZE 		= 16;
+
+	static final int RECORD_SIZE 		= 12;
+
+	static final int CACHE_SIZE 		= 4096;
+
+	final File databaseFile;
+
+	long checkInterval = 60 * 1000;
+
+	volatile long nextCheckTime;
+
+	volatile IpRegionDatabase database;
+
+	public IpRegionOffline(File databaseFile) throws IOException {
+		this.databaseFile = databaseFile;
+		this.database = IpRegionDatabase.load(databaseFile);
+		this.nextCheckTime = System.currentTimeMillis() + checkInterval;
+		_logger.debug("ip region database {} , ranges {}" , databaseFile, database.count);
+	}
+
+	@Override
+	public String region(String ipAddress) {
+		reloadIfModified();
+		long ip = parseIpv4(ipAddress);
+		if(ip < 0) {
+			return null;
+		}
+		return database.region((int) ip);
+	}
+
+	/**
+	 * unknown address is not failure
+	 */
+	@Override
+	public int getFailCount() {
+		return 0;
+	}
+
+	void reloadIfModified() {
+		long now = System.currentTimeMillis();
+		if(now < nextCheckTime) {
+			return;
+		}
+		synchronized (this) {
+			if(now < nextCheckTime) {
+				return;
+			}
+			nextCheckTime = now + checkInterval;
+		}
+		if(databaseFile.lastModified() != database.lastModified) {
+			try {
+				database = IpRegionDatabase.load(databaseFile);
+				_logger.info("ip region database {} reloaded , ranges {}" , databaseFile, database.count);
+			} catch (Exception e) {
+				_logger.error("ip region database " + databaseFile + " reload error , keep the previous" , e);
+			}
+		}
+	}
+
+	public void setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * parse dotted IPv4 without allocation
+	 * @param ipAddress
+	 * @return unsigned ip , -1 if not IPv4
+	 */
+	static long parseIpv4(String ipAddress) {
+		if(ipAddress == null) {
+			return -1;
+		}
+		int length = ipAddress.length();
+		long ip = 0;
+		int octet = -1;
+		int dots = 0;
+		for(int i = 0 ; i < length ; i++) {
+			char c = ipAddress.charAt(i);
+			if(c >= '0' && c <= '9') {
+				octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+				if(octet > 255) {
+					return -1;
+				}
+			}else if(c == '.' && octet >= 0 && dots < 3) {
+				ip = (ip << 8) | octet;
+				octet = -1;
+				dots++;
+			}else {
+				return -1;
+			}
+		}
+		if(dots != 3 || octet < 0) {
+			return -1;
+		}
+		return (ip << 8) | octet;
+	}
+
+	/**
+	 * build database file from csv lines : startIp,endIp,region ,
+	 * written to a temporary file and atomically renamed to target
+	 * @param csv
+	 * @param target
+	 * @throws IOException when ranges overlap
+	 */
+	public static void build(BufferedReader csv, File target) throws IOException {
+		List<long[]> ranges = new ArrayList<long[]>();
+		Map<String, Integer> regions = new LinkedHashMap<String, Integer>();
+		String line;
+		while((line = csv.readLine()) != null) {
+			String [] fields = line.split(",", 3);
+			if(fields.length < 3) {
+				continue;
+			}
+			long startIp = parseIpv4(fields[0].trim());
+			long endIp = parseIpv4(fields[1].trim());
+			if(startIp < 0 || endIp < startIp) {
+				continue;
+			}
+			String region = fields[2].trim();
+			Integer regionIndex = regions.get(region);
+			if(regionIndex == null) {
+				regionIndex = regions.size();
+				regions.put(region, regionIndex);
+			}
+			ranges.add(new long[] {startIp, endIp, regionIndex});
+		}
+		ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+		for(int i = 1 ; i < ranges.size() ; i++) {
+			long[] previous = ranges.get(i - 1);
+			long[] range = ranges.get(i);
+			if(range[0] <= previous[1]) {
+				throw new IOException("overlapping ip ranges " 
+						+ formatIpv4(previous[0]) + "-" + formatIpv4(previous[1]) + " and " 
+						+ formatIpv4(range[0]) + "-" + formatIpv4(range[1]));
+			}
+		}
+
+		File directory = target.getAbsoluteFile().getParentFile();
+		File tmpFile = File.createTempFile(target.getName() + ".build", ".tmp", directory);
+		try {
+			write(ranges, regions, tmpFile);
+			try {
+				Files.move(tmpFile.toPath(), target.toPath(), 
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}catch(AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	static void write(List<long[]> ranges, Map<String, Integer> regions, File file) throws IOException {
+		try(OutputStream fileStream = new FileOutputStream(file);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ranges.size());
+			out.writeInt(regions.size());
+			for(long[] range : ranges) {
+				out.writeInt((int) range[0]);
+				out.writeInt((int) range[1]);
+				out.writeInt((int) range[2]);
+			}
+			for(String region : regions.keySet()) {
+				byte[] bytes = region.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	static String formatIpv4(long ip) {
+		return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+	}
+
+	/**
+	 * immutable mapped database , replaced as a whole on reload
+	 */
+	static class IpRegionDatabase {
+		final MappedByteBuffer buffer;
+
+		final int count;
+
+		final String [] regions;
+
+		final long lastModified;
+
+		// /24 prefix + 1 in high 32 bits , region index + 1 in low 32 bits ; 0 is empty
+		final AtomicLongArray cache = new AtomicLongArray(CACHE_SIZE);
+
+		IpRegionDatabase(MappedByteBuffer buffer, int count, String [] regions, long lastModified) {
+			this.buffer = buffer;
+			this.count = count;
+			this.regions = regions;
+			this.lastModified = lastModified;
+		}
+
+		static IpRegionDatabase load(File file) throws IOException {
+			long lastModified = file.lastModified();
+			try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+					FileChannel channel = randomAccessFile.getChannel()) {
+				//mapping stays valid after the channel is closed
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+					throw new IOException("not an ip region database " + file);
+				}
+				int count = buffer.getInt(8);
+				if(count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > buffer.capacity()) {
+					throw new IOException("truncated ip region database " + file);
+				}
+				String [] regions = new String[buffer.getInt(12)];
+				int position = HEADER_SIZE + count * RECORD_SIZE;
+				for(int i = 0 ; i < regions.length ; i++) {
+					byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+					position += 2;
+					for(int j = 0 ; j < bytes.length ; j++) {
+						bytes[j] = buffer.get(position++);
+					}
+					regions[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+				return new IpRegionDatabase(buffer, count, regions, lastModified);
+			}
+		}
+
+		String region(int ip) {
+			int prefix = ip >>> 8;
+			int slot = (prefix ^ (prefix >>> 12)) & (CACHE_SIZE - 1);
+			long entry = cache.get(slot);
+			if((int) (entry >>> 32) == prefix + 1) {
+				return regions[(int) entry - 1];
+			}
+
+			int low = 0;
+			int high = count - 1;
+			long unsignedIp = ip & 0xFFFFFFFFL;
+			while(low <= high) {
+				int middle = (low + high) >>> 1;
+				int offset = HEADER_SIZE + middle * RECORD_SIZE;
+				long startIp = buffer.getInt(offset) & 0xFFFFFFFFL;
+				long endIp = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+				if(unsignedIp < startIp) {
+					high = middle - 1;
+				}else if(unsignedIp > endIp) {
+					low = middle + 1;
+				}else {
+					int regionIndex = buffer.getInt(offset + 8);
+					long network = unsignedIp & 0xFFFFFF00L;
+					//cache only when the range covers the whole /24
+					if(startIp <= network && endIp >= (network | 0xFF)) {
+						cache.lazySet(slot, ((long) (prefix + 1) << 32) | (regionIndex + 1));
+					}
+					return regions[regionIndex];
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.ldap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import org.junit.Test;
+
+public class DirSyncControlTest {
+
+	@Test
+	public void encode() {
+		assertArrayEquals(bytes(0x30, 0x08, 0x02, 0x01, 0x01, 0x02, 0x01, 0x00, 0x04, 0x00),
+				new DirSyncControl(DirSyncControl.OBJECT_SECURITY, 0, null).getEncodedValue());
+		assertArrayEquals(bytes(0x30, 0x10, 0x02, 0x04, 0x80, 0x00, 0x00, 0x00,
+						0x02, 0x04, 0x7f, 0xff, 0xff, 0xff, 0x04, 0x02, 0x01, 0x02),
+				DirSyncControl.encode(DirSyncControl.INCREMENTAL_VALUES, Integer.MAX_VALUE, bytes(0x01, 0x02)));
+		byte[] large = DirSyncControl.encode(128, -1, new byte[300]);
+		assertArrayEquals(bytes(0x30, 0x82, 0x01, 0x37, 0x02, 0x02, 0x00, 0x80, 0x02, 0x01, 0xff, 0x04, 0x82, 0x01, 0x2c),
+				Arrays.copyOf(large, 15));
+	}
+
+	@Test
+	public void parse() {
+		byte[] cookie = new byte[200];
+		cookie[199] = 7;
+		Control response = new BasicControl(DirSyncControl.OID, false, DirSyncControl.encode(1, 0, cookie));
+		DirSyncControl.Response parsed = DirSyncControl.parse(new Control[] { DirSyncControl.showDeleted(), response });
+		assertTrue(parsed.hasMoreResults());
+		assertArrayEquals(cookie, parsed.getCookie());
+
+		parsed = DirSyncControl.parse(new Control[] {
+				new BasicControl(DirSyncControl.OID, false, DirSyncControl.encode(0, 0, null)) });
+		assertFalse(parsed.hasMoreResults());
+		assertEquals(0, parsed.getCookie().length);
+
+		assertNull(DirSyncControl.parse(null));
+		assertNull(DirSyncControl.parse(new Control[] { DirSyncControl.showDeleted() }));
+	}
+
+	static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,56 @@
+package org.maxkey.persistence.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AppsConfigCacheTest {
+
+	@Test
+	public void region() {
+		AppsConfigCache appsConfigCache = new AppsConfigCache();
+		AtomicInteger loads = new AtomicInteger();
+		AppsConfigCache.Region<String> region = appsConfigCache.region("apps", id -> {
+			loads.incrementAndGet();
+			return "app1".equals(id) ? "App 1" : null;
+		}, null);
+		assertSame(region, appsConfigCache.region("apps", id -> "other", null));
+
+		assertEquals("App 1", region.get("app1"));
+		assertEquals("App 1", region.get("app1"));
+		assertEquals(1, loads.get());
+		//not found is not cached
+		assertNull(region.get("app2"));
+		assertNull(region.get("app2"));
+		assertEquals(3, loads.get());
+		assertNull(region.get(null));
+
+		appsConfigCache.invalidate("app1");
+		assertEquals("App 1", region.get("app1"));
+		assertEquals(4, loads.get());
+	}
+
+	@Test
+	public void evictByAppId() {
+		Map<String, String[]> services = new HashMap<String, String[]>();
+		services.put("https://cas.maxkey.top/demo", new String[] {"app1", "https://cas.maxkey.top/demo"});
+		services.put("https://cas.maxkey.top/other", new String[] {"app2", "https://cas.maxkey.top/other"});
+		AppsConfigCache appsConfigCache = new AppsConfigCache();
+		AppsConfigCache.Region<String[]> region = appsConfigCache.region("casDetails", services::get, value -> value[0]);
+		region.get("https://cas.maxkey.top/demo");
+		region.get("https://cas.maxkey.top/other");
+
+		appsConfigCache.invalidate("app1");
+		assertEquals(1, region.cache.estimatedSize());
+		assertEquals("app2", region.cache.getIfPresent("https://cas.maxkey.top/other")[0]);
+
+		appsConfigCache.invalidateAll();
+		assertEquals(0, region.cache.estimatedSize());
+	}
+}
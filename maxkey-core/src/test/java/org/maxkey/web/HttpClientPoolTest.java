@@ -0,0 +1,95 @@
+package org.maxkey.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+public class HttpClientPoolTest {
+
+	@Test
+	public void destination() {
+		assertEquals("sso.maxkey.top:443", HttpClientPool.destination(URI.create("https://sso.maxkey.top/maxkey/logout")));
+		assertEquals("sso.maxkey.top:80", HttpClientPool.destination(URI.create("http://sso.maxkey.top/maxkey/logout")));
+		assertEquals("127.0.0.1:9527", HttpClientPool.destination(URI.create("http://127.0.0.1:9527/maxkey-mgt")));
+	}
+
+	@Test
+	public void circuitBreaker() throws Exception {
+		int port;
+		//closed port , connection refused
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			port = serverSocket.getLocalPort();
+		}
+		String url = "http://127.0.0.1:" + port + "/logout";
+		HttpClientPool httpClientPool = new HttpClientPool(10, 2, 30000, 2, 60000);
+		try {
+			for(int i = 0 ; i < 2 ; i++) {
+				try {
+					httpClientPool.execute(newGet(url));
+					fail();
+				}catch(IOException e) {
+					assertFalse(e.getMessage() != null && e.getMessage().startsWith("circuit open"));
+				}
+			}
+			assertTrue(httpClientPool.circuitBreaker("127.0.0.1:" + port).isOpen());
+			try {
+				httpClientPool.execute(newGet(url));
+				fail();
+			}catch(IOException e) {
+				assertTrue(e.getMessage().startsWith("circuit open"));
+			}
+			try {
+				httpClientPool.executeAsync(newGet(url)).get(5, TimeUnit.SECONDS);
+				fail();
+			}catch(ExecutionException e) {
+				assertTrue(e.getCause().getMessage().startsWith("circuit open"));
+			}
+		}finally {
+			httpClientPool.close();
+		}
+	}
+
+	@Test
+	public void tagDestination() {
+		HttpClientPool httpClientPool = new HttpClientPool();
+		httpClientPool.setMaxTaggedDestinations(2);
+		try {
+			assertEquals("a:80", httpClientPool.tagDestination("a:80"));
+			assertEquals("b:80", httpClientPool.tagDestination("b:80"));
+			assertEquals(HttpClientPool.OTHER_DESTINATION, httpClientPool.tagDestination("c:80"));
+			assertEquals("a:80", httpClientPool.tagDestination("a:80"));
+		}finally {
+			httpClientPool.close();
+		}
+	}
+
+	@Test
+	public void closeSharedInstance() {
+		HttpClientPool httpClientPool = new HttpClientPool();
+		HttpClientPool.setInstance(httpClientPool);
+		assertSame(httpClientPool, HttpClientPool.getInstance());
+		httpClientPool.close();
+		HttpClientPool shared = HttpClientPool.getInstance();
+		assertNotSame(httpClientPool, shared);
+		shared.close();
+	}
+
+	HttpGet newGet(String url) {
+		HttpGet httpGet = new HttpGet(url);
+		httpGet.setConfig(RequestConfig.custom().setConnectTimeout(1000).setSocketTimeout(1000).build());
+		return httpGet;
+	}
+}
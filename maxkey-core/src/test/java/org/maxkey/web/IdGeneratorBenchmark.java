@@ -0,0 +1,115 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.web;
+
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.util.IdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * WebContext.genId()在多线程竞争下的吞吐量,
+ * SnowFlake(CAS)、uuid、uuidv7与原synchronized SnowFlake实现对比.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    @Param({"SnowFlake", "uuid", "uuidv7"})
+    String strategy;
+
+    SynchronizedSnowFlakeId synchronizedSnowFlakeId;
+
+    @Setup
+    public void setup() {
+        WebContext.idGenerator = new IdGenerator(strategy);
+        synchronizedSnowFlakeId = new SynchronizedSnowFlakeId(0, 0);
+    }
+
+    @Benchmark
+    public String genId() {
+        return WebContext.genId();
+    }
+
+    @Benchmark
+    public String synchronizedSnowFlake() {
+        return synchronizedSnowFlakeId.nextId() + "";
+    }
+
+    /**
+     * the previous synchronized implementation , as baseline
+     */
+    static class SynchronizedSnowFlakeId {
+        static final long START_STMP = 1480166465631L;
+        static final long MAX_SEQUENCE = -1L ^ (-1L << 12);
+
+        final long workerBits;
+        long sequence = 0L;
+        long lastStmp = -1L;
+
+        SynchronizedSnowFlakeId(long datacenterId, long machineId) {
+            this.workerBits = datacenterId << 17 | machineId << 12;
+        }
+
+        synchronized long nextId() {
+            long currStmp = System.currentTimeMillis();
+            if (currStmp < lastStmp) {
+                throw new RuntimeException("Clock moved backwards.  Refusing to generate id");
+            }
+            if (currStmp == lastStmp) {
+                sequence = (sequence + 1) & MAX_SEQUENCE;
+                if (sequence == 0L) {
+                    while (currStmp <= lastStmp) {
+                        currStmp = System.currentTimeMillis();
+                    }
+                }
+            } else {
+                sequence = 0L;
+            }
+            lastStmp = currStmp;
+            return (currStmp - START_STMP) << 22 | workerBits | sequence;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdGeneratorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
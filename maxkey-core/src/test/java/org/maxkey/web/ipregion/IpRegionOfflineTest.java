@@ -0,0 +1,76 @@
+package org.maxkey.web.ipregion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class IpRegionOfflineTest {
+
+	@Test
+	public void test() throws Exception {
+		File database = File.createTempFile("ipregion", ".db");
+		database.deleteOnExit();
+		IpRegionOffline.build(new BufferedReader(new StringReader(
+				"117.155.0.0,117.155.255.255,中国 湖南 移动\n"
+				+ "1.0.0.0,1.0.0.255,澳大利亚\n"
+				+ "1.0.1.0,1.0.1.10,中国 福建 电信\n"
+				+ "255.255.255.0,255.255.255.255,保留地址\n")), database);
+
+		IpRegionOffline ipRegion = new IpRegionOffline(database);
+		assertEquals("中国 湖南 移动", ipRegion.region("117.155.70.59"));
+		//cached /24
+		assertEquals("中国 湖南 移动", ipRegion.region("117.155.70.1"));
+		assertEquals("澳大利亚", ipRegion.region("1.0.0.8"));
+		assertEquals("中国 福建 电信", ipRegion.region("1.0.1.5"));
+		assertEquals("保留地址", ipRegion.region("255.255.255.255"));
+		assertNull(ipRegion.region("1.0.1.11"));
+		assertNull(ipRegion.region("8.8.8.8"));
+		assertNull(ipRegion.region("0:0:0:0:0:0:0:1"));
+
+		assertEquals("中国", IpRegionFactory.getFactory().getLocation("中国 湖南 移动"));
+	}
+
+	@Test
+	public void rebuild() throws Exception {
+		File database = File.createTempFile("ipregion", ".db");
+		database.deleteOnExit();
+		IpRegionOffline.build(new BufferedReader(new StringReader("1.0.0.0,1.0.0.255,澳大利亚\n")), database);
+		IpRegionOffline ipRegion = new IpRegionOffline(database);
+
+		//replaced by rename , the mapped file is not rewritten
+		IpRegionOffline.build(new BufferedReader(new StringReader("1.0.0.0,1.0.0.255,中国\n")), database);
+		assertEquals("澳大利亚", ipRegion.database.region((int) IpRegionOffline.parseIpv4("1.0.0.8")));
+		assertEquals("中国", new IpRegionOffline(database).region("1.0.0.8"));
+	}
+
+	@Test
+	public void overlapping() throws Exception {
+		File database = File.createTempFile("ipregion", ".db");
+		database.deleteOnExit();
+		try {
+			IpRegionOffline.build(new BufferedReader(new StringReader(
+					"1.0.0.0,1.0.0.255,澳大利亚\n"
+					+ "1.0.0.128,1.0.1.10,中国 福建 电信\n")), database);
+			throw new AssertionError("overlapping ranges accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("1.0.0.128-1.0.1.10"));
+		}
+	}
+
+	@Test
+	public void parseIpv4() {
+		assertEquals(0x7F000001L, IpRegionOffline.parseIpv4("127.0.0.1"));
+		assertEquals(0xFFFFFFFFL, IpRegionOffline.parseIpv4("255.255.255.255"));
+		assertEquals(-1, IpRegionOffline.parseIpv4("256.0.0.1"));
+		assertEquals(-1, IpRegionOffline.parseIpv4("1.2.3"));
+		assertEquals(-1, IpRegionOffline.parseIpv4("1..2.3"));
+		assertEquals(-1, IpRegionOffline.parseIpv4(null));
+	}
+}
@@ -19,11 +19,20 @@ package org.maxkey.identity.scim.controller;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import org.apache.mybatis.jpa.persistence.JpaPageResults;
+import java.util.Map;
+import java.util.Set;
+
 import org.maxkey.constants.ConstsStatus;
 import org.maxkey.entity.Groups;
 import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.apps.Apps;
+import org.maxkey.identity.scim.filter.ScimFilterException;
+import org.maxkey.identity.scim.filter.ScimUserAttributes;
+import org.maxkey.identity.scim.filter.ScimUserQuery;
 import org.maxkey.identity.scim.resources.ScimEnterprise;
 import org.maxkey.identity.scim.resources.ScimGroupRef;
 import org.maxkey.identity.scim.resources.ScimManager;
@@ -36,15 +45,19 @@ import org.maxkey.identity.scim.resources.ScimUser;
 import org.maxkey.identity.scim.resources.ScimUserEmail;
 import org.maxkey.identity.scim.resources.ScimFormattedName;
 import org.maxkey.identity.scim.resources.ScimUserPhoneNumber;
-import org.maxkey.persistence.service.GroupsService;
+import org.maxkey.persistence.service.AppsService;
 import org.maxkey.persistence.service.UserInfoService;
 import org.maxkey.util.DateUtils;
 import org.maxkey.util.StringUtils;
+import org.maxkey.web.WebContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -53,6 +66,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.util.UriComponentsBuilder;
 
 /**
@@ -68,17 +82,33 @@ import org.springframework.web.util.UriComponentsBuilder;
 @RequestMapping(value = "/api/idm/SCIM/v2/Users")
 public class ScimUserController {
 	final static Logger _logger = LoggerFactory.getLogger(ScimUserController.class);
+	public static final String ERROR_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:Error";
+	
 	@Autowired
 	private UserInfoService userInfoService;
 	
 	@Autowired
-	GroupsService groupsService;
+	AppsService appsService;
+	
+	@Autowired
+	ScimUserQuery scimUserQuery;
 	
     @RequestMapping(value = "/{id}", method = RequestMethod.GET)
     public MappingJacksonValue get(@PathVariable String id,
-                                       @RequestParam(required = false) String attributes) {
-        UserInfo userInfo = userInfoService.get(id);
-        ScimUser scimUser = userInfo2ScimUser(userInfo);
+                                       @RequestParam(required = false) String attributes,
+                                       @RequestParam(required = false) String excludedAttributes) {
+        String instId = getInstId();
+        Set<String> attributeSet = ScimUserAttributes.resolve(attributes, excludedAttributes);
+        UserInfo userInfo = scimUserQuery.get(instId, id, attributeSet);
+        if(userInfo == null) {
+        	throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User " + id + " not found");
+        }
+        List<Groups> groups = Collections.emptyList();
+        if(attributeSet.contains(ScimUserAttributes.GROUPS) || attributeSet.contains(ScimUserAttributes.GROUP)) {
+        	groups = scimUserQuery.queryGroups(instId, Collections.singletonList(id))
+        			.getOrDefault(id, Collections.<Groups>emptyList());
+        }
+        ScimUser scimUser = userInfo2ScimUser(userInfo, attributeSet, groups);
         return new MappingJacksonValue(scimUser);
     }
 
@@ -87,8 +117,9 @@ public class ScimUserController {
                                       @RequestParam(required = false) String attributes,
                                       UriComponentsBuilder builder) throws IOException {
     	UserInfo userInfo = scimUser2UserInfo(user);
+    	userInfo.setInstId(getInstId());
     	userInfoService.insert(userInfo);
-        return get(userInfo.getId(),attributes);
+        return get(userInfo.getId(),attributes,null);
     }
 
     @RequestMapping(value = "/{id}", method = RequestMethod.PUT)
@@ -96,14 +127,21 @@ public class ScimUserController {
                                        @RequestBody ScimUser user,
                                        @RequestParam(required = false) String attributes)
             throws IOException {
-    	UserInfo userInfo = scimUser2UserInfo(user);
+    	UserInfo userInfo = loadUser(id);
+    	//已加密的密码不再重复加密
+    	userInfo.setPassword(null);
+    	userInfo.setDecipherable(null);
+    	if(StringUtils.isNotBlank(user.getUserName())) {
+    		userInfo.setUsername(user.getUserName());
+    	}
     	userInfoService.update(userInfo);
-        return get(id,attributes);
+        return get(id,attributes,null);
     }
 
     @RequestMapping(value = "/{id}", method = RequestMethod.DELETE)
     @ResponseStatus(HttpStatus.OK)
     public void delete(@PathVariable final String id) {
+    	loadUser(id);
     	userInfoService.remove(id);
     }
 
@@ -116,80 +154,164 @@ public class ScimUserController {
     public MappingJacksonValue searchWithPost(@ModelAttribute ScimParameters requestParameters) {
     	requestParameters.parse();
     	_logger.debug("requestParameters {} ",requestParameters);
-    	UserInfo queryModel = new UserInfo();
-    	queryModel.setPageSize(requestParameters.getCount());
-    	queryModel.calculate(requestParameters.getStartIndex()); 
-        
-        JpaPageResults<UserInfo> orgResults = userInfoService.queryPageResults(queryModel);
-        List<ScimUser> resultList = new ArrayList<ScimUser>();
-        for(UserInfo user : orgResults.getRows()) {
-        	resultList.add(userInfo2ScimUser(user));
+    	Set<String> attributeSet = ScimUserAttributes.resolve(
+    			requestParameters.getAttributes(), requestParameters.getExcludedAttributes());
+    	//过滤条件、排序、分页及属性投影在数据库中完成,组关系按页批量查询
+    	ScimUserQuery.Page page = scimUserQuery.search(
+    			getInstId(),
+    			requestParameters.getFilter(),
+    			requestParameters.getSortBy(),
+    			requestParameters.getSortOrder(),
+    			requestParameters.getStartIndex(),
+    			requestParameters.getCount(),
+    			attributeSet);
+        List<ScimUser> resultList = new ArrayList<ScimUser>(page.getRows().size());
+        for(UserInfo user : page.getRows()) {
+        	resultList.add(userInfo2ScimUser(user, attributeSet, page.getGroups(user.getId())));
         }
         ScimSearchResult<ScimUser> scimSearchResult = 
         		new ScimSearchResult<ScimUser>(
         				resultList,
-        				orgResults.getRecords(),
-        				queryModel.getPageSize(),
+        				page.getTotal(),
+        				resultList.size(),
         				requestParameters.getStartIndex());  
         return new MappingJacksonValue(scimSearchResult);
     }
     
-    public ScimUser userInfo2ScimUser(UserInfo userInfo) {
+    @ExceptionHandler(ScimFilterException.class)
+    public ResponseEntity<Map<String, Object>> handleFilterException(ScimFilterException e) {
+    	_logger.debug("invalid filter {}", e.getMessage());
+    	Map<String, Object> error = new LinkedHashMap<String, Object>();
+    	error.put("schemas", Arrays.asList(ERROR_SCHEMA));
+    	error.put("scimType", e.getScimType());
+    	error.put("detail", e.getMessage());
+    	error.put("status", String.valueOf(HttpStatus.BAD_REQUEST.value()));
+    	return new ResponseEntity<Map<String, Object>>(error, HttpStatus.BAD_REQUEST);
+    }
+    
+    /**
+     * 调用方应用所属机构,认证主体为应用clientId,无法确定机构时拒绝访问
+     * @return
+     */
+    String getInstId() {
+    	Authentication authentication = WebContext.getAuthentication();
+    	Apps app = authentication == null ? null : appsService.loadById(authentication.getName());
+    	if(app == null || StringUtils.isBlank(app.getInstId())) {
+    		_logger.debug("no institution for client {}", authentication == null ? null : authentication.getName());
+    		throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Client institution not found");
+    	}
+    	return app.getInstId();
+    }
+    
+    /**
+     * 加载调用方机构内的用户,其他机构的用户视为不存在
+     * @param id
+     * @return
+     */
+    UserInfo loadUser(String id) {
+    	String instId = getInstId();
+    	UserInfo userInfo = userInfoService.get(id);
+    	if(userInfo == null || !instId.equals(userInfo.getInstId())) {
+    		throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User " + id + " not found");
+    	}
+    	return userInfo;
+    }
+    
+    /**
+     * @param userInfo
+     * @param attributes 需要返回的顶层属性,见{@link ScimUserAttributes#resolve(String, String)}
+     * @param userGroups 用户所属组
+     * @return
+     */
+    public ScimUser userInfo2ScimUser(UserInfo userInfo, Set<String> attributes, List<Groups> userGroups) {
     	ScimUser scimUser =new ScimUser();
     	scimUser.setId(userInfo.getId());
-    	scimUser.setExternalId(userInfo.getId());
-    	scimUser.setDisplayName(userInfo.getDisplayName());
-    	scimUser.setUserName(userInfo.getUsername());
-    	scimUser.setName(new ScimFormattedName(
-    									userInfo.getFormattedName(),
-    									userInfo.getFamilyName(),
-    									userInfo.getGivenName(),
-    									userInfo.getMiddleName(),
-    									userInfo.getHonorificPrefix(),
-    									userInfo.getHonorificSuffix()
-    						)
-    					);
-    	scimUser.setNickName(userInfo.getNickName());
-    	scimUser.setTitle(userInfo.getJobTitle());
-    	scimUser.setUserType(userInfo.getUserType());
-    	
-    	ScimEnterprise enterprise = new ScimEnterprise();
-    	enterprise.setDepartmentId(userInfo.getDepartmentId());
-    	enterprise.setDepartment(userInfo.getDepartment());
-    	enterprise.setCostCenter(userInfo.getCostCenter());
-    	enterprise.setManager(new ScimManager(userInfo.getManagerId(),userInfo.getManager()));
-    	enterprise.setDivision(userInfo.getDivision());
-    	enterprise.setEmployeeNumber(userInfo.getEmployeeNumber());
-    	scimUser.setEnterprise(enterprise);
+    	if(attributes.contains("externalid")) {
+    		scimUser.setExternalId(userInfo.getId());
+    	}
+    	if(attributes.contains("displayname")) {
+    		scimUser.setDisplayName(userInfo.getDisplayName());
+    	}
+    	if(attributes.contains("username")) {
+    		scimUser.setUserName(userInfo.getUsername());
+    	}
+    	if(attributes.contains("name")) {
+	    	scimUser.setName(new ScimFormattedName(
+	    									userInfo.getFormattedName(),
+	    									userInfo.getFamilyName(),
+	    									userInfo.getGivenName(),
+	    									userInfo.getMiddleName(),
+	    									userInfo.getHonorificPrefix(),
+	    									userInfo.getHonorificSuffix()
+	    						)
+	    					);
+    	}
+    	if(attributes.contains("nickname")) {
+    		scimUser.setNickName(userInfo.getNickName());
+    	}
+    	if(attributes.contains("title")) {
+    		scimUser.setTitle(userInfo.getJobTitle());
+    	}
+    	if(attributes.contains("usertype")) {
+    		scimUser.setUserType(userInfo.getUserType());
+    	}
     	
-    	List<String> organizationsList=new  ArrayList<String>(); 
-    	organizationsList.add(userInfo.getDepartmentId());
-    	scimUser.setOrganization(organizationsList);
+    	if(attributes.contains(ScimUserAttributes.ENTERPRISE)) {
+	    	ScimEnterprise enterprise = new ScimEnterprise();
+	    	enterprise.setDepartmentId(userInfo.getDepartmentId());
+	    	enterprise.setDepartment(userInfo.getDepartment());
+	    	enterprise.setCostCenter(userInfo.getCostCenter());
+	    	enterprise.setManager(new ScimManager(userInfo.getManagerId(),userInfo.getManager()));
+	    	enterprise.setDivision(userInfo.getDivision());
+	    	enterprise.setEmployeeNumber(userInfo.getEmployeeNumber());
+	    	scimUser.setEnterprise(enterprise);
+    	}
     	
-    	List<String> groupsList=new  ArrayList<String>(); 
-    	List<ScimGroupRef> groups = new  ArrayList<ScimGroupRef>(); 
-    	for(Groups group : groupsService.queryGroupByUserId(userInfo.getId())){
-    		groupsList.add(group.getId());
-    		groups.add(new ScimGroupRef(group.getId(),group.getName()));
-    		
-    	}
-    	scimUser.setGroup(groupsList);
-    	scimUser.setGroups(groups);
+    	if(attributes.contains("organization")) {
+	    	List<String> organizationsList=new  ArrayList<String>(); 
+	    	organizationsList.add(userInfo.getDepartmentId());
+	    	scimUser.setOrganization(organizationsList);
+    	}
     	
-    	scimUser.setTimezone(userInfo.getTimeZone());
-    	scimUser.setLocale(userInfo.getLocale());
-    	scimUser.setPreferredLanguage(userInfo.getPreferredLanguage());
-    	scimUser.setActive(userInfo.getStatus() == ConstsStatus.ACTIVE);
+    	if(attributes.contains(ScimUserAttributes.GROUPS) || attributes.contains(ScimUserAttributes.GROUP)) {
+	    	List<String> groupsList=new  ArrayList<String>(); 
+	    	List<ScimGroupRef> groups = new  ArrayList<ScimGroupRef>(); 
+	    	for(Groups group : userGroups){
+	    		groupsList.add(group.getId());
+	    		groups.add(new ScimGroupRef(group.getId(),group.getName()));
+	    	}
+	    	if(attributes.contains(ScimUserAttributes.GROUP)) {
+	    		scimUser.setGroup(groupsList);
+	    	}
+	    	if(attributes.contains(ScimUserAttributes.GROUPS)) {
+	    		scimUser.setGroups(groups);
+	    	}
+    	}
     	
-    	List<ScimUserEmail> emails = new ArrayList<ScimUserEmail>(); 
-    	if(StringUtils.isNotBlank(userInfo.getEmail())){
-    		emails.add(new ScimUserEmail(userInfo.getEmail(),UserEmailType.OTHER,true));
+    	if(attributes.contains("timezone")) {
+    		scimUser.setTimezone(userInfo.getTimeZone());
+    	}
+    	if(attributes.contains("locale")) {
+    		scimUser.setLocale(userInfo.getLocale());
     	}
-    	if(StringUtils.isNotBlank(userInfo.getWorkEmail())){
-    		emails.add(new ScimUserEmail(userInfo.getEmail(),UserEmailType.WORK,false));
+    	if(attributes.contains("preferredlanguage")) {
+    		scimUser.setPreferredLanguage(userInfo.getPreferredLanguage());
     	}
-    	if(StringUtils.isNotBlank(userInfo.getHomeEmail())){
-    		emails.add(new ScimUserEmail(userInfo.getEmail(),UserEmailType.HOME,false));
+    	if(attributes.contains("active")) {
+    		scimUser.setActive(userInfo.getStatus() == ConstsStatus.ACTIVE);
+    	}
+    	
+    	List<ScimUserEmail> emails = new ArrayList<ScimUserEmail>(); 
+    	if(attributes.contains("emails")) {
+	    	if(StringUtils.isNotBlank(userInfo.getEmail())){
+	    		emails.add(new ScimUserEmail(userInfo.getEmail(),UserEmailType.OTHER,true));
+	    	}
+	    	if(StringUtils.isNotBlank(userInfo.getWorkEmail())){
+	    		emails.add(new ScimUserEmail(userInfo.getWorkEmail(),UserEmailType.WORK,false));
+	    	}
+	    	if(StringUtils.isNotBlank(userInfo.getHomeEmail())){
+	    		emails.add(new ScimUserEmail(userInfo.getHomeEmail(),UserEmailType.HOME,false));
+	    	}
     	}
     	
     	if(emails.size() > 0) {
@@ -197,31 +319,35 @@ public class ScimUserController {
     	}
     	
     	List<ScimUserPhoneNumber> phoneNumbers = new ArrayList<ScimUserPhoneNumber>(); 
-    	if(StringUtils.isNotBlank(userInfo.getMobile())){
-    		phoneNumbers.add(new ScimUserPhoneNumber(userInfo.getMobile(),UserPhoneNumberType.MOBILE,true));
-    	}
-    	if(StringUtils.isNotBlank(userInfo.getWorkPhoneNumber())){
-    		phoneNumbers.add(new ScimUserPhoneNumber(userInfo.getWorkPhoneNumber(),UserPhoneNumberType.WORK,false));
-    	}
-    	
-    	if(StringUtils.isNotBlank(userInfo.getHomePhoneNumber())){
-    		phoneNumbers.add(new ScimUserPhoneNumber(userInfo.getHomePhoneNumber(),UserPhoneNumberType.HOME,false));
+    	if(attributes.contains("phonenumbers")) {
+	    	if(StringUtils.isNotBlank(userInfo.getMobile())){
+	    		phoneNumbers.add(new ScimUserPhoneNumber(userInfo.getMobile(),UserPhoneNumberType.MOBILE,true));
+	    	}
+	    	if(StringUtils.isNotBlank(userInfo.getWorkPhoneNumber())){
+	    		phoneNumbers.add(new ScimUserPhoneNumber(userInfo.getWorkPhoneNumber(),UserPhoneNumberType.WORK,false));
+	    	}
+	    	
+	    	if(StringUtils.isNotBlank(userInfo.getHomePhoneNumber())){
+	    		phoneNumbers.add(new ScimUserPhoneNumber(userInfo.getHomePhoneNumber(),UserPhoneNumberType.HOME,false));
+	    	}
     	}
     	
     	if(phoneNumbers.size() > 0) {
     		scimUser.setPhoneNumbers(phoneNumbers);
     	}
     	
-        ScimMeta meta = new ScimMeta("User");
-        if(StringUtils.isNotBlank(userInfo.getCreatedDate())){
-        	meta.setCreated(
-        			DateUtils.parse(userInfo.getCreatedDate(), DateUtils.FORMAT_DATE_YYYY_MM_DD_HH_MM_SS));
-        }
-        if(StringUtils.isNotBlank(userInfo.getModifiedDate())){
-        	meta.setLastModified(
-        			DateUtils.parse(userInfo.getModifiedDate(), DateUtils.FORMAT_DATE_YYYY_MM_DD_HH_MM_SS));
-        }
-        scimUser.setMeta(meta);
+    	if(attributes.contains("meta")) {
+	        ScimMeta meta = new ScimMeta("User");
+	        if(StringUtils.isNotBlank(userInfo.getCreatedDate())){
+	        	meta.setCreated(
+	        			DateUtils.parse(userInfo.getCreatedDate(), DateUtils.FORMAT_DATE_YYYY_MM_DD_HH_MM_SS));
+	        }
+	        if(StringUtils.isNotBlank(userInfo.getModifiedDate())){
+	        	meta.setLastModified(
+	        			DateUtils.parse(userInfo.getModifiedDate(), DateUtils.FORMAT_DATE_YYYY_MM_DD_HH_MM_SS));
+	        }
+	        scimUser.setMeta(meta);
+    	}
     	return scimUser;
     }
     
@@ -0,0 +1,324 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.identity.scim.filter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * SCIM 2.0过滤条件(RFC 7644 3.4.2.2)语法树.
+ * <p>
+ * 支持 attrPath op value(eq ne co sw ew gt ge lt le)、attrPath pr、and/or/not(...)、括号,
+ * 多值属性的valuePath(emails[type eq "work" and value co "@maxkey.top"]),
+ * 属性可带schema URN前缀;值为"字符串"、数字、true、false、null.运算符及属性名不区分大小写.
+ * </p>
+ */
+public abstract class ScimFilter {
+
+    public static final Set<String> OPERATORS =
+            new HashSet<String>(Arrays.asList("eq", "ne", "co", "sw", "ew", "gt", "ge", "lt", "le", "pr"));
+
+    static final int MAX_DEPTH = 32;
+
+    /**
+     * and/or链每个条件增加一层语法树,编译及toString递归,限制条件总数
+     */
+    static final int MAX_CONDITIONS = 100;
+
+    static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+
+    /**
+     * @param filter
+     * @return 语法树
+     * @throws ScimFilterException 语法错误
+     */
+    public static ScimFilter parse(String filter) {
+        Parser parser = new Parser(tokenize(filter));
+        ScimFilter root = parser.parseOr(0);
+        if (parser.position < parser.tokens.size()) {
+            throw new ScimFilterException("unexpected '" + parser.tokens.get(parser.position).text + "'");
+        }
+        return root;
+    }
+
+    public static class Logical extends ScimFilter {
+        final boolean and;
+
+        final ScimFilter left;
+
+        final ScimFilter right;
+
+        Logical(boolean and, ScimFilter left, ScimFilter right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + (and ? " and " : " or ") + right + ")";
+        }
+    }
+
+    public static class Not extends ScimFilter {
+        final ScimFilter filter;
+
+        Not(ScimFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public String toString() {
+            return "not (" + filter + ")";
+        }
+    }
+
+    public static class Compare extends ScimFilter {
+        final String attrPath;
+
+        /**
+         * 小写
+         */
+        final String operator;
+
+        /**
+         * String,BigDecimal,Boolean或null
+         */
+        final Object value;
+
+        Compare(String attrPath, String operator, Object value) {
+            this.attrPath = attrPath;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return attrPath + " " + operator
+                    + ("pr".equals(operator) ? "" : " " + (value instanceof String ? "\"" + value + "\"" : value));
+        }
+    }
+
+    /**
+     * 多值属性的子条件 attrPath[filter]
+     */
+    public static class ValuePath extends ScimFilter {
+        final String attrPath;
+
+        final ScimFilter filter;
+
+        ValuePath(String attrPath, ScimFilter filter) {
+            this.attrPath = attrPath;
+            this.filter = filter;
+        }
+
+        @Override
+        public String toString() {
+            return attrPath + "[" + filter + "]";
+        }
+    }
+
+    static class Token {
+        final boolean string;
+
+        final String text;
+
+        Token(boolean string, String text) {
+            this.string = string;
+            this.text = text;
+        }
+
+        boolean is(String keyword) {
+            return !string && text.equalsIgnoreCase(keyword);
+        }
+    }
+
+    static List<Token> tokenize(String filter) {
+        List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        int length = filter.length();
+        while (i < length) {
+            char c = filter.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')' || c == '[' || c == ']') {
+                tokens.add(new Token(false, String.valueOf(c)));
+                i++;
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new ScimFilterException("unterminated string");
+                    }
+                    char s = filter.charAt(i++);
+                    if (s == '"') {
+                        break;
+                    }
+                    if (s == '\\') {
+                        if (i >= length) {
+                            throw new ScimFilterException("unterminated string");
+                        }
+                        char e = filter.charAt(i++);
+                        switch (e) {
+                            case 'b': value.append('\b'); break;
+                            case 'f': value.append('\f'); break;
+                            case 'n': value.append('\n'); break;
+                            case 'r': value.append('\r'); break;
+                            case 't': value.append('\t'); break;
+                            case 'u':
+                                if (i + 4 > length) {
+                                    throw new ScimFilterException("invalid unicode escape");
+                                }
+                                try {
+                                    value.append((char) Integer.parseInt(filter.substring(i, i + 4), 16));
+                                } catch (NumberFormatException ex) {
+                                    throw new ScimFilterException("invalid unicode escape");
+                                }
+                                i += 4;
+                                break;
+                            default: value.append(e);
+                        }
+                    } else {
+                        value.append(s);
+                    }
+                }
+                tokens.add(new Token(true, value.toString()));
+            } else {
+                int start = i;
+                while (i < length && !Character.isWhitespace(filter.charAt(i))
+                        && "()[]\"".indexOf(filter.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(new Token(false, filter.substring(start, i)));
+            }
+        }
+        return tokens;
+    }
+
+    static class Parser {
+        final List<Token> tokens;
+
+        int position;
+
+        int conditions;
+
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        ScimFilter parseOr(int depth) {
+            if (depth > MAX_DEPTH) {
+                throw new ScimFilterException("filter nested too deep");
+            }
+            ScimFilter left = parseAnd(depth);
+            while (accept("or")) {
+                left = new Logical(false, left, parseAnd(depth));
+            }
+            return left;
+        }
+
+        ScimFilter parseAnd(int depth) {
+            ScimFilter left = parseUnary(depth);
+            while (accept("and")) {
+                left = new Logical(true, left, parseUnary(depth));
+            }
+            return left;
+        }
+
+        ScimFilter parseUnary(int depth) {
+            if (accept("not")) {
+                expect("(");
+                ScimFilter filter = parseOr(depth + 1);
+                expect(")");
+                return new Not(filter);
+            }
+            if (accept("(")) {
+                ScimFilter filter = parseOr(depth + 1);
+                expect(")");
+                return filter;
+            }
+            Token attrPath = next();
+            if (attrPath.string || "()[]".contains(attrPath.text)) {
+                throw new ScimFilterException("expect attribute , but '" + attrPath.text + "'");
+            }
+            if (++conditions > MAX_CONDITIONS) {
+                throw new ScimFilterException("filter has more than " + MAX_CONDITIONS + " conditions");
+            }
+            if (accept("[")) {
+                ScimFilter filter = parseOr(depth + 1);
+                expect("]");
+                return new ValuePath(attrPath.text, filter);
+            }
+            Token operator = next();
+            String op = operator.text.toLowerCase();
+            if (operator.string || !OPERATORS.contains(op)) {
+                throw new ScimFilterException("unsupported operator '" + operator.text + "'");
+            }
+            if ("pr".equals(op)) {
+                return new Compare(attrPath.text, op, null);
+            }
+            return new Compare(attrPath.text, op, value(next()));
+        }
+
+        Object value(Token token) {
+            if (token.string) {
+                return token.text;
+            }
+            if (token.is("true")) {
+                return Boolean.TRUE;
+            }
+            if (token.is("false")) {
+                return Boolean.FALSE;
+            }
+            if (token.is("null")) {
+                return null;
+            }
+            if (NUMBER.matcher(token.text).matches()) {
+                return new BigDecimal(token.text);
+            }
+            throw new ScimFilterException("invalid value '" + token.text + "'");
+        }
+
+        boolean accept(String keyword) {
+            if (position < tokens.size() && tokens.get(position).is(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String keyword) {
+            if (!accept(keyword)) {
+                throw new ScimFilterException("expect '" + keyword + "'");
+            }
+        }
+
+        Token next() {
+            if (position >= tokens.size()) {
+                throw new ScimFilterException("unexpected end of filter");
+            }
+            return tokens.get(position++);
+        }
+    }
+}
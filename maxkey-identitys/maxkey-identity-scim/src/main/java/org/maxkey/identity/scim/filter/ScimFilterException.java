@@ -0,0 +1,45 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.identity.scim.filter;
+
+/**
+ * 过滤条件或排序属性错误,返回400及SCIM scimType
+ */
+public class ScimFilterException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 2829184927441763425L;
+
+    public static final String INVALID_FILTER = "invalidFilter";
+
+    public static final String INVALID_VALUE = "invalidValue";
+
+    final String scimType;
+
+    public ScimFilterException(String message) {
+        this(INVALID_FILTER, message);
+    }
+
+    public ScimFilterException(String scimType, String message) {
+        super(message);
+        this.scimType = scimType;
+    }
+
+    public String getScimType() {
+        return scimType;
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.identity.scim.filter;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.maxkey.constants.ConstsStatus;
+import org.maxkey.identity.scim.filter.ScimFilter.Compare;
+import org.maxkey.identity.scim.filter.ScimFilter.Logical;
+import org.maxkey.identity.scim.filter.ScimFilter.Not;
+import org.maxkey.identity.scim.filter.ScimFilter.ValuePath;
+import org.maxkey.identity.scim.resources.ScimUser;
+import org.maxkey.util.StringUtils;
+
+/**
+ * SCIM User属性与mxk_userinfo(别名u)列的映射,将过滤条件编译为参数化SQL.
+ * <p>
+ * emails/phoneNumbers由多列组成,type/primary按列确定;groups/group编译为mxk_group_member的exists子查询.
+ * 字符串比较的大小写规则取决于数据库排序规则.
+ * </p>
+ */
+public class ScimUserAttributes {
+
+    public static final String ALIAS = "u";
+
+    public static final String ENTERPRISE = "enterprise";
+
+    public static final String GROUPS = "groups";
+
+    public static final String GROUP = "group";
+
+    static final String TRUE = "1 = 1";
+
+    static final String FALSE = "1 = 0";
+
+    enum Type {
+        STRING, BOOLEAN, DATE
+    }
+
+    static class Attribute {
+        final String column;
+
+        final Type type;
+
+        Attribute(String column, Type type) {
+            this.column = column;
+            this.type = type;
+        }
+    }
+
+    /**
+     * 多值属性中的一项,对应一列
+     */
+    static class Slot {
+        final String column;
+
+        final String type;
+
+        final boolean primary;
+
+        Slot(String column, String type, boolean primary) {
+            this.column = column;
+            this.type = type;
+            this.primary = primary;
+        }
+    }
+
+    /**
+     * 简单属性,key为小写路径
+     */
+    static final Map<String, Attribute> ATTRIBUTES = new HashMap<String, Attribute>();
+
+    /**
+     * 多值属性
+     */
+    static final Map<String, List<Slot>> MULTI_VALUED = new HashMap<String, List<Slot>>();
+
+    /**
+     * 顶层属性(小写)需要查询的列
+     */
+    static final Map<String, List<String>> PROJECTIONS = new LinkedHashMap<String, List<String>>();
+
+    static {
+        attribute("id", "id", Type.STRING);
+        attribute("externalid", "id", Type.STRING);
+        attribute("username", "username", Type.STRING);
+        attribute("displayname", "displayname", Type.STRING);
+        attribute("nickname", "nickname", Type.STRING);
+        attribute("title", "jobtitle", Type.STRING);
+        attribute("usertype", "usertype", Type.STRING);
+        attribute("preferredlanguage", "preferredlanguage", Type.STRING);
+        attribute("locale", "locale", Type.STRING);
+        attribute("timezone", "timezone", Type.STRING);
+        attribute("active", "status", Type.BOOLEAN);
+        attribute("name.formatted", "formattedname", Type.STRING);
+        attribute("name.familyname", "familyname", Type.STRING);
+        attribute("name.givenname", "givenname", Type.STRING);
+        attribute("name.middlename", "middlename", Type.STRING);
+        attribute("name.honorificprefix", "honorificprefix", Type.STRING);
+        attribute("name.honorificsuffix", "honorificsuffix", Type.STRING);
+        attribute("meta.created", "createddate", Type.DATE);
+        attribute("meta.lastmodified", "modifieddate", Type.DATE);
+        attribute("organization", "departmentid", Type.STRING);
+        attribute("enterprise.employeenumber", "employeenumber", Type.STRING);
+        attribute("enterprise.costcenter", "costcenter", Type.STRING);
+        attribute("enterprise.organization", "organization", Type.STRING);
+        attribute("enterprise.division", "division", Type.STRING);
+        attribute("enterprise.department", "department", Type.STRING);
+        attribute("enterprise.departmentid", "departmentid", Type.STRING);
+        attribute("enterprise.manager", "managerid", Type.STRING);
+        attribute("enterprise.manager.value", "managerid", Type.STRING);
+        attribute("enterprise.manager.displayname", "manager", Type.STRING);
+
+        MULTI_VALUED.put("emails", Arrays.asList(
+                new Slot("email", "other", true),
+                new Slot("workemail", "work", false),
+                new Slot("homeemail", "home", false)));
+        MULTI_VALUED.put("phonenumbers", Arrays.asList(
+                new Slot("mobile", "mobile", true),
+                new Slot("workphonenumber", "work", false),
+                new Slot("homephonenumber", "home", false)));
+
+        projection("id", "id");
+        projection("externalid", "id");
+        projection("username", "username");
+        projection("name", "formattedname", "familyname", "givenname",
+                "middlename", "honorificprefix", "honorificsuffix");
+        projection("displayname", "displayname");
+        projection("nickname", "nickname");
+        projection("title", "jobtitle");
+        projection("usertype", "usertype");
+        projection("preferredlanguage", "preferredlanguage");
+        projection("locale", "locale");
+        projection("timezone", "timezone");
+        projection("active", "status");
+        projection("emails", "email", "workemail", "homeemail");
+        projection("phonenumbers", "mobile", "workphonenumber", "homephonenumber");
+        projection("organization", "departmentid");
+        projection(ENTERPRISE, "employeenumber", "costcenter", "organization", "division",
+                "departmentid", "department", "managerid", "manager");
+        projection(GROUPS);
+        projection(GROUP);
+        projection("meta", "createddate", "modifieddate");
+    }
+
+    static void attribute(String path, String column, Type type) {
+        ATTRIBUTES.put(path, new Attribute(column, type));
+    }
+
+    static void projection(String name, String... columns) {
+        PROJECTIONS.put(name, Arrays.asList(columns));
+    }
+
+    /**
+     * 去掉schema URN前缀,企业扩展属性转为enterprise.xxx,返回小写路径
+     * @param attrPath
+     * @return
+     */
+    public static String normalize(String attrPath) {
+        String path = attrPath.trim();
+        if (path.regionMatches(true, 0, ScimUser.SCHEMA_ENTERPRISE, 0, ScimUser.SCHEMA_ENTERPRISE.length())) {
+            path = path.length() > ScimUser.SCHEMA_ENTERPRISE.length() + 1
+                    ? ENTERPRISE + "." + path.substring(ScimUser.SCHEMA_ENTERPRISE.length() + 1)
+                    : ENTERPRISE;
+        } else if (path.regionMatches(true, 0, ScimUser.SCHEMA + ":", 0, ScimUser.SCHEMA.length() + 1)) {
+            path = path.substring(ScimUser.SCHEMA.length() + 1);
+        }
+        return path.toLowerCase();
+    }
+
+    /**
+     * 顶层属性名
+     * @param attrPath
+     * @return
+     */
+    public static String topLevel(String attrPath) {
+        String path = normalize(attrPath);
+        int dot = path.indexOf('.');
+        return dot < 0 ? path : path.substring(0, dot);
+    }
+
+    /**
+     * 按attributes/excludedAttributes计算需要返回的顶层属性(小写),id总是返回;
+     * 均为空时返回全部
+     * @param attributes 逗号分隔
+     * @param excludedAttributes 逗号分隔
+     * @return
+     */
+    public static Set<String> resolve(String attributes, String excludedAttributes) {
+        Set<String> resolved = new LinkedHashSet<String>();
+        if (StringUtils.isNotBlank(attributes)) {
+            for (String attribute : attributes.split(",")) {
+                if (StringUtils.isNotBlank(attribute)) {
+                    String name = topLevel(attribute);
+                    if (PROJECTIONS.containsKey(name)) {
+                        resolved.add(name);
+                    }
+                }
+            }
+        } else {
+            resolved.addAll(PROJECTIONS.keySet());
+            if (StringUtils.isNotBlank(excludedAttributes)) {
+                for (String attribute : excludedAttributes.split(",")) {
+                    //排除子属性时保留顶层属性
+                    if (StringUtils.isNotBlank(attribute) && normalize(attribute).indexOf('.') < 0) {
+                        resolved.remove(topLevel(attribute));
+                    }
+                }
+            }
+        }
+        resolved.add("id");
+        return resolved;
+    }
+
+    /**
+     * @param attributes {@link #resolve(String, String)}的结果
+     * @return 需要查询的列,不含别名
+     */
+    public static Set<String> columns(Set<String> attributes) {
+        Set<String> columns = new LinkedHashSet<String>();
+        for (String attribute : attributes) {
+            List<String> projection = PROJECTIONS.get(attribute);
+            if (projection != null) {
+                columns.addAll(projection);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param sortBy
+     * @return 排序列,不含别名;未指定时为username
+     */
+    public static String sortColumn(String sortBy) {
+        if (StringUtils.isBlank(sortBy)) {
+            return "username";
+        }
+        String path = normalize(sortBy);
+        Attribute attribute = ATTRIBUTES.get(path);
+        if (attribute != null) {
+            return attribute.column;
+        }
+        //多值属性按primary排序
+        int dot = path.indexOf('.');
+        List<Slot> slots = MULTI_VALUED.get(dot < 0 ? path : path.substring(0, dot));
+        if (slots != null && (dot < 0 || path.endsWith(".value"))) {
+            return slots.get(0).column;
+        }
+        throw new ScimFilterException(ScimFilterException.INVALID_VALUE, "unsupported sortBy '" + sortBy + "'");
+    }
+
+    /**
+     * 编译过滤条件
+     * @param filter
+     * @param params 输出的参数
+     * @return where条件
+     */
+    public static String toSql(ScimFilter filter, List<Object> params) {
+        return new Compiler(params).compile(filter, null);
+    }
+
+    /**
+     * 子条件的上下文,如emails[...]的某一列或groups[...]
+     */
+    static class Scope {
+        final String name;
+
+        final Slot slot;
+
+        Scope(String name, Slot slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+    }
+
+    static class Compiler {
+        final List<Object> params;
+
+        Compiler(List<Object> params) {
+            this.params = params;
+        }
+
+        String compile(ScimFilter filter, Scope scope) {
+            if (filter instanceof Logical) {
+                Logical logical = (Logical) filter;
+                int start = params.size();
+                String left = compile(logical.left, scope);
+                String right = compile(logical.right, scope);
+                //结果为常量时丢弃另一侧的参数
+                if (logical.and) {
+                    if (FALSE.equals(left) || FALSE.equals(right)) {
+                        params.subList(start, params.size()).clear();
+                        return FALSE;
+                    }
+                    return TRUE.equals(left) ? right : TRUE.equals(right) ? left : "(" + left + " and " + right + ")";
+                }
+                if (TRUE.equals(left) || TRUE.equals(right)) {
+                    params.subList(start, params.size()).clear();
+                    return TRUE;
+                }
+                return FALSE.equals(left) ? right : FALSE.equals(right) ? left : "(" + left + " or " + right + ")";
+            } else if (filter instanceof Not) {
+                String inner = compile(((Not) filter).filter, scope);
+                return TRUE.equals(inner) ? FALSE : FALSE.equals(inner) ? TRUE : "not (" + inner + ")";
+            } else if (filter instanceof ValuePath) {
+                ValuePath valuePath = (ValuePath) filter;
+                if (scope != null) {
+                    throw new ScimFilterException("nested value path '" + valuePath.attrPath + "'");
+                }
+                return multiValued(normalize(valuePath.attrPath), valuePath.filter, valuePath.attrPath);
+            }
+            Compare compare = (Compare) filter;
+            if (scope != null) {
+                return subAttribute(scope, compare);
+            }
+            String path = normalize(compare.attrPath);
+            Attribute attribute = ATTRIBUTES.get(path);
+            if (attribute != null) {
+                return compare(ALIAS + "." + attribute.column, attribute.type, compare);
+            }
+            //emails co "x" 或 emails.type eq "work"
+            int dot = path.indexOf('.');
+            String name = dot < 0 ? path : path.substring(0, dot);
+            String subAttribute = dot < 0 ? "value" : path.substring(dot + 1);
+            return multiValued(name,
+                    new Compare(subAttribute, compare.operator, compare.value), compare.attrPath);
+        }
+
+        String multiValued(String name, ScimFilter filter, String attrPath) {
+            if (GROUPS.equals(name) || GROUP.equals(name)) {
+                String inner = compile(filter, new Scope(name, null));
+                if (FALSE.equals(inner)) {
+                    return FALSE;
+                }
+                return "exists (select 1 from mxk_group_member gm , mxk_groups g"
+                        + " where gm.memberid = " + ALIAS + ".id and g.id = gm.groupid"
+                        + " and gm.type in ('USER','USER-DYNAMIC')"
+                        + (TRUE.equals(inner) ? "" : " and " + inner) + ")";
+            }
+            List<Slot> slots = MULTI_VALUED.get(name);
+            if (slots == null) {
+                throw new ScimFilterException("unsupported attribute '" + attrPath + "'");
+            }
+            List<String> conditions = new ArrayList<String>();
+            for (Slot slot : slots) {
+                String inner = compile(filter, new Scope(name, slot));
+                if (!FALSE.equals(inner)) {
+                    String column = ALIAS + "." + slot.column;
+                    conditions.add(TRUE.equals(inner) ? present(column) : "(" + present(column) + " and " + inner + ")");
+                }
+            }
+            if (conditions.isEmpty()) {
+                return FALSE;
+            }
+            return conditions.size() == 1 ? conditions.get(0) : "(" + String.join(" or ", conditions) + ")";
+        }
+
+        String subAttribute(Scope scope, Compare compare) {
+            String name = normalize(compare.attrPath);
+            //emails[emails.value eq "x"]
+            if (name.startsWith(scope.name + ".")) {
+                name = name.substring(scope.name.length() + 1);
+            }
+            if (scope.slot == null) {
+                if ("value".equals(name)) {
+                    return compare("g.id", Type.STRING, compare);
+                } else if ("display".equals(name)) {
+                    return compare("g.name", Type.STRING, compare);
+                }
+            } else if ("value".equals(name)) {
+                return compare(ALIAS + "." + scope.slot.column, Type.STRING, compare);
+            } else if ("type".equals(name)) {
+                return constant(scope.slot.type, compare);
+            } else if ("primary".equals(name)) {
+                return constant(scope.slot.primary, compare);
+            }
+            throw new ScimFilterException("unsupported attribute '" + scope.name + "." + compare.attrPath + "'");
+        }
+
+        /**
+         * type/primary取值固定,直接求值
+         */
+        String constant(Object actual, Compare compare) {
+            Object expected = compare.value;
+            boolean result;
+            switch (compare.operator) {
+                case "pr":
+                    result = true;
+                    break;
+                case "eq":
+                    result = equalsIgnoreCase(actual, expected);
+                    break;
+                case "ne":
+                    result = !equalsIgnoreCase(actual, expected);
+                    break;
+                default:
+                    if (!(actual instanceof String) || !(expected instanceof String)) {
+                        throw new ScimFilterException("operator '" + compare.operator + "' not supported on boolean");
+                    }
+                    String a = ((String) actual).toLowerCase();
+                    String e = ((String) expected).toLowerCase();
+                    int c = a.compareTo(e);
+                    switch (compare.operator) {
+                        case "co": result = a.contains(e); break;
+                        case "sw": result = a.startsWith(e); break;
+                        case "ew": result = a.endsWith(e); break;
+                        case "gt": result = c > 0; break;
+                        case "ge": result = c >= 0; break;
+                        case "lt": result = c < 0; break;
+                        default: result = c <= 0;
+                    }
+            }
+            return result ? TRUE : FALSE;
+        }
+
+        boolean equalsIgnoreCase(Object actual, Object expected) {
+            if (actual instanceof String && expected instanceof String) {
+                return ((String) actual).equalsIgnoreCase((String) expected);
+            }
+            return actual.equals(expected);
+        }
+
+        String compare(String column, Type type, Compare compare) {
+            String operator = compare.operator;
+            Object value = compare.value;
+            if ("pr".equals(operator)) {
+                return type == Type.STRING ? present(column) : column + " is not null";
+            }
+            if (value == null) {
+                if ("eq".equals(operator)) {
+                    return column + " is null";
+                } else if ("ne".equals(operator)) {
+                    return column + " is not null";
+                }
+                throw new ScimFilterException(ScimFilterException.INVALID_VALUE,
+                        "null is not comparable with '" + operator + "'");
+            }
+            if (type == Type.BOOLEAN) {
+                if (!(value instanceof Boolean) || !("eq".equals(operator) || "ne".equals(operator))) {
+                    throw new ScimFilterException(ScimFilterException.INVALID_VALUE,
+                            "'" + compare.attrPath + "' only supports eq/ne with true or false");
+                }
+                params.add(ConstsStatus.ACTIVE);
+                boolean active = ((Boolean) value) == "eq".equals(operator);
+                return active ? column + " = ?" : "(" + column + " is null or " + column + " <> ?)";
+            }
+            Object parameter;
+            if (type == Type.DATE) {
+                if ("co".equals(operator) || "sw".equals(operator) || "ew".equals(operator)) {
+                    throw new ScimFilterException("operator '" + operator + "' not supported on dateTime");
+                }
+                parameter = timestamp(value);
+            } else if (value instanceof Boolean) {
+                throw new ScimFilterException(ScimFilterException.INVALID_VALUE,
+                        "'" + compare.attrPath + "' is not a boolean");
+            } else {
+                parameter = value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value;
+            }
+            switch (operator) {
+                case "eq":
+                    params.add(parameter);
+                    return column + " = ?";
+                case "ne":
+                    params.add(parameter);
+                    return "(" + column + " is null or " + column + " <> ?)";
+                case "co":
+                    params.add("%" + escape((String) parameter) + "%");
+                    return column + " like ? escape '!'";
+                case "sw":
+                    params.add(escape((String) parameter) + "%");
+                    return column + " like ? escape '!'";
+                case "ew":
+                    params.add("%" + escape((String) parameter));
+                    return column + " like ? escape '!'";
+                case "gt":
+                    params.add(parameter);
+                    return column + " > ?";
+                case "ge":
+                    params.add(parameter);
+                    return column + " >= ?";
+                case "lt":
+                    params.add(parameter);
+                    return column + " < ?";
+                default:
+                    params.add(parameter);
+                    return column + " <= ?";
+            }
+        }
+
+        String present(String column) {
+            return "(" + column + " is not null and " + column + " <> '')";
+        }
+
+        String escape(String value) {
+            return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+        }
+
+        Timestamp timestamp(Object value) {
+            if (value instanceof String) {
+                String text = (String) value;
+                try {
+                    return Timestamp.from(OffsetDateTime.parse(text).toInstant());
+                } catch (DateTimeParseException e) {
+                    //无时区
+                }
+                try {
+                    return Timestamp.valueOf(LocalDateTime.parse(text));
+                } catch (DateTimeParseException e) {
+                    //仅日期
+                }
+                try {
+                    return Timestamp.valueOf(LocalDate.parse(text).atStartOfDay());
+                } catch (DateTimeParseException e) {
+                    //invalid
+                }
+            }
+            throw new ScimFilterException(ScimFilterException.INVALID_VALUE, "invalid dateTime '" + value + "'");
+        }
+    }
+}
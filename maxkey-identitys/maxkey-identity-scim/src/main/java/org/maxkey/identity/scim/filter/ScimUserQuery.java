@@ -0,0 +1,258 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.identity.scim.filter;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.maxkey.entity.Groups;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.util.DateUtils;
+import org.maxkey.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * SCIM用户查询.
+ * <p>
+ * 过滤条件编译为SQL在数据库中执行,只查询请求的属性对应的列;
+ * 分页先在索引上取出当前页的id再回表(延迟关联),一页用户的组关系一次查询取回.
+ * </p>
+ */
+public class ScimUserQuery {
+    private static final Logger _logger = LoggerFactory.getLogger(ScimUserQuery.class);
+
+    static final String GROUPS_SELECT_STATEMENT =
+            "select gm.memberid , g.id , g.name from mxk_group_member gm , mxk_groups g "
+            + "where gm.instid = ? and g.id = gm.groupid and gm.type in ('USER','USER-DYNAMIC') and gm.memberid in ";
+
+    /**
+     * in条件每批的id数量
+     */
+    static final int IN_BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final RowMapper<UserInfo> userInfoRowMapper = new UserInfoRowMapper();
+
+    public ScimUserQuery(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @param instId 机构
+     * @param filter SCIM过滤条件,可为空
+     * @param sortBy
+     * @param sortOrder ascending/descending
+     * @param startIndex 从1开始
+     * @param count 每页数量,0时只统计总数
+     * @param attributes {@link ScimUserAttributes#resolve(String, String)}的结果
+     * @return
+     * @throws ScimFilterException 过滤条件无效
+     */
+    public Page search(String instId, String filter, String sortBy, String sortOrder,
+            int startIndex, int count, Set<String> attributes) {
+        List<Object> params = new ArrayList<Object>();
+        params.add(instId);
+        StringBuilder where = new StringBuilder(" from mxk_userinfo u where u.instid = ?");
+        if (StringUtils.isNotBlank(filter)) {
+            String condition = ScimUserAttributes.toSql(ScimFilter.parse(filter), params);
+            if (!ScimUserAttributes.TRUE.equals(condition)) {
+                where.append(" and ").append(condition);
+            }
+        }
+        String sortColumn = ScimUserAttributes.sortColumn(sortBy);
+        String direction = "descending".equalsIgnoreCase(sortOrder) ? " desc" : " asc";
+
+        Page page = new Page();
+        page.total = jdbcTemplate.queryForObject("select count(*)" + where, Long.class, params.toArray());
+        int offset = Math.max(startIndex, 1) - 1;
+        if (count <= 0 || page.total <= offset) {
+            return page;
+        }
+
+        //延迟关联,排序分页只读取id
+        StringBuilder sql = new StringBuilder("select ");
+        appendColumns(sql, "o", attributes);
+        sql.append(" from mxk_userinfo o join (select u.id").append(where)
+           .append(" order by u.").append(sortColumn).append(direction)
+           .append(" , u.id").append(direction).append(" limit ? offset ?) p on o.id = p.id")
+           .append(" order by o.").append(sortColumn).append(direction)
+           .append(" , o.id").append(direction);
+        params.add(count);
+        params.add(offset);
+        _logger.trace("search {} , params {}", sql, params);
+        page.rows = jdbcTemplate.query(sql.toString(), userInfoRowMapper, params.toArray());
+        if (attributes.contains(ScimUserAttributes.GROUPS) || attributes.contains(ScimUserAttributes.GROUP)) {
+            List<String> ids = new ArrayList<String>(page.rows.size());
+            for (UserInfo userInfo : page.rows) {
+                ids.add(userInfo.getId());
+            }
+            page.groups = queryGroups(instId, ids);
+        }
+        return page;
+    }
+
+    /**
+     * @param instId
+     * @param id
+     * @param attributes {@link ScimUserAttributes#resolve(String, String)}的结果
+     * @return 不存在时返回null
+     */
+    public UserInfo get(String instId, String id, Set<String> attributes) {
+        StringBuilder sql = new StringBuilder("select ");
+        appendColumns(sql, "u", attributes);
+        sql.append(" from mxk_userinfo u where u.id = ? and u.instid = ?");
+        List<UserInfo> rows = jdbcTemplate.query(sql.toString(), userInfoRowMapper, id, instId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 批量查询用户所属组
+     * @param instId
+     * @param userIds
+     * @return userId -> groups
+     */
+    public Map<String, List<Groups>> queryGroups(String instId, Collection<String> userIds) {
+        Map<String, Map<String, Groups>> userGroups = new HashMap<String, Map<String, Groups>>();
+        List<String> ids = new ArrayList<String>(userIds);
+        for (int from = 0; from < ids.size(); from += IN_BATCH_SIZE) {
+            List<String> batch = ids.subList(from, Math.min(from + IN_BATCH_SIZE, ids.size()));
+            StringBuilder sql = new StringBuilder(GROUPS_SELECT_STATEMENT).append("(");
+            List<Object> params = new ArrayList<Object>(batch.size() + 1);
+            params.add(instId);
+            for (int i = 0; i < batch.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+                params.add(batch.get(i));
+            }
+            sql.append(")");
+            jdbcTemplate.query(sql.toString(), rs -> {
+                Groups group = new Groups();
+                group.setId(rs.getString(2));
+                group.setName(rs.getString(3));
+                //同一组可能同时为静态和动态成员
+                userGroups.computeIfAbsent(rs.getString(1), k -> new LinkedHashMap<String, Groups>())
+                        .putIfAbsent(group.getId(), group);
+            }, params.toArray());
+        }
+        Map<String, List<Groups>> result = new HashMap<String, List<Groups>>();
+        for (Map.Entry<String, Map<String, Groups>> entry : userGroups.entrySet()) {
+            result.put(entry.getKey(), new ArrayList<Groups>(entry.getValue().values()));
+        }
+        return result;
+    }
+
+    void appendColumns(StringBuilder sql, String alias, Set<String> attributes) {
+        boolean first = true;
+        for (String column : ScimUserAttributes.columns(attributes)) {
+            sql.append(first ? "" : " , ").append(alias).append(".").append(column);
+            first = false;
+        }
+    }
+
+    public static class Page {
+        long total;
+
+        List<UserInfo> rows = Collections.emptyList();
+
+        Map<String, List<Groups>> groups = Collections.emptyMap();
+
+        public long getTotal() {
+            return total;
+        }
+
+        public List<UserInfo> getRows() {
+            return rows;
+        }
+
+        /**
+         * @param userId
+         * @return 未查询组时为空
+         */
+        public List<Groups> getGroups(String userId) {
+            List<Groups> userGroups = groups.get(userId);
+            return userGroups == null ? Collections.<Groups>emptyList() : userGroups;
+        }
+    }
+
+    /**
+     * 只映射查询的列
+     */
+    static class UserInfoRowMapper implements RowMapper<UserInfo> {
+
+        @Override
+        public UserInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
+            UserInfo userInfo = new UserInfo();
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                switch (metaData.getColumnLabel(i).toLowerCase()) {
+                    case "id": userInfo.setId(rs.getString(i)); break;
+                    case "username": userInfo.setUsername(rs.getString(i)); break;
+                    case "displayname": userInfo.setDisplayName(rs.getString(i)); break;
+                    case "nickname": userInfo.setNickName(rs.getString(i)); break;
+                    case "formattedname": userInfo.setFormattedName(rs.getString(i)); break;
+                    case "familyname": userInfo.setFamilyName(rs.getString(i)); break;
+                    case "givenname": userInfo.setGivenName(rs.getString(i)); break;
+                    case "middlename": userInfo.setMiddleName(rs.getString(i)); break;
+                    case "honorificprefix": userInfo.setHonorificPrefix(rs.getString(i)); break;
+                    case "honorificsuffix": userInfo.setHonorificSuffix(rs.getString(i)); break;
+                    case "jobtitle": userInfo.setJobTitle(rs.getString(i)); break;
+                    case "usertype": userInfo.setUserType(rs.getString(i)); break;
+                    case "preferredlanguage": userInfo.setPreferredLanguage(rs.getString(i)); break;
+                    case "locale": userInfo.setLocale(rs.getString(i)); break;
+                    case "timezone": userInfo.setTimeZone(rs.getString(i)); break;
+                    case "status": userInfo.setStatus(rs.getInt(i)); break;
+                    case "email": userInfo.setEmail(rs.getString(i)); break;
+                    case "workemail": userInfo.setWorkEmail(rs.getString(i)); break;
+                    case "homeemail": userInfo.setHomeEmail(rs.getString(i)); break;
+                    case "mobile": userInfo.setMobile(rs.getString(i)); break;
+                    case "workphonenumber": userInfo.setWorkPhoneNumber(rs.getString(i)); break;
+                    case "homephonenumber": userInfo.setHomePhoneNumber(rs.getString(i)); break;
+                    case "employeenumber": userInfo.setEmployeeNumber(rs.getString(i)); break;
+                    case "costcenter": userInfo.setCostCenter(rs.getString(i)); break;
+                    case "organization": userInfo.setOrganization(rs.getString(i)); break;
+                    case "division": userInfo.setDivision(rs.getString(i)); break;
+                    case "departmentid": userInfo.setDepartmentId(rs.getString(i)); break;
+                    case "department": userInfo.setDepartment(rs.getString(i)); break;
+                    case "managerid": userInfo.setManagerId(rs.getString(i)); break;
+                    case "manager": userInfo.setManager(rs.getString(i)); break;
+                    case "createddate": userInfo.setCreatedDate(format(rs.getTimestamp(i))); break;
+                    case "modifieddate": userInfo.setModifiedDate(format(rs.getTimestamp(i))); break;
+                    default:
+                }
+            }
+            return userInfo;
+        }
+
+        String format(Timestamp timestamp) {
+            return timestamp == null ? null : DateUtils.format(timestamp, DateUtils.FORMAT_DATE_YYYY_MM_DD_HH_MM_SS);
+        }
+    }
+}
@@ -22,10 +22,11 @@ import org.maxkey.identity.scim.controller.ScimServiceProviderConfigController;
 public class ScimParameters {
 	int startIndex = 1;
 	int count = ScimServiceProviderConfigController.MAX_RESULTS;
-	String ﬁlter;
+	String filter;
 	String sortBy;
 	String sortOrder = "ascending";
 	String attributes;
+	String excludedAttributes;
 
 	public ScimParameters() {
 	}
@@ -61,12 +62,12 @@ public class ScimParameters {
 		this.startIndex = startIndex;
 	}
 
-	public String getﬁlter() {
-		return ﬁlter;
+	public String getFilter() {
+		return filter;
 	}
 
-	public void setﬁlter(String ﬁlter) {
-		this.ﬁlter = ﬁlter;
+	public void setFilter(String filter) {
+		this.filter = filter;
 	}
 
 	public String getSortBy() {
@@ -93,10 +94,19 @@ public class ScimParameters {
 		this.attributes = attributes;
 	}
 
+	public String getExcludedAttributes() {
+		return excludedAttributes;
+	}
+
+	public void setExcludedAttributes(String excludedAttributes) {
+		this.excludedAttributes = excludedAttributes;
+	}
+
 	@Override
 	public String toString() {
-		return "ScimParameters [count=" + count + ", startIndex=" + startIndex + ", ﬁlter=" + ﬁlter + ", sortBy="
-				+ sortBy + ", sortOrder=" + sortOrder + ", attributes=" + attributes + "]";
+		return "ScimParameters [count=" + count + ", startIndex=" + startIndex + ", filter=" + filter + ", sortBy="
+				+ sortBy + ", sortOrder=" + sortOrder + ", attributes=" + attributes
+				+ ", excludedAttributes=" + excludedAttributes + "]";
 	}
 
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.identity.scim.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ScimFilterTest {
+
+	List<Object> params = new ArrayList<Object>();
+
+	String sql(String filter) {
+		params.clear();
+		return ScimUserAttributes.toSql(ScimFilter.parse(filter), params);
+	}
+
+	@Test
+	public void compare() {
+		assertEquals("u.username = ?", sql("userName eq \"bjensen\""));
+		assertEquals(Arrays.asList("bjensen"), params);
+
+		assertEquals("u.familyname like ? escape '!'", sql("name.familyName CO \"O'Ma_%\""));
+		assertEquals(Arrays.asList("%O'Ma!_!%%"), params);
+
+		assertEquals("u.username like ? escape '!'", sql("urn:ietf:params:scim:schemas:core:2.0:User:userName sw \"J\""));
+		assertEquals(Arrays.asList("J%"), params);
+
+		assertEquals("(u.jobtitle is not null and u.jobtitle <> '')", sql("title pr"));
+		assertTrue(params.isEmpty());
+
+		assertEquals("u.employeenumber = ?",
+				sql("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:employeeNumber eq 701984"));
+		assertEquals(Arrays.asList("701984"), params);
+
+		assertEquals("u.managerid is null", sql("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:manager.value eq null"));
+	}
+
+	@Test
+	public void booleanAndDate() {
+		assertEquals("u.status = ?", sql("active eq true"));
+		assertEquals(Arrays.asList((Object) 1), params);
+
+		assertEquals("(u.status is null or u.status <> ?)", sql("active ne true"));
+
+		assertEquals("u.modifieddate > ?", sql("meta.lastModified gt \"2011-05-13T04:42:34Z\""));
+		assertTrue(params.get(0) instanceof Timestamp);
+
+		assertEquals("u.createddate >= ?", sql("meta.created ge \"2022-03-08\""));
+		assertEquals(Timestamp.valueOf("2022-03-08 00:00:00"), params.get(0));
+	}
+
+	@Test
+	public void logical() {
+		assertEquals("(u.usertype = ? and (u.jobtitle like ? escape '!' or u.displayname like ? escape '!'))",
+				sql("userType eq \"Employee\" and (title co \"dev\" or displayName sw \"Ba\")"));
+		assertEquals(Arrays.asList("Employee", "%dev%", "Ba%"), params);
+
+		assertEquals("not (u.username = ?)", sql("not (userName eq \"admin\")"));
+		assertEquals("((u.username = ? or u.username = ?) and u.status = ?)",
+				sql("(userName eq \"a\" or userName eq \"b\") and active eq true"));
+		assertEquals(Arrays.asList("a", "b", 1), params);
+	}
+
+	@Test
+	public void valuePath() {
+		assertEquals("(((u.email is not null and u.email <> '') and u.email = ?)"
+				+ " or ((u.workemail is not null and u.workemail <> '') and u.workemail = ?)"
+				+ " or ((u.homeemail is not null and u.homeemail <> '') and u.homeemail = ?))",
+				sql("emails eq \"bjensen@maxkey.top\""));
+		assertEquals(3, params.size());
+
+		assertEquals("((u.workemail is not null and u.workemail <> '') and u.workemail like ? escape '!')",
+				sql("emails[type eq \"work\" and value ew \"@maxkey.top\"]"));
+		assertEquals(Arrays.asList("%@maxkey.top"), params);
+
+		assertEquals("(u.email is not null and u.email <> '')", sql("emails[primary eq true]"));
+		assertEquals("1 = 0", sql("phoneNumbers[type eq \"fax\"]"));
+		assertEquals("(u.homephonenumber is not null and u.homephonenumber <> '')", sql("phoneNumbers.type eq \"home\""));
+
+		assertEquals("exists (select 1 from mxk_group_member gm , mxk_groups g where gm.memberid = u.id"
+				+ " and g.id = gm.groupid and gm.type in ('USER','USER-DYNAMIC') and g.name = ?)",
+				sql("groups[display eq \"admins\"]"));
+		assertEquals("exists (select 1 from mxk_group_member gm , mxk_groups g where gm.memberid = u.id"
+				+ " and g.id = gm.groupid and gm.type in ('USER','USER-DYNAMIC') and g.id = ?)",
+				sql("groups eq \"ROLE_ALL_USER\""));
+	}
+
+	@Test
+	public void invalid() {
+		invalid("userName eq", ScimFilterException.INVALID_FILTER);
+		invalid("userName xx \"a\"", ScimFilterException.INVALID_FILTER);
+		invalid("(userName eq \"a\"", ScimFilterException.INVALID_FILTER);
+		invalid("userName eq \"a", ScimFilterException.INVALID_FILTER);
+		invalid("userName eq \"a\" userName", ScimFilterException.INVALID_FILTER);
+		invalid("password eq \"a\"", ScimFilterException.INVALID_FILTER);
+		invalid("emails[value eq \"a\"", ScimFilterException.INVALID_FILTER);
+		invalid("active eq \"yes\"", ScimFilterException.INVALID_VALUE);
+		invalid("meta.created gt \"yesterday\"", ScimFilterException.INVALID_VALUE);
+		StringBuilder nested = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			nested.append("not (");
+		}
+		invalid(nested.toString(), ScimFilterException.INVALID_FILTER);
+		//flat chain , not nested but one tree level per condition
+		StringBuilder chain = new StringBuilder("userName eq \"1\"");
+		for (int i = 0; i < 10000; i++) {
+			chain.append(" and userName eq \"1\"");
+		}
+		invalid(chain.toString(), ScimFilterException.INVALID_FILTER);
+	}
+
+	void invalid(String filter, String scimType) {
+		try {
+			sql(filter);
+			fail(filter);
+		} catch (ScimFilterException e) {
+			assertEquals(filter, scimType, e.getScimType());
+		}
+	}
+
+	@Test
+	public void projection() {
+		Set<String> attributes = ScimUserAttributes.resolve("userName,name.givenName,"
+				+ "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:employeeNumber", null);
+		assertEquals(Arrays.asList("username", "name", "enterprise", "id"), new ArrayList<String>(attributes));
+		assertTrue(ScimUserAttributes.columns(attributes).contains("givenname"));
+		assertFalse(ScimUserAttributes.columns(attributes).contains("email"));
+
+		attributes = ScimUserAttributes.resolve(null, "groups,emails.value");
+		assertFalse(attributes.contains("groups"));
+		assertTrue(attributes.contains("emails"));
+		assertTrue(attributes.contains("group"));
+
+		assertEquals("username", ScimUserAttributes.sortColumn(null));
+		assertEquals("email", ScimUserAttributes.sortColumn("emails.value"));
+		assertEquals("modifieddate", ScimUserAttributes.sortColumn("meta.lastModified"));
+	}
+}
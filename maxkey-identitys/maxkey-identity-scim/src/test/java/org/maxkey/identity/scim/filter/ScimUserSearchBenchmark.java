@@ -0,0 +1,238 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.identity.scim.filter;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.entity.Groups;
+import org.maxkey.entity.UserInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * SCIM用户分页查询,H2内存库(MySQL模式)中10万用户,每个用户3个组,每页100个用户,
+ * 每次调用翻到下一页,覆盖从第1页到最后一页的全部偏移.
+ * <pre>
+ * legacyPage       原实现:count + 全部列的offset分页 + 每个用户一次组查询
+ * compiledPage     ScimUserQuery:count + 延迟关联分页 + 一次批量组查询
+ * compiledProjection  attributes=userName,emails,不查询组
+ * compiledFilter   filter为emails[type eq "work" and value sw "user1"] and active eq true
+ * main方法直接运行,或gradle testClasses后通过org.openjdk.jmh.Main运行
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScimUserSearchBenchmark {
+
+    static final int USERS = 100000;
+
+    static final int GROUPS = 50;
+
+    static final int GROUPS_PER_USER = 3;
+
+    static final int PAGE_SIZE = 100;
+
+    static final String INST_ID = "1";
+
+    static final String LEGACY_PAGE_STATEMENT =
+            "select id , username , usertype , windowsaccount , displayname , nickname , namezhspell , namezhshortspell ,"
+            + " givenname , middlename , familyname , gender , authntype , mobile , email , workemail , workphonenumber ,"
+            + " employeenumber , division , costcenter , organization , departmentid , department , jobtitle , joblevel ,"
+            + " createdby , createddate , modifiedby , modifieddate , status"
+            + " from mxk_userinfo where instid = ? order by sortorder , id limit ? offset ?";
+
+    static final String LEGACY_GROUPS_STATEMENT =
+            "select distinct g.* from mxk_userinfo u , mxk_groups g , mxk_group_member gm"
+            + " where u.instid = ? and g.instid = ? and gm.instid = ? and gm.memberid = ? and u.id = ?"
+            + " and gm.type in ('USER','USER-DYNAMIC') and gm.groupid = g.id and gm.memberid = u.id";
+
+    SingleConnectionDataSource dataSource;
+
+    JdbcTemplate jdbcTemplate;
+
+    ScimUserQuery scimUserQuery;
+
+    Set<String> allAttributes;
+
+    Set<String> projectedAttributes;
+
+    int page;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:scim;MODE=MySQL;DB_CLOSE_DELAY=-1", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        createTables(jdbcTemplate);
+        insertUsers(jdbcTemplate);
+        scimUserQuery = new ScimUserQuery(jdbcTemplate);
+        allAttributes = ScimUserAttributes.resolve(null, null);
+        projectedAttributes = ScimUserAttributes.resolve("userName,emails", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbcTemplate.execute("drop all objects");
+        dataSource.destroy();
+    }
+
+    int nextStartIndex() {
+        int startIndex = page * PAGE_SIZE + 1;
+        page = (page + 1) % (USERS / PAGE_SIZE);
+        return startIndex;
+    }
+
+    @Benchmark
+    public List<List<Groups>> legacyPage() {
+        int startIndex = nextStartIndex();
+        jdbcTemplate.queryForObject("select count(*) from mxk_userinfo where instid = ?", Long.class, INST_ID);
+        List<UserInfo> rows = jdbcTemplate.query(LEGACY_PAGE_STATEMENT,
+                new ScimUserQuery.UserInfoRowMapper(), INST_ID, PAGE_SIZE, startIndex - 1);
+        List<List<Groups>> groups = new ArrayList<List<Groups>>(rows.size());
+        for (UserInfo userInfo : rows) {
+            groups.add(jdbcTemplate.query(LEGACY_GROUPS_STATEMENT, (rs, rowNum) -> {
+                Groups group = new Groups();
+                group.setId(rs.getString("id"));
+                group.setName(rs.getString("name"));
+                return group;
+            }, INST_ID, INST_ID, INST_ID, userInfo.getId(), userInfo.getId()));
+        }
+        return groups;
+    }
+
+    @Benchmark
+    public ScimUserQuery.Page compiledPage() {
+        return scimUserQuery.search(INST_ID, null, null, null, nextStartIndex(), PAGE_SIZE, allAttributes);
+    }
+
+    @Benchmark
+    public ScimUserQuery.Page compiledProjection() {
+        return scimUserQuery.search(INST_ID, null, null, null, nextStartIndex(), PAGE_SIZE, projectedAttributes);
+    }
+
+    @Benchmark
+    public ScimUserQuery.Page compiledFilter() {
+        return scimUserQuery.search(INST_ID,
+                "emails[type eq \"work\" and value sw \"user1\"] and active eq true",
+                null, null, 1, PAGE_SIZE, allAttributes);
+    }
+
+    static void createTables(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.execute("create table mxk_userinfo ("
+                + "id varchar(45) not null primary key , username varchar(100) not null ,"
+                + " password varchar(200) , decipherable varchar(400) , authntype tinyint , mobile varchar(45) ,"
+                + " email varchar(45) , displayname varchar(45) , nickname varchar(45) , timezone varchar(45) ,"
+                + " locale varchar(45) , preferredlanguage varchar(45) , status tinyint , usertype varchar(45) ,"
+                + " windowsaccount varchar(45) , namezhspell varchar(100) , namezhshortspell varchar(45) ,"
+                + " gender tinyint , employeenumber varchar(45) , division varchar(45) , costcenter varchar(45) ,"
+                + " organization varchar(45) , departmentid varchar(45) , department varchar(45) ,"
+                + " jobtitle varchar(45) , joblevel varchar(45) , managerid varchar(45) , manager varchar(45) ,"
+                + " sortorder tinyint default 0 , workemail varchar(45) , workphonenumber varchar(45) ,"
+                + " givenname varchar(45) , middlename varchar(45) , familyname varchar(45) ,"
+                + " honorificprefix varchar(45) , honorificsuffix varchar(45) , formattedname varchar(400) ,"
+                + " homeemail varchar(45) , homephonenumber varchar(45) , extraattribute varchar(4000) ,"
+                + " createdby varchar(45) , createddate timestamp , modifiedby varchar(45) , modifieddate timestamp ,"
+                + " description varchar(400) , instid varchar(45) not null)");
+        jdbcTemplate.execute("create unique index username_unique on mxk_userinfo(username)");
+        jdbcTemplate.execute("create unique index mobile_unique on mxk_userinfo(mobile)");
+        jdbcTemplate.execute("create unique index email_unique on mxk_userinfo(email)");
+        jdbcTemplate.execute("create index employeenumber_unique on mxk_userinfo(employeenumber)");
+        jdbcTemplate.execute("create table mxk_groups ("
+                + "id varchar(45) not null primary key , name varchar(100) , instid varchar(45) not null)");
+        jdbcTemplate.execute("create table mxk_group_member ("
+                + "id varchar(100) not null primary key , groupid varchar(100) not null ,"
+                + " memberid varchar(100) not null , type varchar(45) not null , instid varchar(45) not null)");
+        jdbcTemplate.execute("create index fk_approleu_reference_approles on mxk_group_member(groupid)");
+        jdbcTemplate.execute("create index memberid_index on mxk_group_member(memberid)");
+    }
+
+    static void insertUsers(JdbcTemplate jdbcTemplate) {
+        List<Object[]> groups = new ArrayList<Object[]>();
+        for (int g = 0; g < GROUPS; g++) {
+            groups.add(new Object[] {"group" + g, "Group " + g, INST_ID});
+        }
+        jdbcTemplate.batchUpdate("insert into mxk_groups(id , name , instid) values (? , ? , ?)", groups);
+
+        StringBuilder extraAttribute = new StringBuilder();
+        while (extraAttribute.length() < 1000) {
+            extraAttribute.append("{\"key\":\"value\"},");
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> users = new ArrayList<Object[]>();
+        List<Object[]> members = new ArrayList<Object[]>();
+        for (int i = 0; i < USERS; i++) {
+            String id = String.format("%032x", i);
+            users.add(new Object[] {
+                    id, "user" + i, "{bcrypt}$2a$10$" + id, id, "138" + String.format("%08d", i),
+                    "user" + i + "@maxkey.top", "User " + i, "Family" + i, "Given" + i,
+                    i % 10 == 0 ? 2 : 1, "EMPLOYEE", String.format("E%06d", i), "dept" + (i % 100),
+                    "Department " + (i % 100), i % 3 == 0 ? "user" + i + "@work.maxkey.top" : null,
+                    "010-" + i, extraAttribute.toString(), now, now, INST_ID});
+            for (int g = 0; g < GROUPS_PER_USER; g++) {
+                members.add(new Object[] {id + "-" + g, "group" + ((i + g * 7) % GROUPS), id,
+                        g == 0 ? "USER-DYNAMIC" : "USER", INST_ID});
+            }
+            if (users.size() == 1000) {
+                flush(jdbcTemplate, users, members);
+            }
+        }
+        flush(jdbcTemplate, users, members);
+    }
+
+    static void flush(JdbcTemplate jdbcTemplate, List<Object[]> users, List<Object[]> members) {
+        jdbcTemplate.batchUpdate("insert into mxk_userinfo(id , username , password , decipherable , mobile ,"
+                + " email , displayname , familyname , givenname , status , usertype , employeenumber , departmentid ,"
+                + " department , workemail , workphonenumber , extraattribute , createddate , modifieddate , instid)"
+                + " values (? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ? , ?)", users);
+        jdbcTemplate.batchUpdate("insert into mxk_group_member(id , groupid , memberid , type , instid)"
+                + " values (? , ? , ? , ? , ?)", members);
+        users.clear();
+        members.clear();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        System.out.println(String.format("statements per page , legacy %d , compiled 3", PAGE_SIZE + 2));
+        Options options = new OptionsBuilder()
+                .include(ScimUserSearchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
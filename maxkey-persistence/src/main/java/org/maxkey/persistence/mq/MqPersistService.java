@@ -21,18 +21,27 @@ import java.util.UUID;
 
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.maxkey.configuration.ApplicationConfig;
-import org.maxkey.persistence.mq.thread.KafkaProvisioningThread;
-import org.maxkey.persistence.mq.thread.RocketMQProvisioningThread;
+import org.maxkey.entity.Accounts;
+import org.maxkey.entity.ChangePassword;
+import org.maxkey.entity.Organizations;
+import org.maxkey.entity.UserInfo;
 import org.maxkey.util.DateUtils;
-import org.maxkey.util.JsonUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 
+import com.google.gson.Gson;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 @Component
-public class MqPersistService {
+public class MqPersistService implements InitializingBean, DisposableBean, MeterBinder {
     private static final Logger _logger = LoggerFactory.getLogger(MqPersistService.class);
     
     @Autowired
@@ -43,6 +52,25 @@ public class MqPersistService {
     
     @Autowired
     private RocketMQTemplate rocketMQTemplate;
+    
+    @Value("${maxkey.server.message.queue.lanes:4}")
+    int lanes = MqProvisioningPublisher.DEFAULT_LANES;
+    
+    @Value("${maxkey.server.message.queue.capacity:10000}")
+    int capacity = MqProvisioningPublisher.DEFAULT_CAPACITY;
+    
+    @Value("${maxkey.server.message.queue.batch:100}")
+    int batchSize = MqProvisioningPublisher.DEFAULT_BATCH_SIZE;
+    
+    @Value("${maxkey.server.message.queue.retries:3}")
+    int maxRetries = MqProvisioningPublisher.DEFAULT_MAX_RETRIES;
+    
+    /**
+     * Gson is thread safe , build once and reuse for every message
+     */
+    Gson gson = new Gson();
+    
+    MqProvisioningPublisher publisher;
 
     public void setApplicationConfig(ApplicationConfig applicationConfig) {
         this.applicationConfig = applicationConfig;
@@ -55,6 +83,37 @@ public class MqPersistService {
     public ApplicationConfig getApplicationConfig() {
         return applicationConfig;
     }
+    
+    public void setGson(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if(applicationConfig.isMessageQueueSupport()) {
+            publisher = new MqProvisioningPublisher(
+                    applicationConfig.getMessageQueue(),
+                    kafkaTemplate,
+                    rocketMQTemplate,
+                    lanes, capacity, batchSize);
+            publisher.setMaxRetries(maxRetries);
+            publisher.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if(publisher != null) {
+            publisher.shutdown();
+        }
+    }
+    
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if(publisher != null) {
+            publisher.bindTo(registry);
+        }
+    }
 
     /**
      * send  msg to kafka
@@ -64,7 +123,7 @@ public class MqPersistService {
      */
     public void send(String topic,Object content,String actionType) {
         //maxkey.server.message.queue , if not none , Kafka , RocketMQ
-        if(applicationConfig.isMessageQueueSupport()) {
+        if(publisher != null) {
             MqMessage message = 
             		new MqMessage(
             				UUID.randomUUID().toString(),	//message id as uuid
@@ -73,17 +132,28 @@ public class MqPersistService {
             				DateUtils.getCurrentDateTimeAsString(),	//send time
             				content 	//content Object to json message content
             				);
-            String msg = JsonUtils.gson2Json(message);
-            //sand msg to MQ topic
-            Thread thread = null;
-            if(applicationConfig.getMessageQueue().equalsIgnoreCase("Kafka")) {
-            	_logger.trace("Kafka message...");
-            	thread = new  KafkaProvisioningThread(kafkaTemplate,topic,msg);
-            }else if(applicationConfig.getMessageQueue().equalsIgnoreCase("RocketMQ")) {
-            	_logger.trace("RocketMQ message...");
-            	thread = new  RocketMQProvisioningThread(rocketMQTemplate,topic,msg);
-            }
-            thread.start();
+            //serialize on the caller thread , content may change after send
+            String msg = gson.toJson(message);
+            _logger.trace("{} message...", applicationConfig.getMessageQueue());
+            publisher.publish(topic, messageKey(content), msg);
+        }
+    }
+    
+    /**
+     * ordering key , changes of the same user (userinfo , password , accounts) share one key
+     * @param content
+     * @return entity id
+     */
+    String messageKey(Object content) {
+        if(content instanceof UserInfo) {
+            return ((UserInfo) content).getId();
+        }else if(content instanceof ChangePassword) {
+            return ((ChangePassword) content).getUserId();
+        }else if(content instanceof Accounts) {
+            return ((Accounts) content).getUserId();
+        }else if(content instanceof Organizations) {
+            return ((Organizations) content).getId();
         }
+        return null;
     }
 }
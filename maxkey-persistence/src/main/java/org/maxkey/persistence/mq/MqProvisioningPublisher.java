@@ -0,0 +1,420 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.mq;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 身份变更消息发布,替代每条消息启动一个线程.
+ * <p>
+ * 消息按key(用户/组织ID)分配到固定数量的通道,每个通道一个有界队列和一个发送线程,
+ * 同一实体的消息始终由同一线程按顺序发送.发送线程每次取出最多batchSize条,按TOPIC批量发送;
+ * Kafka以key为分区键,RocketMQ按key的hash选择队列(与syncSendOrderly相同)后按队列批量发送,
+ * 同一实体的消息始终进入同一分区/队列.
+ * 失败的消息按指数退避重试maxRetries次,期间阻塞该通道;同一key在失败消息之后的消息随之重发,
+ * 保证消费端最后收到的是最新的变更.
+ * </p>
+ * <p>
+ * 队列满时调用方最多等待offerTimeout毫秒,仍无法入队的消息记为rejected.
+ * </p>
+ * <pre>
+ * maxkey.mq.provisioning.queue      待发送消息数
+ * maxkey.mq.provisioning.lag        入队到发送成功的耗时
+ * maxkey.mq.provisioning.messages   消息数,按topic及result(sent/failed/rejected)区分
+ * </pre>
+ */
+public class MqProvisioningPublisher implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(MqProvisioningPublisher.class);
+
+    public static final String METRIC_PREFIX = "maxkey.mq.provisioning";
+
+    public static final String KAFKA = "Kafka";
+
+    public static final String ROCKETMQ = "RocketMQ";
+
+    public static final int DEFAULT_LANES = 4;
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    public static final long DEFAULT_RETRY_BACKOFF = 200;
+
+    public static final long DEFAULT_OFFER_TIMEOUT = 5000;
+
+    public static final long DEFAULT_SEND_TIMEOUT = 10000;
+
+    static class ProvisioningMessage {
+        final String topic;
+
+        final String key;
+
+        final String msg;
+
+        final long enqueueTime = System.nanoTime();
+
+        ProvisioningMessage(String topic, String key, String msg) {
+            this.topic = topic;
+            this.key = key;
+            this.msg = msg;
+        }
+    }
+
+    final String messageQueue;
+
+    final KafkaTemplate<String, String> kafkaTemplate;
+
+    final RocketMQTemplate rocketMQTemplate;
+
+    final List<LinkedBlockingQueue<ProvisioningMessage>> lanes;
+
+    final int batchSize;
+
+    int maxRetries = DEFAULT_MAX_RETRIES;
+
+    long retryBackoff = DEFAULT_RETRY_BACKOFF;
+
+    long offerTimeout = DEFAULT_OFFER_TIMEOUT;
+
+    long sendTimeout = DEFAULT_SEND_TIMEOUT;
+
+    volatile boolean running;
+
+    final List<Thread> laneThreads = new ArrayList<Thread>();
+
+    volatile MeterRegistry registry;
+
+    //topic , result -> counter
+    final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    Timer lagTimer;
+
+    /**
+     * @param messageQueue Kafka or RocketMQ
+     * @param kafkaTemplate
+     * @param rocketMQTemplate
+     * @param laneCount number of lanes (send threads)
+     * @param capacity queue capacity per lane
+     * @param batchSize max messages per send
+     */
+    public MqProvisioningPublisher(
+            String messageQueue,
+            KafkaTemplate<String, String> kafkaTemplate,
+            RocketMQTemplate rocketMQTemplate,
+            int laneCount, int capacity, int batchSize) {
+        this.messageQueue = messageQueue;
+        this.kafkaTemplate = kafkaTemplate;
+        this.rocketMQTemplate = rocketMQTemplate;
+        this.batchSize = batchSize;
+        this.lanes = new ArrayList<LinkedBlockingQueue<ProvisioningMessage>>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new LinkedBlockingQueue<ProvisioningMessage>(capacity));
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < lanes.size(); i++) {
+            final LinkedBlockingQueue<ProvisioningMessage> lane = lanes.get(i);
+            Thread laneThread = new Thread(() -> run(lane), "mq-provisioning-" + i);
+            laneThread.setDaemon(true);
+            laneThread.start();
+            laneThreads.add(laneThread);
+        }
+        _logger.info("{} provisioning publisher started , lanes {} , batchSize {}",
+                messageQueue, lanes.size(), batchSize);
+    }
+
+    /**
+     * 停止接收消息,等待队列中的消息发送完成
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread laneThread : laneThreads) {
+            laneThread.interrupt();
+        }
+        for (Thread laneThread : laneThreads) {
+            try {
+                laneThread.join(sendTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        _logger.info("{} provisioning publisher stopped , pending {}", messageQueue, getPending());
+    }
+
+    /**
+     * @param topic
+     * @param key entity id , messages with the same key are sent in order
+     * @param msg json message
+     * @return false if rejected
+     */
+    public boolean publish(String topic, String key, String msg) {
+        ProvisioningMessage message = new ProvisioningMessage(topic, key, msg);
+        LinkedBlockingQueue<ProvisioningMessage> lane = lanes.get(laneOf(key));
+        try {
+            if (running && lane.offer(message, offerTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _logger.error("provisioning message rejected , topic {} key {}", topic, key);
+        count(topic, "rejected", 1);
+        return false;
+    }
+
+    int laneOf(String key) {
+        return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % lanes.size();
+    }
+
+    void run(LinkedBlockingQueue<ProvisioningMessage> lane) {
+        ArrayList<ProvisioningMessage> batch = new ArrayList<ProvisioningMessage>(batchSize);
+        while (running || !lane.isEmpty()) {
+            try {
+                ProvisioningMessage message = running ? lane.take() : lane.poll();
+                if (message == null) {
+                    break;
+                }
+                batch.add(message);
+            } catch (InterruptedException e) {
+                //shutdown , send the rest
+            }
+            lane.drainTo(batch, batchSize - batch.size());
+            if (!batch.isEmpty()) {
+                //group by topic , keep the order inside each topic
+                LinkedHashMap<String, List<ProvisioningMessage>> topics =
+                        new LinkedHashMap<String, List<ProvisioningMessage>>();
+                for (ProvisioningMessage message : batch) {
+                    topics.computeIfAbsent(message.topic, topic -> new ArrayList<ProvisioningMessage>()).add(message);
+                }
+                for (Map.Entry<String, List<ProvisioningMessage>> entry : topics.entrySet()) {
+                    sendWithRetry(entry.getKey(), entry.getValue());
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    void sendWithRetry(String topic, List<ProvisioningMessage> messages) {
+        List<ProvisioningMessage> pending = messages;
+        long backoff = retryBackoff;
+        for (int attempt = 0; ; attempt++) {
+            pending = send(topic, pending);
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (attempt >= maxRetries) {
+                break;
+            }
+            _logger.warn("send {} messages to {} failed , retry {} after {} ms",
+                    pending.size(), topic, attempt + 1, backoff);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                //shutdown , retry without waiting
+            }
+            backoff = backoff * 2;
+        }
+        for (ProvisioningMessage message : pending) {
+            _logger.error("send to Message Queue failed , topic {} , message {}", topic, message.msg);
+        }
+        count(topic, "failed", pending.size());
+    }
+
+    /**
+     * @return messages failed to send
+     */
+    List<ProvisioningMessage> send(String topic, List<ProvisioningMessage> messages) {
+        _logger.trace("send {} messages to {}", messages.size(), topic);
+        ArrayList<ProvisioningMessage> failed = new ArrayList<ProvisioningMessage>();
+        if (messageQueue.equalsIgnoreCase(KAFKA)) {
+            List<ListenableFuture<SendResult<String, String>>> futures =
+                    new ArrayList<ListenableFuture<SendResult<String, String>>>(messages.size());
+            for (ProvisioningMessage message : messages) {
+                try {
+                    futures.add(kafkaTemplate.send(topic, message.key, message.msg));
+                } catch (Exception e) {
+                    _logger.debug("kafka send error", e);
+                    futures.add(null);
+                }
+            }
+            //once a message failed , later messages of the same key are sent again after it
+            HashSet<String> failedKeys = new HashSet<String>();
+            for (int i = 0; i < messages.size(); i++) {
+                ProvisioningMessage message = messages.get(i);
+                boolean success = false;
+                try {
+                    if (futures.get(i) != null) {
+                        futures.get(i).get(sendTimeout, TimeUnit.MILLISECONDS);
+                        success = true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    _logger.debug("kafka send error", e);
+                }
+                if (success && !failedKeys.contains(message.key)) {
+                    sent(message);
+                } else {
+                    failedKeys.add(message.key);
+                    failed.add(message);
+                }
+            }
+        } else if (messageQueue.equalsIgnoreCase(ROCKETMQ)) {
+            DefaultMQProducer producer = rocketMQTemplate.getProducer();
+            List<MessageQueue> queues;
+            try {
+                queues = producer.fetchPublishMessageQueues(topic);
+            } catch (Exception e) {
+                _logger.debug("rocketmq fetch queues error", e);
+                failed.addAll(messages);
+                return failed;
+            }
+            if (queues == null || queues.isEmpty()) {
+                _logger.debug("rocketmq topic {} has no queue", topic);
+                failed.addAll(messages);
+                return failed;
+            }
+            //a batch is stored in one queue , group by the queue of the key , order kept in each group
+            LinkedHashMap<MessageQueue, List<ProvisioningMessage>> groups =
+                    new LinkedHashMap<MessageQueue, List<ProvisioningMessage>>();
+            for (ProvisioningMessage message : messages) {
+                groups.computeIfAbsent(selectQueue(queues, message.key),
+                        queue -> new ArrayList<ProvisioningMessage>()).add(message);
+            }
+            for (Map.Entry<MessageQueue, List<ProvisioningMessage>> group : groups.entrySet()) {
+                List<Message> batch = new ArrayList<Message>(group.getValue().size());
+                for (ProvisioningMessage message : group.getValue()) {
+                    Message rocketMessage = new Message(topic, message.msg.getBytes(StandardCharsets.UTF_8));
+                    if (message.key != null) {
+                        rocketMessage.setKeys(message.key);
+                    }
+                    batch.add(rocketMessage);
+                }
+                try {
+                    producer.send(batch, group.getKey(), sendTimeout);
+                    for (ProvisioningMessage message : group.getValue()) {
+                        sent(message);
+                    }
+                } catch (Exception e) {
+                    _logger.debug("rocketmq send error", e);
+                    failed.addAll(group.getValue());
+                }
+            }
+        } else {
+            _logger.error("Message Queue {} not support", messageQueue);
+        }
+        return failed;
+    }
+
+    /**
+     * same queue as SelectMessageQueueByHash of syncSendOrderly , messages without key go to the first queue
+     */
+    static MessageQueue selectQueue(List<MessageQueue> queues, String key) {
+        int hash = key == null ? 0 : key.hashCode();
+        return queues.get(Math.abs(hash % queues.size()));
+    }
+
+    void sent(ProvisioningMessage message) {
+        if (lagTimer != null) {
+            lagTimer.record(System.nanoTime() - message.enqueueTime, TimeUnit.NANOSECONDS);
+        }
+        count(message.topic, "sent", 1);
+    }
+
+    void count(String topic, String result, int amount) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            counters.computeIfAbsent(topic + ' ' + result,
+                    key -> Counter.builder(METRIC_PREFIX + ".messages")
+                            .tag("topic", topic)
+                            .tag("result", result)
+                            .register(meterRegistry))
+                .increment(amount);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(METRIC_PREFIX + ".queue", this, MqProvisioningPublisher::getPending)
+            .description("Provisioning messages waiting to be sent")
+            .register(registry);
+        this.lagTimer = Timer.builder(METRIC_PREFIX + ".lag")
+            .description("Provisioning message lag from enqueue to acknowledged")
+            .publishPercentileHistogram()
+            .register(registry);
+        this.registry = registry;
+    }
+
+    public int getPending() {
+        int pending = 0;
+        for (LinkedBlockingQueue<ProvisioningMessage> lane : lanes) {
+            pending += lane.size();
+        }
+        return pending;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setRetryBackoff(long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    public void setSendTimeout(long sendTimeout) {
+        this.sendTimeout = sendTimeout;
+    }
+}
@@ -17,24 +17,17 @@
 
 package org.maxkey.persistence.service;
 
-import java.util.concurrent.TimeUnit;
-
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.apps.AppsCasDetails;
 import org.maxkey.persistence.mapper.AppsCasDetailsMapper;
+import org.maxkey.persistence.repository.AppsConfigCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 @Repository
 public class AppsCasDetailsService  extends JpaBaseService<AppsCasDetails>{
 
-	protected final static  Cache<String, AppsCasDetails> detailsCache = 
-            Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.MINUTES)
-                .maximumSize(200000)
-                .build();
+	protected AppsConfigCache.Region<AppsCasDetails> detailsCache;
 	
 	public AppsCasDetailsService() {
 		super(AppsCasDetailsMapper.class);
@@ -49,16 +42,17 @@ public class AppsCasDetailsService  extends JpaBaseService<AppsCasDetails>{
 	}
 	
 	public  AppsCasDetails  getAppDetails(String id , boolean cached) {
-		AppsCasDetails details = null;
-		if(cached) {
-			details = detailsCache.getIfPresent(id);
-			if(details == null) {
-				details = getMapper().getAppDetails(id);
-				detailsCache.put(id, details);
-			}
-		}else {
-			details = getMapper().getAppDetails(id);
+		if(cached && detailsCache != null) {
+			return detailsCache.get(id);
 		}
-		return details;
+		return getMapper().getAppDetails(id);
+	}
+	
+	/**
+	 * 应用配置缓存,未配置时直接查询数据库;按应用id或service缓存,失效时按应用id匹配
+	 */
+	@Autowired(required = false)
+	public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+		this.detailsCache = appsConfigCache.region("casDetails", id -> getMapper().getAppDetails(id), AppsCasDetails::getId);
 	}
 }
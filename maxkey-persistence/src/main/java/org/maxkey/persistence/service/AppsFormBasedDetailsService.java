@@ -17,24 +17,17 @@
 
 package org.maxkey.persistence.service;
 
-import java.util.concurrent.TimeUnit;
-
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.apps.AppsFormBasedDetails;
 import org.maxkey.persistence.mapper.AppsFormBasedDetailsMapper;
+import org.maxkey.persistence.repository.AppsConfigCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 @Repository
 public class AppsFormBasedDetailsService  extends JpaBaseService<AppsFormBasedDetails>{
 
-	protected final static  Cache<String, AppsFormBasedDetails> detailsCache = 
-            Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.MINUTES)
-                .maximumSize(200000)
-                .build();
+	protected AppsConfigCache.Region<AppsFormBasedDetails> detailsCache;
 	
 	public AppsFormBasedDetailsService() {
 		super(AppsFormBasedDetailsMapper.class);
@@ -48,17 +41,18 @@ public class AppsFormBasedDetailsService  extends JpaBaseService<AppsFormBasedDe
 		return (AppsFormBasedDetailsMapper)super.getMapper();
 	}
 	
-	public  AppsFormBasedDetails  getAppDetails(String id,boolean cached) {
-		AppsFormBasedDetails details = null;
-		if(cached) {
-			details = detailsCache.getIfPresent(id);
-			if(details == null) {
-				details = getMapper().getAppDetails(id);
-				detailsCache.put(id, details);
-			}
-		}else {
-			details = getMapper().getAppDetails(id);
+	public  AppsFormBasedDetails  getAppDetails(String id , boolean cached) {
+		if(cached && detailsCache != null) {
+			return detailsCache.get(id);
 		}
-		return details;
+		return getMapper().getAppDetails(id);
+	}
+	
+	/**
+	 * 应用配置缓存,未配置时直接查询数据库
+	 */
+	@Autowired(required = false)
+	public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+		this.detailsCache = appsConfigCache.region("formBasedDetails", id -> getMapper().getAppDetails(id), null);
 	}
 }
@@ -17,24 +17,17 @@
 
 package org.maxkey.persistence.service;
 
-import java.util.concurrent.TimeUnit;
-
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.apps.AppsJwtDetails;
 import org.maxkey.persistence.mapper.AppsJwtDetailsMapper;
+import org.maxkey.persistence.repository.AppsConfigCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 @Repository
 public class AppsJwtDetailsService  extends JpaBaseService<AppsJwtDetails>{
 
-	protected final static  Cache<String, AppsJwtDetails> detailsCache = 
-            Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.MINUTES)
-                .maximumSize(200000)
-                .build();
+	protected AppsConfigCache.Region<AppsJwtDetails> detailsCache;
 	
 	public AppsJwtDetailsService() {
 		super(AppsJwtDetailsMapper.class);
@@ -49,16 +42,17 @@ public class AppsJwtDetailsService  extends JpaBaseService<AppsJwtDetails>{
 	}
 	
 	public  AppsJwtDetails  getAppDetails(String id , boolean cached) {
-		AppsJwtDetails details = null;
-		if(cached) {
-			details = detailsCache.getIfPresent(id);
-			if(details == null) {
-				details = getMapper().getAppDetails(id);
-				detailsCache.put(id, details);
-			}
-		}else {
-			details = getMapper().getAppDetails(id);
+		if(cached && detailsCache != null) {
+			return detailsCache.get(id);
 		}
-		return details;
+		return getMapper().getAppDetails(id);
+	}
+	
+	/**
+	 * 应用配置缓存,未配置时直接查询数据库
+	 */
+	@Autowired(required = false)
+	public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+		this.detailsCache = appsConfigCache.region("jwtDetails", id -> getMapper().getAppDetails(id), null);
 	}
 }
@@ -17,24 +17,17 @@
 
 package org.maxkey.persistence.service;
 
-import java.util.concurrent.TimeUnit;
-
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.apps.AppsSAML20Details;
 import org.maxkey.persistence.mapper.AppsSaml20DetailsMapper;
+import org.maxkey.persistence.repository.AppsConfigCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 @Repository
 public class AppsSaml20DetailsService  extends JpaBaseService<AppsSAML20Details>{
 
-	protected final static  Cache<String, AppsSAML20Details> detailsCache = 
-            Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.MINUTES)
-                .maximumSize(200000)
-                .build();
+	protected AppsConfigCache.Region<AppsSAML20Details> detailsCache;
 	
 	public AppsSaml20DetailsService() {
 		super(AppsSaml20DetailsMapper.class);
@@ -48,17 +41,18 @@ public class AppsSaml20DetailsService  extends JpaBaseService<AppsSAML20Details>
 		return (AppsSaml20DetailsMapper)super.getMapper();
 	}
 	
-	public  AppsSAML20Details  getAppDetails(String id , boolean cached){
-		AppsSAML20Details details = null;
-		if(cached) {
-			details = detailsCache.getIfPresent(id);
-			if(details == null) {
-				details = getMapper().getAppDetails(id);
-				detailsCache.put(id, details);
-			}
-		}else {
-			details = getMapper().getAppDetails(id);
+	public  AppsSAML20Details  getAppDetails(String id , boolean cached) {
+		if(cached && detailsCache != null) {
+			return detailsCache.get(id);
 		}
-		return details;
+		return getMapper().getAppDetails(id);
+	}
+	
+	/**
+	 * 应用配置缓存,未配置时直接查询数据库
+	 */
+	@Autowired(required = false)
+	public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+		this.detailsCache = appsConfigCache.region("saml20Details", id -> getMapper().getAppDetails(id), null);
 	}
 }
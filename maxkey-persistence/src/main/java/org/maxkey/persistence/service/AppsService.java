@@ -18,28 +18,24 @@
 package org.maxkey.persistence.service;
 
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.apps.Apps;
 import org.maxkey.entity.apps.UserApps;
 import org.maxkey.persistence.mapper.AppsMapper;
+import org.maxkey.persistence.repository.AppsConfigCache;
+import org.maxkey.util.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 @Repository
 public class AppsService extends JpaBaseService<Apps>{
 	//maxkey-mgt
 	public final static 	String MGT_APP_ID 		= "622076759805923328";
 	
-	public final static 	String DETAIL_SUFFIX	=	"_detail";
+	protected AppsConfigCache.Region<Apps> appsCache;
 	
-	protected final static  Cache<String, Apps> appsDetailsCacheStore = 
-										Caffeine.newBuilder()
-							                .expireAfterWrite(30, TimeUnit.MINUTES)
-							                .build();
+	protected AppsConfigCache appsConfigCache;
 	
 	public AppsService() {
 		super(AppsMapper.class);
@@ -54,38 +50,75 @@ public class AppsService extends JpaBaseService<Apps>{
 	}
 	
 	public boolean insertApp(Apps app) {
-		return ((AppsMapper)super.getMapper()).insertApp(app)>0;
+		boolean result = ((AppsMapper)super.getMapper()).insertApp(app)>0;
+		invalidateAppConfig(app.getId());
+		return result;
 	};
 	public boolean updateApp(Apps app) {
-		return ((AppsMapper)super.getMapper()).updateApp(app)>0;
+		boolean result = ((AppsMapper)super.getMapper()).updateApp(app)>0;
+		invalidateAppConfig(app.getId());
+		return result;
 	};
 	
 	public boolean updateExtendAttr(Apps app) {
-		return ((AppsMapper)super.getMapper()).updateExtendAttr(app)>0;
+		boolean result = ((AppsMapper)super.getMapper()).updateExtendAttr(app)>0;
+		invalidateAppConfig(app.getId());
+		return result;
 	}
 	
-    public List<UserApps> queryMyApps(UserApps userApplications){
-        return getMapper().queryMyApps(userApplications);
-    }
-
-    //cache for running
-    public void storeCacheAppDetails(String appId, Apps appDetails) {
-    	appsDetailsCacheStore.put(appId + DETAIL_SUFFIX, appDetails);
+	@Override
+	public boolean insert(Apps app) {
+		boolean result = super.insert(app);
+		invalidateAppConfig(app.getId());
+		return result;
 	}
 	
-    public Apps getCacheAppDetails(String appId) {
-    	Apps appDetails=appsDetailsCacheStore.getIfPresent(appId + DETAIL_SUFFIX); 
-        return appDetails;
+	@Override
+	public boolean update(Apps app) {
+		boolean result = super.update(app);
+		invalidateAppConfig(app.getId());
+		return result;
+	}
+	
+	@Override
+	public boolean remove(String id) {
+		boolean result = super.remove(id);
+		invalidateAppConfig(id);
+		return result;
+	}
+	
+	@Override
+	public boolean deleteBatch(String ids) {
+		boolean result = super.deleteBatch(ids);
+		for(String id : StringUtils.string2List(ids, ",")) {
+			invalidateAppConfig(id);
+		}
+		return result;
+	}
+	
+    public List<UserApps> queryMyApps(UserApps userApplications){
+        return getMapper().queryMyApps(userApplications);
     }
 
     public Apps  loadById(String id) {
     	id = id.equalsIgnoreCase("maxkey_mgt") ? MGT_APP_ID : id;
-    	Apps app = appsDetailsCacheStore.getIfPresent(id); 
-    	if(app == null) {
-    		app = get(id);
-    		appsDetailsCacheStore.put(id, app);
+    	return appsCache == null ? get(id) : appsCache.get(id);
+    }
+    
+    /**
+     * 应用及协议配置变更后失效各节点的应用配置缓存
+     * @param appId
+     */
+    public void invalidateAppConfig(String appId) {
+    	if(appsConfigCache != null && appId != null) {
+    		appsConfigCache.invalidate(appId);
     	}
-    	return app;
+    }
+    
+    @Autowired(required = false)
+    public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+    	this.appsConfigCache = appsConfigCache;
+    	this.appsCache = appsConfigCache.region("apps", id -> get(id), null);
     }
     
 }
@@ -17,24 +17,17 @@
 
 package org.maxkey.persistence.service;
 
-import java.util.concurrent.TimeUnit;
-
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.apps.AppsTokenBasedDetails;
 import org.maxkey.persistence.mapper.AppsTokenBasedDetailsMapper;
+import org.maxkey.persistence.repository.AppsConfigCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 @Repository
 public class AppsTokenBasedDetailsService  extends JpaBaseService<AppsTokenBasedDetails>{
 
-	protected final static  Cache<String, AppsTokenBasedDetails> detailsCache = 
-            Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.MINUTES)
-                .maximumSize(200000)
-                .build();
+	protected AppsConfigCache.Region<AppsTokenBasedDetails> detailsCache;
 	
 	public AppsTokenBasedDetailsService() {
 		super(AppsTokenBasedDetailsMapper.class);
@@ -49,16 +42,17 @@ public class AppsTokenBasedDetailsService  extends JpaBaseService<AppsTokenBased
 	}
 	
 	public  AppsTokenBasedDetails  getAppDetails(String id , boolean cached) {
-		AppsTokenBasedDetails details = null;
-		if(cached) {
-			details = detailsCache.getIfPresent(id);
-			if(details == null) {
-				details = getMapper().getAppDetails(id);
-				detailsCache.put(id, details);
-			}
-		}else {
-			details = getMapper().getAppDetails(id);
+		if(cached && detailsCache != null) {
+			return detailsCache.get(id);
 		}
-		return details;
+		return getMapper().getAppDetails(id);
+	}
+	
+	/**
+	 * 应用配置缓存,未配置时直接查询数据库
+	 */
+	@Autowired(required = false)
+	public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+		this.detailsCache = appsConfigCache.region("tokenBasedDetails", id -> getMapper().getAppDetails(id), null);
 	}
 }
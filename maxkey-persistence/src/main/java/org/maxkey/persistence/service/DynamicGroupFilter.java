@@ -0,0 +1,393 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.service;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+import javax.persistence.Column;
+
+import org.maxkey.entity.UserInfo;
+import org.maxkey.util.StringUtils;
+
+/**
+ * 动态用户组过滤条件编译为内存谓词,代替拼接到SQL中的${filters}.
+ * <p>
+ * 支持 列 比较运算(= != &lt;&gt; &gt; &lt; &gt;= &lt;=) 值、[NOT] LIKE、[NOT] IN (...)、IS [NOT] NULL,
+ * 以AND(&amp;)、OR(|)、NOT及括号组合;列为mxk_userinfo的列(可带u.前缀),值为'字符串'或数字.
+ * 按SQL三值逻辑求值,NULL比较为未知;字符串比较不区分大小写(与MySQL默认排序规则一致).
+ * 不支持的语法编译时抛出IllegalArgumentException,由调用方退回SQL刷新.
+ * </p>
+ */
+public class DynamicGroupFilter {
+
+    static final Set<String> USER_COLUMNS = userColumns();
+
+    static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    final Node root;
+
+    final Set<String> orgIds;
+
+    final Set<String> columns;
+
+    DynamicGroupFilter(Node root, Set<String> orgIds, Set<String> columns) {
+        this.root = root;
+        this.orgIds = orgIds;
+        this.columns = columns;
+    }
+
+    /**
+     * @param filters 过滤条件,可为空
+     * @param orgIdsList 机构id,逗号分隔,可为空
+     * @return 编译后的过滤条件
+     * @throws IllegalArgumentException 不支持的语法或列
+     */
+    public static DynamicGroupFilter compile(String filters, String orgIdsList) {
+        Set<String> columns = new LinkedHashSet<String>();
+        Node root = null;
+        if (StringUtils.isNotBlank(filters)) {
+            Parser parser = new Parser(tokenize(filters), columns);
+            root = parser.parseOr();
+            if (parser.position < parser.tokens.size()) {
+                throw new IllegalArgumentException("unexpected '" + parser.tokens.get(parser.position) + "'");
+            }
+        }
+        Set<String> orgIds = null;
+        if (StringUtils.isNotBlank(orgIdsList)) {
+            orgIds = new HashSet<String>();
+            for (String orgId : orgIdsList.split(",")) {
+                //legacy quoted 'id1','id2'
+                orgId = orgId.trim().replace("'", "");
+                if (orgId.length() > 0) {
+                    orgIds.add(orgId);
+                }
+            }
+            columns.add("departmentid");
+        }
+        return new DynamicGroupFilter(root, orgIds, Collections.unmodifiableSet(columns));
+    }
+
+    /**
+     * @param user 列名(小写) -> 值
+     * @return 满足条件(三值逻辑为TRUE)
+     */
+    public boolean matches(Map<String, String> user) {
+        if (orgIds != null && !orgIds.contains(user.get("departmentid"))) {
+            return false;
+        }
+        return root == null || Boolean.TRUE.equals(root.evaluate(user));
+    }
+
+    /**
+     * @return 条件引用的用户列
+     */
+    public Set<String> getColumns() {
+        return columns;
+    }
+
+    static Set<String> userColumns() {
+        Set<String> columns = new HashSet<String>();
+        for (Class<?> clazz = UserInfo.class; clazz != null; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Column.class)) {
+                    columns.add(field.getName().toLowerCase());
+                }
+            }
+        }
+        return Collections.unmodifiableSet(columns);
+    }
+
+    static List<String> tokenize(String filters) {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int length = filters.length();
+        while (i < length) {
+            char c = filters.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                StringBuilder literal = new StringBuilder("'");
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new IllegalArgumentException("unterminated string");
+                    }
+                    char s = filters.charAt(i++);
+                    if (s == '\'') {
+                        if (i < length && filters.charAt(i) == '\'') {
+                            literal.append('\'');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        literal.append(s);
+                    }
+                }
+                tokens.add(literal.toString());
+            } else if (c == '!' || c == '<' || c == '>') {
+                if (i + 1 < length && (filters.charAt(i + 1) == '=' || (c == '<' && filters.charAt(i + 1) == '>'))) {
+                    tokens.add(filters.substring(i, i + 2));
+                    i += 2;
+                } else if (c == '!') {
+                    throw new IllegalArgumentException("unexpected '!'");
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            } else if (c == '=' || c == '(' || c == ')' || c == ',') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '&') {
+                tokens.add("AND");
+                i++;
+            } else if (c == '|') {
+                tokens.add("OR");
+                i++;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(filters.charAt(i))
+                        || filters.charAt(i) == '_' || filters.charAt(i) == '.'
+                        || (i == start && filters.charAt(i) == '-'))) {
+                    i++;
+                }
+                tokens.add(filters.substring(start, i));
+            } else {
+                throw new IllegalArgumentException("unsupported character '" + c + "'");
+            }
+        }
+        return tokens;
+    }
+
+    static class Parser {
+        final List<String> tokens;
+
+        final Set<String> columns;
+
+        int position;
+
+        Parser(List<String> tokens, Set<String> columns) {
+            this.tokens = tokens;
+            this.columns = columns;
+        }
+
+        Node parseOr() {
+            Node left = parseAnd();
+            while (accept("OR")) {
+                Node l = left;
+                Node r = parseAnd();
+                left = user -> {
+                    Boolean a = l.evaluate(user);
+                    if (Boolean.TRUE.equals(a)) {
+                        return true;
+                    }
+                    Boolean b = r.evaluate(user);
+                    if (Boolean.TRUE.equals(b)) {
+                        return true;
+                    }
+                    return a == null || b == null ? null : false;
+                };
+            }
+            return left;
+        }
+
+        Node parseAnd() {
+            Node left = parseNot();
+            while (accept("AND")) {
+                Node l = left;
+                Node r = parseNot();
+                left = user -> {
+                    Boolean a = l.evaluate(user);
+                    if (Boolean.FALSE.equals(a)) {
+                        return false;
+                    }
+                    Boolean b = r.evaluate(user);
+                    if (Boolean.FALSE.equals(b)) {
+                        return false;
+                    }
+                    return a == null || b == null ? null : true;
+                };
+            }
+            return left;
+        }
+
+        Node parseNot() {
+            if (accept("NOT")) {
+                Node operand = parseNot();
+                return user -> not(operand.evaluate(user));
+            }
+            if (accept("(")) {
+                Node inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        Node parseComparison() {
+            String column = next();
+            if (column.toLowerCase().startsWith("u.")) {
+                column = column.substring(2);
+            }
+            String name = column.toLowerCase();
+            if (!USER_COLUMNS.contains(name)) {
+                throw new IllegalArgumentException("unknown column '" + column + "'");
+            }
+            columns.add(name);
+            if (accept("IS")) {
+                boolean negate = accept("NOT");
+                expect("NULL");
+                return user -> (user.get(name) == null) != negate;
+            }
+            boolean negate = accept("NOT");
+            if (accept("IN")) {
+                expect("(");
+                List<String> values = new ArrayList<String>();
+                do {
+                    values.add(literal());
+                } while (accept(","));
+                expect(")");
+                Node in = user -> {
+                    String value = user.get(name);
+                    if (value == null) {
+                        return null;
+                    }
+                    for (String candidate : values) {
+                        if (compare(value, candidate) == 0) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+                return negate ? user -> not(in.evaluate(user)) : in;
+            }
+            if (accept("LIKE")) {
+                Pattern pattern = likePattern(literal());
+                Node like = user -> {
+                    String value = user.get(name);
+                    return value == null ? null : pattern.matcher(value).matches();
+                };
+                return negate ? user -> not(like.evaluate(user)) : like;
+            }
+            if (negate) {
+                throw new IllegalArgumentException("expect IN or LIKE after NOT");
+            }
+            String operator = next();
+            String literal = literal();
+            switch (operator) {
+                case "=":
+                    return user -> compare(user.get(name), literal, result -> result == 0);
+                case "!=":
+                case "<>":
+                    return user -> compare(user.get(name), literal, result -> result != 0);
+                case ">":
+                    return user -> compare(user.get(name), literal, result -> result > 0);
+                case ">=":
+                    return user -> compare(user.get(name), literal, result -> result >= 0);
+                case "<":
+                    return user -> compare(user.get(name), literal, result -> result < 0);
+                case "<=":
+                    return user -> compare(user.get(name), literal, result -> result <= 0);
+                default:
+                    throw new IllegalArgumentException("unsupported operator '" + operator + "'");
+            }
+        }
+
+        String literal() {
+            String token = next();
+            if (token.startsWith("'")) {
+                return token.substring(1);
+            }
+            if (NUMBER.matcher(token).matches()) {
+                return token;
+            }
+            throw new IllegalArgumentException("expect literal , but '" + token + "'");
+        }
+
+        boolean accept(String token) {
+            if (position < tokens.size() && !tokens.get(position).startsWith("'")
+                    && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalArgumentException("expect '" + token + "'");
+            }
+        }
+
+        String next() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("unexpected end");
+            }
+            return tokens.get(position++);
+        }
+    }
+
+    static Boolean not(Boolean value) {
+        return value == null ? null : !value;
+    }
+
+    static Boolean compare(String value, String literal, IntPredicate predicate) {
+        return value == null ? null : predicate.test(compare(value, literal));
+    }
+
+    static int compare(String value, String literal) {
+        if (NUMBER.matcher(literal).matches() && NUMBER.matcher(value.trim()).matches()) {
+            return new BigDecimal(value.trim()).compareTo(new BigDecimal(literal));
+        }
+        return value.compareToIgnoreCase(literal);
+    }
+
+    static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    interface Node {
+        Boolean evaluate(Map<String, String> user);
+    }
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.maxkey.constants.ConstsStatus;
+import org.maxkey.entity.GroupMember;
+import org.maxkey.entity.Groups;
+import org.maxkey.persistence.redis.RedisChannelSubscriber;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.repository.LoginPrincipalCache;
+import org.maxkey.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 动态用户组成员增量计算.
+ * <p>
+ * 组的过滤条件及机构列表由DynamicGroupFilter编译为内存谓词;用户变更时(UserInfoService)记录用户id,
+ * 定时任务只重新计算这些用户对各组的成员关系,与mxk_group_member(type=USER-DYNAMIC)比较后按差异批量新增/删除.
+ * 组条件或生效时间段变化时只全量计算该组;首次运行、待计算用户超过上限及每fullIntervalMinutes全量校对一次.
+ * 不能编译的组返回给调用方按原SQL刷新.
+ * </p>
+ * <p>
+ * 其他节点(如maxkey)的用户变更由UserInfoService合并后发布到Redis频道USER_CHANGED_CHANNEL(逗号分隔的用户id),
+ * 订阅后加入待计算用户;
+ * 订阅断开期间可能丢失消息,重连后下次全量校对.未使用Redis时其他节点的变更由全量校对兜底.
+ * </p>
+ * <p>
+ * 每组计算耗时及新增/删除数量记录到日志及指标,最先出现的maxTaggedGroups个组按组打标签,其余合并为other.
+ * </p>
+ */
+public class DynamicGroupsEngine implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(DynamicGroupsEngine.class);
+
+    public static final String MEMBER_TYPE = "USER-DYNAMIC";
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public static final int DEFAULT_FULL_INTERVAL_MINUTES = 1440;
+
+    public static final int DEFAULT_MAX_TAGGED_GROUPS = 50;
+
+    public static final String OTHER_GROUP = "other";
+
+    public static final String USER_CHANGED_CHANNEL = "REDIS_DYNAMIC_GROUPS_USER_CHANGED";
+
+    public static final int DEFAULT_MAX_PENDING_USERS = 10000;
+
+    static final String MEMBER_SELECT_STATEMENT =
+            "select groupid , memberid from mxk_group_member where type = ? and memberid in ";
+
+    static final String MEMBER_INSERT_STATEMENT =
+            "insert into mxk_group_member(id , groupid , memberid , type , instid) values (? , ? , ? , ? , ?)";
+
+    static final String MEMBER_DELETE_STATEMENT =
+            "delete from mxk_group_member where groupid = ? and memberid = ? and type = ?";
+
+    static final String ORPHAN_DELETE_STATEMENT =
+            "delete from mxk_group_member where type = ? "
+            + "and not exists (select 1 from mxk_userinfo u where u.id = mxk_group_member.memberid)";
+
+    final JdbcTemplate jdbcTemplate;
+
+    final TransactionTemplate transactionTemplate;
+
+    final int batchSize;
+
+    final long fullIntervalMillis;
+
+    final int maxPendingUsers;
+
+    final Set<String> pendingUsers = ConcurrentHashMap.newKeySet();
+
+    final AtomicBoolean fullPending = new AtomicBoolean(true);
+
+    /**
+     * group id -> state
+     */
+    final HashMap<String, GroupState> groupStates = new HashMap<String, GroupState>();
+
+    /**
+     * group id -> signature , not compiled
+     */
+    final HashMap<String, String> uncompiled = new HashMap<String, String>();
+
+    //groups with their own metric tag
+    final Set<String> taggedGroups = ConcurrentHashMap.newKeySet();
+
+    //group tag -> meters
+    final ConcurrentHashMap<String, GroupMeters> groupMeters = new ConcurrentHashMap<String, GroupMeters>();
+
+    int maxTaggedGroups = DEFAULT_MAX_TAGGED_GROUPS;
+
+    LoginPrincipalCache principalCache;
+
+    RedisChannelSubscriber subscriber;
+
+    long lastFullReconcile;
+
+    volatile MeterRegistry registry;
+
+    Timer refreshTimer;
+
+    public DynamicGroupsEngine(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, DEFAULT_BATCH_SIZE, DEFAULT_FULL_INTERVAL_MINUTES, DEFAULT_MAX_PENDING_USERS);
+    }
+
+    /**
+     * @param jdbcTemplate
+     * @param batchSize 每批计算的用户数量
+     * @param fullIntervalMinutes 全量校对间隔
+     * @param maxPendingUsers 待计算用户上限,超过时下次全量校对
+     */
+    public DynamicGroupsEngine(JdbcTemplate jdbcTemplate, int batchSize, int fullIntervalMinutes, int maxPendingUsers) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate =
+                new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.fullIntervalMillis = TimeUnit.MINUTES.toMillis(
+                fullIntervalMinutes > 0 ? fullIntervalMinutes : DEFAULT_FULL_INTERVAL_MINUTES);
+        this.maxPendingUsers = maxPendingUsers > 0 ? maxPendingUsers : DEFAULT_MAX_PENDING_USERS;
+        _logger.debug("batchSize {} , fullIntervalMinutes {} , maxPendingUsers {}",
+                this.batchSize, fullIntervalMinutes, this.maxPendingUsers);
+    }
+
+    /**
+     * 用户新增、修改或删除,下次刷新时重新计算
+     * @param userId
+     */
+    public void userChanged(String userId) {
+        if (StringUtils.isBlank(userId)) {
+            return;
+        }
+        if (pendingUsers.size() >= maxPendingUsers) {
+            fullPending.set(true);
+            pendingUsers.clear();
+            return;
+        }
+        pendingUsers.add(userId);
+    }
+
+    /**
+     * 下次刷新时全量校对
+     */
+    public void reconcileAll() {
+        fullPending.set(true);
+    }
+
+    /**
+     * 订阅其他节点的用户变更
+     * @param connectionFactory
+     */
+    public void subscribe(RedisConnectionFactory connectionFactory) {
+        this.subscriber = new RedisChannelSubscriber(
+                connectionFactory,
+                USER_CHANGED_CHANNEL,
+                new RedisChannelSubscriber.MessageListener() {
+                    @Override
+                    public void onMessage(String message) {
+                        //comma separated user ids coalesced by the publisher
+                        for (String userId : message.split(",")) {
+                            userChanged(userId);
+                        }
+                    }
+
+                    @Override
+                    public void onSubscribe() {
+                        //messages may be lost while disconnected
+                        reconcileAll();
+                    }
+                });
+        this.subscriber.start();
+    }
+
+    public void shutdown() {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+    }
+
+    /**
+     * 刷新所有动态组
+     * @param dynamicGroups 全部动态组
+     * @return 不能编译的组,由调用方按SQL刷新
+     */
+    public synchronized List<Groups> refresh(List<Groups> dynamicGroups) {
+        long start = System.currentTimeMillis();
+        List<Groups> notCompiled = new ArrayList<Groups>();
+        LinkedHashMap<String, GroupState> current = new LinkedHashMap<String, GroupState>();
+        List<GroupState> changed = new ArrayList<GroupState>();
+        for (Groups group : dynamicGroups) {
+            if (!isDynamic(group)) {
+                continue;
+            }
+            GroupState state = groupStates.get(group.getId());
+            String signature = signature(group);
+            if (state == null || !state.signature.equals(signature)) {
+                state = compile(group, signature);
+                if (state == null) {
+                    notCompiled.add(group);
+                    continue;
+                }
+                changed.add(state);
+            } else if (state.effective != isEffective(group)) {
+                state.effective = !state.effective;
+                changed.add(state);
+            }
+            state.name = group.getName();
+            current.put(group.getId(), state);
+        }
+        groupStates.clear();
+        groupStates.putAll(current);
+
+        long churn = 0;
+        boolean full = fullPending.getAndSet(false) || start - lastFullReconcile >= fullIntervalMillis;
+        if (full) {
+            pendingUsers.clear();
+            churn += reconcile(current.values(), null);
+            churn += jdbcTemplate.update(ORPHAN_DELETE_STATEMENT, MEMBER_TYPE);
+            lastFullReconcile = start;
+        } else {
+            if (!changed.isEmpty()) {
+                churn += reconcile(changed, null);
+            }
+            List<String> userIds = new ArrayList<String>(pendingUsers);
+            pendingUsers.removeAll(userIds);
+            if (!userIds.isEmpty()) {
+                churn += reconcile(current.values(), userIds);
+            }
+        }
+        if (churn > 0) {
+            invalidatePrincipalCache();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (refreshTimer != null) {
+            refreshTimer.record(elapsed, TimeUnit.MILLISECONDS);
+        }
+        _logger.info("Refresh {} dynamic groups ({} changed , {} by SQL) , {} , churn {} in {} ms",
+                current.size(), changed.size(), notCompiled.size(), full ? "full" : "incremental", churn, elapsed);
+        return notCompiled;
+    }
+
+    /**
+     * 全量计算一个动态组,如组修改后
+     * @param group
+     * @return false 不能编译,由调用方按SQL刷新
+     */
+    public synchronized boolean refresh(Groups group) {
+        if (!isDynamic(group)) {
+            return true;
+        }
+        GroupState state = compile(group, signature(group));
+        if (state == null) {
+            return false;
+        }
+        state.name = group.getName();
+        groupStates.put(group.getId(), state);
+        if (reconcile(Collections.singletonList(state), null) > 0) {
+            invalidatePrincipalCache();
+        }
+        return true;
+    }
+
+    /**
+     * 组成员变更后失效登录缓存
+     */
+    void invalidatePrincipalCache() {
+        if (principalCache != null) {
+            principalCache.invalidateGroupMember();
+        }
+    }
+
+    GroupState compile(Groups group, String signature) {
+        try {
+            GroupState state = new GroupState(group.getId(), group.getInstId(), signature,
+                    DynamicGroupFilter.compile(group.getFilters(), group.getOrgIdsList()));
+            state.effective = isEffective(group);
+            uncompiled.remove(group.getId());
+            return state;
+        } catch (IllegalArgumentException e) {
+            if (!signature.equals(uncompiled.put(group.getId(), signature))) {
+                _logger.warn("Group {} filters [{}] not compiled , refresh by SQL : {}",
+                        group.getName(), group.getFilters(), e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param groups 计算的组
+     * @param userIds 计算的用户,null为全部用户
+     * @return 新增及删除数量
+     */
+    long reconcile(Collection<GroupState> groups, List<String> userIds) {
+        if (groups.isEmpty()) {
+            return 0;
+        }
+        LinkedHashSet<String> columns = new LinkedHashSet<String>(Arrays.asList("id", "instid"));
+        for (GroupState group : groups) {
+            columns.addAll(group.filter.getColumns());
+        }
+        //whitelisted user columns
+        String select = "select " + String.join(" , ", columns) + " from mxk_userinfo";
+        long[] churn = new long[1];
+        if (userIds == null) {
+            List<Map<String, String>> rows = new ArrayList<Map<String, String>>(batchSize);
+            jdbcTemplate.query(select, (ResultSet rs) -> {
+                rows.add(row(rs, columns));
+                if (rows.size() >= batchSize) {
+                    churn[0] += apply(groups, rows, null);
+                    rows.clear();
+                }
+            });
+            if (!rows.isEmpty()) {
+                churn[0] += apply(groups, rows, null);
+            }
+        } else {
+            for (int from = 0; from < userIds.size(); from += batchSize) {
+                List<String> chunk = userIds.subList(from, Math.min(from + batchSize, userIds.size()));
+                List<Map<String, String>> rows = new ArrayList<Map<String, String>>(chunk.size());
+                jdbcTemplate.query(select + " where id in " + placeholders(chunk.size()),
+                        chunk.toArray(), types(chunk.size()),
+                        (ResultSet rs) -> {
+                            rows.add(row(rs, columns));
+                        });
+                churn[0] += apply(groups, rows, chunk);
+            }
+        }
+        return churn[0];
+    }
+
+    /**
+     * 计算一批用户,与已有成员比较后写入差异
+     * @param userIds 本批用户id,包括已删除的用户;全量计算时为null
+     */
+    long apply(Collection<GroupState> groups, List<Map<String, String>> rows, List<String> userIds) {
+        Set<String> memberIds = new HashSet<String>();
+        if (userIds != null) {
+            memberIds.addAll(userIds);
+        }
+        for (Map<String, String> row : rows) {
+            memberIds.add(row.get("id"));
+        }
+        if (memberIds.isEmpty()) {
+            return 0;
+        }
+        Map<String, Set<String>> existing = existingMembers(memberIds);
+
+        List<Object[]> inserts = new ArrayList<Object[]>();
+        List<Object[]> deletes = new ArrayList<Object[]>();
+        int[] added = new int[groups.size()];
+        int[] removed = new int[groups.size()];
+        long[] evaluationNanos = new long[groups.size()];
+        int index = 0;
+        for (GroupState group : groups) {
+            long start = System.nanoTime();
+            Set<String> members = existing.getOrDefault(group.id, Collections.<String>emptySet());
+            Set<String> seen = members.isEmpty() ? null : new HashSet<String>(rows.size());
+            for (Map<String, String> row : rows) {
+                String userId = row.get("id");
+                if (seen != null) {
+                    seen.add(userId);
+                }
+                boolean member = (StringUtils.isBlank(group.instId) || group.instId.equals(row.get("instid")))
+                        && group.filter.matches(row);
+                boolean exists = members.contains(userId);
+                if (member && !exists && group.effective) {
+                    inserts.add(new Object[] {
+                            new GroupMember().generateId(), group.id, userId, MEMBER_TYPE, group.instId });
+                    added[index]++;
+                } else if (!member && exists) {
+                    deletes.add(new Object[] { group.id, userId, MEMBER_TYPE });
+                    removed[index]++;
+                }
+            }
+            //deleted users
+            if (seen != null) {
+                for (String userId : members) {
+                    if (!seen.contains(userId)) {
+                        deletes.add(new Object[] { group.id, userId, MEMBER_TYPE });
+                        removed[index]++;
+                    }
+                }
+            }
+            evaluationNanos[index++] = System.nanoTime() - start;
+        }
+
+        if (!inserts.isEmpty() || !deletes.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!deletes.isEmpty()) {
+                    jdbcTemplate.batchUpdate(MEMBER_DELETE_STATEMENT, deletes,
+                            new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+                }
+                if (!inserts.isEmpty()) {
+                    jdbcTemplate.batchUpdate(MEMBER_INSERT_STATEMENT, inserts,
+                            new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+                }
+            });
+        }
+        index = 0;
+        for (GroupState group : groups) {
+            record(group.id, evaluationNanos[index], added[index], removed[index]);
+            if (added[index] > 0 || removed[index] > 0) {
+                _logger.info("Group {} ({}) , added {} , removed {} , evaluated {} users in {} us",
+                        group.name, group.id, added[index], removed[index], rows.size(),
+                        TimeUnit.NANOSECONDS.toMicros(evaluationNanos[index]));
+            }
+            index++;
+        }
+        return inserts.size() + deletes.size();
+    }
+
+    /**
+     * @return group id -> member ids
+     */
+    Map<String, Set<String>> existingMembers(Set<String> memberIds) {
+        Map<String, Set<String>> existing = new HashMap<String, Set<String>>();
+        List<Object> args = new ArrayList<Object>(memberIds.size() + 1);
+        args.add(MEMBER_TYPE);
+        args.addAll(memberIds);
+        int[] argTypes = types(args.size());
+        jdbcTemplate.query(MEMBER_SELECT_STATEMENT + placeholders(memberIds.size()),
+                args.toArray(), argTypes,
+                (ResultSet rs) -> {
+                    existing.computeIfAbsent(rs.getString("groupid"), key -> new HashSet<String>())
+                        .add(rs.getString("memberid"));
+                });
+        return existing;
+    }
+
+    static Map<String, String> row(ResultSet rs, Collection<String> columns) throws SQLException {
+        Map<String, String> row = new HashMap<String, String>(columns.size() * 2);
+        for (String column : columns) {
+            row.put(column, rs.getString(column));
+        }
+        return row;
+    }
+
+    static String placeholders(int size) {
+        StringBuilder placeholders = new StringBuilder("(");
+        for (int i = 0; i < size; i++) {
+            placeholders.append(i == 0 ? "?" : " , ?");
+        }
+        return placeholders.append(")").toString();
+    }
+
+    static int[] types(int size) {
+        int[] types = new int[size];
+        Arrays.fill(types, Types.VARCHAR);
+        return types;
+    }
+
+    static boolean isDynamic(Groups group) {
+        return (ConstsStatus.ACTIVE + "").equals(group.getDynamic());
+    }
+
+    static String signature(Groups group) {
+        return group.getFilters() + "\n" + group.getOrgIdsList() + "\n" + group.getInstId();
+    }
+
+    /**
+     * 设置生效时间段(resumeTime,suspendTime)时,时间段外只删除不再满足条件的成员,不新增
+     */
+    static boolean isEffective(Groups group) {
+        if (StringUtils.isNotBlank(group.getResumeTime()) && StringUtils.isNotBlank(group.getSuspendTime())) {
+            LocalTime currentTime = LocalDateTime.now().toLocalTime();
+            return LocalTime.parse(group.getResumeTime()).isBefore(currentTime)
+                    && currentTime.isBefore(LocalTime.parse(group.getSuspendTime()));
+        }
+        return true;
+    }
+
+    public void setPrincipalCache(LoginPrincipalCache principalCache) {
+        this.principalCache = principalCache;
+    }
+
+    public void setMaxTaggedGroups(int maxTaggedGroups) {
+        this.maxTaggedGroups = maxTaggedGroups;
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.refreshTimer = Timer.builder("maxkey.dynamic.groups.refresh")
+                .description("dynamic groups refresh time")
+                .register(registry);
+        this.registry = registry;
+    }
+
+    void record(String groupId, long evaluationNanos, int added, int removed) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry == null) {
+            return;
+        }
+        String tag = tagGroup(groupId);
+        GroupMeters meters = groupMeters.computeIfAbsent(tag, key -> new GroupMeters(meterRegistry, tag));
+        meters.evaluationTimer.record(evaluationNanos, TimeUnit.NANOSECONDS);
+        meters.addedCounter.increment(added);
+        meters.removedCounter.increment(removed);
+    }
+
+    /**
+     * @param groupId
+     * @return groupId while fewer than maxTaggedGroups are tagged , otherwise other
+     */
+    String tagGroup(String groupId) {
+        if (taggedGroups.contains(groupId)) {
+            return groupId;
+        }
+        synchronized (taggedGroups) {
+            if (taggedGroups.size() < maxTaggedGroups) {
+                taggedGroups.add(groupId);
+                return groupId;
+            }
+        }
+        return OTHER_GROUP;
+    }
+
+    static class GroupMeters {
+        final Timer evaluationTimer;
+
+        final Counter addedCounter;
+
+        final Counter removedCounter;
+
+        GroupMeters(MeterRegistry registry, String group) {
+            this.evaluationTimer = Timer.builder("maxkey.dynamic.groups.evaluation")
+                    .description("dynamic group evaluation time")
+                    .tag("group", group)
+                    .register(registry);
+            this.addedCounter = Counter.builder("maxkey.dynamic.groups.members")
+                    .tag("group", group).tag("action", "added").register(registry);
+            this.removedCounter = Counter.builder("maxkey.dynamic.groups.members")
+                    .tag("group", group).tag("action", "removed").register(registry);
+        }
+    }
+
+    class GroupState {
+        final String id;
+
+        final String instId;
+
+        final String signature;
+
+        final DynamicGroupFilter filter;
+
+        String name;
+
+        boolean effective;
+
+        GroupState(String id, String instId, String signature, DynamicGroupFilter filter) {
+            this.id = id;
+            this.instId = instId;
+            this.signature = signature;
+            this.filter = filter;
+        }
+    }
+}
@@ -24,11 +24,16 @@ import org.maxkey.entity.GroupMember;
 import org.maxkey.entity.Groups;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.persistence.mapper.GroupMemberMapper;
+import org.maxkey.persistence.repository.LoginPrincipalCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class GroupMemberService  extends JpaBaseService<GroupMember>{
 	
+	@Autowired(required = false)
+	LoginPrincipalCache principalCache;
+	
 	public GroupMemberService() {
 		super(GroupMemberMapper.class);
 	}
@@ -42,17 +47,81 @@ public class GroupMemberService  extends JpaBaseService<GroupMember>{
 	}
 	
 	public int addDynamicGroupMember(Groups dynamicGroup) {
-	    return getMapper().addDynamicGroupMember(dynamicGroup);
+	    int count = getMapper().addDynamicGroupMember(dynamicGroup);
+	    invalidatePrincipalCache();
+	    return count;
 	}
 	
 	public int deleteDynamicGroupMember(Groups dynamicGroup) {
-	    return getMapper().deleteDynamicGroupMember(dynamicGroup);
+	    int count = getMapper().deleteDynamicGroupMember(dynamicGroup);
+	    invalidatePrincipalCache();
+	    return count;
 	}
 	
 	public int deleteByGroupId(String groupId) {
-        return getMapper().deleteByGroupId(groupId);
+	    int count = getMapper().deleteByGroupId(groupId);
+	    invalidatePrincipalCache();
+	    return count;
     }
 	
+	@Override
+	public boolean insert(GroupMember entity) {
+	    boolean result = super.insert(entity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean insertBatch(List<GroupMember> listEntity) {
+	    boolean result = super.insertBatch(listEntity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean update(GroupMember entity) {
+	    boolean result = super.update(entity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean delete(GroupMember entity) {
+	    boolean result = super.delete(entity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean remove(String id) {
+	    boolean result = super.remove(id);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean deleteBatch(String ids) {
+	    boolean result = super.deleteBatch(ids);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean deleteBatch(List<String> ids) {
+	    boolean result = super.deleteBatch(ids);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	/**
+	 * 组成员变更后失效登录缓存
+	 */
+	void invalidatePrincipalCache() {
+	    if(principalCache != null) {
+	        principalCache.invalidateGroupMember();
+	    }
+	}
+	
 	public List<UserInfo> queryMemberByGroupId(String groupId){
 		return getMapper().queryMemberByGroupId(groupId);
 	}
@@ -17,14 +17,21 @@
 
 package org.maxkey.persistence.service;
 
+import java.util.List;
+
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
 import org.maxkey.entity.GroupPrivileges;
 import org.maxkey.persistence.mapper.GroupPrivilegesMapper;
+import org.maxkey.persistence.repository.LoginPrincipalCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class GroupPrivilegesService  extends JpaBaseService<GroupPrivileges>{
 	
+	@Autowired(required = false)
+	LoginPrincipalCache principalCache;
+	
 	public GroupPrivilegesService() {
 		super(GroupPrivilegesMapper.class);
 	}
@@ -39,4 +46,62 @@ public class GroupPrivilegesService  extends JpaBaseService<GroupPrivileges>{
 		return (GroupPrivilegesMapper)super.getMapper();
 	}
 
+	@Override
+	public boolean insert(GroupPrivileges entity) {
+	    boolean result = super.insert(entity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean insertBatch(List<GroupPrivileges> listEntity) {
+	    boolean result = super.insertBatch(listEntity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean update(GroupPrivileges entity) {
+	    boolean result = super.update(entity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean delete(GroupPrivileges entity) {
+	    boolean result = super.delete(entity);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean remove(String id) {
+	    boolean result = super.remove(id);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean deleteBatch(String ids) {
+	    boolean result = super.deleteBatch(ids);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	@Override
+	public boolean deleteBatch(List<String> ids) {
+	    boolean result = super.deleteBatch(ids);
+	    invalidatePrincipalCache();
+	    return result;
+	}
+	
+	/**
+	 * 组授权应用变更后失效登录缓存
+	 */
+	void invalidatePrincipalCache() {
+	    if(principalCache != null) {
+	        principalCache.invalidateGroupPrivileges();
+	    }
+	}
+
 }
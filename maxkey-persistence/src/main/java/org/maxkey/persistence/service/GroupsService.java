@@ -18,6 +18,7 @@
 package org.maxkey.persistence.service;
 
 import java.io.Serializable;
+import java.sql.Types;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.List;
@@ -48,6 +49,10 @@ public class GroupsService  extends JpaBaseService<Groups> implements Serializab
     @Qualifier("groupMemberService")
     GroupMemberService groupMemberService;
     
+    @JsonIgnore
+    @Autowired(required = false)
+    DynamicGroupsEngine dynamicGroupsEngine;
+    
 	public GroupsService() {
 		super(GroupsMapper.class);
 	}
@@ -76,6 +81,17 @@ public class GroupsService  extends JpaBaseService<Groups> implements Serializab
 	}
 	
 	public void refreshDynamicGroups(Groups dynamicGroup){
+	    if(dynamicGroupsEngine != null && dynamicGroupsEngine.refresh(dynamicGroup)) {
+	        return;
+	    }
+	    refreshDynamicGroupsBySql(dynamicGroup);
+	}
+	
+	/**
+	 * 按过滤条件SQL刷新,全表比较mxk_userinfo
+	 * @param dynamicGroup
+	 */
+	public void refreshDynamicGroupsBySql(Groups dynamicGroup){
 	    if(dynamicGroup.getDynamic().equals(ConstsStatus.ACTIVE+"")) {
 	        boolean isDynamicTimeSupport = false;
 	        boolean isBetweenEffectiveTime = false;
@@ -125,10 +141,17 @@ public class GroupsService  extends JpaBaseService<Groups> implements Serializab
     }
 	
 	public void refreshAllDynamicGroups(){
-	    List<Groups>  groupsList = queryDynamicGroups(null);
+	    //all institutions
+	    List<Groups>  groupsList = find(" dynamic = ? ",
+	            new Object[] { ConstsStatus.ACTIVE + "" },
+	            new int[] { Types.VARCHAR });
+	    if(dynamicGroupsEngine != null) {
+	        //not compiled groups
+	        groupsList = dynamicGroupsEngine.refresh(groupsList);
+	    }
         for(Groups group : groupsList) {
             _logger.debug("group " + group);
-            refreshDynamicGroups(group);
+            refreshDynamicGroupsBySql(group);
         }
 	}
 
@@ -0,0 +1,920 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.service;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.maxkey.constants.ConstsStatus;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.util.DateUtils;
+import org.maxkey.util.ExcelUtils;
+import org.maxkey.util.StringUtils;
+import org.maxkey.web.WebContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 用户Excel导入后台任务.
+ * <p>
+ * 上传文件保存为临时文件后由任务线程流式读取(ExcelUtils.read,xlsx为SAX事件模型),
+ * 每batchSize行为一批:校验、文件内用户名去重、查询已存在的用户名,仅密码在有界线程池中并行加密,
+ * 数据库写入在任务线程中进行:新用户批量写入,选择更新已存在用户时批量按列更新
+ * (批量失败时逐行写入定位错误),更新后统一发送消息:
+ * 空单元格保持原值,不修改状态、创建时间,性别为空时不使用新增用户的默认值.
+ * 内存占用与文件行数无关(除已读用户名集合).
+ * </p>
+ * <p>
+ * 任务进度(总行数由sheet的dimension估算)通过getJob查询,失败的行写入CSV错误报告供下载,
+ * 以=、+、-、@开头的单元格加'前缀,避免在Excel中作为公式执行;
+ * 结束的任务保留retainMinutes后清理.
+ * </p>
+ */
+public class UserInfoImporter implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(UserInfoImporter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public static final int DEFAULT_MAX_JOBS = 2;
+
+    public static final int DEFAULT_RETAIN_MINUTES = 1440;
+
+    /**
+     * 模板前3行为标题及说明
+     */
+    public static final int FIRST_ROW = 3;
+
+    static final int MAX_QUEUED_JOBS = 10;
+
+    /**
+     * 一批密码加密的最长等待时间
+     */
+    static final long PASSWORD_TIMEOUT_MINUTES = 5;
+
+    /**
+     * 模板中性别列
+     */
+    static final int GENDER_COLUMN = 7;
+
+    static final int DEFAULT_GENDER = 1;
+
+    static final String USERNAME_SELECT_STATEMENT =
+            "select id , username , instid from mxk_userinfo where username in ";
+
+    /**
+     * 导入更新的列,username为匹配键不更新
+     */
+    static final List<ImportColumn> UPDATE_COLUMNS = Arrays.asList(
+            new ImportColumn("password", Types.VARCHAR, UserInfo::getPassword),
+            new ImportColumn("decipherable", Types.VARCHAR, UserInfo::getDecipherable),
+            new ImportColumn("passwordlastsettime", Types.VARCHAR, UserInfo::getPasswordLastSetTime),
+            new ImportColumn("displayname", Types.VARCHAR, UserInfo::getDisplayName),
+            new ImportColumn("familyname", Types.VARCHAR, UserInfo::getFamilyName),
+            new ImportColumn("givenname", Types.VARCHAR, UserInfo::getGivenName),
+            new ImportColumn("middlename", Types.VARCHAR, UserInfo::getMiddleName),
+            new ImportColumn("nickname", Types.VARCHAR, UserInfo::getNickName),
+            new ImportColumn("preferredlanguage", Types.VARCHAR, UserInfo::getPreferredLanguage),
+            new ImportColumn("timezone", Types.VARCHAR, UserInfo::getTimeZone),
+            new ImportColumn("usertype", Types.VARCHAR, UserInfo::getUserType),
+            new ImportColumn("employeenumber", Types.VARCHAR, UserInfo::getEmployeeNumber),
+            new ImportColumn("windowsaccount", Types.VARCHAR, UserInfo::getWindowsAccount),
+            new ImportColumn("organization", Types.VARCHAR, UserInfo::getOrganization),
+            new ImportColumn("division", Types.VARCHAR, UserInfo::getDivision),
+            new ImportColumn("departmentid", Types.VARCHAR, UserInfo::getDepartmentId),
+            new ImportColumn("department", Types.VARCHAR, UserInfo::getDepartment),
+            new ImportColumn("costcenter", Types.VARCHAR, UserInfo::getCostCenter),
+            new ImportColumn("jobtitle", Types.VARCHAR, UserInfo::getJobTitle),
+            new ImportColumn("joblevel", Types.VARCHAR, UserInfo::getJobLevel),
+            new ImportColumn("manager", Types.VARCHAR, UserInfo::getManager),
+            new ImportColumn("assistant", Types.VARCHAR, UserInfo::getAssistant),
+            new ImportColumn("entrydate", Types.VARCHAR, UserInfo::getEntryDate),
+            new ImportColumn("quitdate", Types.VARCHAR, UserInfo::getQuitDate),
+            new ImportColumn("workcountry", Types.VARCHAR, UserInfo::getWorkCountry),
+            new ImportColumn("workregion", Types.VARCHAR, UserInfo::getWorkRegion),
+            new ImportColumn("worklocality", Types.VARCHAR, UserInfo::getWorkLocality),
+            new ImportColumn("workstreetaddress", Types.VARCHAR, UserInfo::getWorkStreetAddress),
+            new ImportColumn("workpostalcode", Types.VARCHAR, UserInfo::getWorkPostalCode),
+            new ImportColumn("workfax", Types.VARCHAR, UserInfo::getWorkFax),
+            new ImportColumn("workphonenumber", Types.VARCHAR, UserInfo::getWorkPhoneNumber),
+            new ImportColumn("workemail", Types.VARCHAR, UserInfo::getWorkEmail),
+            new ImportColumn("idcardno", Types.VARCHAR, UserInfo::getIdCardNo),
+            new ImportColumn("birthdate", Types.VARCHAR, UserInfo::getBirthDate),
+            new ImportColumn("startworkdate", Types.VARCHAR, UserInfo::getStartWorkDate),
+            new ImportColumn("website", Types.VARCHAR, UserInfo::getWebSite),
+            new ImportColumn("defineim", Types.VARCHAR, UserInfo::getDefineIm),
+            new ImportColumn("homecountry", Types.VARCHAR, UserInfo::getHomeCountry),
+            new ImportColumn("homeregion", Types.VARCHAR, UserInfo::getHomeRegion),
+            new ImportColumn("homelocality", Types.VARCHAR, UserInfo::getHomeLocality),
+            new ImportColumn("homestreetaddress", Types.VARCHAR, UserInfo::getHomeStreetAddress),
+            new ImportColumn("homepostalcode", Types.VARCHAR, UserInfo::getHomePostalCode),
+            new ImportColumn("homefax", Types.VARCHAR, UserInfo::getHomeFax),
+            new ImportColumn("homephonenumber", Types.VARCHAR, UserInfo::getHomePhoneNumber),
+            new ImportColumn("homeemail", Types.VARCHAR, UserInfo::getHomeEmail)
+        );
+
+    /**
+     * null parameter keeps the current value
+     */
+    static final String USER_UPDATE_STATEMENT = userUpdateStatement();
+
+    static final int[] USER_UPDATE_TYPES = userUpdateTypes();
+
+    final UserInfoService userInfoService;
+
+    final JdbcTemplate jdbcTemplate;
+
+    final int batchSize;
+
+    final long retainMillis;
+
+    final ThreadPoolExecutor jobExecutor;
+
+    /**
+     * 密码加密,队列满时由任务线程执行
+     */
+    final ThreadPoolExecutor passwordExecutor;
+
+    final ConcurrentHashMap<String, ImportJob> jobs = new ConcurrentHashMap<String, ImportJob>();
+
+    Timer jobTimer;
+
+    Counter insertedCounter;
+
+    Counter updatedCounter;
+
+    Counter failedCounter;
+
+    public UserInfoImporter(UserInfoService userInfoService, JdbcTemplate jdbcTemplate) {
+        this(userInfoService, jdbcTemplate, DEFAULT_BATCH_SIZE, DEFAULT_MAX_JOBS,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_RETAIN_MINUTES);
+    }
+
+    /**
+     * @param userInfoService
+     * @param jdbcTemplate
+     * @param batchSize 每批写入的用户数量
+     * @param maxJobs 同时运行的导入任务数量
+     * @param passwordThreads 密码加密线程数量
+     * @param retainMinutes 结束的任务及错误报告保留时间
+     */
+    public UserInfoImporter(UserInfoService userInfoService, JdbcTemplate jdbcTemplate,
+            int batchSize, int maxJobs, int passwordThreads, int retainMinutes) {
+        this.userInfoService = userInfoService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.retainMillis = TimeUnit.MINUTES.toMillis(retainMinutes > 0 ? retainMinutes : DEFAULT_RETAIN_MINUTES);
+        maxJobs = maxJobs > 0 ? maxJobs : DEFAULT_MAX_JOBS;
+        passwordThreads = passwordThreads > 0 ? passwordThreads : Runtime.getRuntime().availableProcessors();
+        this.jobExecutor = new ThreadPoolExecutor(maxJobs, maxJobs, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_JOBS), threadFactory("users-import"));
+        this.passwordExecutor = new ThreadPoolExecutor(passwordThreads, passwordThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(this.batchSize), threadFactory("users-import-password"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        _logger.debug("batchSize {} , maxJobs {} , passwordThreads {} , retainMinutes {}",
+                this.batchSize, maxJobs, passwordThreads, retainMinutes);
+    }
+
+    /**
+     * 提交导入任务
+     * @param file 上传文件的临时文件,任务结束后删除
+     * @param fileName 上传文件名
+     * @param instId 机构
+     * @param updateExist 更新已存在的用户
+     * @return 任务,队列已满时状态为FAILED
+     */
+    public ImportJob submit(File file, String fileName, String instId, boolean updateExist) {
+        purge();
+        ImportJob job = new ImportJob(WebContext.genId(), fileName, instId, updateExist, file);
+        jobs.put(job.id, job);
+        try {
+            jobExecutor.execute(() -> run(job));
+            _logger.info("import job {} file {} submitted", job.id, fileName);
+        } catch (RejectedExecutionException e) {
+            _logger.warn("import job {} rejected , too many jobs", job.id);
+            job.finish(ImportJob.FAILED, "too many import jobs , try again later");
+            file.delete();
+        }
+        return job;
+    }
+
+    /**
+     * @param jobId
+     * @param instId 只能查询本机构的任务
+     * @return 不存在返回null
+     */
+    public ImportJob getJob(String jobId, String instId) {
+        ImportJob job = jobId == null ? null : jobs.get(jobId);
+        return job != null && job.instId.equals(instId) ? job : null;
+    }
+
+    void run(ImportJob job) {
+        long start = System.nanoTime();
+        job.status = ImportJob.RUNNING;
+        job.startTime = DateUtils.getCurrentDateTimeAsString();
+        Set<String> usernames = new HashSet<String>();
+        List<ImportRow> rows = new ArrayList<ImportRow>(batchSize);
+        try {
+            ExcelUtils.read(job.file, FIRST_ROW, new ExcelUtils.RowHandler() {
+                @Override
+                public void sheet(int sheetIndex, int lastRowNum) {
+                    if (lastRowNum >= FIRST_ROW) {
+                        job.total.addAndGet(lastRowNum - FIRST_ROW + 1);
+                    }
+                }
+
+                @Override
+                public void row(int sheetIndex, int rowNum, List<String> values) {
+                    rows.add(new ImportRow(sheetIndex, rowNum, values));
+                    if (rows.size() >= batchSize) {
+                        process(job, rows, usernames);
+                        rows.clear();
+                    }
+                }
+            });
+            process(job, rows, usernames);
+            job.finish(ImportJob.COMPLETED, null);
+        } catch (Exception e) {
+            _logger.error("import job " + job.id + " error", e);
+            job.finish(ImportJob.FAILED, e.getMessage());
+        } finally {
+            job.closeErrorReport();
+            job.file.delete();
+        }
+        if (jobTimer != null) {
+            jobTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        _logger.info("import job {} {} , rows {} , inserted {} , updated {} , failed {} , {}ms",
+                job.id, job.status, job.processed, job.inserted, job.updated, job.failed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    void process(ImportJob job, List<ImportRow> rows, Set<String> usernames) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<ImportRow> valid = new ArrayList<ImportRow>(rows.size());
+        for (ImportRow row : rows) {
+            try {
+                row.userInfo = buildUser(row.values, job.instId);
+            } catch (NumberFormatException e) {
+                fail(job, row, "invalid number " + e.getMessage());
+                continue;
+            }
+            String username = row.userInfo.getUsername();
+            if (StringUtils.isBlank(username)) {
+                fail(job, row, "username is empty");
+            } else if (!usernames.add(username.toLowerCase())) {
+                fail(job, row, "duplicate username in file");
+            } else {
+                valid.add(row);
+            }
+        }
+
+        Map<String, String[]> existing = findUsernames(valid);
+        List<ImportRow> inserts = new ArrayList<ImportRow>(valid.size());
+        List<ImportRow> updates = new ArrayList<ImportRow>();
+        for (ImportRow row : valid) {
+            String[] exist = existing.get(row.userInfo.getUsername().toLowerCase());
+            if (exist == null) {
+                row.userInfo.setId(WebContext.genId());
+                row.userInfo.setCreatedDate(DateUtils.formatDateTime(new Date()));
+                row.userInfo.setStatus(ConstsStatus.ACTIVE);
+                if (!hasGender(row.values)) {
+                    row.userInfo.setGender(DEFAULT_GENDER);
+                }
+                inserts.add(row);
+            } else if (job.updateExist && job.instId.equals(exist[1])) {
+                row.userInfo.setId(exist[0]);
+                updates.add(row);
+            } else {
+                fail(job, row, "username exists");
+            }
+        }
+
+        //BCrypt dominates , encode in parallel , write in this thread
+        List<ImportRow> encoded = new ArrayList<ImportRow>(inserts.size() + updates.size());
+        encoded.addAll(inserts);
+        encoded.addAll(updates);
+        encode(job, encoded);
+        inserts.removeIf(row -> row.error != null);
+        updates.removeIf(row -> row.error != null);
+
+        insert(job, inserts);
+        update(job, updates);
+        job.processed.addAndGet(rows.size());
+    }
+
+    /**
+     * 在线程池中并行加密密码,超时或取消的行记为失败
+     */
+    void encode(ImportJob job, List<ImportRow> rows) {
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(rows.size());
+        for (ImportRow row : rows) {
+            futures.add(CompletableFuture.runAsync(() -> userInfoService.passwordEncoder(row.userInfo), passwordExecutor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                    .get(PASSWORD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            _logger.debug("import job {} password encode error : {}", job.id, message(e));
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            CompletableFuture<Void> future = futures.get(i);
+            ImportRow row = rows.get(i);
+            if (!future.isDone()) {
+                future.cancel(false);
+                row.error = "password encode timeout";
+            } else if (future.isCompletedExceptionally()) {
+                row.error = "password encode fail";
+            }
+            if (row.error != null) {
+                fail(job, row, row.error);
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new IllegalStateException("import job interrupted");
+        }
+    }
+
+    void insert(ImportJob job, List<ImportRow> inserts) {
+        if (inserts.isEmpty()) {
+            return;
+        }
+        List<UserInfo> userInfos = new ArrayList<UserInfo>(inserts.size());
+        for (ImportRow row : inserts) {
+            userInfos.add(row.userInfo);
+        }
+        boolean inserted = false;
+        try {
+            inserted = userInfoService.insertBatch(userInfos);
+        } catch (Exception e) {
+            _logger.debug("import job {} batch insert error , retry one by one : {}", job.id, message(e));
+        }
+        if (inserted) {
+            for (UserInfo userInfo : userInfos) {
+                userInfoService.invalidatePrincipal(userInfo.getId());
+            }
+            job.inserted.addAndGet(userInfos.size());
+            increment(insertedCounter, userInfos.size());
+            return;
+        }
+        //locate the failed rows
+        for (ImportRow row : inserts) {
+            try {
+                if (userInfoService.insertBatch(Collections.singletonList(row.userInfo))) {
+                    userInfoService.invalidatePrincipal(row.userInfo.getId());
+                    job.inserted.incrementAndGet();
+                    increment(insertedCounter, 1);
+                } else {
+                    fail(job, row, "insert fail");
+                }
+            } catch (Exception e) {
+                fail(job, row, message(e));
+            }
+        }
+    }
+
+    /**
+     * 按列批量更新已存在的用户,空单元格保持原值,批量失败时逐行更新定位错误
+     */
+    void update(ImportJob job, List<ImportRow> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        List<Object[]> batchArgs = new ArrayList<Object[]>(updates.size());
+        for (ImportRow row : updates) {
+            batchArgs.add(userUpdateArgs(row));
+        }
+        int[] counts = null;
+        try {
+            counts = jdbcTemplate.batchUpdate(USER_UPDATE_STATEMENT, batchArgs, USER_UPDATE_TYPES);
+            if (counts.length != updates.size()) {
+                counts = null;
+            }
+        } catch (Exception e) {
+            _logger.debug("import job {} batch update error , retry one by one : {}", job.id, message(e));
+        }
+        List<UserInfo> updated = new ArrayList<UserInfo>(updates.size());
+        for (int i = 0; i < updates.size(); i++) {
+            ImportRow row = updates.get(i);
+            try {
+                int count = counts != null
+                        ? counts[i]
+                        : jdbcTemplate.update(USER_UPDATE_STATEMENT, batchArgs.get(i), USER_UPDATE_TYPES);
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    updated.add(row.userInfo);
+                } else {
+                    fail(job, row, "update fail");
+                }
+            } catch (Exception e) {
+                fail(job, row, message(e));
+            }
+        }
+        if (updated.isEmpty()) {
+            return;
+        }
+        job.updated.addAndGet(updated.size());
+        increment(updatedCounter, updated.size());
+        //login cache , dynamic groups and provisioning after the batch
+        userInfoService.afterUpdate(updated);
+    }
+
+    static Object[] userUpdateArgs(ImportRow row) {
+        Object[] args = new Object[UPDATE_COLUMNS.size() + 3];
+        for (int i = 0; i < UPDATE_COLUMNS.size(); i++) {
+            args[i] = UPDATE_COLUMNS.get(i).getter.apply(row.userInfo);
+        }
+        args[UPDATE_COLUMNS.size()] = hasGender(row.values) ? row.userInfo.getGender() : null;
+        args[UPDATE_COLUMNS.size() + 1] = DateUtils.getCurrentDateTimeAsString();
+        args[UPDATE_COLUMNS.size() + 2] = row.userInfo.getId();
+        return args;
+    }
+
+    static String userUpdateStatement() {
+        StringBuilder statement = new StringBuilder("update mxk_userinfo set ");
+        for (ImportColumn column : UPDATE_COLUMNS) {
+            statement.append(column.name).append(" = coalesce(? , ").append(column.name).append(") , ");
+        }
+        return statement.append("gender = coalesce(? , gender) , modifieddate = ? where id = ?").toString();
+    }
+
+    static int[] userUpdateTypes() {
+        int[] types = new int[UPDATE_COLUMNS.size() + 3];
+        for (int i = 0; i < UPDATE_COLUMNS.size(); i++) {
+            types[i] = UPDATE_COLUMNS.get(i).type;
+        }
+        types[UPDATE_COLUMNS.size()] = Types.INTEGER;
+        types[UPDATE_COLUMNS.size() + 1] = Types.VARCHAR;
+        types[UPDATE_COLUMNS.size() + 2] = Types.VARCHAR;
+        return types;
+    }
+
+    static boolean hasGender(List<String> values) {
+        return StringUtils.isNotBlank(ExcelUtils.getValue(values, GENDER_COLUMN));
+    }
+
+    /**
+     * @return username(小写) -> [id , instid]
+     */
+    Map<String, String[]> findUsernames(List<ImportRow> rows) {
+        Map<String, String[]> existing = new HashMap<String, String[]>();
+        if (rows.isEmpty()) {
+            return existing;
+        }
+        Object[] args = new Object[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            args[i] = rows.get(i).userInfo.getUsername();
+        }
+        jdbcTemplate.query(
+                USERNAME_SELECT_STATEMENT + "(" + String.join(",", Collections.nCopies(args.length, "?")) + ")",
+                rs -> {
+                    existing.put(rs.getString("username").toLowerCase(),
+                            new String[] { rs.getString("id"), rs.getString("instid") });
+                },
+                args);
+        return existing;
+    }
+
+    void fail(ImportJob job, ImportRow row, String message) {
+        job.failed.incrementAndGet();
+        increment(failedCounter, 1);
+        try {
+            job.writeError(row, message);
+        } catch (IOException e) {
+            _logger.warn("import job {} write error report fail : {}", job.id, e.getMessage());
+        }
+    }
+
+    void increment(Counter counter, long amount) {
+        if (counter != null) {
+            counter.increment(amount);
+        }
+    }
+
+    static String message(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+    }
+
+    /**
+     * 按用户导入模板的列构建用户,空单元格为null;
+     * 状态、创建时间及默认性别只在新增时设置
+     * @param values 行数据
+     * @param instId
+     * @return
+     */
+    public static UserInfo buildUser(List<String> values, String instId) {
+        UserInfo userInfo = new UserInfo();
+        // 登录账号
+        userInfo.setUsername(value(values, 0));
+        // 密码
+        userInfo.setPassword(value(values, 1));
+        // 用户显示
+        userInfo.setDisplayName(value(values, 2));
+        // 姓
+        userInfo.setFamilyName(value(values, 3));
+        // 名
+        userInfo.setGivenName(value(values, 4));
+        // 中间名
+        userInfo.setMiddleName(value(values, 5));
+        // 昵称
+        userInfo.setNickName(value(values, 6));
+        // 性别
+        String gender = value(values, GENDER_COLUMN);
+        if (gender != null) {
+            userInfo.setGender(Integer.valueOf(gender.trim()));
+        }
+        // 语言偏好
+        userInfo.setPreferredLanguage(value(values, 8));
+        // 时区
+        userInfo.setTimeZone(value(values, 9));
+        // 用户类型
+        userInfo.setUserType(value(values, 10));
+        // 员工编码
+        userInfo.setEmployeeNumber(value(values, 11));
+        // AD域账号
+        userInfo.setWindowsAccount(value(values, 12));
+        // 所属机构
+        userInfo.setOrganization(value(values, 13));
+        // 分支机构
+        userInfo.setDivision(value(values, 14));
+        // 部门编号
+        userInfo.setDepartmentId(value(values, 15));
+        // 部门名称
+        userInfo.setDepartment(value(values, 16));
+        // 成本中心
+        userInfo.setCostCenter(value(values, 17));
+        // 职位
+        userInfo.setJobTitle(value(values, 18));
+        // 级别
+        userInfo.setJobLevel(value(values, 19));
+        // 上级经理
+        userInfo.setManager(value(values, 20));
+        // 助理
+        userInfo.setAssistant(value(values, 21));
+        // 入职时间
+        userInfo.setEntryDate(value(values, 22));
+        // 离职时间
+        userInfo.setQuitDate(value(values, 23));
+        // 工作-国家
+        userInfo.setWorkCountry(value(values, 24));
+        // 工作-省
+        userInfo.setWorkRegion(value(values, 25));
+        // 工作-城市
+        userInfo.setWorkLocality(value(values, 26));
+        // 工作-地址
+        userInfo.setWorkStreetAddress(value(values, 27));
+        // 邮编
+        userInfo.setWorkPostalCode(value(values, 28));
+        // 传真
+        userInfo.setWorkFax(value(values, 29));
+        // 工作电话
+        userInfo.setWorkPhoneNumber(value(values, 30));
+        // 工作邮件
+        userInfo.setWorkEmail(value(values, 31));
+        // 证件类型 todo 现在数据库中存储的是tinyint
+//      userInfo.setIdType(value(values, 32));
+        // 证件号码
+        userInfo.setIdCardNo(value(values, 33));
+        // 出生日期
+        userInfo.setBirthDate(value(values, 34));
+        // 婚姻状态 todo 现在数据字段类型是 tinyint
+//      userInfo.setMarried(value(values, 35));
+        // 开始工作时间
+        userInfo.setStartWorkDate(value(values, 36));
+        // 个人主页
+        userInfo.setWebSite(value(values, 37));
+        // 即时通讯
+        userInfo.setDefineIm(value(values, 38));
+        // 国家
+        userInfo.setHomeCountry(value(values, 39));
+        // 省
+        userInfo.setHomeRegion(value(values, 40));
+        // 城市
+        userInfo.setHomeLocality(value(values, 41));
+        // 家庭地址
+        userInfo.setHomeStreetAddress(value(values, 42));
+        // 家庭邮编
+        userInfo.setHomePostalCode(value(values, 43));
+        // 家庭传真
+        userInfo.setHomeFax(value(values, 44));
+        // 家庭电话
+        userInfo.setHomePhoneNumber(value(values, 45));
+        // 家庭邮箱
+        userInfo.setHomeEmail(value(values, 46));
+        userInfo.setInstId(instId);
+        return userInfo;
+    }
+
+    /**
+     * @return 单元格的值,空单元格为null
+     */
+    static String value(List<String> values, int i) {
+        String value = ExcelUtils.getValue(values, i);
+        return StringUtils.isBlank(value) ? null : value;
+    }
+
+    /**
+     * 清理过期的任务及错误报告
+     */
+    void purge() {
+        long expired = System.currentTimeMillis() - retainMillis;
+        jobs.values().removeIf(job -> {
+            if (job.finishTime > 0 && job.finishTime < expired) {
+                job.deleteErrorReport();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+        passwordExecutor.shutdownNow();
+        for (ImportJob job : jobs.values()) {
+            job.deleteErrorReport();
+        }
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.jobTimer = Timer.builder("maxkey.users.import")
+                .description("users import job time")
+                .register(registry);
+        this.insertedCounter = Counter.builder("maxkey.users.import.rows")
+                .tag("result", "inserted").register(registry);
+        this.updatedCounter = Counter.builder("maxkey.users.import.rows")
+                .tag("result", "updated").register(registry);
+        this.failedCounter = Counter.builder("maxkey.users.import.rows")
+                .tag("result", "failed").register(registry);
+    }
+
+    static ThreadFactory threadFactory(String name) {
+        AtomicInteger sequence = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static class ImportColumn {
+        final String name;
+
+        final int type;
+
+        final Function<UserInfo, Object> getter;
+
+        ImportColumn(String name, int type, Function<UserInfo, Object> getter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+        }
+    }
+
+    static class ImportRow {
+        final int sheetIndex;
+
+        final int rowNum;
+
+        final List<String> values;
+
+        UserInfo userInfo;
+
+        String error;
+
+        ImportRow(int sheetIndex, int rowNum, List<String> values) {
+            this.sheetIndex = sheetIndex;
+            this.rowNum = rowNum;
+            this.values = values;
+        }
+    }
+
+    /**
+     * 导入任务状态及进度
+     */
+    public static class ImportJob {
+        public static final String PENDING = "PENDING";
+
+        public static final String RUNNING = "RUNNING";
+
+        public static final String COMPLETED = "COMPLETED";
+
+        public static final String FAILED = "FAILED";
+
+        final String id;
+
+        final String fileName;
+
+        final String instId;
+
+        final boolean updateExist;
+
+        final File file;
+
+        final AtomicLong total = new AtomicLong();
+
+        final AtomicLong processed = new AtomicLong();
+
+        final AtomicLong inserted = new AtomicLong();
+
+        final AtomicLong updated = new AtomicLong();
+
+        final AtomicLong failed = new AtomicLong();
+
+        volatile String status = PENDING;
+
+        volatile String startTime;
+
+        volatile String endTime;
+
+        volatile long finishTime;
+
+        volatile String message;
+
+        File errorReport;
+
+        BufferedWriter errorWriter;
+
+        ImportJob(String id, String fileName, String instId, boolean updateExist, File file) {
+            this.id = id;
+            this.fileName = fileName;
+            this.instId = instId;
+            this.updateExist = updateExist;
+            this.file = file;
+        }
+
+        void finish(String status, String message) {
+            this.message = message;
+            this.endTime = DateUtils.getCurrentDateTimeAsString();
+            this.finishTime = System.currentTimeMillis();
+            this.status = status;
+        }
+
+        synchronized void writeError(ImportRow row, String message) throws IOException {
+            if (errorWriter == null) {
+                errorReport = File.createTempFile("maxkey-import-errors-", ".csv");
+                errorWriter = new BufferedWriter(new OutputStreamWriter(
+                        Files.newOutputStream(errorReport.toPath()), StandardCharsets.UTF_8));
+                //BOM for Excel
+                errorWriter.write("\uFEFFsheet,row,username,message\r\n");
+            }
+            errorWriter.write((row.sheetIndex + 1) + "," + (row.rowNum + 1) + ","
+                    + csv(ExcelUtils.getValue(row.values, 0)) + "," + csv(message) + "\r\n");
+        }
+
+        synchronized void closeErrorReport() {
+            if (errorWriter != null) {
+                try {
+                    errorWriter.close();
+                } catch (IOException e) {
+                    _logger.warn("import job {} close error report fail : {}", id, e.getMessage());
+                }
+                errorWriter = null;
+            }
+        }
+
+        synchronized void deleteErrorReport() {
+            closeErrorReport();
+            if (errorReport != null) {
+                errorReport.delete();
+                errorReport = null;
+            }
+        }
+
+        static String csv(String value) {
+            if (value == null) {
+                return "";
+            }
+            if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+                //not evaluated as a formula when opened in Excel
+                value = "'" + value;
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                return "\"" + value.replace("\"", "\"\"") + "\"";
+            }
+            return value;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return 估算的数据行数,xlsx未记录sheet范围时为0
+         */
+        public long getTotal() {
+            return Math.max(total.get(), processed.get());
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        public long getInserted() {
+            return inserted.get();
+        }
+
+        public long getUpdated() {
+            return updated.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public String getStartTime() {
+            return startTime;
+        }
+
+        public String getEndTime() {
+            return endTime;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return 任务结束后的错误报告,没有失败的行时为null
+         */
+        @JsonIgnore
+        public synchronized File getErrorReport() {
+            return finishTime > 0 ? errorReport : null;
+        }
+
+        public synchronized boolean isErrorReportAvailable() {
+            return getErrorReport() != null;
+        }
+
+        public boolean isFinished() {
+            return finishTime > 0;
+        }
+    }
+}
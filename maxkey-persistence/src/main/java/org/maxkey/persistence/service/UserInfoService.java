@@ -18,25 +18,48 @@
 package org.maxkey.persistence.service;
 
 
+import java.sql.ResultSet;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.mybatis.jpa.persistence.JpaBaseService;
+import org.maxkey.constants.ConstsPersistence;
 import org.maxkey.constants.ConstsStatus;
 import org.maxkey.crypto.password.PasswordReciprocal;
 import org.maxkey.entity.Accounts;
 import org.maxkey.entity.ChangePassword;
+import org.maxkey.entity.Organizations;
 import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.UserInfoAdjoint;
 import org.maxkey.persistence.mapper.UserInfoMapper;
 import org.maxkey.persistence.mq.MqIdentityAction;
 import org.maxkey.persistence.mq.MqIdentityTopic;
 import org.maxkey.persistence.mq.MqPersistService;
+import org.maxkey.persistence.redis.RedisChannelSubscriber;
+import org.maxkey.persistence.redis.RedisConnection;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.repository.LoginPrincipalCache;
 import org.maxkey.persistence.repository.PasswordPolicyValidator;
 import org.maxkey.util.DateUtils;
 import org.maxkey.util.StringUtils;
 import org.maxkey.web.WebContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Repository;
@@ -47,9 +70,26 @@ import org.springframework.stereotype.Repository;
  *
  */
 @Repository
-public class UserInfoService extends JpaBaseService<UserInfo> {
+public class UserInfoService extends JpaBaseService<UserInfo> implements InitializingBean, DisposableBean {
 	final static Logger _logger = LoggerFactory.getLogger(UserInfoService.class);
 	
+	//user ids bound per query of findUserRelated(List)
+	static final int USER_RELATED_BATCH_SIZE = 500;
+	
+	static final long PUBLISH_INTERVAL_MILLIS = 200;
+	
+	static final int PUBLISH_BATCH_SIZE = 500;
+	
+	static final String USER_RELATED_DEPTS_STATEMENT = 
+	        "select o.* , 1 isprimary , u.id relateduserid from mxk_organizations o , mxk_userinfo u "
+	        + "where o.instid = u.instid and o.id = u.departmentid and u.id in (%s) "
+	        + "union all "
+	        + "select o.* , 0 isprimary , ua.userid relateduserid from mxk_organizations o , mxk_userinfo_adjunct ua "
+	        + "where o.instid = ua.instid and o.id = ua.departmentid and ua.userid in (%s)";
+	
+	static final String USER_RELATED_ADJOINTS_STATEMENT = 
+	        "select * from mxk_userinfo_adjunct where userid in (%s)";
+	
 	@Autowired
 	private PasswordEncoder passwordEncoder;
 	
@@ -62,12 +102,50 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 	 @Autowired
 	 protected JdbcTemplate jdbcTemplate;
 	 
+	 @Autowired(required = false)
+	 LoginPrincipalCache principalCache;
+	 
+	 @Autowired(required = false)
+	 DynamicGroupsEngine dynamicGroupsEngine;
+	 
+	 @Autowired(required = false)
+	 RedisConnectionFactory redisConnFactory;
+	 
+	 @Value("${maxkey.server.persistence:0}")
+	 int persistence;
+	 
+	 //users changed since the last publish , DynamicGroupsEngine in mgt subscribes
+	 final Set<String> changedUsers = ConcurrentHashMap.newKeySet();
+	 
+	 ScheduledExecutorService userChangedPublisher;
+	 
 	 AccountsService accountsService;
 	
 	public UserInfoService() {
 		super(UserInfoMapper.class);
 	}
 
+	@Override
+	public void afterPropertiesSet() throws Exception {
+	    if(persistence == ConstsPersistence.REDIS && redisConnFactory != null) {
+	        userChangedPublisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	            Thread thread = new Thread(runnable, "user-changed-publisher");
+	            thread.setDaemon(true);
+	            return thread;
+	        });
+	        userChangedPublisher.scheduleWithFixedDelay(
+	                this::publishChangedUsers, PUBLISH_INTERVAL_MILLIS, PUBLISH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	    }
+	}
+	
+	@Override
+	public void destroy() throws Exception {
+	    if(userChangedPublisher != null) {
+	        userChangedPublisher.shutdown();
+	        publishChangedUsers();
+	    }
+	}
+
 	/* (non-Javadoc)
 	 * @see com.connsec.db.service.BaseService#getMapper()
 	 */
@@ -79,6 +157,7 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
     public boolean insert(UserInfo userInfo) {
         userInfo = passwordEncoder(userInfo);
         if (super.insert(userInfo)) {
+            invalidatePrincipal(userInfo.getId());
         	if(mqPersistService.getApplicationConfig().isMessageQueueSupport()) {
                 UserInfo loadUserInfo = findUserRelated(userInfo.getId());
                 mqPersistService.send(
@@ -96,20 +175,57 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
     public boolean update(UserInfo userInfo) {
         userInfo = passwordEncoder(userInfo);
         if (super.update(userInfo)) {
-        	if(mqPersistService.getApplicationConfig().isMessageQueueSupport()) {
-                UserInfo loadUserInfo = findUserRelated(userInfo.getId());
-                accountUpdate(loadUserInfo);
-                mqPersistService.send(
-                        MqIdentityTopic.USERINFO_TOPIC, 
-                        loadUserInfo,
-                        MqIdentityAction.UPDATE_ACTION);
-            }
-            
-            changePasswordProvisioning(userInfo);
+            afterUpdate(userInfo);
             return true;
         }
         return false;
     }
+    
+    /**
+     * 用户已更新(如导入时按列更新),失效登录缓存并发送供应消息
+     * @param userInfo 更新的用户,password不为空时发送密码变更
+     */
+    public void afterUpdate(UserInfo userInfo) {
+        invalidatePrincipal(userInfo.getId());
+    	if(mqPersistService.getApplicationConfig().isMessageQueueSupport()) {
+            UserInfo loadUserInfo = findUserRelated(userInfo.getId());
+            accountUpdate(loadUserInfo);
+            mqPersistService.send(
+                    MqIdentityTopic.USERINFO_TOPIC, 
+                    loadUserInfo,
+                    MqIdentityAction.UPDATE_ACTION);
+        }
+        
+        changePasswordProvisioning(userInfo);
+    }
+    
+    /**
+     * 批量更新后调用,与逐个afterUpdate相同,完整用户按批次一次加载
+     * @param userInfos 更新的用户,password不为空时发送密码变更
+     */
+    public void afterUpdate(List<UserInfo> userInfos) {
+        List<String> userIds = new ArrayList<String>(userInfos.size());
+        for(UserInfo userInfo : userInfos) {
+            invalidatePrincipal(userInfo.getId());
+            userIds.add(userInfo.getId());
+        }
+        if(mqPersistService.getApplicationConfig().isMessageQueueSupport()) {
+            HashMap<String, UserInfo> loadUserInfos = findUserRelated(userIds);
+            for(UserInfo userInfo : userInfos) {
+                UserInfo loadUserInfo = loadUserInfos.get(userInfo.getId());
+                if(loadUserInfo != null) {
+                    accountUpdate(loadUserInfo);
+                    mqPersistService.send(
+                            MqIdentityTopic.USERINFO_TOPIC, 
+                            loadUserInfo,
+                            MqIdentityAction.UPDATE_ACTION);
+                    if(StringUtils.isNotBlank(userInfo.getPassword())) {
+                        sendChangePassword(loadUserInfo);
+                    }
+                }
+            }
+        }
+    }
 	
 	public boolean delete(UserInfo userInfo) {
 	    UserInfo loadUserInfo = null;
@@ -118,6 +234,7 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 	    }
 	    
 		if( super.delete(userInfo)){
+		    invalidatePrincipal(userInfo.getId());
 			mqPersistService.send(
 		            MqIdentityTopic.USERINFO_TOPIC, 
 		            loadUserInfo, 
@@ -144,6 +261,44 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
         }
     }
 
+	@Override
+	public boolean remove(String id) {
+	    if(super.remove(id)) {
+	        invalidatePrincipal(id);
+	        return true;
+	    }
+	    return false;
+	}
+	
+	@Override
+	public boolean logicDelete(String ids) {
+	    if(super.logicDelete(ids)) {
+	        invalidatePrincipals(ids);
+	        return true;
+	    }
+	    return false;
+	}
+	
+	@Override
+	public boolean deleteBatch(String ids) {
+	    if(super.deleteBatch(ids)) {
+	        invalidatePrincipals(ids);
+	        return true;
+	    }
+	    return false;
+	}
+	
+	@Override
+	public boolean deleteBatch(List<String> ids) {
+	    if(super.deleteBatch(ids)) {
+	        for(String id : ids) {
+	            invalidatePrincipal(id);
+	        }
+	        return true;
+	    }
+	    return false;
+	}
+	
 	public UserInfo findUserRelated(String userId) {
 	    UserInfo loadUserInfo =this.get(userId);
 	    loadUserInfo.setDepts(getMapper().findDeptsByUserId(userId));
@@ -151,11 +306,55 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 	    return loadUserInfo;
 	}
 	
+	/**
+	 * 批量加载用户及部门、兼职,每USER_RELATED_BATCH_SIZE个用户查询一次,与findUserRelated(String)内容相同
+	 * @param userIds
+	 * @return id -> user , 不存在的用户不包含
+	 */
+	public HashMap<String, UserInfo> findUserRelated(List<String> userIds) {
+	    HashMap<String, UserInfo> userInfos = new HashMap<String, UserInfo>();
+	    BeanPropertyRowMapper<Organizations> deptMapper = new BeanPropertyRowMapper<Organizations>(Organizations.class);
+	    BeanPropertyRowMapper<UserInfoAdjoint> adjointMapper = 
+	            new BeanPropertyRowMapper<UserInfoAdjoint>(UserInfoAdjoint.class);
+	    for(int from = 0; from < userIds.size(); from += USER_RELATED_BATCH_SIZE) {
+	        List<String> batch = userIds.subList(from, Math.min(from + USER_RELATED_BATCH_SIZE, userIds.size()));
+	        String placeholders = String.join(",", Collections.nCopies(batch.size(), "?"));
+	        Object[] args = batch.toArray();
+	        int[] types = new int[batch.size()];
+	        Arrays.fill(types, Types.VARCHAR);
+	        for(UserInfo userInfo : find("where id in (" + placeholders + ")", args, types)) {
+	            userInfo.setDepts(new ArrayList<Organizations>());
+	            userInfo.setAdjoints(new ArrayList<UserInfoAdjoint>());
+	            userInfos.put(userInfo.getId(), userInfo);
+	        }
+	        Object[] deptArgs = new Object[args.length * 2];
+	        System.arraycopy(args, 0, deptArgs, 0, args.length);
+	        System.arraycopy(args, 0, deptArgs, args.length, args.length);
+	        jdbcTemplate.query(String.format(USER_RELATED_DEPTS_STATEMENT, placeholders, placeholders), deptArgs,
+	                (ResultSet rs) -> {
+	                    UserInfo userInfo = userInfos.get(rs.getString("relateduserid"));
+	                    if(userInfo != null) {
+	                        userInfo.getDepts().add(deptMapper.mapRow(rs, rs.getRow()));
+	                    }
+	                });
+	        jdbcTemplate.query(String.format(USER_RELATED_ADJOINTS_STATEMENT, placeholders), args,
+	                (ResultSet rs) -> {
+	                    UserInfoAdjoint adjoint = adjointMapper.mapRow(rs, rs.getRow());
+	                    UserInfo userInfo = userInfos.get(adjoint.getUserId());
+	                    if(userInfo != null) {
+	                        userInfo.getAdjoints().add(adjoint);
+	                    }
+	                });
+	    }
+	    return userInfos;
+	}
+	
 	public boolean updateGridList(String gridList) {
 	    try {
     	    if (gridList != null && !gridList.equals("")) {
                 WebContext.getUserInfo().setGridList(Integer.parseInt(gridList));
                 getMapper().updateGridList(WebContext.getUserInfo());
+                invalidatePrincipal(WebContext.getUserInfo().getId());
             }
 	    }catch(Exception e) {
             e.printStackTrace();
@@ -184,7 +383,9 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 				userinfo.setModifiedBy(WebContext.getUserInfo().getId());
 			}
 			userinfo.setModifiedDate(DateUtils.getCurrentDateTimeAsString());
-			return getMapper().updateProtectedApps(userinfo) > 0;
+			int updated = getMapper().updateProtectedApps(userinfo);
+			invalidatePrincipal(userinfo.getId());
+			return updated > 0;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -195,6 +396,26 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 		return getMapper().findByUsername(username);
 	}
 	
+	/**
+	 * 按用户名查询用户信息,优先读取缓存(短时过期,用户变更时失效),
+	 * 供userinfo等高频接口使用,返回副本
+	 * @param username
+	 * @return UserInfo
+	 */
+	public UserInfo findProfileByUsername(String username) {
+		if(principalCache == null) {
+			return findByUsername(username);
+		}
+		UserInfo userInfo = principalCache.getProfile(username);
+		if(userInfo == null) {
+			userInfo = findByUsername(username);
+			if(userInfo != null) {
+				principalCache.putProfile(userInfo);
+			}
+		}
+		return userInfo;
+	}
+	
     public UserInfo findByEmailMobile(String emailMobile) {
         return getMapper().findByEmailMobile(emailMobile);
     }
@@ -298,6 +519,7 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
             changeUserInfo = passwordEncoder(changeUserInfo);
 
             if (getMapper().updatePassword(changeUserInfo) > 0) {
+                invalidatePrincipal(changeUserInfo.getId());
                 changePasswordProvisioning(changeUserInfo);
                 return true;
             }
@@ -316,32 +538,37 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 	
 	public void changePasswordProvisioning(UserInfo userInfo) {
 	    if(StringUtils.isNotBlank(userInfo.getPassword())) {
-	    	UserInfo loadUserInfo = findByUsername(userInfo.getUsername());
-    	    ChangePassword changePassword=new ChangePassword();
-            changePassword.setId(loadUserInfo.getId());
-            changePassword.setUserId(loadUserInfo.getId());
-            changePassword.setUsername(loadUserInfo.getUsername());
-            changePassword.setWindowsAccount(loadUserInfo.getWindowsAccount());
-            changePassword.setMobile(loadUserInfo.getMobile());
-            changePassword.setEmail(loadUserInfo.getEmail());
-            changePassword.setEmployeeNumber(loadUserInfo.getEmployeeNumber());
-            changePassword.setDecipherable(loadUserInfo.getDecipherable());
-            changePassword.setPassword(loadUserInfo.getPassword());
-            changePassword.setInstId(loadUserInfo.getInstId());
-            mqPersistService.send(
-                    MqIdentityTopic.PASSWORD_TOPIC, 
-                    changePassword, 
-                    MqIdentityAction.PASSWORD_ACTION);
+	        sendChangePassword(findByUsername(userInfo.getUsername()));
 	    }
 	}
 	
+	void sendChangePassword(UserInfo loadUserInfo) {
+	    ChangePassword changePassword=new ChangePassword();
+	    changePassword.setId(loadUserInfo.getId());
+	    changePassword.setUserId(loadUserInfo.getId());
+	    changePassword.setUsername(loadUserInfo.getUsername());
+	    changePassword.setWindowsAccount(loadUserInfo.getWindowsAccount());
+	    changePassword.setMobile(loadUserInfo.getMobile());
+	    changePassword.setEmail(loadUserInfo.getEmail());
+	    changePassword.setEmployeeNumber(loadUserInfo.getEmployeeNumber());
+	    changePassword.setDecipherable(loadUserInfo.getDecipherable());
+	    changePassword.setPassword(loadUserInfo.getPassword());
+	    changePassword.setInstId(loadUserInfo.getInstId());
+	    mqPersistService.send(
+	            MqIdentityTopic.PASSWORD_TOPIC, 
+	            changePassword, 
+	            MqIdentityAction.PASSWORD_ACTION);
+	}
+	
 	public boolean updateAppLoginPassword(UserInfo userinfo) {
 		try {
 			if(WebContext.getUserInfo() != null) {
 				userinfo.setModifiedBy(WebContext.getUserInfo().getId());
 			}
 			userinfo.setModifiedDate(DateUtils.getCurrentDateTimeAsString());
-			return getMapper().updateAppLoginPassword(userinfo) > 0;
+			int updated = getMapper().updateAppLoginPassword(userinfo);
+			invalidatePrincipal(userinfo.getId());
+			return updated > 0;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -358,6 +585,7 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 			if(userInfo != null && StringUtils.isNotEmpty(userInfo.getId())) {
 				userInfo.setIsLocked(ConstsStatus.STOP);
 				getMapper().updateLocked(userInfo);
+				invalidateLoginPrincipal(userInfo.getId());
 			}
 		} catch(Exception e) {
 			e.printStackTrace();
@@ -374,6 +602,7 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 				userInfo.setIsLocked(ConstsStatus.START);
 				userInfo.setBadPasswordCount(0);
 				getMapper().updateLockout(userInfo);
+				invalidateLoginPrincipal(userInfo.getId());
 			}
 		} catch(Exception e) {
 			e.printStackTrace();
@@ -390,6 +619,7 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 				int updateBadPWDCount = userInfo.getBadPasswordCount() + 1;
 				userInfo.setBadPasswordCount(updateBadPWDCount);
 				getMapper().updateBadPWDCount(userInfo);
+				invalidateLoginPrincipal(userInfo.getId());
 			}
 		} catch(Exception e) {
 			e.printStackTrace();
@@ -397,27 +627,105 @@ public class UserInfoService extends JpaBaseService<UserInfo> {
 	}
 
 	public boolean updateSharedSecret(UserInfo userInfo){
-		return getMapper().updateSharedSecret(userInfo)>0;
+		int updated = getMapper().updateSharedSecret(userInfo);
+		invalidatePrincipal(userInfo.getId());
+		return updated > 0;
 	}
 	
 	public boolean updatePasswordQuestion(UserInfo userInfo){
-		return getMapper().updatePasswordQuestion(userInfo)>0;
+		int updated = getMapper().updatePasswordQuestion(userInfo);
+		invalidatePrincipal(userInfo.getId());
+		return updated > 0;
 	}
 	
 	public boolean updateAuthnType(UserInfo userInfo){
-		return getMapper().updateAuthnType(userInfo)>0;
+		int updated = getMapper().updateAuthnType(userInfo);
+		invalidatePrincipal(userInfo.getId());
+		return updated > 0;
 	}
 	
 	public boolean updateEmail(UserInfo userInfo){
-		return getMapper().updateEmail(userInfo)>0;
+		int updated = getMapper().updateEmail(userInfo);
+		invalidatePrincipal(userInfo.getId());
+		return updated > 0;
 	}
 	
 	public boolean updateMobile(UserInfo userInfo){
-		return getMapper().updateMobile(userInfo)>0;
+		int updated = getMapper().updateMobile(userInfo);
+		invalidatePrincipal(userInfo.getId());
+		return updated > 0;
 	}
     
     public int updateProfile(UserInfo userInfo){
-        return getMapper().updateProfile(userInfo);
+        int updated = getMapper().updateProfile(userInfo);
+        invalidatePrincipal(userInfo.getId());
+        return updated;
+    }
+    
+    /**
+     * 用户变更后失效登录缓存,并在下次刷新动态用户组时重新计算该用户,
+     * Redis持久化时由后台线程每PUBLISH_INTERVAL_MILLIS合并通知其他节点的动态用户组
+     * @param userId
+     */
+    public void invalidatePrincipal(String userId) {
+        if(StringUtils.isBlank(userId)) {
+            return;
+        }
+        if(principalCache != null) {
+            principalCache.invalidateUser(userId);
+        }
+        if(dynamicGroupsEngine != null) {
+            dynamicGroupsEngine.userChanged(userId);
+        }
+        if(userChangedPublisher != null) {
+            changedUsers.add(userId);
+        }
+    }
+    
+    /**
+     * 登录计数(错误密码次数、锁定)变更,仅失效登录缓存,不通知动态用户组
+     * @param userId
+     */
+    void invalidateLoginPrincipal(String userId) {
+        if(principalCache != null) {
+            principalCache.invalidateUser(userId);
+        }
+    }
+    
+    /**
+     * 合并发布周期内变更的用户,每条消息最多PUBLISH_BATCH_SIZE个用户,逗号分隔
+     */
+    void publishChangedUsers() {
+        if(changedUsers.isEmpty()) {
+            return;
+        }
+        List<String> userIds = new ArrayList<String>(changedUsers.size());
+        for(Iterator<String> it = changedUsers.iterator(); it.hasNext();) {
+            userIds.add(it.next());
+            it.remove();
+        }
+        RedisConnection conn = null;
+        try {
+            conn = redisConnFactory.getConnection();
+            for(int i = 0; i < userIds.size(); i += PUBLISH_BATCH_SIZE) {
+                conn.publish(DynamicGroupsEngine.USER_CHANGED_CHANNEL, RedisChannelSubscriber.message(
+                        String.join(",", userIds.subList(i, Math.min(i + PUBLISH_BATCH_SIZE, userIds.size())))));
+            }
+        } catch (Exception e) {
+            _logger.warn("publish {} users changed error : {}", userIds.size(), e.getMessage());
+        } finally {
+            if(conn != null) {
+                conn.close();
+            }
+        }
+    }
+    
+    void invalidatePrincipals(String ids) {
+        if(StringUtils.isNotBlank(ids)) {
+            for(String id : StringUtils.string2List(ids, ",")) {
+                invalidatePrincipal(id);
+            }
+        }
     }
 
     public void setPasswordPolicyValidator(PasswordPolicyValidator passwordPolicyValidator) {
@@ -0,0 +1,89 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DynamicGroupFilterTest {
+
+	static Map<String, String> user() {
+		Map<String, String> user = new HashMap<String, String>();
+		user.put("id", "u1");
+		user.put("gender", "1");
+		user.put("usertype", "EMPLOYEE");
+		user.put("departmentid", "d1");
+		user.put("email", "admin@maxkey.top");
+		return user;
+	}
+
+	@Test
+	public void matches() {
+		Map<String, String> user = user();
+		assertTrue(DynamicGroupFilter.compile("gender=1 & usertype='employee'", null).matches(user));
+		assertTrue(DynamicGroupFilter.compile("u.gender = 2 | email like '%@MAXKEY.top'", null).matches(user));
+		assertTrue(DynamicGroupFilter.compile("not (gender in (2,3))", null).matches(user));
+		assertTrue(DynamicGroupFilter.compile("(gender >= 1) AND userType <> 'X'", null).matches(user));
+		assertFalse(DynamicGroupFilter.compile("email not like 'admin%'", null).matches(user));
+		assertTrue(DynamicGroupFilter.compile(null, null).matches(user));
+	}
+
+	@Test
+	public void nullIsUnknown() {
+		Map<String, String> user = user();
+		assertTrue(DynamicGroupFilter.compile("mobile is null", null).matches(user));
+		assertFalse(DynamicGroupFilter.compile("mobile = '1'", null).matches(user));
+		assertFalse(DynamicGroupFilter.compile("not mobile = '1'", null).matches(user));
+		assertTrue(DynamicGroupFilter.compile("mobile = '1' | gender = 1", null).matches(user));
+	}
+
+	@Test
+	public void orgIdsList() {
+		Map<String, String> user = user();
+		DynamicGroupFilter filter = DynamicGroupFilter.compile("gender=1", "d2,d1,");
+		assertTrue(filter.matches(user));
+		assertEquals(new HashSet<String>(Arrays.asList("gender", "departmentid")), filter.getColumns());
+		assertFalse(DynamicGroupFilter.compile(null, "'d2','d3'").matches(user));
+	}
+
+	@Test
+	public void unsupported() {
+		for (String filters : new String[] {
+				"unknowncolumn = 1",
+				"gender = 1; delete from mxk_userinfo",
+				"gender in (select id from mxk_groups)",
+				"gender = 1 &",
+				"email = 'unterminated"}) {
+			try {
+				DynamicGroupFilter.compile(filters, null);
+				fail(filters);
+			} catch (IllegalArgumentException e) {
+				//refresh by SQL
+			}
+		}
+	}
+}
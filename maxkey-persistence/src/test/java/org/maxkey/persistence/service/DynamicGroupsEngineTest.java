@@ -0,0 +1,81 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DynamicGroupsEngineTest {
+
+	SingleConnectionDataSource dataSource;
+
+	DynamicGroupsEngine engine;
+
+	SimpleMeterRegistry registry;
+
+	@Before
+	public void setup() {
+		dataSource = new SingleConnectionDataSource("jdbc:h2:mem:dynamicgroups;DB_CLOSE_DELAY=-1", true);
+		engine = new DynamicGroupsEngine(new JdbcTemplate(dataSource));
+		registry = new SimpleMeterRegistry();
+		engine.bindTo(registry);
+	}
+
+	@After
+	public void tearDown() {
+		dataSource.destroy();
+	}
+
+	@Test
+	public void fullInterval() {
+		assertEquals(TimeUnit.MINUTES.toMillis(DynamicGroupsEngine.DEFAULT_FULL_INTERVAL_MINUTES),
+				engine.fullIntervalMillis);
+	}
+
+	@Test
+	public void groupMeters() {
+		engine.setMaxTaggedGroups(2);
+		engine.record("g1", 1000, 2, 0);
+		engine.record("g2", 1000, 0, 1);
+		engine.record("g3", 1000, 1, 0);
+		engine.record("g4", 1000, 1, 1);
+		engine.record("g1", 1000, 1, 0);
+
+		assertEquals(3, engine.groupMeters.size());
+		assertEquals(3.0, added("g1"), 0);
+		assertEquals(0.0, added("g2"), 0);
+		//g3 and g4 share the other tag
+		assertEquals(2.0, added(DynamicGroupsEngine.OTHER_GROUP), 0);
+		assertEquals(2, registry.get("maxkey.dynamic.groups.evaluation")
+				.tag("group", DynamicGroupsEngine.OTHER_GROUP).timer().count());
+	}
+
+	double added(String group) {
+		return registry.get("maxkey.dynamic.groups.members")
+				.tag("group", group).tag("action", "added").counter().count();
+	}
+}
@@ -28,14 +28,14 @@ import org.springframework.security.core.Authentication;
 public class DefaultSingleLogout extends SingleLogout{
 
     @Override
-    public void sendRequest(Authentication authentication,Apps logoutApp) {
+    public HashMap<String,Object> buildLogoutParameters(Authentication authentication,Apps logoutApp) {
         HashMap<String,Object> logoutParameters  = new HashMap<String,Object>();
         logoutParameters.put("id",  UUID.randomUUID().toString());
         logoutParameters.put("principal", authentication.getName());
         logoutParameters.put("request",  "logoutRequest");
         logoutParameters.put("issueInstant", DateUtils.getCurrentDateAsString(DateUtils.FORMAT_DATE_ISO_TIMESTAMP));
         logoutParameters.put("ticket",  ((SigninPrincipal)authentication.getPrincipal()).getOnlineTicket().getTicketId());
-        postMessage(logoutApp.getLogoutUrl(),logoutParameters);
+        return logoutParameters;
         
     }
     
@@ -43,7 +43,7 @@ public class SamlSingleLogout extends SingleLogout{
             + "</saml:NameID><samlp:SessionIndex>%s</samlp:SessionIndex></samlp:LogoutRequest>";
 
     @Override
-    public void sendRequest(Authentication authentication,Apps logoutApp) {
+    public HashMap<String,Object> buildLogoutParameters(Authentication authentication,Apps logoutApp) {
         String requestMessage = String.format(logoutRequestMessage, 
                 UUID.randomUUID().toString(),
                 DateUtils.getCurrentDateAsString(DateUtils.FORMAT_DATE_ISO_TIMESTAMP),
@@ -53,7 +53,7 @@ public class SamlSingleLogout extends SingleLogout{
         
         HashMap<String,Object> logoutParameters  = new HashMap<String,Object>();
         logoutParameters.put(LOGOUT_REQUEST_PARAMETER, requestMessage);
-        postMessage(logoutApp.getLogoutUrl(),logoutParameters);
+        return logoutParameters;
     }
 
     public SamlSingleLogout() {
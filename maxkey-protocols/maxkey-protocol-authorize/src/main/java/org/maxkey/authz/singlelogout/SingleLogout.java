@@ -17,6 +17,7 @@
 
 package org.maxkey.authz.singlelogout;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.maxkey.entity.apps.Apps;
@@ -28,10 +29,24 @@ import org.springframework.security.core.Authentication;
 public abstract class SingleLogout {
     private static final Logger _logger = LoggerFactory.getLogger(SingleLogout.class);
     
-    public abstract void sendRequest(Authentication authentication,Apps logoutApp) ;
+    //logout notification should not hold the user for the default 60s
+    static final HttpRequestAdapter logoutRequestAdapter = 
+            new HttpRequestAdapter(HttpRequestAdapter.MediaType.FORM , 5000 , 10000);
+    
+    /**
+     * back channel logout message of the app
+     * @param authentication
+     * @param logoutApp
+     * @return parameters posted to logoutApp.getLogoutUrl()
+     */
+    public abstract HashMap<String,Object> buildLogoutParameters(Authentication authentication,Apps logoutApp) ;
+    
+    public void sendRequest(Authentication authentication,Apps logoutApp) {
+        postMessage(logoutApp.getLogoutUrl(),buildLogoutParameters(authentication, logoutApp));
+    }
     
     public void postMessage(String url,Map<String, Object> paramMap) {
     	_logger.trace("post message to url " + url);
-    	(new HttpRequestAdapter()).post(url , paramMap);
+    	logoutRequestAdapter.post(url , paramMap);
     }
 }
@@ -0,0 +1,499 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.singlelogout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.maxkey.constants.ConstsProtocols;
+import org.maxkey.entity.apps.Apps;
+import org.maxkey.util.SecureFiles;
+import org.maxkey.web.HttpRequestAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 后端通道(BACK_CHANNEL)单点注销异步并行发送.
+ * <p>
+ * 注销请求线程只生成各应用的注销消息,不等待应用响应;同时发送的请求数由concurrency限制,
+ * 超出部分进入有界队列,队列满时直接落盘.每个请求使用较短的连接及读取超时.
+ * </p>
+ * <p>
+ * 连接失败或超时的通知按固定格式写入spillDirectory(仅所属用户可访问),文件名包含下次发送时间,
+ * 按retryInterval指数退避重试,超过maxAttempts次后放弃;停止时队列中及发送中的通知同样落盘,
+ * 进程启动时重放遗留文件.应用返回任何HTTP响应即视为已送达.
+ * </p>
+ * <pre>
+ * maxkey.slo.requests       单个应用注销耗时,按app及outcome区分delivered/failed
+ * maxkey.slo.notifications  按result区分spilled/dropped
+ * maxkey.slo.pending        等待发送的通知数
+ * maxkey.slo.inflight       发送中的通知数
+ * maxkey.slo.spill.files    待重试文件数
+ * </pre>
+ */
+public class SingleLogoutDispatcher implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(SingleLogoutDispatcher.class);
+
+    public static final String METRIC_PREFIX = "maxkey.slo";
+
+    public static final String SPILL_FILE_PREFIX = "slo-";
+
+    public static final String SPILL_FILE_SUFFIX = ".spill";
+
+    public static final int DEFAULT_CONCURRENCY = 32;
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 2000;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT = 5000;
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    public static final long DEFAULT_RETRY_INTERVAL = 30000;
+
+    //spill file format version
+    static final int SPILL_FORMAT = 1;
+
+    static final int MAX_SPILL_PARAMETERS = 64;
+
+    static final int MAX_SPILL_STRING_LENGTH = 1024 * 1024;
+
+    static class LogoutNotification {
+        final String appId;
+
+        final String logoutUrl;
+
+        final HashMap<String,Object> parameters;
+
+        int attempts;
+
+        LogoutNotification(String appId, String logoutUrl, HashMap<String,Object> parameters) {
+            this.appId = appId;
+            this.logoutUrl = logoutUrl;
+            this.parameters = parameters;
+        }
+    }
+
+    final SingleLogout casSingleLogout = new SamlSingleLogout();
+
+    final SingleLogout defaultSingleLogout = new DefaultSingleLogout();
+
+    final HttpRequestAdapter requestAdapter;
+
+    final int concurrency;
+
+    final Semaphore permits;
+
+    final ArrayBlockingQueue<LogoutNotification> pending;
+
+    final AtomicLong sequence = new AtomicLong();
+
+    //sent and not completed , spilled on shutdown
+    final Set<LogoutNotification> inflight = ConcurrentHashMap.newKeySet();
+
+    int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+    File spillDirectory;
+
+    volatile boolean running;
+
+    ScheduledExecutorService executor;
+
+    volatile MeterRegistry registry;
+
+    //app , outcome -> timer
+    final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    Counter spilledCounter;
+
+    Counter droppedCounter;
+
+    public SingleLogoutDispatcher() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_CAPACITY, DEFAULT_CONNECT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
+    }
+
+    public SingleLogoutDispatcher(int concurrency, int capacity, int connectTimeout, int socketTimeout) {
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency);
+        this.pending = new ArrayBlockingQueue<LogoutNotification>(capacity);
+        this.requestAdapter = new HttpRequestAdapter(HttpRequestAdapter.MediaType.FORM, connectTimeout, socketTimeout);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (spillDirectory != null && !SecureFiles.mkdirs(spillDirectory)) {
+            _logger.warn("can not create spill directory {}", spillDirectory);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "single-logout-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        executor.scheduleWithFixedDelay(this::replaySpill, 0, retryInterval, TimeUnit.MILLISECONDS);
+        _logger.info("SingleLogoutDispatcher started , concurrency {} , maxAttempts {} , retryInterval {}ms , spill {}",
+                concurrency, maxAttempts, retryInterval, spillDirectory);
+    }
+
+    /**
+     * 停止发送,队列中未发送及发送中未完成的通知落盘,下次启动时重放.
+     * 发送中的通知可能已送达,重放时应用会再次收到注销请求.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LogoutNotification notification;
+        while ((notification = pending.poll()) != null) {
+            spill(notification, System.currentTimeMillis());
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(DEFAULT_SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int spilled = 0;
+        for (LogoutNotification sending : inflight) {
+            //completion removes it first when the response arrived meanwhile
+            if (inflight.remove(sending)) {
+                sending.attempts--;
+                spill(sending, System.currentTimeMillis());
+                spilled++;
+            }
+        }
+        _logger.info("SingleLogoutDispatcher stopped , inflight spilled {}", spilled);
+    }
+
+    /**
+     * 生成已授权应用的注销消息并异步发送,不等待应用响应
+     * @param authentication 注销用户
+     * @param authorizedApps 会话中已授权的应用
+     */
+    public void dispatch(Authentication authentication, Collection<Apps> authorizedApps) {
+        for (Apps app : authorizedApps) {
+            _logger.debug("App Id : {} , {}", app.getId(), app);
+            if (app.getLogoutType() != LogoutType.BACK_CHANNEL) {
+                continue;
+            }
+            SingleLogout singleLogout = ConstsProtocols.CAS.equalsIgnoreCase(app.getProtocol()) ?
+                    casSingleLogout : defaultSingleLogout;
+            //authentication is bound to the request , build the message here
+            LogoutNotification notification = new LogoutNotification(
+                    app.getId(), app.getLogoutUrl(), singleLogout.buildLogoutParameters(authentication, app));
+            if (!running) {
+                spill(notification, System.currentTimeMillis());
+            } else if (!pending.offer(notification)) {
+                _logger.warn("single logout queue is full , spill notification of app {}", app.getId());
+                spill(notification, System.currentTimeMillis());
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 在并发限制内取出等待的通知发送
+     */
+    void drain() {
+        while (running && !pending.isEmpty() && permits.tryAcquire()) {
+            LogoutNotification notification = pending.poll();
+            if (notification == null) {
+                permits.release();
+                return;
+            }
+            send(notification);
+        }
+    }
+
+    void send(LogoutNotification notification) {
+        long startTime = System.nanoTime();
+        notification.attempts++;
+        inflight.add(notification);
+        CompletableFuture<String> future;
+        try {
+            future = requestAdapter.postAsync(notification.logoutUrl, notification.parameters);
+        } catch (Exception e) {
+            future = new CompletableFuture<String>();
+            future.completeExceptionally(e);
+        }
+        try {
+            //completion and retry run on the dispatcher thread , never on the http client reactor
+            future.whenCompleteAsync((body, ex) -> {
+                permits.release();
+                if (!inflight.remove(notification)) {
+                    //spilled by shutdown
+                    return;
+                }
+                record(notification, System.nanoTime() - startTime, ex == null);
+                if (ex != null) {
+                    retry(notification, ex);
+                }
+                drain();
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            if (inflight.remove(notification)) {
+                spill(notification, System.currentTimeMillis());
+            }
+        }
+    }
+
+    void retry(LogoutNotification notification, Throwable ex) {
+        if (notification.attempts >= maxAttempts) {
+            _logger.error("single logout of app {} to {} failed after {} attempts , dropped : {}",
+                    notification.appId, notification.logoutUrl, notification.attempts, ex.getMessage());
+            if (droppedCounter != null) {
+                droppedCounter.increment();
+            }
+            return;
+        }
+        long backoff = retryInterval << Math.min(notification.attempts - 1, 10);
+        _logger.warn("single logout of app {} to {} failed , attempt {} , retry in {}ms : {}",
+                notification.appId, notification.logoutUrl, notification.attempts, backoff, ex.getMessage());
+        spill(notification, System.currentTimeMillis() + backoff);
+    }
+
+    void record(LogoutNotification notification, long duration, boolean delivered) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry == null) {
+            return;
+        }
+        String app = String.valueOf(notification.appId);
+        String outcome = delivered ? "delivered" : "failed";
+        timers.computeIfAbsent(app + ' ' + outcome,
+                key -> Timer.builder(METRIC_PREFIX + ".requests")
+                        .description("Back channel single logout latency per application")
+                        .tag("app", app)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry))
+            .record(duration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param nextAttemptTime 文件名以下次发送时间开头,按文件名排序即按发送时间排序
+     */
+    void spill(LogoutNotification notification, long nextAttemptTime) {
+        if (spillDirectory == null) {
+            _logger.error("spill directory not set , single logout of app {} lost", notification.appId);
+            return;
+        }
+        String fileName = String.format("%s%013d-%d", SPILL_FILE_PREFIX, nextAttemptTime, sequence.incrementAndGet());
+        File tmpFile = new File(spillDirectory, fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(SecureFiles.create(tmpFile)))) {
+            write(out, notification);
+        } catch (IOException e) {
+            _logger.error("spill single logout of app " + notification.appId + " error", e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(new File(spillDirectory, fileName + SPILL_FILE_SUFFIX))) {
+            _logger.error("rename spill file {} error", tmpFile);
+        }
+        if (spilledCounter != null) {
+            spilledCounter.increment();
+        }
+    }
+
+    /**
+     * 重新发送已到期的通知,队列已满时等待下一周期
+     */
+    void replaySpill() {
+        File[] spillFiles = listSpillFiles();
+        if (spillFiles.length == 0) {
+            return;
+        }
+        Arrays.sort(spillFiles);
+        long now = System.currentTimeMillis();
+        for (File spillFile : spillFiles) {
+            if (!running || nextAttemptTime(spillFile) > now) {
+                break;
+            }
+            LogoutNotification notification;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(spillFile)))) {
+                notification = read(in);
+            } catch (Exception e) {
+                _logger.error("read spill file " + spillFile + " error , rename to .bad", e);
+                spillFile.renameTo(new File(spillFile.getPath() + ".bad"));
+                continue;
+            }
+            //queue filled by dispatch , the file is kept for the next period
+            if (!pending.offer(notification)) {
+                break;
+            }
+            if (!spillFile.delete()) {
+                _logger.warn("delete spill file {} error", spillFile);
+                //replayed from the file again , not queued twice
+                pending.remove(notification);
+                continue;
+            }
+            _logger.debug("replay spill file {} , app {}", spillFile.getName(), notification.appId);
+        }
+        drain();
+    }
+
+    /**
+     * 落盘格式:版本,appId,logoutUrl,已发送次数,参数个数,参数名及参数值;参数值按字符串写入
+     */
+    static void write(DataOutput out, LogoutNotification notification) throws IOException {
+        out.writeInt(SPILL_FORMAT);
+        writeString(out, notification.appId);
+        writeString(out, notification.logoutUrl);
+        out.writeInt(notification.attempts);
+        out.writeInt(notification.parameters.size());
+        for (Map.Entry<String, Object> parameter : notification.parameters.entrySet()) {
+            writeString(out, parameter.getKey());
+            writeString(out, parameter.getValue() == null ? null : parameter.getValue().toString());
+        }
+    }
+
+    static LogoutNotification read(DataInput in) throws IOException {
+        int format = in.readInt();
+        if (format != SPILL_FORMAT) {
+            throw new IOException("unsupported spill format " + format);
+        }
+        String appId = readString(in);
+        String logoutUrl = readString(in);
+        int attempts = in.readInt();
+        int size = in.readInt();
+        if (size < 0 || size > MAX_SPILL_PARAMETERS) {
+            throw new IOException("invalid parameter count " + size);
+        }
+        HashMap<String,Object> parameters = new HashMap<String,Object>();
+        for (int i = 0; i < size; i++) {
+            parameters.put(readString(in), readString(in));
+        }
+        LogoutNotification notification = new LogoutNotification(appId, logoutUrl, parameters);
+        notification.attempts = attempts;
+        return notification;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_SPILL_STRING_LENGTH) {
+            throw new IOException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static long nextAttemptTime(File spillFile) {
+        String name = spillFile.getName();
+        int end = name.indexOf('-', SPILL_FILE_PREFIX.length());
+        try {
+            return Long.parseLong(name.substring(SPILL_FILE_PREFIX.length(), end));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    File[] listSpillFiles() {
+        if (spillDirectory == null) {
+            return new File[0];
+        }
+        File[] spillFiles = spillDirectory.listFiles(
+                (dir, name) -> name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX));
+        return spillFiles == null ? new File[0] : spillFiles;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder(METRIC_PREFIX + ".pending", pending, ArrayBlockingQueue::size)
+            .description("Single logout notifications waiting to be sent")
+            .register(registry);
+        Gauge.builder(METRIC_PREFIX + ".inflight", permits, semaphore -> concurrency - semaphore.availablePermits())
+            .description("Single logout notifications being sent")
+            .register(registry);
+        Gauge.builder(METRIC_PREFIX + ".spill.files", this, dispatcher -> dispatcher.listSpillFiles().length)
+            .description("Single logout notifications waiting to be retried")
+            .register(registry);
+        this.spilledCounter = Counter.builder(METRIC_PREFIX + ".notifications")
+            .tag("result", "spilled")
+            .register(registry);
+        this.droppedCounter = Counter.builder(METRIC_PREFIX + ".notifications")
+            .tag("result", "dropped")
+            .register(registry);
+    }
+
+    public int getPendingSize() {
+        return pending.size();
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+}
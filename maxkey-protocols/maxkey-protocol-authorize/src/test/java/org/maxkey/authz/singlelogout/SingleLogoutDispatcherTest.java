@@ -0,0 +1,364 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.singlelogout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.maxkey.authn.SigninPrincipal;
+import org.maxkey.authn.online.OnlineTicket;
+import org.maxkey.constants.ConstsProtocols;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.apps.Apps;
+import org.maxkey.web.HttpClientPool;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleLogoutDispatcherTest {
+
+	HttpServer httpServer;
+
+	ExecutorService serverExecutor;
+
+	//releases the slow handler when the test ends
+	CountDownLatch release = new CountDownLatch(1);
+
+	Set<String> delivered = ConcurrentHashMap.newKeySet();
+
+	AtomicInteger inflight = new AtomicInteger();
+
+	AtomicInteger maxInflight = new AtomicInteger();
+
+	File spillDirectory;
+
+	SingleLogoutDispatcher dispatcher;
+
+	@Before
+	public void startServer() throws Exception {
+		serverExecutor = Executors.newCachedThreadPool();
+		httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		httpServer.setExecutor(serverExecutor);
+		httpServer.createContext("/logout", exchange -> {
+			int current = inflight.incrementAndGet();
+			maxInflight.accumulateAndGet(current, Math::max);
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			delivered.add(exchange.getRequestURI().getPath());
+			inflight.decrementAndGet();
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		//answers only after the test releases it
+		httpServer.createContext("/gate", exchange -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			delivered.add(exchange.getRequestURI().getPath());
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		httpServer.createContext("/slow", exchange -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		httpServer.start();
+		HttpClientPool.getInstance();
+		spillDirectory = Files.createTempDirectory("slo").toFile();
+	}
+
+	@After
+	public void stopServer() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+		release.countDown();
+		httpServer.stop(0);
+		serverExecutor.shutdownNow();
+		File[] files = spillDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		spillDirectory.delete();
+	}
+
+	@Test
+	public void fanOut() throws Exception {
+		dispatcher = newDispatcher(2);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		dispatcher.bindTo(registry);
+		List<Apps> apps = new ArrayList<Apps>();
+		for (int i = 0; i < 6; i++) {
+			apps.add(newApp("app" + i, baseUrl() + "/logout/app" + i));
+		}
+
+		dispatcher.dispatch(newAuthentication(), apps);
+
+		waitFor(() -> delivered.size() == 6, 5000);
+		for (int i = 0; i < 6; i++) {
+			assertTrue(delivered.contains("/logout/app" + i));
+		}
+		assertTrue("inflight " + maxInflight.get(), maxInflight.get() <= 2);
+		assertEquals(0, dispatcher.listSpillFiles().length);
+		//one timer per app and outcome
+		waitFor(() -> registry.get(SingleLogoutDispatcher.METRIC_PREFIX + ".requests").timers().size() == 6, 5000);
+		assertEquals(6, dispatcher.timers.size());
+	}
+
+	@Test
+	public void nonBlocking() throws Exception {
+		dispatcher = newDispatcher(2);
+		dispatcher.dispatch(newAuthentication(),
+				Collections.singletonList(newApp("gate", baseUrl() + "/gate/app")));
+		//the application can not answer before release , dispatch returned without waiting for it
+		assertTrue(delivered.isEmpty());
+		release.countDown();
+		waitFor(() -> delivered.contains("/gate/app"), 5000);
+		waitFor(() -> dispatcher.permits.availablePermits() == 2, 5000);
+		assertEquals(0, dispatcher.listSpillFiles().length);
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		dispatcher = newDispatcher(2);
+		dispatcher.dispatch(newAuthentication(),
+				Collections.singletonList(newApp("slow", baseUrl() + "/slow")));
+
+		//socket timeout , spilled for retry
+		waitFor(() -> dispatcher.listSpillFiles().length == 1, 5000);
+		assertTrue(SingleLogoutDispatcher.nextAttemptTime(dispatcher.listSpillFiles()[0]) > System.currentTimeMillis());
+		waitFor(() -> dispatcher.permits.availablePermits() == 2, 5000);
+	}
+
+	@Test
+	public void failureIsolation() throws Exception {
+		int port;
+		//closed port , connection refused
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			port = serverSocket.getLocalPort();
+		}
+		dispatcher = newDispatcher(1);
+		List<Apps> apps = new ArrayList<Apps>();
+		apps.add(newApp("refused", "http://127.0.0.1:" + port + "/logout"));
+		apps.add(newApp("slow", baseUrl() + "/slow"));
+		apps.add(newApp("app1", baseUrl() + "/logout/app1"));
+		apps.add(newApp("invalid", "http://app maxkey/logout"));
+		apps.add(newApp("app2", baseUrl() + "/logout/app2"));
+		Apps frontChannel = newApp("front", baseUrl() + "/logout/front");
+		frontChannel.setLogoutType(LogoutType.BACK_CHANNEL + 1);
+		apps.add(frontChannel);
+
+		dispatcher.dispatch(newAuthentication(), apps);
+
+		//healthy applications are delivered even with one permit held by failing ones
+		waitFor(() -> delivered.size() == 2, 10000);
+		assertTrue(delivered.contains("/logout/app1"));
+		assertTrue(delivered.contains("/logout/app2"));
+		//refused , slow and invalid are retried later , front channel is not sent
+		waitFor(() -> dispatcher.listSpillFiles().length == 3, 5000);
+		assertEquals(2, delivered.size());
+	}
+
+	@Test
+	public void dropAfterMaxAttempts() throws Exception {
+		int port;
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			port = serverSocket.getLocalPort();
+		}
+		dispatcher = newDispatcher(2);
+		dispatcher.setMaxAttempts(1);
+		dispatcher.dispatch(newAuthentication(),
+				Collections.singletonList(newApp("refused", "http://127.0.0.1:" + port + "/logout")));
+		waitFor(() -> dispatcher.permits.availablePermits() == 2, 5000);
+		assertEquals(0, dispatcher.listSpillFiles().length);
+	}
+
+	@Test
+	public void spillInflightOnShutdown() throws Exception {
+		dispatcher = new SingleLogoutDispatcher(1, 100, 500, 5000);
+		dispatcher.setSpillDirectory(spillDirectory);
+		dispatcher.setRetryInterval(60000);
+		dispatcher.start();
+		dispatcher.dispatch(newAuthentication(),
+				Collections.singletonList(newApp("slow", baseUrl() + "/slow")));
+		waitFor(() -> dispatcher.inflight.size() == 1, 5000);
+
+		dispatcher.shutdown();
+		assertEquals(1, dispatcher.listSpillFiles().length);
+		assertTrue(dispatcher.inflight.isEmpty());
+		try (DataInputStream in = new DataInputStream(
+				Files.newInputStream(dispatcher.listSpillFiles()[0].toPath()))) {
+			SingleLogoutDispatcher.LogoutNotification notification = SingleLogoutDispatcher.read(in);
+			assertEquals("slow", notification.appId);
+			//the interrupted attempt is not counted
+			assertEquals(0, notification.attempts);
+		}
+	}
+
+	@Test
+	public void keepSpillWhenQueueFull() throws Exception {
+		dispatcher = new SingleLogoutDispatcher(1, 1, 500, 5000);
+		dispatcher.setSpillDirectory(spillDirectory);
+		dispatcher.setRetryInterval(60000);
+		dispatcher.start();
+		//the permit is held by the first , the second fills the queue
+		dispatcher.dispatch(newAuthentication(), Arrays.asList(
+				newApp("slow1", baseUrl() + "/gate/slow1"), newApp("slow2", baseUrl() + "/gate/slow2")));
+		waitFor(() -> dispatcher.inflight.size() == 1, 5000);
+		assertEquals(1, dispatcher.getPendingSize());
+		dispatcher.spill(new SingleLogoutDispatcher.LogoutNotification(
+				"app3", baseUrl() + "/logout/app3", new HashMap<String,Object>()), 0);
+
+		dispatcher.replaySpill();
+		//not queued , the file is replayed later
+		assertEquals(1, dispatcher.listSpillFiles().length);
+		assertEquals(1, dispatcher.getPendingSize());
+
+		release.countDown();
+		waitFor(() -> delivered.contains("/gate/slow2"), 5000);
+		dispatcher.replaySpill();
+		waitFor(() -> delivered.contains("/logout/app3"), 5000);
+		assertEquals(0, dispatcher.listSpillFiles().length);
+	}
+
+	@Test
+	public void spillFormat() throws Exception {
+		HashMap<String,Object> parameters = new HashMap<String,Object>();
+		parameters.put("ticket", "OT-1");
+		parameters.put("empty", null);
+		SingleLogoutDispatcher.LogoutNotification notification =
+				new SingleLogoutDispatcher.LogoutNotification("app1", "http://app/logout", parameters);
+		notification.attempts = 2;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SingleLogoutDispatcher.write(new DataOutputStream(bytes), notification);
+
+		SingleLogoutDispatcher.LogoutNotification read = SingleLogoutDispatcher.read(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals("app1", read.appId);
+		assertEquals("http://app/logout", read.logoutUrl);
+		assertEquals(2, read.attempts);
+		assertEquals("OT-1", read.parameters.get("ticket"));
+		assertNull(read.parameters.get("empty"));
+		assertTrue(read.parameters.containsKey("empty"));
+	}
+
+	@Test
+	public void quarantineSerializedObject() throws Exception {
+		//java serialization is never read back
+		File planted = new File(spillDirectory, SingleLogoutDispatcher.SPILL_FILE_PREFIX
+				+ "0000000000000-1" + SingleLogoutDispatcher.SPILL_FILE_SUFFIX);
+		try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(planted.toPath()))) {
+			out.writeObject(new HashMap<String,Object>());
+		}
+		dispatcher = newDispatcher(1);
+		waitFor(() -> new File(planted.getPath() + ".bad").exists(), 5000);
+		assertEquals(0, dispatcher.listSpillFiles().length);
+		assertTrue(delivered.isEmpty());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectOversizedString() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(SingleLogoutDispatcher.SPILL_FORMAT);
+		out.writeInt(Integer.MAX_VALUE);
+		SingleLogoutDispatcher.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	SingleLogoutDispatcher newDispatcher(int concurrency) {
+		SingleLogoutDispatcher singleLogoutDispatcher = new SingleLogoutDispatcher(concurrency, 100, 500, 500);
+		singleLogoutDispatcher.setSpillDirectory(spillDirectory);
+		singleLogoutDispatcher.setRetryInterval(60000);
+		singleLogoutDispatcher.start();
+		return singleLogoutDispatcher;
+	}
+
+	static Apps newApp(String id, String logoutUrl) {
+		Apps app = new Apps();
+		app.setId(id);
+		app.setProtocol(ConstsProtocols.OAUTH20);
+		app.setLogoutType(LogoutType.BACK_CHANNEL);
+		app.setLogoutUrl(logoutUrl);
+		return app;
+	}
+
+	static Authentication newAuthentication() {
+		UserInfo userInfo = new UserInfo();
+		userInfo.setId("1");
+		userInfo.setUsername("admin");
+		SigninPrincipal principal = new SigninPrincipal(userInfo);
+		principal.setOnlineTicket(new OnlineTicket("OT-1"));
+		return new UsernamePasswordAuthenticationToken(principal, "", Collections.<GrantedAuthority>emptyList());
+	}
+
+	static void waitFor(BooleanSupplier condition, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			assertTrue("condition not met in " + timeout + "ms", System.currentTimeMillis() < deadline);
+			Thread.sleep(20);
+		}
+	}
+
+	String baseUrl() {
+		return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+	}
+}
@@ -21,6 +21,7 @@
 package org.maxkey.authz.cas.endpoint;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -46,7 +47,6 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
@@ -177,8 +177,7 @@ For all error codes, it is RECOMMENDED that CAS provide a more detailed message
 	 */
 	@Operation(summary = "CAS 2.0 ticket验证接口", description = "通过ticket获取当前登录用户信息",method="POST")
 	@RequestMapping(value=CasConstants.ENDPOINT.ENDPOINT_SERVICE_VALIDATE,produces =MediaType.APPLICATION_XML_VALUE)
-	@ResponseBody
-	public String serviceValidate(
+	public void serviceValidate(
 			HttpServletRequest request,
 			HttpServletResponse response,
 			@RequestParam(value = CasConstants.PARAMETER.TICKET) String ticket,
@@ -206,17 +205,18 @@ For all error codes, it is RECOMMENDED that CAS provide a more detailed message
 		
 		if(storedTicket!=null){
 		    SigninPrincipal authentication = ((SigninPrincipal)storedTicket.getAuthentication().getPrincipal());
+			String proxyGrantingTicketIOU = null;
+			String proxyGrantingTicket = null;
+			CompletableFuture<Boolean> proxyCallback = null;
 			if(StringUtils.isNotBlank(pgtUrl)) {
 				ProxyGrantingTicketIOUImpl proxyGrantingTicketIOUImpl =new ProxyGrantingTicketIOUImpl();
-				String proxyGrantingTicketIOU=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketIOUImpl);
+				proxyGrantingTicketIOU=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketIOUImpl);
 				
 				ProxyGrantingTicketImpl proxyGrantingTicketImpl=new ProxyGrantingTicketImpl(storedTicket.getAuthentication(),storedTicket.getCasDetails());
-				String proxyGrantingTicket=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketImpl);
+				proxyGrantingTicket=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketImpl);
 				
-				serviceResponseBuilder.success().setTicket(proxyGrantingTicketIOU);
-				serviceResponseBuilder.success().setProxy(pgtUrl);
-			
-				httpRequestAdapter.post(pgtUrl+"?pgtId="+proxyGrantingTicket+"&pgtIou="+proxyGrantingTicketIOU,null);		
+				//callback runs while the response is built
+				proxyCallback = proxyGrantingTicketCallback.deliver(pgtUrl, proxyGrantingTicket, proxyGrantingTicketIOU);
 			}
 			
 			if(ConstsBoolean.isTrue(storedTicket.getCasDetails().getIsAdapter())){
@@ -236,13 +236,24 @@ For all error codes, it is RECOMMENDED that CAS provide a more detailed message
 				adapter.setApp(storedTicket.getCasDetails());
 				adapter.generateInfo();
 			}
+			
+			if(proxyCallback != null) {
+				//PGTIOU only after the callback is confirmed
+				if(proxyGrantingTicketCallback.await(proxyCallback)) {
+					serviceResponseBuilder.success().setTicket(proxyGrantingTicketIOU);
+					serviceResponseBuilder.success().setProxy(pgtUrl);
+				}else {
+					casProxyGrantingTicketServices.remove(proxyGrantingTicket);
+					casProxyGrantingTicketServices.remove(proxyGrantingTicketIOU);
+				}
+			}
 		}else{
 			serviceResponseBuilder.failure()
 				.setCode(CasConstants.ERROR_CODE.INVALID_TICKET)
 				.setDescription("Ticket "+ticket+" not recognized");
 		}
 	
-		return serviceResponseBuilder.serviceResponseBuilder();
+		writeResponse(response, serviceResponseBuilder);
 	}
 	
 	/**
@@ -308,8 +319,7 @@ Response on ticket validation failure:
 	
 	@Operation(summary = "CAS 2.0 ticket代理验证接口", description = "通过ticket获取当前登录用户信息",method="POST")
 	@RequestMapping(value=CasConstants.ENDPOINT.ENDPOINT_PROXY_VALIDATE,produces =MediaType.APPLICATION_XML_VALUE)
-	@ResponseBody
-	public String proxy(
+	public void proxy(
 			HttpServletRequest request,
 			HttpServletResponse response,
 			@RequestParam(value = CasConstants.PARAMETER.TICKET) String ticket,
@@ -359,7 +369,7 @@ Response on ticket validation failure:
 				.setDescription("Ticket "+ticket+" not recognized");
 		}
 		
-		return serviceResponseBuilder.serviceResponseBuilder();
+		writeResponse(response, serviceResponseBuilder);
 	}
 	
 	/**
@@ -416,8 +426,7 @@ INTERNAL_ERROR - an internal error occurred during ticket validation
 For all error codes, it is RECOMMENDED that CAS provide a more detailed message as the body of the <cas:authenticationFailure> block of the XML response.
 	 */
 	@RequestMapping(value=CasConstants.ENDPOINT.ENDPOINT_PROXY ,produces =MediaType.APPLICATION_XML_VALUE)
-	@ResponseBody
-	public String proxy(
+	public void proxy(
 			HttpServletRequest request,
 			HttpServletResponse response,
 			@RequestParam(value = CasConstants.PARAMETER.PROXY_GRANTING_TICKET) String pgt,
@@ -438,6 +447,6 @@ For all error codes, it is RECOMMENDED that CAS provide a more detailed message
 	    }else {
 	    	proxyServiceResponseBuilder.success().setTicket("").setFormat(format);
 	    }
-		return proxyServiceResponseBuilder.serviceResponseBuilder();
+		writeResponse(response, proxyServiceResponseBuilder);
 	}
 }
@@ -21,6 +21,7 @@
 package org.maxkey.authz.cas.endpoint;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -88,17 +89,18 @@ public class Cas30AuthorizeEndpoint  extends CasBaseAuthorizeEndpoint{
 		
 		if(storedTicket!=null){
 		    SigninPrincipal authentication = ((SigninPrincipal)storedTicket.getAuthentication().getPrincipal());
+			String proxyGrantingTicketIOU = null;
+			String proxyGrantingTicket = null;
+			CompletableFuture<Boolean> proxyCallback = null;
 			if(StringUtils.isNotBlank(pgtUrl)) {
 				ProxyGrantingTicketIOUImpl proxyGrantingTicketIOUImpl =new ProxyGrantingTicketIOUImpl();
-				String proxyGrantingTicketIOU=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketIOUImpl);
+				proxyGrantingTicketIOU=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketIOUImpl);
 				
 				ProxyGrantingTicketImpl proxyGrantingTicketImpl=new ProxyGrantingTicketImpl(storedTicket.getAuthentication(),storedTicket.getCasDetails());
-				String proxyGrantingTicket=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketImpl);
+				proxyGrantingTicket=casProxyGrantingTicketServices.createTicket(proxyGrantingTicketImpl);
 				
-				serviceResponseBuilder.success().setTicket(proxyGrantingTicketIOU);
-				serviceResponseBuilder.success().setProxy(pgtUrl);
-			
-				httpRequestAdapter.post(pgtUrl+"?pgtId="+proxyGrantingTicket+"&pgtIou="+proxyGrantingTicketIOU,null);		
+				//callback runs while the response is built
+				proxyCallback = proxyGrantingTicketCallback.deliver(pgtUrl, proxyGrantingTicket, proxyGrantingTicketIOU);
 			}
 			
 			if(ConstsBoolean.isTrue(storedTicket.getCasDetails().getIsAdapter())){
@@ -117,13 +119,25 @@ public class Cas30AuthorizeEndpoint  extends CasBaseAuthorizeEndpoint{
 				adapter.setApp(storedTicket.getCasDetails());
 				adapter.generateInfo();
 			}
+			
+			if(proxyCallback != null) {
+				//PGTIOU only after the callback is confirmed
+				if(proxyGrantingTicketCallback.await(proxyCallback)) {
+					serviceResponseBuilder.success().setTicket(proxyGrantingTicketIOU);
+					serviceResponseBuilder.success().setProxy(pgtUrl);
+				}else {
+					casProxyGrantingTicketServices.remove(proxyGrantingTicket);
+					casProxyGrantingTicketServices.remove(proxyGrantingTicketIOU);
+				}
+			}
 		}else{
 			serviceResponseBuilder.failure()
 				.setCode(CasConstants.ERROR_CODE.INVALID_TICKET)
 				.setDescription("Ticket "+ticket+" not recognized");
 		}
 	
-		httpResponseAdapter.write(response,serviceResponseBuilder.serviceResponseBuilder(),format);
+		serviceResponseBuilder.setFormat(format);
+		writeResponse(response, serviceResponseBuilder);
 	}
 	
 	@Operation(summary = "CAS 3.0 ProxyTicket代理验证接口", description = "通过ProxyGrantingTicket获取ProxyTicket",method="POST")
@@ -149,7 +163,7 @@ public class Cas30AuthorizeEndpoint  extends CasBaseAuthorizeEndpoint{
 	    	proxyServiceResponseBuilder.success().setTicket("").setFormat(format);
 	    }
 	    
-	    httpResponseAdapter.write(response,proxyServiceResponseBuilder.serviceResponseBuilder(),format);
+	    writeResponse(response, proxyServiceResponseBuilder);
 	}
 	
 	@Operation(summary = "CAS 3.0 ticket代理验证接口", description = "通过ProxyTicket获取当前登录用户信息",method="POST")
@@ -203,6 +217,7 @@ public class Cas30AuthorizeEndpoint  extends CasBaseAuthorizeEndpoint{
 				.setCode(CasConstants.ERROR_CODE.INVALID_TICKET)
 				.setDescription("Ticket "+ticket+" not recognized");
 		}
-		httpResponseAdapter.write(response,serviceResponseBuilder.serviceResponseBuilder(),format);
+		serviceResponseBuilder.setFormat(format);
+		writeResponse(response, serviceResponseBuilder);
 	}
 }
@@ -17,8 +17,14 @@
 
 package org.maxkey.authz.cas.endpoint;
 
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.maxkey.authn.online.OnlineTicketServices;
+import org.maxkey.authz.cas.endpoint.response.CasServiceResponse;
 import org.maxkey.authz.cas.endpoint.ticket.TicketServices;
+import org.maxkey.authz.cas.endpoint.ticket.pgt.ProxyGrantingTicketCallback;
 import org.maxkey.authz.endpoint.AuthorizeBaseEndpoint;
 import org.maxkey.persistence.service.AppsCasDetailsService;
 import org.maxkey.persistence.service.UserInfoService;
@@ -62,4 +68,19 @@ public class CasBaseAuthorizeEndpoint  extends AuthorizeBaseEndpoint{
     @Autowired
     protected HttpRequestAdapter httpRequestAdapter; 
     
+    @Autowired
+    protected ProxyGrantingTicketCallback proxyGrantingTicketCallback;
+    
+    /**
+     * 响应直接写入输出流,格式由serviceResponse.getFormat()决定
+     */
+    protected void writeResponse(HttpServletResponse response, CasServiceResponse serviceResponse) {
+        httpResponseAdapter.prepare(response, serviceResponse.getFormat());
+        try {
+            serviceResponse.writeTo(response.getOutputStream());
+        } catch (IOException e) {
+            _logger.error("write CAS service response error . ", e);
+        }
+    }
+    
 }
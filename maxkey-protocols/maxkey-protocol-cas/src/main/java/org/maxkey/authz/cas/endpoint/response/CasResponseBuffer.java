@@ -0,0 +1,200 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.cas.endpoint.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CAS响应UTF-8字节缓冲,每个线程复用一个实例.
+ * <p>
+ * 固定片段预先编码为byte[]直接复制,属性值在写入时完成XML或JSON转义及UTF-8编码,
+ * 不生成中间String;超过MAX_RETAINED_CAPACITY的缓冲使用后不再保留.
+ * </p>
+ */
+public final class CasResponseBuffer {
+
+    static final int INITIAL_CAPACITY = 4096;
+
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    static final ThreadLocal<CasResponseBuffer> BUFFERS = ThreadLocal.withInitial(CasResponseBuffer::new);
+
+    byte[] bytes = new byte[INITIAL_CAPACITY];
+
+    int length;
+
+    /**
+     * @return empty buffer of current thread
+     */
+    public static CasResponseBuffer get() {
+        CasResponseBuffer buffer = BUFFERS.get();
+        if (buffer.bytes.length > MAX_RETAINED_CAPACITY) {
+            buffer.bytes = new byte[INITIAL_CAPACITY];
+        }
+        buffer.length = 0;
+        return buffer;
+    }
+
+    /**
+     * @param fragment constant
+     * @return UTF-8 bytes
+     */
+    public static byte[] fragment(String fragment) {
+        return fragment.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public CasResponseBuffer append(byte[] fragment) {
+        ensureCapacity(fragment.length);
+        System.arraycopy(fragment, 0, bytes, length, fragment.length);
+        length += fragment.length;
+        return this;
+    }
+
+    /**
+     * append without escaping , for element and property names
+     */
+    public CasResponseBuffer append(String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                i = appendChar(value, i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * append XML text or attribute value , null as empty
+     */
+    public CasResponseBuffer appendXml(String value) {
+        if (value == null) {
+            return this;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&'  : appendAscii("&amp;"); break;
+                case '<'  : appendAscii("&lt;"); break;
+                case '>'  : appendAscii("&gt;"); break;
+                case '"'  : appendAscii("&quot;"); break;
+                case '\'' : appendAscii("&apos;"); break;
+                default   :
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                        //not allowed in XML 1.0
+                        break;
+                    }
+                    i = appendChar(value, i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * append JSON string content , quotes not included , null as empty
+     */
+    public CasResponseBuffer appendJson(String value) {
+        if (value == null) {
+            return this;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"'  : appendAscii("\\\""); break;
+                case '\\' : appendAscii("\\\\"); break;
+                case '\n' : appendAscii("\\n"); break;
+                case '\r' : appendAscii("\\r"); break;
+                case '\t' : appendAscii("\\t"); break;
+                case '\b' : appendAscii("\\b"); break;
+                case '\f' : appendAscii("\\f"); break;
+                default   :
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        appendAscii("\\u");
+                        ensureCapacity(4);
+                        bytes[length++] = HEX[(c >> 12) & 0xF];
+                        bytes[length++] = HEX[(c >> 8) & 0xF];
+                        bytes[length++] = HEX[(c >> 4) & 0xF];
+                        bytes[length++] = HEX[c & 0xF];
+                    } else {
+                        i = appendChar(value, i);
+                    }
+            }
+        }
+        return this;
+    }
+
+    void appendAscii(String ascii) {
+        ensureCapacity(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            bytes[length++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    /**
+     * UTF-8 encode the char at index , a surrogate pair consumes two chars
+     * @return index of the last consumed char
+     */
+    int appendChar(String value, int index) {
+        char c = value.charAt(index);
+        ensureCapacity(4);
+        if (c < 0x80) {
+            bytes[length++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[length++] = (byte) (0xC0 | (c >> 6));
+            bytes[length++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)
+                && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            return index + 1;
+        } else if (Character.isSurrogate(c)) {
+            //unpaired surrogate
+            bytes[length++] = '?';
+        } else {
+            bytes[length++] = (byte) (0xE0 | (c >> 12));
+            bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return index;
+    }
+
+    void ensureCapacity(int size) {
+        if (length + size > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + size));
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
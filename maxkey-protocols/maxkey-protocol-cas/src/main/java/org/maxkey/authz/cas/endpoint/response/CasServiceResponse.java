@@ -17,6 +17,8 @@
 
 package org.maxkey.authz.cas.endpoint.response;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import org.maxkey.web.HttpResponseConstants;
@@ -111,7 +113,33 @@ public class CasServiceResponse {
 
 
 	public String  serviceResponseBuilder(){
-		return null;
+		CasResponseBuffer buffer = CasResponseBuffer.get();
+		write(buffer);
+		String responseString = buffer.toString();
+		_logger.trace("Response String : {}" , responseString);
+		return responseString;
+	}
+	
+	/**
+	 * 直接输出UTF-8响应,不生成中间String
+	 * @param out servlet output stream
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		CasResponseBuffer buffer = CasResponseBuffer.get();
+		write(buffer);
+		if(_logger.isTraceEnabled()) {
+			_logger.trace("Response String : {}" , buffer.toString());
+		}
+		buffer.writeTo(out);
+	}
+	
+	/**
+	 * 按format生成响应,子类实现
+	 * @param buffer thread local buffer
+	 */
+	protected void write(CasResponseBuffer buffer) {
+		
 	}
 
 }
@@ -20,58 +20,39 @@ package org.maxkey.authz.cas.endpoint.response;
 import org.maxkey.web.HttpResponseConstants;
 
 public class ProxyServiceResponseBuilder extends  ServiceResponseBuilder{
+	
+	static final byte[] XML_PROXY_SUCCESS_START		= CasResponseBuffer.fragment("<cas:proxySuccess><cas:proxyTicket>");
+	static final byte[] XML_PROXY_SUCCESS_END		= CasResponseBuffer.fragment("</cas:proxyTicket></cas:proxySuccess>");
+	static final byte[] XML_PROXY_FAILURE_START		= CasResponseBuffer.fragment("<cas:proxyFailure code=\"");
+	static final byte[] XML_PROXY_FAILURE_END		= CasResponseBuffer.fragment("</cas:proxyFailure>");
+	
+	static final byte[] JSON_PROXY_SUCCESS_START	= CasResponseBuffer.fragment("\"proxySuccess\" : {\"proxyTicket\" : \"");
 
 	public ProxyServiceResponseBuilder() {
 		
 	}
 
 	@Override
-	public String  serviceResponseBuilder() {
-		String responseString = "";
+	protected void write(CasResponseBuffer buffer) {
 		if(format.equalsIgnoreCase(HttpResponseConstants.FORMAT_TYPE.XML)){
-			responseString = serviceResponseXmlBuilder();
-		}else{
-			responseString =serviceResponseJsonBuilder();
-		}
-		_logger.trace("Response String : "+responseString);
-		return responseString;
-	}
-	
-	@Override
-	public String  serviceResponseXmlBuilder() {
-		StringBuffer responseResult=new StringBuffer("");
-		responseResult.append("<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">");
-		if(result){
-			responseResult.append("<cas:proxySuccess>");
-			responseResult.append("<cas:proxyTicket>").append(ticket).append("</cas:proxyTicket>");
-			responseResult.append("</cas:proxySuccess>");
+			buffer.append(XML_SERVICE_RESPONSE_START);
+			if(result){
+				buffer.append(XML_PROXY_SUCCESS_START).appendXml(ticket).append(XML_PROXY_SUCCESS_END);
+			}else{
+				buffer.append(XML_PROXY_FAILURE_START).appendXml(code).append(XML_ATTRIBUTE_VALUE_END)
+					.appendXml(description)
+					.append(XML_PROXY_FAILURE_END);
+			}
+			buffer.append(XML_SERVICE_RESPONSE_END);
 		}else{
-			responseResult.append("<cas:proxyFailure code=\""+code+"\">");
-			responseResult.append(this.description);
-			responseResult.append("</cas:proxyFailure>");
+			buffer.append(JSON_SERVICE_RESPONSE_START);
+			if(result){
+				buffer.append(JSON_PROXY_SUCCESS_START).appendJson(ticket).append(JSON_QUOTE_OBJECT_END);
+			}else{
+				writeJsonFailure(buffer);
+			}
+			buffer.append(JSON_SERVICE_RESPONSE_END);
 		}
-		responseResult.append("</cas:serviceResponse>");
-		return responseResult.toString();
 	}
-	
-	@Override
-	public String  serviceResponseJsonBuilder() {
-		StringBuffer responseResult=new StringBuffer("");
-		responseResult.append("{\"serviceResponse\" :{");
-		if(result){
-			responseResult.append("\"proxySuccess\" : {");
-			responseResult.append("\"proxyTicket\" : \"").append(ticket).append("\"");
-			responseResult.append("}");
-		}else{
-			responseResult.append("\"authenticationFailure\" : {");
-			responseResult.append("\"code\" : \"").append(this.code).append("\"");
-			responseResult.append(",\"description\" : \"").append(this.description).append("\"");
-			responseResult.append("}");
-		}
-		responseResult.append("}");
-		responseResult.append("}");
-		return responseResult.toString();
-	}
-	
 
 }
@@ -19,15 +19,17 @@ package org.maxkey.authz.cas.endpoint.response;
 
 public class Service10ResponseBuilder extends CasServiceResponse {
 	
+	static final byte[] YES = CasResponseBuffer.fragment("yes\n");
+	
+	static final byte[] NO  = CasResponseBuffer.fragment("no\n\n");
+	
 	@Override
-	public String  serviceResponseBuilder() {
-		StringBuffer responseResult=new StringBuffer("");
+	protected void write(CasResponseBuffer buffer) {
 		if(result){
-			responseResult.append("yes").append("\n").append(user);
+			buffer.append(YES).append(user);
 		}else{
-			responseResult.append("no").append("\n").append("\n");
+			buffer.append(NO);
 		}
-		return responseResult.toString();
 	}
 
 }
@@ -18,7 +18,7 @@
 package org.maxkey.authz.cas.endpoint.response;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Map;
 import org.maxkey.web.HttpResponseConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,128 +26,145 @@ import org.slf4j.LoggerFactory;
 public class ServiceResponseBuilder extends CasServiceResponse {
 	final static Logger _logger = LoggerFactory.getLogger(ServiceResponseBuilder.class);
 	
+	static final byte[] XML_SERVICE_RESPONSE_START	= CasResponseBuffer.fragment("<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">");
+	static final byte[] XML_SERVICE_RESPONSE_END	= CasResponseBuffer.fragment("</cas:serviceResponse>");
+	static final byte[] XML_SUCCESS_START			= CasResponseBuffer.fragment("<cas:authenticationSuccess><cas:user>");
+	static final byte[] XML_USER_END				= CasResponseBuffer.fragment("</cas:user>");
+	static final byte[] XML_PGT_START				= CasResponseBuffer.fragment("<cas:proxyGrantingTicket>");
+	static final byte[] XML_PGT_END					= CasResponseBuffer.fragment("</cas:proxyGrantingTicket>");
+	static final byte[] XML_ATTRIBUTES_START		= CasResponseBuffer.fragment("<cas:attributes>");
+	static final byte[] XML_ATTRIBUTES_END			= CasResponseBuffer.fragment("</cas:attributes>");
+	static final byte[] XML_OPEN_TAG				= CasResponseBuffer.fragment("<cas:");
+	static final byte[] XML_CLOSE_TAG				= CasResponseBuffer.fragment("</cas:");
+	static final byte[] XML_TAG_END					= CasResponseBuffer.fragment(">");
+	static final byte[] XML_ATTRIBUTE_END			= CasResponseBuffer.fragment(">\r\n");
+	static final byte[] XML_PROXIES_START			= CasResponseBuffer.fragment("<cas:proxies>");
+	static final byte[] XML_PROXIES_END				= CasResponseBuffer.fragment("</cas:proxies>");
+	static final byte[] XML_PROXY_START				= CasResponseBuffer.fragment("<cas:proxy>");
+	static final byte[] XML_PROXY_END				= CasResponseBuffer.fragment("</cas:proxy>");
+	static final byte[] XML_SUCCESS_END				= CasResponseBuffer.fragment("</cas:authenticationSuccess>");
+	static final byte[] XML_FAILURE_START			= CasResponseBuffer.fragment("<cas:authenticationFailure code=\"");
+	static final byte[] XML_FAILURE_END				= CasResponseBuffer.fragment("</cas:authenticationFailure>");
+	static final byte[] XML_ATTRIBUTE_VALUE_END		= CasResponseBuffer.fragment("\">");
+	
+	static final byte[] JSON_SERVICE_RESPONSE_START	= CasResponseBuffer.fragment("{\"serviceResponse\" :{");
+	static final byte[] JSON_SERVICE_RESPONSE_END	= CasResponseBuffer.fragment("}}");
+	static final byte[] JSON_SUCCESS_START			= CasResponseBuffer.fragment("\"authenticationSuccess\" : {\"user\" : \"");
+	static final byte[] JSON_PGT_START				= CasResponseBuffer.fragment("\",\"proxyGrantingTicket\" : \"");
+	static final byte[] JSON_ATTRIBUTES_START		= CasResponseBuffer.fragment(",\"attributes\" : {");
+	static final byte[] JSON_PROXIES_START			= CasResponseBuffer.fragment(",\"proxies\" : [ ");
+	static final byte[] JSON_FAILURE_START			= CasResponseBuffer.fragment("\"authenticationFailure\" : {\"code\" : \"");
+	static final byte[] JSON_DESCRIPTION_START		= CasResponseBuffer.fragment("\",\"description\" : \"");
+	static final byte[] JSON_QUOTE					= CasResponseBuffer.fragment("\"");
+	static final byte[] JSON_KEY_END				= CasResponseBuffer.fragment("\":");
+	static final byte[] JSON_COMMA_QUOTE			= CasResponseBuffer.fragment(",\"");
+	static final byte[] JSON_QUOTE_COMMA_QUOTE		= CasResponseBuffer.fragment("\",\"");
+	static final byte[] JSON_ARRAY_START			= CasResponseBuffer.fragment("[\"");
+	static final byte[] JSON_ARRAY_END				= CasResponseBuffer.fragment("\"]");
+	static final byte[] JSON_EMPTY_ARRAY			= CasResponseBuffer.fragment("[]");
+	static final byte[] JSON_OBJECT_END				= CasResponseBuffer.fragment("}");
+	static final byte[] JSON_QUOTE_OBJECT_END		= CasResponseBuffer.fragment("\"}");
+	
 	@Override
-	public String  serviceResponseBuilder() {
-		String responseString = "";
+	protected void write(CasResponseBuffer buffer) {
 		if(format.equalsIgnoreCase(HttpResponseConstants.FORMAT_TYPE.XML)){
-			responseString= serviceResponseXmlBuilder();
+			writeXml(buffer);
 		}else{
-			responseString= serviceResponseJsonBuilder();
+			writeJson(buffer);
 		}
-		
-		_logger.trace("Response String : "+responseString);
-		return responseString;
 	}
 	
-	public String  serviceResponseXmlBuilder() {
-		StringBuffer responseResult=new StringBuffer("");
-		responseResult.append("<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">");
+	protected void writeXml(CasResponseBuffer buffer) {
+		buffer.append(XML_SERVICE_RESPONSE_START);
 		if(result){
-			responseResult.append("<cas:authenticationSuccess>");
-			responseResult.append("<cas:user>").append(user).append("</cas:user>");
+			buffer.append(XML_SUCCESS_START).appendXml(user).append(XML_USER_END);
 			if(ticket!=null){
-				responseResult.append("<cas:proxyGrantingTicket>").append(ticket).append("</cas:proxyGrantingTicket>");
+				buffer.append(XML_PGT_START).appendXml(ticket).append(XML_PGT_END);
 			}
 			if(!casAttributes.isEmpty()){
-				responseResult.append("<cas:attributes>");
-				 //采用Iterator遍历HashMap  
-		        Iterator<String> it = casAttributes.keySet().iterator();  
-		        while(it.hasNext()) {  
-		            String key = (String)it.next();  
-		            ArrayList<String> attrList=casAttributes.get(key);
-		            //<cas:firstname>John</cas:firstname>
-		            for(String value : attrList){
-		            	responseResult.append("<cas:").append(key).append(">");
-		            	responseResult.append(value);
-		            	responseResult.append("</cas:").append(key).append(">\r\n");
-		            }
-		        } 
-		        responseResult.append("</cas:attributes>");
+				buffer.append(XML_ATTRIBUTES_START);
+				//<cas:firstname>John</cas:firstname>
+				for(Map.Entry<String, ArrayList<String>> attribute : casAttributes.entrySet()) {
+					String key = attribute.getKey();
+					for(String value : attribute.getValue()){
+						buffer.append(XML_OPEN_TAG).append(key).append(XML_TAG_END)
+							.appendXml(value)
+							.append(XML_CLOSE_TAG).append(key).append(XML_ATTRIBUTE_END);
+					}
+				}
+				buffer.append(XML_ATTRIBUTES_END);
 			}
 			if(!proxies.isEmpty()){
-				responseResult.append("<cas:proxies>");
+				buffer.append(XML_PROXIES_START);
 				for(String proxy : proxies){
-					responseResult.append("<cas:proxy>").append(proxy).append("</cas:proxy>");
+					buffer.append(XML_PROXY_START).appendXml(proxy).append(XML_PROXY_END);
 				}
-		        responseResult.append("</cas:proxies>");
+				buffer.append(XML_PROXIES_END);
 			}
-			responseResult.append("</cas:authenticationSuccess>");
+			buffer.append(XML_SUCCESS_END);
 		}else{
-			responseResult.append("<cas:authenticationFailure code=\""+code+"\">");
-			responseResult.append(this.description);
-			responseResult.append("</cas:authenticationFailure>");
+			buffer.append(XML_FAILURE_START).appendXml(code).append(XML_ATTRIBUTE_VALUE_END)
+				.appendXml(description)
+				.append(XML_FAILURE_END);
 		}
-		responseResult.append("</cas:serviceResponse>");
-		return responseResult.toString();
+		buffer.append(XML_SERVICE_RESPONSE_END);
 	}
 	
-	public String  serviceResponseJsonBuilder() {
-		StringBuffer responseResult=new StringBuffer("");
-		responseResult.append("{\"serviceResponse\" :{");
+	protected void writeJson(CasResponseBuffer buffer) {
+		buffer.append(JSON_SERVICE_RESPONSE_START);
 		if(result){
-			responseResult.append("\"authenticationSuccess\" : {");
-			responseResult.append("\"user\" : \"").append(user).append("\"");
+			buffer.append(JSON_SUCCESS_START).appendJson(user);
 			if(ticket!=null){
-				responseResult.append(",\"proxyGrantingTicket\" : \"").append(ticket).append("\"");
+				buffer.append(JSON_PGT_START).appendJson(ticket);
 			}
+			buffer.append(JSON_QUOTE);
 			
 			if(!casAttributes.isEmpty()){
-				responseResult.append(",\"attributes\" : {");
-				 //采用Iterator遍历HashMap  
-		        Iterator<String> it = casAttributes.keySet().iterator();  
-		        int attrCount=1;
-		        while(it.hasNext()) {  
-		            String key = (String)it.next();  
-		            ArrayList<String> attrList=casAttributes.get(key);
-		            if(attrCount==1){
-		            	responseResult.append("\"").append(key).append("\":");
-		            }else{
-		            	responseResult.append(",\"").append(key).append("\":");
-		            }
-		            //<cas:firstname>John</cas:firstname>
-		            String valueString="";
-		            if(attrList.size()==1){
-		            	valueString="\""+attrList.get(0)+"\"";
-		            }else{
-		            	int valueCount=1;
-		            	valueString+="[";
-			            for(String value : attrList){
-			            	if(valueCount!=1){
-			            		valueString+=",";
-			            	}
-			            	valueString+="\""+value+"\"";
-			            	valueCount++;
-			            }
-			            valueString+="]";
-		            }
-		            responseResult.append(valueString);
-		            attrCount++;
-		        } 
-		        responseResult.append("}");
+				buffer.append(JSON_ATTRIBUTES_START);
+				boolean first = true;
+				for(Map.Entry<String, ArrayList<String>> attribute : casAttributes.entrySet()) {
+					buffer.append(first ? JSON_QUOTE : JSON_COMMA_QUOTE).appendJson(attribute.getKey()).append(JSON_KEY_END);
+					first = false;
+					ArrayList<String> attrList = attribute.getValue();
+					if(attrList.isEmpty()){
+						buffer.append(JSON_EMPTY_ARRAY);
+					}else if(attrList.size()==1){
+						buffer.append(JSON_QUOTE).appendJson(attrList.get(0)).append(JSON_QUOTE);
+					}else{
+						buffer.append(JSON_ARRAY_START);
+						for(int i = 0; i < attrList.size(); i++){
+							if(i > 0){
+								buffer.append(JSON_QUOTE_COMMA_QUOTE);
+							}
+							buffer.appendJson(attrList.get(i));
+						}
+						buffer.append(JSON_ARRAY_END);
+					}
+				}
+				buffer.append(JSON_OBJECT_END);
 			}
 			
 			if(!proxies.isEmpty()){
-				responseResult.append(",\"proxies\" : [ ");
-				int proxyCount=1;
-				for(String proxy : proxies){
-					if(proxyCount!=1){
-						responseResult.append(",");
+				buffer.append(JSON_PROXIES_START).append(JSON_QUOTE);
+				for(int i = 0; i < proxies.size(); i++){
+					if(i > 0){
+						buffer.append(JSON_QUOTE_COMMA_QUOTE);
 					}
-					responseResult.append("\"").append(proxy).append("\"");
-					proxyCount++;
+					buffer.appendJson(proxies.get(i));
 				}
-		        responseResult.append("]");
+				buffer.append(JSON_ARRAY_END);
 			}
-			responseResult.append("}");
+			buffer.append(JSON_OBJECT_END);
 		}else{
-			responseResult.append("\"authenticationFailure\" : {");
-			responseResult.append("\"code\" : \"").append(this.code).append("\"");
-			responseResult.append(",\"description\" : \"").append(this.description).append("\"");
-			responseResult.append("}");
+			writeJsonFailure(buffer);
 		}
-		responseResult.append("}");
-		responseResult.append("}");
-		return responseResult.toString();
+		buffer.append(JSON_SERVICE_RESPONSE_END);
+	}
+	
+	protected void writeJsonFailure(CasResponseBuffer buffer) {
+		buffer.append(JSON_FAILURE_START).appendJson(code)
+			.append(JSON_DESCRIPTION_START).appendJson(description)
+			.append(JSON_QUOTE_OBJECT_END);
 	}
 	
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authz.cas.endpoint.ticket;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+
+/**
+ * AbstractTicket fields schema,Authentication and AppsCasDetails by Java serialization.
+ *
+ * @param <T> ticket type
+ */
+public abstract class AbstractTicketRedisValueSchema<T extends AbstractTicket> extends RedisValueSchema<T> {
+
+    protected AbstractTicketRedisValueSchema(int schemaId, Class<T> type) {
+        super(schemaId, type);
+    }
+
+    @Override
+    public void write(DataOutput out, T ticket) throws IOException {
+        writeString(out, ticket.id);
+        writeZonedDateTime(out, ticket.creationTime);
+        writeZonedDateTime(out, ticket.lastTimeUsed);
+        writeZonedDateTime(out, ticket.previousLastTimeUsed);
+        out.writeInt(ticket.countOfUses);
+        writeObject(out, ticket.authentication);
+        writeObject(out, ticket.casDetails);
+    }
+
+    @Override
+    public T read(DataInput in) throws IOException {
+        T ticket = newTicket();
+        ticket.id = readString(in);
+        ticket.creationTime = readZonedDateTime(in);
+        ticket.lastTimeUsed = readZonedDateTime(in);
+        ticket.previousLastTimeUsed = readZonedDateTime(in);
+        ticket.countOfUses = in.readInt();
+        ticket.authentication = readObject(in);
+        ticket.casDetails = readObject(in);
+        return ticket;
+    }
+
+    protected abstract T newTicket();
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.cas.endpoint.ticket.pgt;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.maxkey.authz.cas.endpoint.ticket.CasConstants;
+import org.maxkey.web.HttpClientPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * CAS代理回调(pgtUrl)异步发送pgtId及pgtIou.
+ * <p>
+ * 票据验证时先发起回调,再生成验证响应,两者并行;回调返回HTTP 200才确认PGT已送达,
+ * 否则验证响应不包含PGTIOU,并从票据存储中删除PGT及PGTIOU.请求通过连接池按回调地址(host:port)复用连接,
+ * 连接及读取超时较短,等待回调的总时间不超过timeout.
+ * </p>
+ * <pre>
+ * maxkey.cas.pgt.callback   回调耗时,按destination及outcome区分confirmed/rejected/error,
+ *                           destination超出连接池标签上限时合并为other
+ * </pre>
+ */
+public class ProxyGrantingTicketCallback implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(ProxyGrantingTicketCallback.class);
+
+    public static final String METRIC_PREFIX = "maxkey.cas.pgt.callback";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 2000;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT = 3000;
+
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    final RequestConfig requestConfig;
+
+    final long timeout;
+
+    volatile MeterRegistry registry;
+
+    //destination , outcome -> timer
+    final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    public ProxyGrantingTicketCallback() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    public ProxyGrantingTicketCallback(int connectTimeout, int socketTimeout, long timeout) {
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .build();
+        this.timeout = timeout;
+    }
+
+    /**
+     * 发起回调,不等待结果
+     * @param pgtUrl proxy callback url
+     * @param pgtId proxy granting ticket
+     * @param pgtIou proxy granting ticket IOU
+     * @return true when the callback answered HTTP 200
+     */
+    public CompletableFuture<Boolean> deliver(String pgtUrl, String pgtId, String pgtIou) {
+        long startTime = System.nanoTime();
+        HttpPost httpPost;
+        String destination;
+        try {
+            httpPost = new HttpPost(callbackUrl(pgtUrl, pgtId, pgtIou));
+            destination = HttpClientPool.destination(httpPost.getURI());
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            _logger.warn("invalid proxy callback url {}", pgtUrl);
+            return CompletableFuture.completedFuture(false);
+        }
+        httpPost.setConfig(requestConfig);
+        httpPost.addHeader("Content-Type", "application/x-www-form-urlencoded");
+
+        return HttpClientPool.getInstance()
+                .executeAsync(httpPost, (statusCode, content) -> statusCode)
+                .handle((statusCode, ex) -> {
+                    boolean confirmed = ex == null && statusCode == 200;
+                    record(destination, ex != null ? "error" : (confirmed ? "confirmed" : "rejected"), startTime);
+                    if (!confirmed) {
+                        _logger.warn("proxy callback {} not confirmed , status {} , error {}",
+                                pgtUrl, statusCode, ex == null ? null : ex.getMessage());
+                    }
+                    return confirmed;
+                });
+    }
+
+    /**
+     * 等待回调结果,超时视为未确认
+     * @param delivery returned by deliver
+     * @return true when the pgt was delivered
+     */
+    public boolean await(CompletableFuture<Boolean> delivery) {
+        try {
+            return delivery.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //the request itself ends by socket timeout and is recorded as error
+            _logger.warn("proxy callback not confirmed in {}ms", timeout);
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    static String callbackUrl(String pgtUrl, String pgtId, String pgtIou) throws UnsupportedEncodingException {
+        StringBuilder callbackUrl = new StringBuilder(pgtUrl);
+        callbackUrl.append(pgtUrl.indexOf('?') == -1 ? '?' : '&')
+            .append(CasConstants.PARAMETER.PROXY_GRANTING_TICKET_ID).append('=').append(URLEncoder.encode(pgtId, "UTF-8"))
+            .append('&')
+            .append(CasConstants.PARAMETER.PROXY_GRANTING_TICKET_IOU).append('=').append(URLEncoder.encode(pgtIou, "UTF-8"));
+        return callbackUrl.toString();
+    }
+
+    void record(String destination, String outcome, long startTime) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry == null) {
+            return;
+        }
+        String tag = HttpClientPool.getInstance().tagDestination(destination);
+        timers.computeIfAbsent(tag + ' ' + outcome,
+                key -> Timer.builder(METRIC_PREFIX)
+                        .description("CAS proxy granting ticket callback latency")
+                        .tag("destination", tag)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry))
+            .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+}
@@ -65,8 +65,7 @@ public class RedisProxyGrantingTicketServices extends RandomServiceTicketService
 	@Override
 	public Ticket remove(String ticketId) {
 		RedisConnection conn=connectionFactory.getConnection();
-		Ticket ticket = conn.getObject(PREFIX+ticketId);
-		conn.delete(PREFIX+ticketId);
+		Ticket ticket = conn.getDelObject(PREFIX+ticketId);
 		conn.close();
 		return ticket;
 	}
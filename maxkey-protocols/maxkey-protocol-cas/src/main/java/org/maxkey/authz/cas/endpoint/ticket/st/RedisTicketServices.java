@@ -66,8 +66,7 @@ public class RedisTicketServices extends RandomServiceTicketServices {
 	@Override
 	public Ticket remove(String ticketId) {
 		RedisConnection conn=connectionFactory.getConnection();
-		Ticket ticket = conn.getObject(prefixTicketId(ticketId));
-		conn.delete(prefixTicketId(ticketId));
+		Ticket ticket = conn.getDelObject(prefixTicketId(ticketId));
 		conn.close();
 		return ticket;
 	}
@@ -18,6 +18,7 @@
 package org.maxkey.autoconfigure;
 
 import org.maxkey.authz.cas.endpoint.ticket.TicketServices;
+import org.maxkey.authz.cas.endpoint.ticket.pgt.ProxyGrantingTicketCallback;
 import org.maxkey.authz.cas.endpoint.ticket.pgt.ProxyGrantingTicketServicesFactory;
 import org.maxkey.authz.cas.endpoint.ticket.st.TicketServicesFactory;
 import org.maxkey.authz.cas.endpoint.ticket.tgt.TicketGrantingTicketServicesFactory;
@@ -80,6 +81,18 @@ public class CasAutoConfiguration implements InitializingBean {
         return new ProxyGrantingTicketServicesFactory().getService(persistence, jdbcTemplate, redisConnFactory);
     }
     
+    /**
+     * 代理回调(pgtUrl)异步发送,与验证响应并行.
+     */
+    @Bean(name = "proxyGrantingTicketCallback")
+    public ProxyGrantingTicketCallback proxyGrantingTicketCallback(
+            @Value("${maxkey.cas.pgt.callback.connect.timeout:2000}") int connectTimeout,
+            @Value("${maxkey.cas.pgt.callback.socket.timeout:3000}") int socketTimeout,
+            @Value("${maxkey.cas.pgt.callback.timeout:5000}") long timeout) {
+        _logger.debug("init proxyGrantingTicketCallback , timeout {}ms", timeout);
+        return new ProxyGrantingTicketCallback(connectTimeout, socketTimeout, timeout);
+    }
+    
     
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -0,0 +1,87 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.cas.endpoint.response;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.maxkey.web.HttpResponseConstants;
+
+public class CasResponseBufferTest {
+
+	@Test
+	public void escape() {
+		assertEquals("a&lt;b&gt;&amp;&quot;c&apos;\n研发😀",
+				CasResponseBuffer.get().appendXml("a<b>&\"c'\u0001\n研发😀").toString());
+		assertEquals("a<b>\\\"c\\\\\\n\\u0001\\u2028研发😀",
+				CasResponseBuffer.get().appendJson("a<b>\"c\\\n\u0001\u2028研发😀").toString());
+		assertEquals("", CasResponseBuffer.get().appendXml(null).appendJson(null).toString());
+	}
+
+	@Test
+	public void encode() {
+		String value = "é研发😀\ud800x";
+		byte[] expected = value.replace('\ud800', '?').getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(expected, CasResponseBuffer.get().append(value).toString().getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			large.append("研发");
+		}
+		assertEquals(large.toString(), CasResponseBuffer.get().append(large.toString()).toString());
+		assertEquals(0, CasResponseBuffer.get().length());
+	}
+
+	@Test
+	public void serviceResponse() throws Exception {
+		ServiceResponseBuilder xml = new ServiceResponseBuilder();
+		xml.success().setUser("admin").setAttribute("department", "R&D <1>");
+		assertEquals("<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">"
+				+ "<cas:authenticationSuccess><cas:user>admin</cas:user>"
+				+ "<cas:attributes><cas:department>R&amp;D &lt;1&gt;</cas:department>\r\n</cas:attributes>"
+				+ "</cas:authenticationSuccess></cas:serviceResponse>", xml.serviceResponseBuilder());
+
+		ServiceResponseBuilder json = new ServiceResponseBuilder();
+		json.success().setUser("admin")
+			.setAttribute("roles", "A").setAttribute("roles", "B")
+			.setFormat(HttpResponseConstants.FORMAT_TYPE.JSON);
+		assertEquals("{\"serviceResponse\" :{\"authenticationSuccess\" : {\"user\" : \"admin\""
+				+ ",\"attributes\" : {\"roles\":[\"A\",\"B\"]}}}}", json.serviceResponseBuilder());
+
+		ServiceResponseBuilder empty = new ServiceResponseBuilder();
+		empty.success().setUser("admin").setFormat(HttpResponseConstants.FORMAT_TYPE.JSON);
+		empty.casAttributes.put("groups", new ArrayList<String>());
+		assertEquals("{\"serviceResponse\" :{\"authenticationSuccess\" : {\"user\" : \"admin\""
+				+ ",\"attributes\" : {\"groups\":[]}}}}", empty.serviceResponseBuilder());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		json.writeTo(out);
+		assertEquals(json.serviceResponseBuilder(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		ProxyServiceResponseBuilder failure = new ProxyServiceResponseBuilder();
+		failure.failure().setCode("INVALID_TICKET").setDescription("Ticket \"PT-1\" not recognized");
+		assertEquals("<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">"
+				+ "<cas:proxyFailure code=\"INVALID_TICKET\">Ticket &quot;PT-1&quot; not recognized</cas:proxyFailure>"
+				+ "</cas:serviceResponse>", failure.serviceResponseBuilder());
+	}
+}
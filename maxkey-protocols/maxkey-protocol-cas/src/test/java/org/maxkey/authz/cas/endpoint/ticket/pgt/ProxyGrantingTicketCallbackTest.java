@@ -0,0 +1,91 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.cas.endpoint.ticket.pgt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class ProxyGrantingTicketCallbackTest {
+
+	HttpServer httpServer;
+
+	String receivedQuery;
+
+	@Before
+	public void startServer() throws Exception {
+		httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		httpServer.createContext("/proxyCallback", exchange -> {
+			receivedQuery = exchange.getRequestURI().getQuery();
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		httpServer.createContext("/missing", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		httpServer.start();
+	}
+
+	@After
+	public void stopServer() {
+		httpServer.stop(0);
+	}
+
+	@Test
+	public void callbackUrl() throws Exception {
+		assertEquals("https://app.maxkey.top/proxyCallback?pgtId=PGT-1&pgtIou=PGTIOU-1",
+				ProxyGrantingTicketCallback.callbackUrl("https://app.maxkey.top/proxyCallback", "PGT-1", "PGTIOU-1"));
+		assertEquals("https://app.maxkey.top/proxyCallback?app=1&pgtId=PGT-1&pgtIou=PGTIOU-1",
+				ProxyGrantingTicketCallback.callbackUrl("https://app.maxkey.top/proxyCallback?app=1", "PGT-1", "PGTIOU-1"));
+	}
+
+	@Test
+	public void confirmed() {
+		ProxyGrantingTicketCallback callback = new ProxyGrantingTicketCallback();
+		assertTrue(callback.await(callback.deliver(baseUrl() + "/proxyCallback", "PGT-1", "PGTIOU-1")));
+		assertEquals("pgtId=PGT-1&pgtIou=PGTIOU-1", receivedQuery);
+	}
+
+	@Test
+	public void notConfirmed() throws Exception {
+		ProxyGrantingTicketCallback callback = new ProxyGrantingTicketCallback(1000, 1000, 3000);
+		assertFalse(callback.await(callback.deliver(baseUrl() + "/missing", "PGT-1", "PGTIOU-1")));
+
+		int port;
+		//closed port , connection refused
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			port = serverSocket.getLocalPort();
+		}
+		assertFalse(callback.await(callback.deliver("http://127.0.0.1:" + port + "/proxyCallback", "PGT-1", "PGTIOU-1")));
+		assertFalse(callback.await(callback.deliver("http://app maxkey/proxyCallback", "PGT-1", "PGTIOU-1")));
+	}
+
+	String baseUrl() {
+		return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+	}
+}
@@ -23,7 +23,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
@@ -38,6 +37,7 @@ import org.maxkey.authz.oauth2.provider.NoSuchClientException;
 import org.maxkey.crypto.password.NoOpPasswordEncoder;
 import org.maxkey.entity.apps.oauth2.provider.ClientDetails;
 import org.maxkey.entity.apps.oauth2.provider.client.BaseClientDetails;
+import org.maxkey.persistence.repository.AppsConfigCache;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -48,8 +48,6 @@ import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.StringUtils;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 
 /**
  * Basic, JDBC implementation of the client details service.
@@ -58,11 +56,9 @@ public class JdbcClientDetailsService implements ClientDetailsService, ClientReg
 
     private static final Log logger = LogFactory.getLog(JdbcClientDetailsService.class);
     
-    protected final static  Cache<String, ClientDetails> detailsCache = 
-            Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.MINUTES)
-                .maximumSize(200000)
-                .build();
+    protected AppsConfigCache appsConfigCache;
+
+    protected AppsConfigCache.Region<ClientDetails> detailsCache;
 
     private JsonMapper mapper = createJsonMapper();
 
@@ -116,6 +112,24 @@ public class JdbcClientDetailsService implements ClientDetailsService, ClientReg
         Assert.notNull(dataSource, "DataSource required");
         this.jdbcTemplate = new JdbcTemplate(dataSource);
         this.listFactory = new DefaultJdbcListFactory(new NamedParameterJdbcTemplate(jdbcTemplate));
+        setAppsConfigCache(new AppsConfigCache());
+    }
+
+    /**
+     * 使用共享的应用配置缓存,配置变更时集群内失效
+     * @param appsConfigCache
+     */
+    public void setAppsConfigCache(AppsConfigCache appsConfigCache) {
+        this.appsConfigCache = appsConfigCache;
+        this.detailsCache = appsConfigCache.region("oauth2ClientDetails", this::selectClientDetails, null);
+    }
+
+    protected ClientDetails selectClientDetails(String clientId) {
+        try {
+            return jdbcTemplate.queryForObject(selectClientDetailsSql, new ClientDetailsRowMapper(), clientId);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
     }
 
     /**
@@ -127,26 +141,8 @@ public class JdbcClientDetailsService implements ClientDetailsService, ClientReg
 
     public ClientDetails loadClientByClientId(String clientId,boolean cached) {
         // cache in memory
-    	ClientDetails details = null;
-    	try {
-	        if(cached) {
-	        	details = detailsCache.getIfPresent(clientId);
-	        	if(details == null) {
-	        		details = jdbcTemplate.queryForObject(
-	        							selectClientDetailsSql, 
-	        							new ClientDetailsRowMapper(), 
-	        							clientId
-	        						);
-	        		detailsCache.put(clientId, details);
-	        	}
-	        }else {
-	        	details = jdbcTemplate.queryForObject(
-	        							selectClientDetailsSql, 
-	        							new ClientDetailsRowMapper(), 
-	        							clientId
-	        						);
-	        }
-    	} catch (EmptyResultDataAccessException e) {
+        ClientDetails details = cached ? detailsCache.get(clientId) : detailsCache.load(clientId);
+        if (details == null) {
             throw new NoSuchClientException("No client with requested id: " + clientId);
         }
         return details;
@@ -165,7 +161,7 @@ public class JdbcClientDetailsService implements ClientDetailsService, ClientReg
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientDetails.getClientId());
         }
-        detailsCache.invalidate(clientDetails.getClientId());
+        appsConfigCache.invalidate(clientDetails.getClientId());
     }
 
     public void updateClientSecret(String clientId, String secret) throws NoSuchClientException {
@@ -173,6 +169,7 @@ public class JdbcClientDetailsService implements ClientDetailsService, ClientReg
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
+        appsConfigCache.invalidate(clientId);
     }
 
     public void removeClientDetails(String clientId) throws NoSuchClientException {
@@ -180,6 +177,7 @@ public class JdbcClientDetailsService implements ClientDetailsService, ClientReg
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
+        appsConfigCache.invalidate(clientId);
     }
 
     public List<ClientDetails> listClientDetails() {
@@ -0,0 +1,49 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authz.oauth2.provider.token.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.maxkey.authz.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+
+/**
+ * DefaultExpiringOAuth2RefreshToken schema.
+ *
+ */
+public class ExpiringOAuth2RefreshTokenRedisValueSchema extends RedisValueSchema<DefaultExpiringOAuth2RefreshToken> {
+
+    public static final int SCHEMA_ID = 13;
+
+    public ExpiringOAuth2RefreshTokenRedisValueSchema() {
+        super(SCHEMA_ID, DefaultExpiringOAuth2RefreshToken.class);
+    }
+
+    @Override
+    public void write(DataOutput out, DefaultExpiringOAuth2RefreshToken refreshToken) throws IOException {
+        writeString(out, refreshToken.getValue());
+        writeDate(out, refreshToken.getExpiration());
+    }
+
+    @Override
+    public DefaultExpiringOAuth2RefreshToken read(DataInput in) throws IOException {
+        String value = readString(in);
+        return new DefaultExpiringOAuth2RefreshToken(value, readDate(in));
+    }
+}
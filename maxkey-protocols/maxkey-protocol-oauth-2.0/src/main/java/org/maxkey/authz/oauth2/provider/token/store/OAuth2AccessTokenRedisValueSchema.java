@@ -0,0 +1,105 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authz.oauth2.provider.token.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+import org.maxkey.authz.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.maxkey.authz.oauth2.common.DefaultOAuth2AccessToken;
+import org.maxkey.authz.oauth2.common.DefaultOAuth2RefreshToken;
+import org.maxkey.authz.oauth2.common.OAuth2RefreshToken;
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+
+/**
+ * DefaultOAuth2AccessToken schema,tokens carrying an OAuth2Exception use Java serialization.
+ *
+ */
+public class OAuth2AccessTokenRedisValueSchema extends RedisValueSchema<DefaultOAuth2AccessToken> {
+
+    public static final int SCHEMA_ID = 11;
+
+    static final byte REFRESH_NONE = 0;
+
+    static final byte REFRESH_DEFAULT = 1;
+
+    static final byte REFRESH_EXPIRING = 2;
+
+    static final byte REFRESH_OBJECT = 3;
+
+    public OAuth2AccessTokenRedisValueSchema() {
+        super(SCHEMA_ID, DefaultOAuth2AccessToken.class);
+    }
+
+    @Override
+    public boolean supports(DefaultOAuth2AccessToken accessToken) {
+        return accessToken.getOAuth2Exception() == null;
+    }
+
+    @Override
+    public void write(DataOutput out, DefaultOAuth2AccessToken accessToken) throws IOException {
+        writeString(out, accessToken.getValue());
+        writeDate(out, accessToken.getExpiration());
+        writeString(out, accessToken.getTokenType());
+        writeStrings(out, accessToken.getScope());
+        Map<String, Object> additionalInformation = accessToken.getAdditionalInformation();
+        writeObject(out, additionalInformation == null || additionalInformation.isEmpty() ? null : additionalInformation);
+        
+        OAuth2RefreshToken refreshToken = accessToken.getRefreshToken();
+        if (refreshToken == null) {
+            out.writeByte(REFRESH_NONE);
+        } else if (refreshToken.getClass() == DefaultOAuth2RefreshToken.class) {
+            out.writeByte(REFRESH_DEFAULT);
+            writeString(out, refreshToken.getValue());
+        } else if (refreshToken.getClass() == DefaultExpiringOAuth2RefreshToken.class) {
+            out.writeByte(REFRESH_EXPIRING);
+            writeString(out, refreshToken.getValue());
+            writeDate(out, ((DefaultExpiringOAuth2RefreshToken) refreshToken).getExpiration());
+        } else {
+            out.writeByte(REFRESH_OBJECT);
+            writeObject(out, refreshToken);
+        }
+    }
+
+    @Override
+    public DefaultOAuth2AccessToken read(DataInput in) throws IOException {
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(readString(in));
+        accessToken.setExpiration(readDate(in));
+        accessToken.setTokenType(readString(in));
+        accessToken.setScope(readStringSet(in));
+        Map<String, Object> additionalInformation = readObject(in);
+        if (additionalInformation != null) {
+            accessToken.setAdditionalInformation(additionalInformation);
+        }
+        
+        byte refreshType = in.readByte();
+        if (refreshType == REFRESH_DEFAULT) {
+            accessToken.setRefreshToken(new DefaultOAuth2RefreshToken(readString(in)));
+        } else if (refreshType == REFRESH_EXPIRING) {
+            String value = readString(in);
+            Date expiration = readDate(in);
+            accessToken.setRefreshToken(new DefaultExpiringOAuth2RefreshToken(value, expiration));
+        } else if (refreshType == REFRESH_OBJECT) {
+            OAuth2RefreshToken refreshToken = readObject(in);
+            accessToken.setRefreshToken(refreshToken);
+        }
+        return accessToken;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authz.oauth2.provider.token.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.maxkey.authz.oauth2.provider.OAuth2Authentication;
+import org.maxkey.authz.oauth2.provider.OAuth2Request;
+import org.maxkey.authz.oauth2.provider.TokenRequest;
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * OAuth2Authentication schema,OAuth2Request fields are written one by one,
+ * user Authentication and details by Java serialization.
+ *
+ */
+public class OAuth2AuthenticationRedisValueSchema extends RedisValueSchema<OAuth2Authentication> {
+
+    public static final int SCHEMA_ID = 10;
+
+    static final byte AUTHORITIES_SIMPLE = 1;
+
+    static final byte AUTHORITIES_OBJECT = 2;
+
+    public OAuth2AuthenticationRedisValueSchema() {
+        super(SCHEMA_ID, OAuth2Authentication.class);
+    }
+
+    @Override
+    public void write(DataOutput out, OAuth2Authentication authentication) throws IOException {
+        OAuth2Request request = authentication.getOAuth2Request();
+        writeStringMap(out, request.getRequestParameters());
+        writeString(out, request.getClientId());
+        writeAuthorities(out, request.getAuthorities());
+        out.writeBoolean(request.isApproved());
+        writeStrings(out, request.getScope());
+        writeStrings(out, request.getResourceIds());
+        writeString(out, request.getRedirectUri());
+        writeStrings(out, request.getResponseTypes());
+        writeString(out, request.getCodeChallenge());
+        writeString(out, request.getCodeChallengeMethod());
+        Map<String, Serializable> extensions = request.getExtensions();
+        writeObject(out, extensions == null || extensions.isEmpty() ? null : extensions);
+        writeObject(out, request.getRefreshTokenRequest());
+        
+        writeObject(out, authentication.getUserAuthentication());
+        writeObject(out, authentication.getDetails());
+    }
+
+    @Override
+    public OAuth2Authentication read(DataInput in) throws IOException {
+        Map<String, String> requestParameters = readStringMap(in);
+        String clientId = readString(in);
+        Collection<? extends GrantedAuthority> authorities = readAuthorities(in);
+        boolean approved = in.readBoolean();
+        OAuth2Request request = new OAuth2Request(
+                requestParameters,
+                clientId, 
+                authorities, 
+                approved, 
+                readStringSet(in), 
+                readStringSet(in), 
+                readString(in), 
+                readStringSet(in), 
+                readString(in),
+                readString(in), 
+                readObject(in));
+        TokenRequest refresh = readObject(in);
+        if (refresh != null) {
+            request = request.refresh(refresh);
+        }
+        
+        Authentication userAuthentication = readObject(in);
+        OAuth2Authentication authentication = new OAuth2Authentication(request, userAuthentication);
+        authentication.setDetails(readObject(in));
+        return authentication;
+    }
+
+    static void writeAuthorities(DataOutput out, Collection<? extends GrantedAuthority> authorities) throws IOException {
+        boolean simple = authorities != null;
+        if (simple) {
+            for (GrantedAuthority authority : authorities) {
+                if (authority.getClass() != SimpleGrantedAuthority.class) {
+                    simple = false;
+                    break;
+                }
+            }
+        }
+        if (simple) {
+            out.writeByte(AUTHORITIES_SIMPLE);
+            out.writeInt(authorities.size());
+            for (GrantedAuthority authority : authorities) {
+                writeString(out, authority.getAuthority());
+            }
+        } else {
+            out.writeByte(AUTHORITIES_OBJECT);
+            writeObject(out, authorities == null ? null : new ArrayList<GrantedAuthority>(authorities));
+        }
+    }
+
+    static Collection<? extends GrantedAuthority> readAuthorities(DataInput in) throws IOException {
+        if (in.readByte() == AUTHORITIES_SIMPLE) {
+            int size = in.readInt();
+            List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(size);
+            for (int i = 0; i < size; i++) {
+                authorities.add(new SimpleGrantedAuthority(readString(in)));
+            }
+            return authorities;
+        }
+        return readObject(in);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.maxkey.authz.oauth2.provider.token.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.maxkey.authz.oauth2.common.DefaultOAuth2RefreshToken;
+import org.maxkey.persistence.redis.codec.RedisValueSchema;
+
+/**
+ * DefaultOAuth2RefreshToken schema.
+ *
+ */
+public class OAuth2RefreshTokenRedisValueSchema extends RedisValueSchema<DefaultOAuth2RefreshToken> {
+
+    public static final int SCHEMA_ID = 12;
+
+    public OAuth2RefreshTokenRedisValueSchema() {
+        super(SCHEMA_ID, DefaultOAuth2RefreshToken.class);
+    }
+
+    @Override
+    public void write(DataOutput out, DefaultOAuth2RefreshToken refreshToken) throws IOException {
+        writeString(out, refreshToken.getValue());
+    }
+
+    @Override
+    public DefaultOAuth2RefreshToken read(DataInput in) throws IOException {
+        return new DefaultOAuth2RefreshToken(readString(in));
+    }
+}
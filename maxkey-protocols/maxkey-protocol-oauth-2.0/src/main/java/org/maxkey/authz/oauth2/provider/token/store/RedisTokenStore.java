@@ -17,9 +17,11 @@
 
 package org.maxkey.authz.oauth2.provider.token.store;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.maxkey.authz.oauth2.common.ExpiringOAuth2RefreshToken;
@@ -31,35 +33,137 @@ import org.maxkey.authz.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
 import org.maxkey.authz.oauth2.provider.token.TokenStore;
 import org.maxkey.persistence.redis.RedisConnection;
 import org.maxkey.persistence.redis.RedisConnectionFactory;
-import org.maxkey.util.ObjectTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
-import java.util.Date;
+import redis.clients.jedis.util.SafeEncoder;
 
 /**
+ * Redis TokenStore.
+ * <p>
+ * access token和authentication各序列化存储一次,AUTH_TO_ACCESS及refresh映射只保存token值.
+ * client和client+用户的token索引为sorted set,member为token值,score为过期时间(毫秒),
+ * 写入时清除已过期的member并按maxIndexSize截断最早过期的member,索引随最晚过期的member过期.
+ * </p>
+ * <p>
+ * 写入和删除均由一个lua脚本原子完成,脚本访问的key全部通过KEYS传入;
+ * 删除时先读取meta得到索引key,脚本内校验meta未变化后删除,变化时重试.
+ * 按client/用户查询支持分页,只反序列化返回的token.
+ * </p>
  * @author efenderbosch
  */
 public class RedisTokenStore implements TokenStore {
 	static final Logger _logger = LoggerFactory.getLogger(RedisTokenStore.class);
 	
+	public static final int DEFAULT_MAX_INDEX_SIZE = 10000;
+	
 	private static final String PREFIX                 = "REDIS_OAUTH_V20_";
 	
 	private static final String ACCESS                 = PREFIX + "ACCESS_";
+	private static final String ACCESS_META            = PREFIX + "ACCESS_META_";
 	private static final String AUTH_TO_ACCESS         = PREFIX + "AUTH_TO_ACCESS_";
 	private static final String AUTH                   = PREFIX + "AUTH_";
 	private static final String REFRESH_AUTH           = PREFIX + "REFRESH_AUTH_";
 	private static final String ACCESS_TO_REFRESH      = PREFIX + "ACCESS_TO_REFRESH_";
 	private static final String REFRESH                = PREFIX + "REFRESH_";
 	private static final String REFRESH_TO_ACCESS      = PREFIX + "REFRESH_TO_ACCESS_";
-	private static final String CLIENT_ID_TO_ACCESS    = PREFIX + "CLIENT_ID_TO_ACCESS_";
-	private static final String UNAME_TO_ACCESS        = PREFIX + "UNAME_TO_ACCESS_";
+	//sorted set index , not compatible with the former list keys CLIENT_ID_TO_ACCESS_/UNAME_TO_ACCESS_
+	private static final String CLIENT_ID_INDEX        = PREFIX + "CLIENT_ID_INDEX_";
+	private static final String UNAME_INDEX            = PREFIX + "UNAME_INDEX_";
+	
+	/**
+	 * index expires with its latest expiring member , persist when any member never expires
+	 */
+	private static final String EXPIRE_INDEX_FUNCTION = 
+			  "local function expireIndex(key) "
+			+ "  local latest = redis.call('ZRANGE', key, -1, -1, 'WITHSCORES') "
+			+ "  if latest[2] == nil then return end "
+			+ "  local score = tonumber(latest[2]) "
+			+ "  if score >= 9.2e18 then redis.call('PERSIST', key) "
+			+ "  else redis.call('PEXPIREAT', key, math.floor(score)) end "
+			+ "end ";
+	
+	/**
+	 * meta changed between HMGET and the remove script
+	 */
+	private static final long META_CHANGED = -1L;
+	
+	private static final int MAX_REMOVE_ATTEMPTS = 3;
+	
+	/**
+	 * KEYS access , auth , authToAccess , meta , clientIndex , unameIndex , accessToRefresh , refreshToAccess
+	 * ARGV token , tokenBytes , authBytes , ttl seconds , expire millis , now millis , maxIndexSize , 
+	 * refresh token , refresh ttl seconds
+	 */
+	private static final String STORE_ACCESS_SCRIPT = EXPIRE_INDEX_FUNCTION
+			+ "local token = ARGV[1] "
+			+ "local ttl = tonumber(ARGV[4]) "
+			+ "redis.call('SET', KEYS[1], ARGV[2]) "
+			+ "redis.call('SET', KEYS[2], ARGV[3]) "
+			+ "redis.call('SET', KEYS[3], token) "
+			+ "redis.call('HMSET', KEYS[4], 'authToAccess', KEYS[3], 'client', KEYS[5]) "
+			+ "local indexes = { KEYS[5] } "
+			+ "if KEYS[6] ~= KEYS[5] then "
+			+ "  redis.call('HSET', KEYS[4], 'uname', KEYS[6]) "
+			+ "  indexes[2] = KEYS[6] "
+			+ "end "
+			+ "for _, index in ipairs(indexes) do "
+			+ "  redis.call('ZADD', index, ARGV[5], token) "
+			+ "  redis.call('ZREMRANGEBYSCORE', index, '-inf', '(' .. ARGV[6]) "
+			+ "  local overflow = redis.call('ZCARD', index) - tonumber(ARGV[7]) "
+			+ "  if overflow > 0 then redis.call('ZREMRANGEBYRANK', index, 0, overflow - 1) end "
+			+ "  expireIndex(index) "
+			+ "end "
+			+ "if ttl > 0 then "
+			+ "  for i = 1, 4 do redis.call('EXPIRE', KEYS[i], ttl) end "
+			+ "end "
+			+ "if ARGV[8] ~= '' then "
+			+ "  local refreshTtl = tonumber(ARGV[9]) "
+			+ "  redis.call('SET', KEYS[8], token) "
+			+ "  redis.call('SET', KEYS[7], ARGV[8]) "
+			+ "  if refreshTtl > 0 then "
+			+ "    redis.call('EXPIRE', KEYS[8], refreshTtl) "
+			+ "    redis.call('EXPIRE', KEYS[7], refreshTtl) "
+			+ "  end "
+			+ "end "
+			+ "return 1";
+	
+	/**
+	 * remove access token , authentication , index members and meta
+	 * KEYS access , auth , accessToRefresh , meta , authToAccess , clientIndex , unameIndex [, refreshToAccess]
+	 * index keys missing from meta are passed as the meta key
+	 * ARGV token
+	 * return META_CHANGED when the index keys in meta differ from KEYS
+	 */
+	private static final String REMOVE_ACCESS_SCRIPT = 
+			  "local token = ARGV[1] "
+			+ "local index = redis.call('HMGET', KEYS[4], 'authToAccess', 'client', 'uname') "
+			+ "for i = 1, 3 do "
+			+ "  if (index[i] or KEYS[4]) ~= KEYS[i + 4] then return " + META_CHANGED + " end "
+			+ "end "
+			+ "if KEYS[8] then redis.call('DEL', KEYS[8]) end "
+			+ "if index[1] and redis.call('GET', KEYS[5]) == token then redis.call('DEL', KEYS[5]) end "
+			+ "if index[2] then redis.call('ZREM', KEYS[6], token) end "
+			+ "if index[3] then redis.call('ZREM', KEYS[7], token) end "
+			+ "return redis.call('DEL', KEYS[1], KEYS[2], KEYS[3], KEYS[4])";
+	
+	/**
+	 * KEYS refresh , refreshAuth , ARGV refreshBytes , authBytes , ttl seconds
+	 */
+	private static final String STORE_REFRESH_SCRIPT = 
+			  "local ttl = tonumber(ARGV[3]) "
+			+ "redis.call('SET', KEYS[1], ARGV[1]) "
+			+ "redis.call('SET', KEYS[2], ARGV[2]) "
+			+ "if ttl > 0 then "
+			+ "  redis.call('EXPIRE', KEYS[1], ttl) "
+			+ "  redis.call('EXPIRE', KEYS[2], ttl) "
+			+ "end "
+			+ "return 1";
 
 	private final RedisConnectionFactory connectionFactory;
 	private AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
 	
-	
+	private int maxIndexSize = DEFAULT_MAX_INDEX_SIZE;
 
 	public RedisTokenStore(RedisConnectionFactory connectionFactory) {
 		this.connectionFactory = connectionFactory;
@@ -69,6 +173,14 @@ public class RedisTokenStore implements TokenStore {
 		this.authenticationKeyGenerator = authenticationKeyGenerator;
 	}
 
+	/**
+	 * max tokens in each client or client+user index , the earliest expiring are dropped first
+	 * @param maxIndexSize
+	 */
+	public void setMaxIndexSize(int maxIndexSize) {
+		this.maxIndexSize = maxIndexSize;
+	}
+
 	private RedisConnection getConnection() {
 		return connectionFactory.getConnection();
 	}
@@ -79,7 +191,11 @@ public class RedisTokenStore implements TokenStore {
 		String serializedKey = (AUTH_TO_ACCESS + key);
 		RedisConnection conn = getConnection();
 		try {
-			OAuth2AccessToken accessToken =conn.getObject(serializedKey);
+			String tokenValue = conn.get(serializedKey);
+			if (tokenValue == null) {
+				return null;
+			}
+			OAuth2AccessToken accessToken = conn.getObject(ACCESS + tokenValue);
 			if (accessToken != null
 					&& !key.equals(authenticationKeyGenerator.extractKey(readAuthentication(accessToken.getValue())))) {
 				// Keep the stores consistent (maybe the same user is
@@ -130,54 +246,53 @@ public class RedisTokenStore implements TokenStore {
 		String accessKey = (ACCESS + token.getValue());
 		String authKey = (AUTH + token.getValue());
 		String authToAccessKey = (AUTH_TO_ACCESS + authenticationKeyGenerator.extractKey(authentication));
-		String approvalKey = (UNAME_TO_ACCESS + getApprovalKey(authentication));
-		String clientId = (CLIENT_ID_TO_ACCESS + authentication.getOAuth2Request().getClientId());
+		String clientIndexKey = (CLIENT_ID_INDEX + authentication.getOAuth2Request().getClientId());
+		//client only token is not indexed by user
+		String unameIndexKey = authentication.isClientOnly() ? 
+				clientIndexKey : (UNAME_INDEX + getApprovalKey(authentication));
 		_logger.trace("accessKey " + accessKey);
 		_logger.trace("authKey " + authKey);
 		_logger.trace("authToAccessKey " + authToAccessKey);
-		_logger.trace("approvalKey " + approvalKey);
-		_logger.trace("clientId " + clientId);
+		_logger.trace("clientIndexKey " + clientIndexKey);
+		_logger.trace("unameIndexKey " + unameIndexKey);
+		
+		long now = System.currentTimeMillis();
+		int seconds = 0;
+		long expiration = Long.MAX_VALUE;
+		if (token.getExpiration() != null) {
+			seconds = Math.max(token.getExpiresIn(), 1);
+			expiration = token.getExpiration().getTime();
+		}
+		
+		String refresh = "";
+		int refreshSeconds = 0;
+		OAuth2RefreshToken refreshToken = token.getRefreshToken();
+		if (refreshToken != null && refreshToken.getValue() != null) {
+			refresh = refreshToken.getValue();
+			refreshSeconds = expiresIn(refreshToken, now);
+		}
 
 		RedisConnection conn = getConnection();
 		try {
-			conn.openPipeline();
-			conn.setObject(accessKey, token);
-			conn.setObject(authKey, authentication);
-			conn.setObject(authToAccessKey, token);
-			if (!authentication.isClientOnly()) {
-				conn.rPush(approvalKey, token);
-			}
-			conn.rPush(clientId, token);
-			if (token.getExpiration() != null) {
-				int seconds = token.getExpiresIn();
-				conn.expire(accessKey, seconds);
-				conn.expire(authKey, seconds);
-				conn.expire(authToAccessKey, seconds);
-				conn.expire(clientId, seconds);
-				conn.expire(approvalKey, seconds);
-			}
-			OAuth2RefreshToken refreshToken = token.getRefreshToken();
-			if (refreshToken != null && refreshToken.getValue() != null) {
-				String refresh = (token.getRefreshToken().getValue());
-				String auth = (token.getValue());
-				String refreshToAccessKey = (REFRESH_TO_ACCESS + token.getRefreshToken().getValue());
-				_logger.trace("refreshToAccessKey " + refreshToAccessKey);
-				conn.set(refreshToAccessKey, auth);
-				String accessToRefreshKey = (ACCESS_TO_REFRESH + token.getValue());
-				_logger.trace("accessToRefreshKey " + accessToRefreshKey);
-				conn.set(accessToRefreshKey, refresh);
-				if (refreshToken instanceof ExpiringOAuth2RefreshToken) {
-					ExpiringOAuth2RefreshToken expiringRefreshToken = (ExpiringOAuth2RefreshToken) refreshToken;
-					Date expiration = expiringRefreshToken.getExpiration();
-					if (expiration != null) {
-						int seconds = Long.valueOf((expiration.getTime() - System.currentTimeMillis()) / 1000L)
-								.intValue();
-						conn.expire(refreshToAccessKey, seconds);
-						conn.expire(accessToRefreshKey, seconds);
-					}
-				}
-			}
-			conn.closePipeline();
+			conn.evalBinary(STORE_ACCESS_SCRIPT, 
+					encode(	accessKey, 
+							authKey, 
+							authToAccessKey, 
+							ACCESS_META + token.getValue(),
+							clientIndexKey, 
+							unameIndexKey, 
+							ACCESS_TO_REFRESH + token.getValue(), 
+							REFRESH_TO_ACCESS + refresh),
+					Arrays.asList(
+							SafeEncoder.encode(token.getValue()),
+							conn.encode(token),
+							conn.encode(authentication),
+							SafeEncoder.encode(String.valueOf(seconds)),
+							SafeEncoder.encode(String.valueOf(expiration)),
+							SafeEncoder.encode(String.valueOf(now)),
+							SafeEncoder.encode(String.valueOf(maxIndexSize)),
+							SafeEncoder.encode(refresh),
+							SafeEncoder.encode(String.valueOf(refreshSeconds))));
 		} finally {
 			conn.close();
 		}
@@ -192,6 +307,27 @@ public class RedisTokenStore implements TokenStore {
 	private static String getApprovalKey(String clientId, String userName) {
 		return clientId + (userName == null ? "" : "_" + userName);
 	}
+	
+	/**
+	 * @return seconds to expire , 0 when never expire
+	 */
+	private static int expiresIn(OAuth2RefreshToken refreshToken, long now) {
+		if (refreshToken instanceof ExpiringOAuth2RefreshToken) {
+			Date expiration = ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration();
+			if (expiration != null) {
+				return (int) Math.max((expiration.getTime() - now) / 1000L, 1L);
+			}
+		}
+		return 0;
+	}
+	
+	private static List<byte[]> encode(String... values) {
+		List<byte[]> encoded = new ArrayList<byte[]>(values.length);
+		for (String value : values) {
+			encoded.add(SafeEncoder.encode(value));
+		}
+		return encoded;
+	}
 
 	@Override
 	public void removeAccessToken(OAuth2AccessToken accessToken) {
@@ -211,60 +347,59 @@ public class RedisTokenStore implements TokenStore {
 	}
 
 	public void removeAccessToken(String tokenValue) {
-		String accessKey = (ACCESS + tokenValue);
-		String authKey = (AUTH + tokenValue);
-		String accessToRefreshKey = (ACCESS_TO_REFRESH + tokenValue);
+		//Don't remove the refresh token - it's up to the caller to do that
 		RedisConnection conn = getConnection();
 		try {
-			conn.openPipeline();
-			conn.getPipeline().get(accessKey);
-			conn.getPipeline().get(authKey);
-			conn.getPipeline().del(accessKey);
-			conn.getPipeline().del(accessToRefreshKey);
-			 //Don't remove the refresh token - it's up to the caller to do that
-			conn.getPipeline().del(authKey);
-			List<Object> results = conn.closePipeline();
-			String access = (String) results.get(0);
-			String auth = (String) results.get(1);
-			OAuth2Authentication authentication = ObjectTransformer.deserialize(auth);
-			if (authentication != null) {
-				String key = authenticationKeyGenerator.extractKey(authentication);
-				String authToAccessKey = (AUTH_TO_ACCESS + key);
-				String unameKey = (UNAME_TO_ACCESS + getApprovalKey(authentication));
-				String clientId = (CLIENT_ID_TO_ACCESS + authentication.getOAuth2Request().getClientId());
-				conn.openPipeline();
-				conn.delete(authToAccessKey);
-				conn.lRem(unameKey, 1, access);
-				conn.lRem(clientId, 1, access);
-				conn.delete(ACCESS + key);
-				conn.closePipeline();
-			}
+			removeAccessToken(conn, tokenValue, null);
 		} finally {
 			conn.close();
 		}
 	}
+	
+	/**
+	 * read index keys from meta , then remove in one script
+	 * @param conn
+	 * @param tokenValue
+	 * @param refreshToAccessKey deleted together , may be null
+	 */
+	private void removeAccessToken(RedisConnection conn, String tokenValue, String refreshToAccessKey) {
+		String metaKey = ACCESS_META + tokenValue;
+		for (int attempt = 0; attempt < MAX_REMOVE_ATTEMPTS; attempt++) {
+			List<String> index = conn.hmget(metaKey, "authToAccess", "client", "uname");
+			List<String> keys = new ArrayList<String>(Arrays.asList(
+					ACCESS + tokenValue,
+					AUTH + tokenValue,
+					ACCESS_TO_REFRESH + tokenValue,
+					metaKey));
+			for (String indexKey : index) {
+				keys.add(indexKey == null ? metaKey : indexKey);
+			}
+			if (refreshToAccessKey != null) {
+				keys.add(refreshToAccessKey);
+			}
+			Object result = conn.evalBinary(REMOVE_ACCESS_SCRIPT, 
+					encode(keys.toArray(new String[keys.size()])), 
+					encode(tokenValue));
+			if (!Long.valueOf(META_CHANGED).equals(result)) {
+				return;
+			}
+		}
+		_logger.warn("remove access token {} failed , meta changed concurrently", tokenValue);
+	}
 
 	@Override
 	public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
 		String refreshKey = (REFRESH + refreshToken.getValue());
 		String refreshAuthKey = (REFRESH_AUTH + refreshToken.getValue());
+		int seconds = expiresIn(refreshToken, System.currentTimeMillis());
 		RedisConnection conn = getConnection();
 		try {
-			conn.openPipeline();
-			conn.setObject(refreshKey, refreshToken);
-			conn.setObject(refreshAuthKey, authentication);
-			
-			if (refreshToken instanceof ExpiringOAuth2RefreshToken) {
-				ExpiringOAuth2RefreshToken expiringRefreshToken = (ExpiringOAuth2RefreshToken) refreshToken;
-				Date expiration = expiringRefreshToken.getExpiration();
-				if (expiration != null) {
-					int seconds = Long.valueOf((expiration.getTime() - System.currentTimeMillis()) / 1000L)
-							.intValue();
-					conn.expire(refreshKey, seconds);
-					conn.expire(refreshAuthKey, seconds);
-				}
-			}
-			conn.closePipeline();
+			conn.evalBinary(STORE_REFRESH_SCRIPT, 
+					encode(refreshKey, refreshAuthKey),
+					Arrays.asList(
+							conn.encode(refreshToken),
+							conn.encode(authentication),
+							SafeEncoder.encode(String.valueOf(seconds))));
 		} finally {
 			conn.close();
 		}
@@ -276,7 +411,6 @@ public class RedisTokenStore implements TokenStore {
 		RedisConnection conn = getConnection();
 		try {
 			OAuth2RefreshToken refreshToken = conn.getObject(key);
-			conn.close();
 			return refreshToken;
 		} finally {
 			conn.close();
@@ -295,12 +429,8 @@ public class RedisTokenStore implements TokenStore {
 		String access2RefreshKey = (ACCESS_TO_REFRESH + tokenValue);
 		RedisConnection conn = getConnection();
 		try {
-			conn.openPipeline();
-			conn.delete(refreshKey);
-			conn.delete(refreshAuthKey);
-			conn.delete(refresh2AccessKey);
-			conn.delete(access2RefreshKey);
-			conn.closePipeline();
+			//single DEL command
+			conn.delete(refreshKey, refreshAuthKey, refresh2AccessKey, access2RefreshKey);
 		} finally {
 			conn.close();
 		}
@@ -312,70 +442,79 @@ public class RedisTokenStore implements TokenStore {
 	}
 
 	private void removeAccessTokenUsingRefreshToken(String refreshToken) {
-		String key = (REFRESH_TO_ACCESS + refreshToken);
-		List<Object> results = null;
+		String refreshToAccessKey = REFRESH_TO_ACCESS + refreshToken;
 		RedisConnection conn = getConnection();
 		try {
-			conn.openPipeline();
-			conn.getPipeline().get(key);
-			conn.getPipeline().del(key);
-			results = conn.closePipeline();
+			String tokenValue = conn.get(refreshToAccessKey);
+			if (tokenValue != null) {
+				removeAccessToken(conn, tokenValue, refreshToAccessKey);
+			}
 		} finally {
 			conn.close();
 		}
-		if (results == null) {
-			return;
-		}
-		String  accessToken = (String) results.get(0);
-		//String accessToken = ObjectTransformer.deserialize(bytes);
-		if (accessToken != null) {
-			removeAccessToken(accessToken);
-		}
-		
 	}
 
 	@Override
 	public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
-		String approvalKey = (UNAME_TO_ACCESS + getApprovalKey(clientId, userName));
-		_logger.trace("approvalKey " + approvalKey);
-		List<String> stringList = null;
-		RedisConnection conn = getConnection();
-		try {
-			stringList = conn.lRange(approvalKey, 0, -1);
-		} finally {
-			conn.close();
-		}
-		if (stringList == null || stringList.size() == 0) {
-			return Collections.<OAuth2AccessToken> emptySet();
-		}
-		List<OAuth2AccessToken> accessTokens = new ArrayList<OAuth2AccessToken>(stringList.size());
-		for (String str : stringList) {
-			//accessToken may expired
-			OAuth2AccessToken accessToken = conn.getObject(str);
-			accessTokens.add(accessToken);
-		}
-		return Collections.<OAuth2AccessToken> unmodifiableCollection(accessTokens);
+		return findTokensByClientIdAndUserName(clientId, userName, 0, -1);
 	}
 
 	@Override
 	public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
-		String key = (CLIENT_ID_TO_ACCESS + clientId);
-		_logger.trace("TokensByClientId  " + key);
-		List<String> stringList = null;
+		return findTokensByClientId(clientId, 0, -1);
+	}
+	
+	/**
+	 * tokens of client and user , ordered by expiration
+	 * @param clientId
+	 * @param userName
+	 * @param offset
+	 * @param limit negative for all
+	 * @return tokens not expired
+	 */
+	public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(
+			String clientId, String userName, int offset, int limit) {
+		String unameIndexKey = (UNAME_INDEX + getApprovalKey(clientId, userName));
+		_logger.trace("unameIndexKey " + unameIndexKey);
+		return findTokens(unameIndexKey, offset, limit);
+	}
+	
+	/**
+	 * tokens of client , ordered by expiration
+	 * @param clientId
+	 * @param offset
+	 * @param limit negative for all
+	 * @return tokens not expired
+	 */
+	public Collection<OAuth2AccessToken> findTokensByClientId(String clientId, int offset, int limit) {
+		String clientIndexKey = (CLIENT_ID_INDEX + clientId);
+		_logger.trace("TokensByClientId  " + clientIndexKey);
+		return findTokens(clientIndexKey, offset, limit);
+	}
+	
+	private Collection<OAuth2AccessToken> findTokens(String indexKey, int offset, int limit) {
+		List<OAuth2AccessToken> accessTokens = new ArrayList<OAuth2AccessToken>();
 		RedisConnection conn = getConnection();
 		try {
-			stringList = conn.lRange(key, 0, -1);
+			List<String> tokenValues = conn.zRangeByScore(
+					indexKey, System.currentTimeMillis(), Double.POSITIVE_INFINITY, offset, limit);
+			if (tokenValues.isEmpty()) {
+				return Collections.<OAuth2AccessToken> emptySet();
+			}
+			String [] accessKeys = new String[tokenValues.size()];
+			for (int i = 0; i < accessKeys.length; i++) {
+				accessKeys[i] = ACCESS + tokenValues.get(i);
+			}
+			List<OAuth2AccessToken> loadTokens = conn.mGetObject(accessKeys);
+			for (OAuth2AccessToken accessToken : loadTokens) {
+				//removed by ttl but not yet pruned from index
+				if (accessToken != null) {
+					accessTokens.add(accessToken);
+				}
+			}
 		} finally {
 			conn.close();
 		}
-		if (stringList == null || stringList.size() == 0) {
-			return Collections.<OAuth2AccessToken> emptySet();
-		}
-		List<OAuth2AccessToken> accessTokens = new ArrayList<OAuth2AccessToken>(stringList.size());
-		for (String str : stringList) {
-			OAuth2AccessToken accessToken = conn.getObject(str);
-			accessTokens.add(accessToken);
-		}
 		return Collections.<OAuth2AccessToken> unmodifiableCollection(accessTokens);
 	}
 
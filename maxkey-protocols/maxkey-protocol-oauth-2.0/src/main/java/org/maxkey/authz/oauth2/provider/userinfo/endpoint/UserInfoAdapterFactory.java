@@ -0,0 +1,113 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.oauth2.provider.userinfo.endpoint;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.maxkey.authz.endpoint.adapter.AbstractAuthorizeAdapter;
+import org.maxkey.constants.ConstsBoolean;
+import org.maxkey.entity.apps.Apps;
+import org.maxkey.entity.apps.oauth2.provider.ClientDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * userinfo适配器工厂,按适配器类名缓存构造方法及setClientDetails方法.
+ * <p>
+ * 适配器保存请求内的用户及应用信息,不能跨请求共享,每次请求创建新实例;
+ * 类加载、构造方法及属性查找只在首次使用时执行一次,代替Instance.newInstance及BeanUtils.setProperty.
+ * 适配器加载失败时记录错误,该应用的userinfo请求直接失败,不使用默认适配器返回用户信息.
+ * </p>
+ */
+public class UserInfoAdapterFactory {
+    private static final Logger _logger = LoggerFactory.getLogger(UserInfoAdapterFactory.class);
+
+    static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class);
+
+    static final MethodType SETTER_TYPE = MethodType.methodType(void.class, ClientDetails.class);
+
+    final ConcurrentHashMap<String, AdapterFactory> factories = new ConcurrentHashMap<String, AdapterFactory>();
+
+    /**
+     * @param app 应用,isAdapter时使用app.getAdapter()
+     * @param clientDetails
+     * @return 新的适配器实例
+     * @throws IllegalStateException 配置的适配器无法加载
+     */
+    public AbstractAuthorizeAdapter newAdapter(Apps app, ClientDetails clientDetails) {
+        if (!ConstsBoolean.isTrue(app.getIsAdapter())) {
+            return new OAuthDefaultUserInfoAdapter(clientDetails);
+        }
+        if (StringUtils.isBlank(app.getAdapter())) {
+            _logger.error("app {} is adapter without adapter class", app.getId());
+            throw new IllegalStateException("userinfo adapter not configured for app " + app.getId());
+        }
+        return factories.computeIfAbsent(app.getAdapter(), AdapterFactory::new).newAdapter(clientDetails);
+    }
+
+    static class AdapterFactory {
+        final String className;
+
+        MethodHandle constructor;
+
+        MethodHandle clientDetailsSetter;
+
+        //load error , rethrown on every request
+        Exception error;
+
+        AdapterFactory(String className) {
+            this.className = className;
+            try {
+                Class<?> adapterClass = Class.forName(className).asSubclass(AbstractAuthorizeAdapter.class);
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                constructor = lookup.findConstructor(adapterClass, CONSTRUCTOR_TYPE)
+                        .asType(MethodType.methodType(AbstractAuthorizeAdapter.class));
+                try {
+                    clientDetailsSetter = lookup.findVirtual(adapterClass, "setClientDetails", SETTER_TYPE)
+                            .asType(MethodType.methodType(void.class, AbstractAuthorizeAdapter.class, ClientDetails.class));
+                } catch (NoSuchMethodException e) {
+                    _logger.debug("adapter {} without clientDetails", className);
+                }
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                _logger.error("load userinfo adapter " + className + " error . ", e);
+                error = e;
+            }
+        }
+
+        AbstractAuthorizeAdapter newAdapter(ClientDetails clientDetails) {
+            if (error != null) {
+                throw new IllegalStateException("userinfo adapter " + className + " unavailable", error);
+            }
+            try {
+                AbstractAuthorizeAdapter adapter = (AbstractAuthorizeAdapter) constructor.invokeExact();
+                if (clientDetailsSetter != null) {
+                    clientDetailsSetter.invokeExact(adapter, clientDetails);
+                }
+                return adapter;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -17,13 +17,11 @@
 
 package org.maxkey.authz.oauth2.provider.userinfo.endpoint;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.maxkey.authn.SigninPrincipal;
 import org.maxkey.authz.endpoint.adapter.AbstractAuthorizeAdapter;
@@ -32,14 +30,12 @@ import org.maxkey.authz.oauth2.common.exceptions.OAuth2Exception;
 import org.maxkey.authz.oauth2.provider.ClientDetailsService;
 import org.maxkey.authz.oauth2.provider.OAuth2Authentication;
 import org.maxkey.authz.oauth2.provider.token.DefaultTokenServices;
-import org.maxkey.constants.ConstsBoolean;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.entity.apps.Apps;
 import org.maxkey.entity.apps.oauth2.provider.ClientDetails;
 import org.maxkey.persistence.service.AppsService;
 import org.maxkey.persistence.service.UserInfoService;
 import org.maxkey.util.AuthorizationHeaderUtils;
-import org.maxkey.util.Instance;
 import org.maxkey.util.JsonUtils;
 import org.maxkey.util.StringGenerator;
 import org.maxkey.web.HttpResponseAdapter;
@@ -77,6 +73,8 @@ public class UserInfoEndpoint {
 
     @Autowired
     protected HttpResponseAdapter httpResponseAdapter;
+    
+    protected UserInfoAdapterFactory adapterFactory = new UserInfoAdapterFactory();
 	
     @Operation(summary = "OAuth 2.0 用户信息接口", description = "传递参数access_token",method="GET")
 	@RequestMapping(value=OAuth2Constants.ENDPOINT.ENDPOINT_USERINFO, method={RequestMethod.POST, RequestMethod.GET}) 
@@ -91,6 +89,7 @@ public class UserInfoEndpoint {
 	        
 			if (!StringGenerator.uuidMatches(access_token)) {
 				httpResponseAdapter.write(response,JsonUtils.gson2Json(accessTokenFormatError(access_token)),"json"); 
+				return;
 			}
 			
 			String principal="";
@@ -105,19 +104,9 @@ public class UserInfoEndpoint {
 						 clientDetailsService.loadClientByClientId(client_id,true);
 				 
 				 UserInfo userInfo=queryUserInfo(principal);
-				 Apps app = appsService.get(client_id);
+				 Apps app = appsService.loadById(client_id);
 				 
-				 AbstractAuthorizeAdapter adapter;
-				 if(ConstsBoolean.isTrue(app.getIsAdapter())){
-					adapter =(AbstractAuthorizeAdapter)Instance.newInstance(app.getAdapter());
-					try {
-						BeanUtils.setProperty(adapter, "clientDetails", clientDetails);
-					} catch (IllegalAccessException | InvocationTargetException e) {
-						_logger.error("setProperty error . ", e);
-					}
-				 }else{
-					adapter =(AbstractAuthorizeAdapter)new OAuthDefaultUserInfoAdapter(clientDetails);
-				 }
+				 AbstractAuthorizeAdapter adapter = adapterFactory.newAdapter(app, clientDetails);
 				 adapter.setAuthentication((SigninPrincipal)oAuth2Authentication.getUserAuthentication().getPrincipal());
 				 adapter.setUserInfo(userInfo);
 				 adapter.setApp(app);
@@ -142,7 +131,7 @@ public class UserInfoEndpoint {
 
 	public  UserInfo queryUserInfo(String userId){
 		_logger.debug("userId : "+userId);
-		UserInfo userInfo = (UserInfo) userInfoService.findByUsername(userId);
+		UserInfo userInfo = userInfoService.findProfileByUsername(userId);
 		return userInfo;
 	}
 
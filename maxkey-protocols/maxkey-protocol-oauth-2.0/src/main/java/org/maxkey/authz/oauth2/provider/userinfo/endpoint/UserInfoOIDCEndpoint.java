@@ -17,8 +17,6 @@
 
 package org.maxkey.authz.oauth2.provider.userinfo.endpoint;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -27,7 +25,6 @@ import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.lang3.StringUtils;
 import org.maxkey.authn.SigninPrincipal;
 import org.maxkey.authz.endpoint.adapter.AbstractAuthorizeAdapter;
 import org.maxkey.authz.oauth2.common.OAuth2Constants;
@@ -35,9 +32,9 @@ import org.maxkey.authz.oauth2.common.exceptions.OAuth2Exception;
 import org.maxkey.authz.oauth2.provider.ClientDetailsService;
 import org.maxkey.authz.oauth2.provider.OAuth2Authentication;
 import org.maxkey.authz.oauth2.provider.token.DefaultTokenServices;
+import org.maxkey.authz.oidc.idtoken.ClientJwtServicesRegistry;
+import org.maxkey.authz.oidc.idtoken.ClientJwtServicesRegistry.ClientJwtServices;
 import org.maxkey.constants.ContentType;
-import org.maxkey.crypto.jwt.encryption.service.impl.DefaultJwtEncryptionAndDecryptionService;
-import org.maxkey.crypto.jwt.signer.service.impl.DefaultJwtSigningAndValidationService;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.entity.apps.oauth2.provider.ClientDetails;
 import org.maxkey.persistence.service.AppsService;
@@ -55,13 +52,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
-import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWEHeader;
-import com.nimbusds.jose.JWEObject;
-import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.Payload;
-import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTClaimsSet.Builder;
 import com.nimbusds.jwt.PlainJWT;
@@ -69,8 +59,6 @@ import com.nimbusds.jwt.PlainJWT;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
-import com.nimbusds.jwt.SignedJWT;
-
 @Tag(name = "2-1-OAuth v2.0 API文档模块")
 @Controller
 public class UserInfoOIDCEndpoint {
@@ -92,6 +80,10 @@ public class UserInfoOIDCEndpoint {
 	@Qualifier("appsService")
 	protected AppsService appsService;
 	
+	@Autowired
+	@Qualifier("clientJwtServicesRegistry")
+	private ClientJwtServicesRegistry clientJwtServicesRegistry;
+	
 	OAuthDefaultUserInfoAdapter defaultOAuthUserInfoAdapter=new OAuthDefaultUserInfoAdapter();
 	
     @Autowired
@@ -201,71 +193,36 @@ public class UserInfoOIDCEndpoint {
 			response.setContentType(ContentType.APPLICATION_JWT_UTF8);
 			
 			JWTClaimsSet userInfoJWTClaims = jwtClaimsSetBuilder.build();
-			JWT userInfoJWT=null;
+			ClientJwtServices clientJwtServices = clientJwtServicesRegistry.get(clientDetails);
 			
 			if(clientDetails.getUserInfoResponse().equalsIgnoreCase("NORMAL")) {
 				response.setContentType(ContentType.APPLICATION_JSON_UTF8);
 				userJson = userInfoJWTClaims.toString();
-			}else if (StringUtils.isNotBlank(clientDetails.getSignature()) 
-			        && !clientDetails.getSignature().equalsIgnoreCase("none")
+			}else if (clientJwtServices.isSigningEnabled()
 			        && clientDetails.getUserInfoResponse().equalsIgnoreCase("ENCRYPTION")) {
 			    //需要签名  signed ID token
-				DefaultJwtSigningAndValidationService jwtSignerService = null;
-				try {
-					jwtSignerService = new DefaultJwtSigningAndValidationService(
-							clientDetails.getSignatureKey(),
-							clientDetails.getClientId() + "_sig",
-							clientDetails.getSignature());
-				}catch(Exception e) {
-					_logger.error("Couldn't create Jwt Signing Service",e);
+				if(clientJwtServices.hasSigner()) {
+					userInfoJWTClaims = new JWTClaimsSet
+							.Builder(userInfoJWTClaims)
+							.claim("kid", clientJwtServices.getSignerKeyId())
+							.build();
+					// sign it with the client's key
+					userJson = clientJwtServicesRegistry.sign(clientJwtServices, userInfoJWTClaims);
+				}else {
+					_logger.error("Couldn't create Jwt Signing Service for client {}", clientDetails.getClientId());
 				}
-				
-				JWSAlgorithm signingAlg = jwtSignerService.getDefaultSigningAlgorithm();
-				userInfoJWTClaims = new JWTClaimsSet
-						.Builder(userInfoJWTClaims)
-						.claim("kid", jwtSignerService.getDefaultSignerKeyId())
-						.build();
-
-				userInfoJWT = new SignedJWT(new JWSHeader(signingAlg), userInfoJWTClaims);
-				// sign it with the server's key
-				jwtSignerService.signJwt((SignedJWT) userInfoJWT);
-				
-				userJson = userInfoJWT.serialize();
-			}else if (StringUtils.isNotBlank(clientDetails.getAlgorithm())
-			        && !clientDetails.getAlgorithm().equalsIgnoreCase("none")
+			}else if (clientJwtServices.isEncryptionEnabled()
 			        && clientDetails.getUserInfoResponse().equalsIgnoreCase("SIGNING")
 					) {
 			    // 需要加密
-				try {
-					DefaultJwtEncryptionAndDecryptionService jwtEncryptionService = 
-								new DefaultJwtEncryptionAndDecryptionService(
-										clientDetails.getAlgorithmKey(),
-										clientDetails.getClientId()  + "_enc",
-										clientDetails.getAlgorithm());
-					
-					Payload payload = userInfoJWTClaims.toPayload();
-					
-					// Example Request JWT encrypted with RSA-OAEP-256 and 128-bit AES/GCM
-					//JWEHeader jweHeader = new JWEHeader(JWEAlgorithm.RSA1_5, EncryptionMethod.A128GCM);
-					JWEHeader jweHeader = new JWEHeader(
-							jwtEncryptionService.getDefaultAlgorithm(clientDetails.getAlgorithm()), 
-							jwtEncryptionService.parseEncryptionMethod(clientDetails.getEncryptionMethod()));
-					
-					JWEObject jweObject = new JWEObject(
-						    new JWEHeader.Builder(jweHeader)
-						        .contentType("JWT") // required to indicate nested JWT
-						        .build(),
-						        payload);
-					
-					jwtEncryptionService.encryptJwt(jweObject);
-					userJson = jweObject.serialize();
-				} catch (NoSuchAlgorithmException | InvalidKeySpecException | JOSEException e) {
-					_logger.error("Couldn't create Jwt Encryption Exception", e);
+				if(clientJwtServices.hasEncrypter()) {
+					userJson = clientJwtServicesRegistry.encrypt(clientJwtServices, userInfoJWTClaims);
+				}else {
+					_logger.error("Couldn't create Jwt Encryption Service for client {}", clientDetails.getClientId());
 				}
 			}else {
 			    //不需要加密和签名  unsigned ID token
-                userInfoJWT = new PlainJWT(userInfoJWTClaims);
-                userJson = userInfoJWT.serialize();
+                userJson = new PlainJWT(userInfoJWTClaims).serialize();
             }
 			
 			_logger.trace("OpenID Connect Response {}",userJson);
@@ -288,7 +245,7 @@ public class UserInfoOIDCEndpoint {
 	}
 
 	public  UserInfo queryUserInfo(String userId){
-		return (UserInfo) userInfoService.findByUsername(userId);
+		return userInfoService.findProfileByUsername(userId);
 	}
 
 
@@ -0,0 +1,294 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.oidc.idtoken;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.maxkey.crypto.jwt.encryption.service.impl.DefaultJwtEncryptionAndDecryptionService;
+import org.maxkey.crypto.jwt.signer.service.impl.DefaultJwtSigningAndValidationService;
+import org.maxkey.entity.apps.oauth2.provider.ClientDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * 按客户端缓存id_token及userinfo使用的JWT签名、加密服务.
+ * <p>
+ * 客户端的signature、signatureKey、algorithm、algorithmKey、encryptionMethod作为密钥版本,
+ * 与当前ClientDetails不一致时重新创建,无需额外的失效通知;
+ * 密钥解析失败或没有默认签名密钥时也会缓存(签名/加密服务为null),避免每次请求重复解析.
+ * 签名、加密失败时记录日志并返回null,与按请求创建服务时相同,不向调用方抛出异常.
+ * </p>
+ */
+public class ClientJwtServicesRegistry implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(ClientJwtServicesRegistry.class);
+
+    public static final String METRIC_PREFIX = "maxkey.oidc.jwt";
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    final Cache<String, ClientJwtServices> services;
+
+    Timer signTimer;
+
+    Timer encryptTimer;
+
+    public ClientJwtServicesRegistry() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public ClientJwtServicesRegistry(int maximumSize) {
+        this.services = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param clientDetails
+     * @return services built from the client's current keys
+     */
+    public ClientJwtServices get(ClientDetails clientDetails) {
+        ClientJwtServices clientJwtServices = services.getIfPresent(clientDetails.getClientId());
+        if (clientJwtServices == null || !clientJwtServices.matches(clientDetails)) {
+            clientJwtServices = services.asMap().compute(clientDetails.getClientId(), (clientId, current) ->
+                    current != null && current.matches(clientDetails) ? current : new ClientJwtServices(clientDetails));
+        }
+        return clientJwtServices;
+    }
+
+    public void invalidate(String clientId) {
+        services.invalidate(clientId);
+    }
+
+    /**
+     * sign claims with the client signer , kid is added as claim
+     * @param clientJwtServices
+     * @param claimsSet
+     * @return serialized JWT , null when the client has no signer or signing failed
+     */
+    public String sign(ClientJwtServices clientJwtServices, JWTClaimsSet claimsSet) {
+        if (!clientJwtServices.hasSigner()) {
+            return null;
+        }
+        long startTime = System.nanoTime();
+        try {
+            SignedJWT signedJWT = new SignedJWT(clientJwtServices.signingHeader, claimsSet);
+            clientJwtServices.signer.signJwt(signedJWT);
+            return signedJWT.serialize();
+        } catch (Exception e) {
+            _logger.error("Couldn't sign Jwt with key " + clientJwtServices.signerKeyId, e);
+            return null;
+        } finally {
+            if (signTimer != null) {
+                signTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * encrypt claims with the client encrypter
+     * @param clientJwtServices
+     * @param claimsSet
+     * @return serialized JWE , null when the client has no encrypter or encryption failed
+     */
+    public String encrypt(ClientJwtServices clientJwtServices, JWTClaimsSet claimsSet) {
+        if (!clientJwtServices.hasEncrypter()) {
+            return null;
+        }
+        long startTime = System.nanoTime();
+        try {
+            JWEObject jweObject = new JWEObject(clientJwtServices.encryptionHeader, claimsSet.toPayload());
+            clientJwtServices.encrypter.encryptJwt(jweObject);
+            return jweObject.serialize();
+        } catch (Exception e) {
+            _logger.error("Couldn't encrypt Jwt with algorithm " + clientJwtServices.algorithm, e);
+            return null;
+        } finally {
+            if (encryptTimer != null) {
+                encryptTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, services, "oidcClientJwtServices");
+        this.signTimer = Timer.builder(METRIC_PREFIX + ".sign")
+                .description("OpenID Connect id_token and userinfo signing latency")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.encryptTimer = Timer.builder(METRIC_PREFIX + ".encrypt")
+                .description("OpenID Connect id_token and userinfo encryption latency")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * 单个客户端的签名、加密服务,创建后不可变
+     */
+    public static class ClientJwtServices {
+        final String signature;
+
+        final String signatureKey;
+
+        final String algorithm;
+
+        final String algorithmKey;
+
+        final String encryptionMethod;
+
+        final DefaultJwtSigningAndValidationService signer;
+
+        final JWSAlgorithm signingAlgorithm;
+
+        final JWSHeader signingHeader;
+
+        final String signerKeyId;
+
+        final JWK signerPublicKey;
+
+        final DefaultJwtEncryptionAndDecryptionService encrypter;
+
+        final JWEHeader encryptionHeader;
+
+        ClientJwtServices(ClientDetails clientDetails) {
+            this.signature = clientDetails.getSignature();
+            this.signatureKey = clientDetails.getSignatureKey();
+            this.algorithm = clientDetails.getAlgorithm();
+            this.algorithmKey = clientDetails.getAlgorithmKey();
+            this.encryptionMethod = clientDetails.getEncryptionMethod();
+
+            DefaultJwtSigningAndValidationService clientSigner = null;
+            JWSAlgorithm clientSigningAlgorithm = null;
+            String clientSignerKeyId = null;
+            JWK clientSignerPublicKey = null;
+            if (isEnabled(signature)) {
+                try {
+                    clientSigner = new DefaultJwtSigningAndValidationService(
+                            signatureKey,
+                            clientDetails.getClientId() + "_sig",
+                            signature);
+                    clientSigningAlgorithm = clientSigner.getDefaultSigningAlgorithm();
+                    clientSignerKeyId = clientSigner.getDefaultSignerKeyId();
+                    //signJwt needs a default key , treat a client without one as having no signer
+                    if (clientSignerKeyId == null || clientSigningAlgorithm == null) {
+                        _logger.error("Couldn't create Jwt Signing Service for client {} , no default signer key",
+                                clientDetails.getClientId());
+                        clientSigner = null;
+                    } else {
+                        clientSignerPublicKey = clientSigner.getAllPublicKeys().get(clientSignerKeyId);
+                    }
+                } catch (Exception e) {
+                    clientSigner = null;
+                    _logger.error("Couldn't create Jwt Signing Service for client " + clientDetails.getClientId(), e);
+                }
+            }
+            this.signer = clientSigner;
+            this.signingAlgorithm = clientSigner == null ? null : clientSigningAlgorithm;
+            this.signingHeader = clientSigner == null ? null : new JWSHeader(clientSigningAlgorithm);
+            this.signerKeyId = clientSigner == null ? null : clientSignerKeyId;
+            this.signerPublicKey = clientSigner == null ? null : clientSignerPublicKey;
+
+            DefaultJwtEncryptionAndDecryptionService clientEncrypter = null;
+            JWEHeader clientEncryptionHeader = null;
+            if (isEnabled(algorithm)) {
+                try {
+                    clientEncrypter = new DefaultJwtEncryptionAndDecryptionService(
+                            algorithmKey,
+                            clientDetails.getClientId() + "_enc",
+                            algorithm);
+                    // Example Request JWT encrypted with RSA-OAEP-256 and 128-bit AES/GCM
+                    //JWEHeader jweHeader = new JWEHeader(JWEAlgorithm.RSA1_5, EncryptionMethod.A128GCM);
+                    clientEncryptionHeader = new JWEHeader.Builder(
+                            clientEncrypter.getDefaultAlgorithm(algorithm),
+                            clientEncrypter.parseEncryptionMethod(encryptionMethod))
+                            .contentType("JWT") // required to indicate nested JWT
+                            .build();
+                } catch (Exception e) {
+                    clientEncrypter = null;
+                    clientEncryptionHeader = null;
+                    _logger.error("Couldn't create Jwt Encryption Service for client " + clientDetails.getClientId(), e);
+                }
+            }
+            this.encrypter = clientEncrypter;
+            this.encryptionHeader = clientEncryptionHeader;
+            _logger.debug("client {} jwt services , signature {} , algorithm {}",
+                    clientDetails.getClientId(), signature, algorithm);
+        }
+
+        boolean matches(ClientDetails clientDetails) {
+            return Objects.equals(signature, clientDetails.getSignature())
+                    && Objects.equals(signatureKey, clientDetails.getSignatureKey())
+                    && Objects.equals(algorithm, clientDetails.getAlgorithm())
+                    && Objects.equals(algorithmKey, clientDetails.getAlgorithmKey())
+                    && Objects.equals(encryptionMethod, clientDetails.getEncryptionMethod());
+        }
+
+        static boolean isEnabled(String alg) {
+            return StringUtils.isNotBlank(alg) && !alg.equalsIgnoreCase("none");
+        }
+
+        /**
+         * @return true if signature is configured , whether or not the signer could be created
+         */
+        public boolean isSigningEnabled() {
+            return isEnabled(signature);
+        }
+
+        public boolean isEncryptionEnabled() {
+            return isEnabled(algorithm);
+        }
+
+        public boolean hasSigner() {
+            return signer != null;
+        }
+
+        public boolean hasEncrypter() {
+            return encrypter != null;
+        }
+
+        public JWSAlgorithm getSigningAlgorithm() {
+            return signingAlgorithm;
+        }
+
+        public String getSignerKeyId() {
+            return signerKeyId;
+        }
+
+        public JWK getSignerPublicKey() {
+            return signerPublicKey;
+        }
+    }
+}
@@ -20,8 +20,6 @@
  */
 package org.maxkey.authz.oidc.idtoken;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
@@ -36,9 +34,8 @@ import org.maxkey.authz.oauth2.provider.ClientDetailsService;
 import org.maxkey.authz.oauth2.provider.OAuth2Authentication;
 import org.maxkey.authz.oauth2.provider.OAuth2Request;
 import org.maxkey.authz.oauth2.provider.token.TokenEnhancer;
+import org.maxkey.authz.oidc.idtoken.ClientJwtServicesRegistry.ClientJwtServices;
 import org.maxkey.configuration.oidc.OIDCProviderMetadata;
-import org.maxkey.crypto.jwt.encryption.service.impl.DefaultJwtEncryptionAndDecryptionService;
-import org.maxkey.crypto.jwt.signer.service.impl.DefaultJwtSigningAndValidationService;
 import org.maxkey.entity.apps.oauth2.provider.ClientDetails;
 import org.maxkey.web.WebContext;
 
@@ -47,15 +44,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
-import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWEHeader;
-import com.nimbusds.jose.JWEObject;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.Payload;
-import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
 
 /**
  * @author Crystal.Sea
@@ -69,6 +59,8 @@ public class OIDCIdTokenEnhancer implements TokenEnhancer {
 	private OIDCProviderMetadata providerMetadata;
 	
 	private ClientDetailsService clientDetailsService;
+	
+	private ClientJwtServicesRegistry clientJwtServicesRegistry = new ClientJwtServicesRegistry();
 
 	public void setProviderMetadata(OIDCProviderMetadata providerMetadata) {
 		this.providerMetadata = providerMetadata;
@@ -78,6 +70,10 @@ public class OIDCIdTokenEnhancer implements TokenEnhancer {
 		this.clientDetailsService = clientDetailsService;
 	}
 
+	public void setClientJwtServicesRegistry(ClientJwtServicesRegistry clientJwtServicesRegistry) {
+		this.clientJwtServicesRegistry = clientJwtServicesRegistry;
+	}
+
 	@Override
 	public OAuth2AccessToken enhance(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
 		OAuth2Request  request=authentication.getOAuth2Request();
@@ -85,21 +81,7 @@ public class OIDCIdTokenEnhancer implements TokenEnhancer {
 			ClientDetails clientDetails = 
 					clientDetailsService.loadClientByClientId(authentication.getOAuth2Request().getClientId(),true);
 			
-			DefaultJwtSigningAndValidationService jwtSignerService = null;
-			JWSAlgorithm signingAlg = null;
-			try {//jwtSignerService
-				if (StringUtils.isNotBlank(clientDetails.getSignature()) && !clientDetails.getSignature().equalsIgnoreCase("none")) {
-					jwtSignerService = new DefaultJwtSigningAndValidationService(
-							clientDetails.getSignatureKey(),
-							clientDetails.getClientId() + "_sig",
-							clientDetails.getSignature()
-						);
-
-					signingAlg = jwtSignerService.getDefaultSigningAlgorithm();
-				}
-			}catch(Exception e) {
-				_logger.error("Couldn't create Jwt Signing Service",e);
-			}
+			ClientJwtServices clientJwtServices = clientJwtServicesRegistry.get(clientDetails);
 			
 			JWTClaimsSet.Builder builder=new JWTClaimsSet.Builder();
 			builder.subject(authentication.getName())
@@ -115,10 +97,10 @@ public class OIDCIdTokenEnhancer implements TokenEnhancer {
 			 *     7.  Self-Issued OpenID Provider
 			 */
 			if(clientDetails.getIssuer()!=null 
-					&& jwtSignerService != null
+					&& clientJwtServices.hasSigner()
 					&& clientDetails.getIssuer().equalsIgnoreCase("https://self-issued.me") 
 					){
-				builder.claim("sub_jwk", jwtSignerService.getAllPublicKeys().get(jwtSignerService.getDefaultSignerKeyId()));
+				builder.claim("sub_jwk", clientJwtServices.getSignerPublicKey());
 			}
 			
 			// if the auth time claim was explicitly requested OR if the client always wants the auth time, put it in
@@ -133,57 +115,31 @@ public class OIDCIdTokenEnhancer implements TokenEnhancer {
 			if (!Strings.isNullOrEmpty(nonce)) {
 				builder.claim("nonce", nonce);
 			}
-			if(jwtSignerService != null) {
-				SignedJWT signed = new SignedJWT(new JWSHeader(signingAlg), builder.build());
-				Set<String> responseTypes = request.getResponseTypes();
-	
-				if (responseTypes.contains("token")) {
-					// calculate the token hash
-					Base64URL at_hash = IdTokenHashUtils.getAccessTokenHash(signingAlg, signed);
-					builder.claim("at_hash", at_hash);
-				}
-				_logger.debug("idClaims {}",builder.build());
-			}
+			
 			String idTokenString = "";
-			if (StringUtils.isNotBlank(clientDetails.getSignature()) 
-					&& !clientDetails.getSignature().equalsIgnoreCase("none")) {
-				try {
-					builder.claim("kid", jwtSignerService.getDefaultSignerKeyId());
-					// signed ID token
-					JWT idToken = new SignedJWT(new JWSHeader(signingAlg), builder.build());
-					// sign it with the server's key
-					jwtSignerService.signJwt((SignedJWT) idToken);
-					idTokenString = idToken.serialize();
+			if (clientJwtServices.isSigningEnabled()) {
+				if(clientJwtServices.hasSigner()) {
+					JWSAlgorithm signingAlg = clientJwtServices.getSigningAlgorithm();
+					Set<String> responseTypes = request.getResponseTypes();
+					if (responseTypes.contains("token")) {
+						// left half hash of the access_token value
+						Base64URL at_hash = IdTokenHashUtils.getCodeHash(signingAlg, accessToken.getValue());
+						builder.claim("at_hash", at_hash);
+					}
+					builder.claim("kid", clientJwtServices.getSignerKeyId());
+					JWTClaimsSet idClaims = builder.build();
+					_logger.debug("idClaims {}",idClaims);
+					// signed ID token , sign it with the client's key
+					idTokenString = clientJwtServicesRegistry.sign(clientJwtServices, idClaims);
 					_logger.debug("idToken {}",idTokenString);
-				}catch(Exception e) {
-					_logger.error("Couldn't create Jwt Signing Exception",e);
+				}else {
+					_logger.error("Couldn't create Jwt Signing Service for client {}", clientDetails.getClientId());
 				}
-			}else if (StringUtils.isNotBlank(clientDetails.getAlgorithm()) 
-					&& !clientDetails.getAlgorithm().equalsIgnoreCase("none")) {
-				try {
-					DefaultJwtEncryptionAndDecryptionService jwtEncryptionService = 
-								new DefaultJwtEncryptionAndDecryptionService(
-										clientDetails.getAlgorithmKey(),
-										clientDetails.getClientId()  + "_enc",
-										clientDetails.getAlgorithm()
-									);
-					Payload payload = builder.build().toPayload();
-					// Example Request JWT encrypted with RSA-OAEP-256 and 128-bit AES/GCM
-					//JWEHeader jweHeader = new JWEHeader(JWEAlgorithm.RSA1_5, EncryptionMethod.A128GCM);
-					JWEHeader jweHeader = new JWEHeader(
-							jwtEncryptionService.getDefaultAlgorithm(clientDetails.getAlgorithm()), 
-							jwtEncryptionService.parseEncryptionMethod(clientDetails.getEncryptionMethod())
-						);
-					JWEObject jweObject = new JWEObject(
-						    new JWEHeader.Builder(jweHeader)
-						        .contentType("JWT") // required to indicate nested JWT
-						        .build(),
-						        payload);
-					
-					jwtEncryptionService.encryptJwt(jweObject);
-					idTokenString = jweObject.serialize();
-				} catch (NoSuchAlgorithmException | InvalidKeySpecException | JOSEException e) {
-					_logger.error("Couldn't create Jwt Encryption Exception", e);
+			}else if (clientJwtServices.isEncryptionEnabled()) {
+				if(clientJwtServices.hasEncrypter()) {
+					idTokenString = clientJwtServicesRegistry.encrypt(clientJwtServices, builder.build());
+				}else {
+					_logger.error("Couldn't create Jwt Encryption Service for client {}", clientDetails.getClientId());
 				}
 			}else {
 				//not need a PlainJWT idToken
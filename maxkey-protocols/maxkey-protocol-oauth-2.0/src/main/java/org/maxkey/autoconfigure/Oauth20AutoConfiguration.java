@@ -38,12 +38,14 @@ import org.maxkey.authz.oauth2.provider.token.TokenStore;
 import org.maxkey.authz.oauth2.provider.token.DefaultTokenServices;
 import org.maxkey.authz.oauth2.provider.token.store.JwtAccessTokenConverter;
 import org.maxkey.authz.oauth2.provider.token.store.TokenStoreFactory;
+import org.maxkey.authz.oidc.idtoken.ClientJwtServicesRegistry;
 import org.maxkey.authz.oidc.idtoken.OIDCIdTokenEnhancer;
 import org.maxkey.configuration.oidc.OIDCProviderMetadataDetails;
 import org.maxkey.crypto.jose.keystore.JWKSetKeyStore;
 import org.maxkey.crypto.jwt.encryption.service.impl.DefaultJwtEncryptionAndDecryptionService;
 import org.maxkey.crypto.jwt.signer.service.impl.DefaultJwtSigningAndValidationService;
 import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.repository.AppsConfigCache;
 import org.maxkey.persistence.repository.LoginRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -160,6 +162,15 @@ public class Oauth20AutoConfiguration implements InitializingBean {
         return jwtEncryptionService;
     }
     
+    /**
+     * 客户端id_token及userinfo签名、加密服务,按客户端密钥缓存.
+     */
+    @Bean(name = "clientJwtServicesRegistry")
+    public ClientJwtServicesRegistry clientJwtServicesRegistry() {
+        _logger.debug("OIDC Client Jwt Services Registry init.");
+        return new ClientJwtServicesRegistry();
+    }
+    
     /**
      * tokenEnhancer.
      * @return
@@ -167,9 +178,11 @@ public class Oauth20AutoConfiguration implements InitializingBean {
     @Bean(name = "tokenEnhancer")
     public OIDCIdTokenEnhancer tokenEnhancer(
             OIDCProviderMetadataDetails oidcProviderMetadata,
-            ClientDetailsService oauth20JdbcClientDetailsService) {
+            ClientDetailsService oauth20JdbcClientDetailsService,
+            ClientJwtServicesRegistry clientJwtServicesRegistry) {
         OIDCIdTokenEnhancer tokenEnhancer = new OIDCIdTokenEnhancer();
         tokenEnhancer.setClientDetailsService(oauth20JdbcClientDetailsService);
+        tokenEnhancer.setClientJwtServicesRegistry(clientJwtServicesRegistry);
         tokenEnhancer.setProviderMetadata(oidcProviderMetadata);
         _logger.debug("OIDC IdToken Enhancer init.");
         return tokenEnhancer;
@@ -221,9 +234,11 @@ public class Oauth20AutoConfiguration implements InitializingBean {
      * @return oauth20JdbcClientDetailsService
      */
     @Bean(name = "oauth20JdbcClientDetailsService")
-    public JdbcClientDetailsService jdbcClientDetailsService(DataSource dataSource,PasswordEncoder passwordReciprocal) {
+    public JdbcClientDetailsService jdbcClientDetailsService(DataSource dataSource,PasswordEncoder passwordReciprocal,
+            AppsConfigCache appsConfigCache) {
         JdbcClientDetailsService clientDetailsService = new JdbcClientDetailsService(dataSource);
         clientDetailsService.setPasswordEncoder(passwordReciprocal);
+        clientDetailsService.setAppsConfigCache(appsConfigCache);
         _logger.debug("OAuth 2 Jdbc ClientDetails Service init.");
         return clientDetailsService;
     }    
@@ -22,6 +22,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.maxkey.authz.saml.common.AuthnRequestInfo;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache.SpTrustMaterial;
 import org.maxkey.entity.apps.AppsSAML20Details;
 import org.opensaml.common.SignableSAMLObject;
 import org.opensaml.saml2.metadata.Endpoint;
@@ -39,13 +40,21 @@ public interface BindingAdapter {
 
 	public void sendSAMLMessage(SignableSAMLObject samlMessage, Endpoint endpoint, HttpServletRequest request, HttpServletResponse response) throws MessageEncodingException;
 	
-	public void setSecurityPolicyResolver(SecurityPolicyResolver securityPolicyResolver);
-	
-	public void setExtractBindingAdapter(ExtractBindingAdapter extractBindingAdapter);
+	/**
+	 * The shared adapter only holds configuration,
+	 * each SAML login gets its own adapter carrying the request state.
+	 * @param saml20Details
+	 * @param trustMaterial
+	 * @param authnRequestInfo
+	 * @param relayState
+	 * @return adapter of the current request
+	 */
+	public BindingAdapter newBindingAdapter(AppsSAML20Details saml20Details, 
+											SpTrustMaterial trustMaterial,
+											AuthnRequestInfo authnRequestInfo,
+											String relayState);
 	
-	public void setAuthnRequestInfo(AuthnRequestInfo authnRequestInfo);
-	
-	public void setRelayState(String relayState);
+	public void setSecurityPolicyResolver(SecurityPolicyResolver securityPolicyResolver);
 	
 	public AppsSAML20Details getSaml20Details();
 	
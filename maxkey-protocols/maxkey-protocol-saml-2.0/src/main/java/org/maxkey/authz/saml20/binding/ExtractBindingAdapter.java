@@ -18,17 +18,13 @@
 
 package org.maxkey.authz.saml20.binding;
 
-import java.security.KeyStore;
-
 import javax.servlet.http.HttpServletRequest;
 
 import org.maxkey.crypto.keystore.KeyStoreLoader;
-import org.maxkey.entity.apps.AppsSAML20Details;
 import org.opensaml.common.binding.SAMLMessageContext;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
 import org.opensaml.ws.security.SecurityPolicyResolver;
 import org.opensaml.xml.security.SecurityException;
-import org.opensaml.xml.security.credential.CredentialResolver;
 
 /**
  * 
@@ -37,21 +33,27 @@ import org.opensaml.xml.security.credential.CredentialResolver;
  *
  */
 public interface ExtractBindingAdapter {
-
+	
+	/**
+	 * extract with the adapter's default security policy
+	 */
 	@SuppressWarnings("rawtypes")
 	public SAMLMessageContext extractSAMLMessageContext(HttpServletRequest request) throws MessageDecodingException, SecurityException;
+	
+	/**
+	 * extract with the application's security policy , adapter state is not changed
+	 */
+	@SuppressWarnings("rawtypes")
+	public SAMLMessageContext extractSAMLMessageContext(HttpServletRequest request, SecurityPolicyResolver securityPolicyResolver) throws MessageDecodingException, SecurityException;
 
 	public String extractSAMLMessage(HttpServletRequest request);
 	
 	public void setSecurityPolicyResolver(SecurityPolicyResolver securityPolicyResolver);
 	
-	public void buildSecurityPolicyResolver(KeyStore trustKeyStore);
-	
-	public void setSaml20Detail(AppsSAML20Details  saml20Detail);
-	
-	public AppsSAML20Details getSaml20Detail();
+	/**
+	 * @return POST or Redirect
+	 */
+	public String getBinding();
 	
 	public KeyStoreLoader getKeyStoreLoader();
-	
-	public CredentialResolver getCredentialResolver();
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.saml20.binding;
+
+import java.security.KeyStore;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.maxkey.authz.saml.common.TrustResolver;
+import org.maxkey.crypto.keystore.KeyStoreLoader;
+import org.maxkey.crypto.keystore.KeyStoreUtil;
+import org.maxkey.entity.apps.AppsSAML20Details;
+import org.opensaml.common.binding.security.IssueInstantRule;
+import org.opensaml.common.binding.security.MessageReplayRule;
+import org.opensaml.ws.security.SecurityPolicyResolver;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.KeyStoreCredentialResolver;
+import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.opensaml.xml.security.criteria.UsageCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * SAML应用证书缓存,每个应用的KeyStore、签名及加密证书、POST/Redirect安全策略只解析一次.
+ * <p>
+ * 按应用id缓存,应用KeyStore内容(SHA-256)及entityId作为版本,
+ * 应用编辑后与缓存不一致时重新解析;同一个AppsSAML20Details实例直接命中,不重复计算摘要.
+ * </p>
+ */
+public class SpTrustMaterialCache implements MeterBinder {
+    private static final Logger _logger = LoggerFactory.getLogger(SpTrustMaterialCache.class);
+
+    public static final String BINDING_POST = "POST";
+
+    public static final String BINDING_REDIRECT = "Redirect";
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final int DEFAULT_EXPIRE_MINUTES = 60;
+
+    final KeyStoreLoader keyStoreLoader;
+
+    final IssueInstantRule issueInstantRule;
+
+    final MessageReplayRule messageReplayRule;
+
+    final Cache<String, SpTrustMaterial> trustMaterials;
+
+    public SpTrustMaterialCache(KeyStoreLoader keyStoreLoader,
+            IssueInstantRule issueInstantRule,
+            MessageReplayRule messageReplayRule) {
+        this(keyStoreLoader, issueInstantRule, messageReplayRule, DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_MINUTES);
+    }
+
+    public SpTrustMaterialCache(KeyStoreLoader keyStoreLoader,
+            IssueInstantRule issueInstantRule,
+            MessageReplayRule messageReplayRule,
+            int maximumSize,
+            int expireMinutes) {
+        this.keyStoreLoader = keyStoreLoader;
+        this.issueInstantRule = issueInstantRule;
+        this.messageReplayRule = messageReplayRule;
+        this.trustMaterials = Caffeine.newBuilder()
+                .expireAfterAccess(expireMinutes, TimeUnit.MINUTES)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param saml20Details
+     * @return trust material of the application's current keystore
+     * @throws Exception keystore could not be loaded
+     */
+    public SpTrustMaterial get(AppsSAML20Details saml20Details) throws Exception {
+        SpTrustMaterial trustMaterial = trustMaterials.getIfPresent(saml20Details.getId());
+        if (trustMaterial != null && trustMaterial.keyStoreBytes == saml20Details.getKeyStore()
+                && Objects.equals(trustMaterial.entityId, saml20Details.getEntityId())) {
+            return trustMaterial;
+        }
+
+        String digest = DigestUtils.sha256Hex(saml20Details.getKeyStore());
+        if (trustMaterial != null && trustMaterial.matches(digest, saml20Details.getEntityId())) {
+            return trustMaterial;
+        }
+
+        trustMaterial = new SpTrustMaterial(saml20Details, digest);
+        trustMaterials.put(saml20Details.getId(), trustMaterial);
+        return trustMaterial;
+    }
+
+    public void invalidate(String appId) {
+        trustMaterials.invalidate(appId);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, trustMaterials, "saml20TrustMaterial");
+    }
+
+    /**
+     * 单个应用解析后的证书及安全策略,创建后不可变,可被并发请求共享
+     */
+    public class SpTrustMaterial {
+        final byte[] keyStoreBytes;
+
+        final String digest;
+
+        final String entityId;
+
+        final KeyStore trustKeyStore;
+
+        final SecurityPolicyResolver postSecurityPolicyResolver;
+
+        final SecurityPolicyResolver redirectSecurityPolicyResolver;
+
+        final Credential signingCredential;
+
+        final Credential spSigningCredential;
+
+        SpTrustMaterial(AppsSAML20Details saml20Details, String digest) throws Exception {
+            this.keyStoreBytes = saml20Details.getKeyStore();
+            this.digest = digest;
+            this.entityId = saml20Details.getEntityId();
+            this.trustKeyStore = KeyStoreUtil.bytes2KeyStore(keyStoreBytes,
+                    keyStoreLoader.getKeyStore().getType(),
+                    keyStoreLoader.getKeystorePassword());
+            if (trustKeyStore == null) {
+                throw new Exception("SAML APPID [" + saml20Details.getId() + "] keystore could not be loaded .");
+            }
+
+            TrustResolver postTrustResolver = new TrustResolver(trustKeyStore,
+                    keyStoreLoader.getEntityName(),
+                    keyStoreLoader.getKeystorePassword(),
+                    issueInstantRule,
+                    messageReplayRule,
+                    BINDING_POST);
+            this.postSecurityPolicyResolver = postTrustResolver.getStaticSecurityPolicyResolver();
+            this.redirectSecurityPolicyResolver = new TrustResolver(trustKeyStore,
+                    keyStoreLoader.getEntityName(),
+                    keyStoreLoader.getKeystorePassword(),
+                    issueInstantRule,
+                    messageReplayRule,
+                    BINDING_REDIRECT).getStaticSecurityPolicyResolver();
+
+            this.signingCredential = resolve(postTrustResolver.getKeyStoreCredentialResolver(),
+                    keyStoreLoader.getEntityName(), UsageType.SIGNING);
+
+            KeyStoreCredentialResolver spCredentialResolver = new TrustResolver().buildKeyStoreCredentialResolver(
+                    trustKeyStore,
+                    entityId,
+                    keyStoreLoader.getKeystorePassword());
+            this.spSigningCredential = resolve(spCredentialResolver, entityId, UsageType.ENCRYPTION);
+            _logger.debug("SAML APPID [{}] trust material loaded , digest {}", saml20Details.getId(), digest);
+        }
+
+        Credential resolve(KeyStoreCredentialResolver credentialResolver, String entityName, UsageType usageType) {
+            CriteriaSet criteriaSet = new CriteriaSet();
+            criteriaSet.add(new EntityIDCriteria(entityName));
+            criteriaSet.add(new UsageCriteria(usageType));
+            try {
+                return credentialResolver.resolveSingle(criteriaSet);
+            } catch (Exception e) {
+                _logger.error("Credential Resolver error , entity " + entityName + " usage " + usageType, e);
+                return null;
+            }
+        }
+
+        boolean matches(String digest, String entityId) {
+            return this.digest.equals(digest) && Objects.equals(this.entityId, entityId);
+        }
+
+        /**
+         * @param binding POST or Redirect
+         * @return security policy of the binding
+         */
+        public SecurityPolicyResolver getSecurityPolicyResolver(String binding) {
+            return BINDING_REDIRECT.equalsIgnoreCase(binding) ?
+                    redirectSecurityPolicyResolver : postSecurityPolicyResolver;
+        }
+
+        public KeyStore getTrustKeyStore() {
+            return trustKeyStore;
+        }
+
+        /**
+         * @return IdP signing credential
+         */
+        public Credential getSigningCredential() {
+            return signingCredential;
+        }
+
+        /**
+         * @return SP credential used to encrypt assertions
+         */
+        public Credential getSpSigningCredential() {
+            return spSigningCredential;
+        }
+    }
+}
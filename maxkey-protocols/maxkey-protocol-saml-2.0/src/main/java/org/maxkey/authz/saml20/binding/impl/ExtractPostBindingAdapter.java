@@ -18,14 +18,12 @@
 
 package org.maxkey.authz.saml20.binding.impl;
 
-import java.security.KeyStore;
-
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang.StringUtils;
-import org.maxkey.authz.saml.common.TrustResolver;
+import org.maxkey.authz.saml.common.SecurityPolicyDelegate;
 import org.maxkey.authz.saml20.binding.ExtractBindingAdapter;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache;
 import org.maxkey.crypto.keystore.KeyStoreLoader;
-import org.maxkey.entity.apps.AppsSAML20Details;
 import org.opensaml.common.binding.BasicSAMLMessageContext;
 import org.opensaml.common.binding.SAMLMessageContext;
 import org.opensaml.common.binding.decoding.SAMLMessageDecoder;
@@ -33,9 +31,9 @@ import org.opensaml.common.binding.security.IssueInstantRule;
 import org.opensaml.common.binding.security.MessageReplayRule;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
 import org.opensaml.ws.security.SecurityPolicyResolver;
+import org.opensaml.ws.security.provider.StaticSecurityPolicyResolver;
 import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
 import org.opensaml.xml.security.SecurityException;
-import org.opensaml.xml.security.credential.CredentialResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -54,9 +52,6 @@ public class ExtractPostBindingAdapter implements ExtractBindingAdapter, Initial
 	protected MessageReplayRule messageReplayRule;
 	
 	protected KeyStoreLoader keyStoreLoader;
-	protected CredentialResolver credentialResolver;
-	
-	protected AppsSAML20Details  saml20Detail;
 	
 	
 	public ExtractPostBindingAdapter() {
@@ -90,6 +85,13 @@ public class ExtractPostBindingAdapter implements ExtractBindingAdapter, Initial
 	@Override
 	@SuppressWarnings("rawtypes")
 	public SAMLMessageContext extractSAMLMessageContext(HttpServletRequest request) throws MessageDecodingException, SecurityException {
+		return extractSAMLMessageContext(request, securityPolicyResolver);
+	}
+	
+	@Override
+	@SuppressWarnings("rawtypes")
+	public SAMLMessageContext extractSAMLMessageContext(HttpServletRequest request, 
+			SecurityPolicyResolver securityPolicyResolver) throws MessageDecodingException, SecurityException {
 		
 		BasicSAMLMessageContext messageContext = new BasicSAMLMessageContext();
 		
@@ -115,17 +117,9 @@ public class ExtractPostBindingAdapter implements ExtractBindingAdapter, Initial
 	}
 	
 
-	public void buildSecurityPolicyResolver(KeyStore trustKeyStore) {
-	    _logger.debug("EntityName {}, KeystorePassword {}",
-	                    keyStoreLoader.getEntityName(),keyStoreLoader.getKeystorePassword());
-	    
-		TrustResolver trustResolver = new TrustResolver(trustKeyStore,
-					keyStoreLoader.getEntityName(),
-					keyStoreLoader.getKeystorePassword(), 
-					issueInstantRule,
-					messageReplayRule,"POST");
-		credentialResolver = (CredentialResolver)trustResolver.getKeyStoreCredentialResolver();
-		this.securityPolicyResolver = trustResolver.getStaticSecurityPolicyResolver();
+	@Override
+	public String getBinding() {
+		return SpTrustMaterialCache.BINDING_POST;
 	}
 	
 	
@@ -137,18 +131,17 @@ public class ExtractPostBindingAdapter implements ExtractBindingAdapter, Initial
 		this.securityPolicyResolver = securityPolicyResolver;
 	}
 
+	/**
+	 * default security policy without signature check , applications use their own from SpTrustMaterial
+	 */
 	@Override
 	public void afterPropertiesSet() throws Exception {
-		
-	}
-
-	@Override
-	public void setSaml20Detail(AppsSAML20Details saml20Detail) {
-		this.saml20Detail=saml20Detail;
-	}
-
-	public AppsSAML20Details getSaml20Detail() {
-		return saml20Detail;
+		if(securityPolicyResolver == null) {
+			SecurityPolicyDelegate securityPolicyDelegate = new SecurityPolicyDelegate();
+			securityPolicyDelegate.addSecurityPolicy(issueInstantRule);
+			securityPolicyDelegate.addSecurityPolicy(messageReplayRule);
+			securityPolicyResolver = new StaticSecurityPolicyResolver(securityPolicyDelegate);
+		}
 	}
 
 	public KeyStoreLoader getKeyStoreLoader() {
@@ -163,13 +156,6 @@ public class ExtractPostBindingAdapter implements ExtractBindingAdapter, Initial
 
 
 
-	@Override
-	public CredentialResolver getCredentialResolver() {
-		return this.credentialResolver;
-	}
-
-
-
 	public void setIssuingEntityName(String issuingEntityName) {
 		this.issuingEntityName = issuingEntityName;
 	}
@@ -17,12 +17,9 @@
 
 package org.maxkey.authz.saml20.binding.impl;
 
-import java.security.KeyStore;
-
-import org.maxkey.authz.saml.common.TrustResolver;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache;
 import org.opensaml.common.binding.decoding.SAMLMessageDecoder;
 import org.opensaml.ws.security.SecurityPolicyResolver;
-import org.opensaml.xml.security.credential.CredentialResolver;
 
 public class ExtractRedirectBindingAdapter extends ExtractPostBindingAdapter{
 
@@ -42,16 +39,9 @@ public class ExtractRedirectBindingAdapter extends ExtractPostBindingAdapter{
 		this.securityPolicyResolver = securityPolicyResolver;
 	}
 	
-	public void buildSecurityPolicyResolver(KeyStore trustKeyStore) {
-
-		TrustResolver trustResolver = new TrustResolver(trustKeyStore,
-					keyStoreLoader.getEntityName(),
-					keyStoreLoader.getKeystorePassword(), 
-					issueInstantRule,
-					messageReplayRule,
-					"Redirect");
-		credentialResolver = (CredentialResolver)trustResolver.getKeyStoreCredentialResolver();
-		this.securityPolicyResolver = trustResolver.getStaticSecurityPolicyResolver();
+	@Override
+	public String getBinding() {
+		return SpTrustMaterialCache.BINDING_REDIRECT;
 	}
 
 }
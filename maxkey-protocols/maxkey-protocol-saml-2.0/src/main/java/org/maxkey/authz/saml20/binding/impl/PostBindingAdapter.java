@@ -18,40 +18,33 @@
 
 package org.maxkey.authz.saml20.binding.impl;
 
-import java.security.KeyStore;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.lang.Validate;
 import org.apache.velocity.app.VelocityEngine;
 import org.maxkey.authz.saml.common.AuthnRequestInfo;
-import org.maxkey.authz.saml.common.TrustResolver;
 import org.maxkey.authz.saml20.binding.BindingAdapter;
-import org.maxkey.authz.saml20.binding.ExtractBindingAdapter;
-import org.maxkey.crypto.keystore.KeyStoreLoader;
-import org.maxkey.crypto.keystore.KeyStoreUtil;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache.SpTrustMaterial;
+import org.maxkey.authz.saml20.provider.binding.encoding.DigestPostEncoder;
+import org.maxkey.authz.saml20.provider.binding.encoding.DigestPostEncoder.DigestMessageContext;
+import org.maxkey.authz.saml20.provider.xml.AssertionTemplate;
 import org.maxkey.entity.apps.AppsSAML20Details;
 import org.opensaml.common.SignableSAMLObject;
-import org.opensaml.common.binding.BasicSAMLMessageContext;
 import org.opensaml.common.binding.decoding.SAMLMessageDecoder;
 import org.opensaml.common.binding.encoding.SAMLMessageEncoder;
-import org.opensaml.saml2.binding.encoding.HTTPPostEncoder;
 import org.opensaml.saml2.metadata.Endpoint;
 import org.opensaml.ws.message.encoder.MessageEncodingException;
 import org.opensaml.ws.security.SecurityPolicyResolver;
 import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
-import org.opensaml.xml.security.CriteriaSet;
-import org.opensaml.xml.security.SecurityException;
 import org.opensaml.xml.security.credential.Credential;
-import org.opensaml.xml.security.credential.CredentialResolver;
-import org.opensaml.xml.security.credential.KeyStoreCredentialResolver;
-import org.opensaml.xml.security.credential.UsageType;
-import org.opensaml.xml.security.criteria.EntityIDCriteria;
-import org.opensaml.xml.security.criteria.UsageCriteria;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
+/**
+ * The bean is a configured prototype (encoder , issuer) shared by all requests,
+ * {@link #newBindingAdapter} copies it with the state of one SAML login.
+ */
 public class PostBindingAdapter implements BindingAdapter, InitializingBean{
 	private final static Logger logger = LoggerFactory.getLogger(PostBindingAdapter.class);
 
@@ -63,12 +56,13 @@ public class PostBindingAdapter implements BindingAdapter, InitializingBean{
 	protected SAMLMessageEncoder encoder;	
 	protected  String issuerEntityName;
 	
-	protected CredentialResolver credentialResolver;
 	protected Credential signingCredential;
 	protected Credential spSigningCredential;
 	protected SecurityPolicyResolver securityPolicyResolver;
 
-	protected ExtractBindingAdapter extractBindingAdapter;
+	protected AppsSAML20Details saml20Details;
+	
+	protected String digestAlgorithm;
 	
 	protected AuthnRequestInfo authnRequestInfo;
 	
@@ -104,7 +98,7 @@ public class PostBindingAdapter implements BindingAdapter, InitializingBean{
 		
 		HttpServletResponseAdapter outTransport = new HttpServletResponseAdapter(response, false);
 		
-		BasicSAMLMessageContext messageContext = new BasicSAMLMessageContext();
+		DigestMessageContext messageContext = new DigestMessageContext();
 		
 		if (relayState!=null) {
 			messageContext.setRelayState(relayState);
@@ -115,56 +109,43 @@ public class PostBindingAdapter implements BindingAdapter, InitializingBean{
 		messageContext.setOutboundSAMLMessage(samlMessage);
 		messageContext.setOutboundMessageIssuer(issuerEntityName);
 		messageContext.setOutboundSAMLMessageSigningCredential(signingCredential);
+		//Response signature reference digest of the SP
+		messageContext.setDigestAlgorithm(digestAlgorithm);
 		
 		encoder.encode(messageContext);
 		
 	}
 
-
-	public void  buildCredentialResolver(CredentialResolver credentialResolver) throws Exception{
-		this.credentialResolver=credentialResolver;
-		CriteriaSet criteriaSet = new CriteriaSet();
-		criteriaSet.add(new EntityIDCriteria(getKeyStoreLoader().getEntityName()));
-		criteriaSet.add(new UsageCriteria(UsageType.SIGNING));
-
-		try {
-			signingCredential = credentialResolver.resolveSingle(criteriaSet);
-		} catch (SecurityException e) {
-			logger.error("Credential Resolver error . ", e);
-			throw new Exception(e);
+	@Override
+	public BindingAdapter newBindingAdapter(AppsSAML20Details saml20Details, 
+											SpTrustMaterial trustMaterial,
+											AuthnRequestInfo authnRequestInfo,
+											String relayState) {
+		PostBindingAdapter bindingAdapter = newInstance();
+		bindingAdapter.velocityEngine = velocityEngine;
+		bindingAdapter.encoder = encoder;
+		bindingAdapter.issuerEntityName = issuerEntityName;
+		bindingAdapter.securityPolicyResolver = securityPolicyResolver;
+		
+		bindingAdapter.saml20Details = saml20Details;
+		bindingAdapter.digestAlgorithm = AssertionTemplate.digestAlgorithm(saml20Details.getDigestMethod());
+		bindingAdapter.signingCredential = trustMaterial.getSigningCredential();
+		bindingAdapter.spSigningCredential = trustMaterial.getSpSigningCredential();
+		bindingAdapter.authnRequestInfo = authnRequestInfo;
+		bindingAdapter.relayState = relayState;
+		if(bindingAdapter.signingCredential == null) {
+			logger.error("SAML APPID [{}] signing credential not found .", saml20Details.getId());
 		}
-		Validate.notNull(signingCredential);
+		return bindingAdapter;
 	}
 	
-	public Credential  buildSPSigningCredential() throws Exception{
-		KeyStore trustKeyStore = KeyStoreUtil.bytes2KeyStore(getSaml20Details().getKeyStore(),
-				getKeyStoreLoader().getKeyStore().getType(),
-				getKeyStoreLoader().getKeystorePassword());
-		
-		TrustResolver trustResolver=new TrustResolver();
-		KeyStoreCredentialResolver credentialResolver =trustResolver.buildKeyStoreCredentialResolver(
-							trustKeyStore, 
-							getSaml20Details().getEntityId(), 
-							getKeyStoreLoader().getKeystorePassword());
-	
-		CriteriaSet criteriaSet = new CriteriaSet();
-		criteriaSet.add(new EntityIDCriteria(getSaml20Details().getEntityId()));
-		criteriaSet.add(new UsageCriteria(UsageType.ENCRYPTION));
-
-		try {
-			spSigningCredential = credentialResolver.resolveSingle(criteriaSet);
-		} catch (SecurityException e) {
-			logger.error("Credential Resolver error . ", e);
-			throw new Exception(e);
-		}
-		Validate.notNull(spSigningCredential);
-		
-		return spSigningCredential;
+	protected PostBindingAdapter newInstance() {
+		return new PostBindingAdapter();
 	}
 	
 	@Override
 	public void afterPropertiesSet() throws Exception {
-		encoder = new HTTPPostEncoder(velocityEngine,"/templates/saml2-post-binding.vm");
+		encoder = new DigestPostEncoder(velocityEngine,"/templates/saml2-post-binding.vm");
 	}
 
 	/**
@@ -181,53 +162,20 @@ public class PostBindingAdapter implements BindingAdapter, InitializingBean{
 		this.issuerEntityName = issuerEntityName;
 	}
 
-	public KeyStoreLoader getKeyStoreLoader() {
-		return extractBindingAdapter.getKeyStoreLoader();
-	}
-
 	public Credential getSigningCredential() {
 		return signingCredential;
 	}
 
-	public void setSigningCredential(Credential signingCredential) {
-		this.signingCredential = signingCredential;
-	}
-
 	public Credential getSpSigningCredential() {
 		return spSigningCredential;
 	}
 
-	public void setSpSigningCredential(Credential spSigningCredential) {
-		this.spSigningCredential = spSigningCredential;
-	}
-	
 	public AuthnRequestInfo getAuthnRequestInfo() {
 		return authnRequestInfo;
 	}
 
-	public void setAuthnRequestInfo(AuthnRequestInfo authnRequestInfo) {
-		this.authnRequestInfo = authnRequestInfo;
-	}
-
-	public void setRelayState(String relayState) {
-		this.relayState = relayState;
-	}
-
-	@Override
-	public void setExtractBindingAdapter(
-			ExtractBindingAdapter extractBindingAdapter) {
-		this.extractBindingAdapter=extractBindingAdapter;
-		this.credentialResolver=extractBindingAdapter.getCredentialResolver();
-		try {
-			buildCredentialResolver(extractBindingAdapter.getCredentialResolver());
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		
-	}
-
 	@Override
 	public AppsSAML20Details getSaml20Details() {
-		return extractBindingAdapter.getSaml20Detail();
+		return saml20Details;
 	}
 }
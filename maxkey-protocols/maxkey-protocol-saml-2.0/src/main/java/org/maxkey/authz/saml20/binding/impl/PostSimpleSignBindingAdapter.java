@@ -39,6 +39,11 @@ public class PostSimpleSignBindingAdapter extends PostBindingAdapter{
 		this.securityPolicyResolver = securityPolicyResolver;
 	}
 
+	@Override
+	protected PostBindingAdapter newInstance() {
+		return new PostSimpleSignBindingAdapter();
+	}
+
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		encoder = new HTTPPostSimpleSignEncoder(velocityEngine,"/templates/saml2-post-simplesign-binding.vm", true); 
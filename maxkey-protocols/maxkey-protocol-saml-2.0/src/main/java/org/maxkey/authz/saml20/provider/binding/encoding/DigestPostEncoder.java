@@ -0,0 +1,113 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.saml20.provider.binding.encoding;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.opensaml.Configuration;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.SignableSAMLObject;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.common.impl.SAMLObjectContentReference;
+import org.opensaml.saml2.binding.encoding.HTTPPostEncoder;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.xml.io.Marshaller;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureException;
+import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.signature.impl.SignatureBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP-POST编码器,Response签名引用的摘要算法取自消息上下文(SP配置),
+ * 不使用全局安全配置的摘要算法,编码器由所有SP共享.
+ */
+public class DigestPostEncoder extends HTTPPostEncoder {
+
+	private final Logger log = LoggerFactory.getLogger(DigestPostEncoder.class);
+
+	public DigestPostEncoder(VelocityEngine engine, String templateId) {
+		super(engine, templateId);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	protected void signMessage(SAMLMessageContext messageContext) throws MessageEncodingException {
+		String digestAlgorithm = messageContext instanceof DigestMessageContext
+				? ((DigestMessageContext) messageContext).getDigestAlgorithm() : null;
+		SAMLObject outboundMessage = messageContext.getOutboundSAMLMessage();
+		Credential signingCredential = messageContext.getOuboundSAMLMessageSigningCredential();
+		if (digestAlgorithm == null
+				|| signingCredential == null
+				|| !(outboundMessage instanceof SignableSAMLObject)) {
+			super.signMessage(messageContext);
+			return;
+		}
+
+		SignableSAMLObject signableMessage = (SignableSAMLObject) outboundMessage;
+		Signature signature = new SignatureBuilder().buildObject();
+		signature.setSigningCredential(signingCredential);
+		try {
+			SecurityHelper.prepareSignatureParams(signature, signingCredential, null, null);
+		} catch (SecurityException e) {
+			throw new MessageEncodingException("Error preparing signature for signing", e);
+		}
+
+		signableMessage.setSignature(signature);
+		//digest of this message only , global security configuration is not touched
+		((SAMLObjectContentReference) signature.getContentReferences().get(0)).setDigestAlgorithm(digestAlgorithm);
+
+		try {
+			Marshaller marshaller = Configuration.getMarshallerFactory().getMarshaller(signableMessage);
+			if (marshaller == null) {
+				throw new MessageEncodingException("No marshaller registered for "
+						+ signableMessage.getElementQName() + ", unable to marshall in preperation for signing");
+			}
+			marshaller.marshall(signableMessage);
+			Signer.signObject(signature);
+		} catch (MarshallingException e) {
+			log.error("Unable to marshall protocol message in preparation for signing", e);
+			throw new MessageEncodingException("Unable to marshall protocol message in preparation for signing", e);
+		} catch (SignatureException e) {
+			log.error("Unable to sign protocol message", e);
+			throw new MessageEncodingException("Unable to sign protocol message", e);
+		}
+	}
+
+	/**
+	 * 携带签名引用摘要算法的消息上下文,每次发送创建.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static class DigestMessageContext extends BasicSAMLMessageContext {
+
+		private String digestAlgorithm;
+
+		public String getDigestAlgorithm() {
+			return digestAlgorithm;
+		}
+
+		public void setDigestAlgorithm(String digestAlgorithm) {
+			this.digestAlgorithm = digestAlgorithm;
+		}
+	}
+}
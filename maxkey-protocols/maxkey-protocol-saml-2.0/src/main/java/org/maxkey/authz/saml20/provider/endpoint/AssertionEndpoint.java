@@ -46,8 +46,6 @@ import org.springframework.web.servlet.ModelAndView;
 public class AssertionEndpoint {
 	private final static Logger logger = LoggerFactory.getLogger(AssertionEndpoint.class);
 	
-	private BindingAdapter bindingAdapter;
-
 	@Autowired
 	@Qualifier("endpointGenerator")
 	EndpointGenerator endpointGenerator;
@@ -59,7 +57,7 @@ public class AssertionEndpoint {
 	@RequestMapping(value = "/authz/saml20/assertion")
 	public ModelAndView assertion(HttpServletRequest request,HttpServletResponse response) throws Exception {
 		logger.debug("saml20 assertion start.");
-		bindingAdapter = (BindingAdapter) request.getSession().getAttribute(
+		BindingAdapter bindingAdapter = (BindingAdapter) request.getSession().getAttribute(
 		        WebConstants.AUTHORIZE_SIGN_ON_APP_SAMLV20_ADAPTER);
 		logger.debug("saml20 assertion get session samlv20Adapter "+bindingAdapter);
 		AppsSAML20Details saml20Details = bindingAdapter.getSaml20Details();
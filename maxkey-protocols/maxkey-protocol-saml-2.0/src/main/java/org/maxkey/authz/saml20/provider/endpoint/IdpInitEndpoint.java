@@ -17,15 +17,12 @@
 
 package org.maxkey.authz.saml20.provider.endpoint;
 
-import java.security.KeyStore;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.maxkey.authz.saml.common.AuthnRequestInfo;
 import org.maxkey.authz.saml20.binding.BindingAdapter;
-import org.maxkey.authz.saml20.binding.ExtractBindingAdapter;
-import org.maxkey.crypto.keystore.KeyStoreLoader;
-import org.maxkey.crypto.keystore.KeyStoreUtil;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache.SpTrustMaterial;
 import org.maxkey.entity.apps.AppsSAML20Details;
 import org.maxkey.persistence.service.AppsSaml20DetailsService;
 import org.maxkey.web.WebConstants;
@@ -54,8 +51,6 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 public class IdpInitEndpoint {
 	private final static Logger logger = LoggerFactory.getLogger(IdpInitEndpoint.class);
 
-	private BindingAdapter bindingAdapter;
-	
 	@Autowired
 	@Qualifier("postSimpleSignBindingAdapter")
 	private BindingAdapter postSimpleSignBindingAdapter;
@@ -65,12 +60,8 @@ public class IdpInitEndpoint {
 	private BindingAdapter postBindingAdapter;
 	
 	@Autowired
-	@Qualifier("extractRedirectBindingAdapter")
-	private ExtractBindingAdapter extractRedirectBindingAdapter;
-
-	@Autowired
-	@Qualifier("keyStoreLoader")
-	private KeyStoreLoader keyStoreLoader;
+	@Qualifier("spTrustMaterialCache")
+	private SpTrustMaterialCache spTrustMaterialCache;
 
 	@Autowired
 	private AppsSaml20DetailsService saml20DetailsService;
@@ -99,15 +90,11 @@ public class IdpInitEndpoint {
 			throw new Exception();
 		}
 
-		KeyStore trustKeyStore = KeyStoreUtil.bytes2KeyStore(saml20Details.getKeyStore(),
-				keyStoreLoader.getKeyStore().getType(),
-				keyStoreLoader.getKeystorePassword());
-
-		extractRedirectBindingAdapter.setSaml20Detail(saml20Details);
-		extractRedirectBindingAdapter.buildSecurityPolicyResolver(trustKeyStore);
+		SpTrustMaterial trustMaterial = spTrustMaterialCache.get(saml20Details);
 		
 		String binding=saml20Details.getBinding();
 		
+		BindingAdapter bindingAdapter;
 		if(binding.endsWith("PostSimpleSign")){
 			bindingAdapter=postSimpleSignBindingAdapter;
 		}else{
@@ -115,9 +102,8 @@ public class IdpInitEndpoint {
 		}
 		
 		//AuthnRequestInfo init authnRequestID to null
-		bindingAdapter.setAuthnRequestInfo(new AuthnRequestInfo());
-
-		bindingAdapter.setExtractBindingAdapter(extractRedirectBindingAdapter);
+		bindingAdapter = bindingAdapter.newBindingAdapter(
+				saml20Details, trustMaterial, new AuthnRequestInfo(), null);
 		
 		request.getSession().setAttribute(WebConstants.AUTHORIZE_SIGN_ON_APP_SAMLV20_ADAPTER, bindingAdapter);
 
@@ -127,12 +113,4 @@ public class IdpInitEndpoint {
 	}
 
 
-	/**
-	 * @param keyStoreLoader
-	 *            the keyStoreLoader to set
-	 */
-	public void setKeyStoreLoader(KeyStoreLoader keyStoreLoader) {
-		this.keyStoreLoader = keyStoreLoader;
-	}
-
 }
@@ -17,15 +17,15 @@
 
 package org.maxkey.authz.saml20.provider.endpoint;
 
-import java.security.KeyStore;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.maxkey.authz.saml.common.AuthnRequestInfo;
 import org.maxkey.authz.saml20.binding.BindingAdapter;
 import org.maxkey.authz.saml20.binding.ExtractBindingAdapter;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache.SpTrustMaterial;
 import org.maxkey.authz.saml20.xml.SAML2ValidatorSuite;
-import org.maxkey.crypto.keystore.KeyStoreUtil;
 import org.maxkey.entity.apps.AppsSAML20Details;
 import org.maxkey.persistence.service.AppsSaml20DetailsService;
 import org.maxkey.web.WebConstants;
@@ -53,8 +53,6 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 public class SingleSignOnEndpoint {
 	private final static Logger logger = LoggerFactory.getLogger(SingleSignOnEndpoint.class);
 
-	private BindingAdapter bindingAdapter;
-	
 	@Autowired
 	@Qualifier("postSimpleSignBindingAdapter")
 	private BindingAdapter postSimpleSignBindingAdapter;
@@ -77,6 +75,10 @@ public class SingleSignOnEndpoint {
 
 	@Autowired
 	private AppsSaml20DetailsService saml20DetailsService;
+	
+	@Autowired
+	@Qualifier("spTrustMaterialCache")
+	private SpTrustMaterialCache spTrustMaterialCache;
 
 	@Operation(summary = "SAML 2.0 SP Init接收接口", description = "传递参数应用ID",method="POST")
 	@RequestMapping(value = "/authz/saml20/{appid}", method=RequestMethod.POST)
@@ -103,41 +105,39 @@ public class SingleSignOnEndpoint {
 											HttpServletRequest request) throws Exception{
 		logger.debug("SAML Redirect Binding , app id is "+appId);
 		
-		extractSaml20Detail(extractBindingAdapter,appId);
+		AppsSAML20Details  saml20Details = extractSaml20Detail(appId);
 
-		extractSAMLMessage(extractBindingAdapter,request);
+		BindingAdapter bindingAdapter = extractSAMLMessage(extractBindingAdapter,saml20Details,request);
 		
 		request.getSession().setAttribute(WebConstants.AUTHORIZE_SIGN_ON_APP_SAMLV20_ADAPTER, bindingAdapter);
 		
 		return WebContext.forward("/authz/saml20/assertion");
 	}
 
-	public void extractSaml20Detail(ExtractBindingAdapter extractBindingAdapter,String samlId) throws Exception{
+	public AppsSAML20Details extractSaml20Detail(String samlId) throws Exception{
 		AppsSAML20Details  saml20Details  = saml20DetailsService.getAppDetails(samlId , true);
 		WebContext.setAttribute(WebConstants.AUTHORIZE_SIGN_ON_APP, saml20Details);
 		if (saml20Details == null) {
 			logger.error("Request SAML APPID [" + samlId + "] is not exist .");
 			throw new Exception();
 		}
-
-		KeyStore trustKeyStore = KeyStoreUtil.bytes2KeyStore(saml20Details.getKeyStore(),
-				extractBindingAdapter.getKeyStoreLoader().getKeyStore().getType(),
-				extractBindingAdapter.getKeyStoreLoader().getKeystorePassword());
-
-		extractBindingAdapter.setSaml20Detail(saml20Details);
-		extractBindingAdapter.buildSecurityPolicyResolver(trustKeyStore);
+		return saml20Details;
 	}
 	
 
 	   
 	@SuppressWarnings("rawtypes")
-	public void extractSAMLMessage(ExtractBindingAdapter extractBindingAdapter,HttpServletRequest request) throws Exception{
+	public BindingAdapter extractSAMLMessage(ExtractBindingAdapter extractBindingAdapter,
+											AppsSAML20Details saml20Details,
+											HttpServletRequest request) throws Exception{
 		
 	    SAMLMessageContext messageContext;
 		logger.debug("extract SAML Message .");
 		
 		try {
-			messageContext = extractBindingAdapter.extractSAMLMessageContext(request);
+			SpTrustMaterial trustMaterial = spTrustMaterialCache.get(saml20Details);
+			messageContext = extractBindingAdapter.extractSAMLMessageContext(request,
+					trustMaterial.getSecurityPolicyResolver(extractBindingAdapter.getBinding()));
 			logger.debug("validate SAML AuthnRequest .");
 	        AuthnRequest authnRequest = (AuthnRequest) messageContext.getInboundSAMLMessage();
 	        logger.debug("AuthnRequest ProtocolBinding "+authnRequest.getProtocolBinding());
@@ -153,8 +153,9 @@ public class SingleSignOnEndpoint {
 	        
 
 	        logger.debug("Select Authz  Binding.");
-	        String binding=extractBindingAdapter.getSaml20Detail().getBinding();
+	        String binding=saml20Details.getBinding();
 	        
+	        BindingAdapter bindingAdapter;
 	        if(binding.endsWith("PostSimpleSign")){
 	            bindingAdapter=postSimpleSignBindingAdapter;
 	            logger.debug("Authz POST Binding is  use PostSimpleSign .");
@@ -170,16 +171,13 @@ public class SingleSignOnEndpoint {
 	        
 	        logger.debug("AuthnRequest vefified.  Forwarding to AuthnResponder",authnRequestInfo);
 	        
-	        bindingAdapter.setAuthnRequestInfo(authnRequestInfo);
-	        
-	        bindingAdapter.setExtractBindingAdapter(extractBindingAdapter);
-	        
 	        String relayState=request.getParameter("RelayState");
 	        if (relayState != null) {
-	            bindingAdapter.setRelayState(relayState);
 	            logger.debug("RelayState : ",relayState);
 	        }
 	        
+	        return bindingAdapter.newBindingAdapter(saml20Details, trustMaterial, authnRequestInfo, relayState);
+	        
 		} catch (MessageDecodingException e1) {
 			logger.error("Exception decoding SAML MessageDecodingException", e1);
 			throw new Exception(e1);
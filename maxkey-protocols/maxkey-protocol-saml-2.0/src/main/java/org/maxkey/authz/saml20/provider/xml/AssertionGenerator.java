@@ -28,6 +28,7 @@ import org.maxkey.authz.saml20.xml.IssuerGenerator;
 import org.maxkey.entity.apps.AppsSAML20Details;
 import org.maxkey.web.WebContext;
 import org.opensaml.Configuration;
+import org.opensaml.common.impl.SAMLObjectContentReference;
 import org.opensaml.saml2.core.Assertion;
 import org.opensaml.saml2.core.AttributeStatement;
 import org.opensaml.saml2.core.AuthnStatement;
@@ -37,6 +38,7 @@ import org.opensaml.saml2.core.Subject;
 import org.opensaml.saml2.core.impl.AssertionBuilder;
 import org.opensaml.xml.security.BasicSecurityConfiguration;
 import org.opensaml.xml.security.credential.BasicCredential;
+import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.security.keyinfo.KeyInfoGeneratorFactory;
 import org.opensaml.xml.signature.Signature;
 import org.opensaml.xml.signature.SignatureConstants;
@@ -48,6 +50,9 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 public class AssertionGenerator {
 	private final static Logger logger = LoggerFactory.getLogger(AssertionGenerator.class);
 
@@ -58,6 +63,12 @@ public class AssertionGenerator {
 	private final AuthnStatementGenerator authnStatementGenerator ;
 	private final AttributeStatementGenerator attributeStatementGenerator;
 	private final ConditionsGenerator conditionsGenerator;
+	//per SP assertion templates , key app id
+	private final Cache<String, AssertionTemplate> assertionTemplates = Caffeine.newBuilder()
+							.maximumSize(10000)
+							.recordStats()
+							.build();
+	private boolean templateEnabled = true;
 
 	public AssertionGenerator(
 							String issuerName,
@@ -81,6 +92,16 @@ public class AssertionGenerator {
 							int validInSeconds,
 							HashMap<String,String>attributeMap
 							) {
+		if(templateEnabled) {
+			return generateAssertion(
+							getAssertionTemplate(saml20Details, bindingAdapter.getSigningCredential()),
+							saml20Details,
+							assertionConsumerURL,
+							inResponseTo,
+							audienceUrl,
+							validInSeconds,
+							attributeMap);
+		}
 
 		Assertion assertion = new AssertionBuilder().buildObject();;
 		//Subject
@@ -185,21 +206,11 @@ public class AssertionGenerator {
                 config.registerSignatureAlgorithmURI(saml20Details.getSignature(), SignatureConstants.ALGO_ID_MAC_HMAC_RIPEMD160);
             }
 	        
-            if(saml20Details.getDigestMethod().equalsIgnoreCase("MD5"))  {  
-                config.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_NOT_RECOMMENDED_MD5);
-            }else if(saml20Details.getDigestMethod().equalsIgnoreCase("SHA1"))  {  
-                config.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA1);
-            }else if(saml20Details.getDigestMethod().equalsIgnoreCase("SHA256"))  {  
-                config.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
-            }else if(saml20Details.getDigestMethod().equalsIgnoreCase("SHA384"))  {  
-                config.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA384);
-            }else if(saml20Details.getDigestMethod().equalsIgnoreCase("SHA512"))  {  
-                config.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA512);
-            }else if(saml20Details.getDigestMethod().equalsIgnoreCase("RIPEMD-160"))  {  
-                config.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_RIPEMD160);
-            }
-            
 			assertion.setSignature(signature);
+			String digestAlgorithm = AssertionTemplate.digestAlgorithm(saml20Details.getDigestMethod());
+			if(digestAlgorithm != null) {
+				((SAMLObjectContentReference) signature.getContentReferences().get(0)).setDigestAlgorithm(digestAlgorithm);
+			}
 
 			Configuration.getMarshallerFactory().getMarshaller(assertion).marshall(assertion);
             Signer.signObject(signature);
@@ -212,4 +223,61 @@ public class AssertionGenerator {
 
 		return assertion;
 	}
+
+	/**
+	 * same elements and order as the generator chain , 
+	 * signature and extend attributes come from the SP template
+	 */
+	Assertion generateAssertion(
+							AssertionTemplate assertionTemplate,
+							AppsSAML20Details saml20Details,
+							String assertionConsumerURL, 
+							String inResponseTo, 
+							String audienceUrl,
+							int validInSeconds,
+							HashMap<String,String>attributeMap) {
+		Assertion assertion = new AssertionBuilder().buildObject();
+		assertion.setSubject(subjectGenerator.generateSubject(
+		                saml20Details,
+						assertionConsumerURL,
+						inResponseTo,
+						validInSeconds));
+		assertion.setIssuer(issuerGenerator.generateIssuer());
+		DateTime authnInstant = new DateTime(WebContext.getSession().getCreationTime());
+		assertion.getAuthnStatements().add(authnStatementGenerator.generateAuthnStatement(authnInstant));
+		
+		ArrayList<GrantedAuthority> grantedAuthoritys = new ArrayList<GrantedAuthority>();
+		grantedAuthoritys.add(new SimpleGrantedAuthority("ROLE_USER"));
+		grantedAuthoritys.addAll(WebContext.getAuthentication().getAuthorities());
+		assertion.getAttributeStatements().add(attributeStatementGenerator.generateAttributeStatement(
+									grantedAuthoritys, attributeMap, assertionTemplate.getExtraAttrs()));
+		
+		assertion.setID(idService.generateID());
+		assertion.setIssueInstant(timeService.getCurrentDateTime());
+		assertion.setConditions(conditionsGenerator.generateConditions(audienceUrl,validInSeconds));
+		try{
+			assertionTemplate.sign(assertion);
+			logger.debug("assertion.isSigned "+assertion.isSigned());
+		}catch (Exception e) {
+			logger.error("Unable to Signer assertion ",e);
+		}
+		return assertion;
+	}
+
+	AssertionTemplate getAssertionTemplate(AppsSAML20Details saml20Details, Credential signingCredential) {
+		AssertionTemplate assertionTemplate = assertionTemplates.getIfPresent(saml20Details.getId());
+		if(assertionTemplate == null || !assertionTemplate.matches(saml20Details, signingCredential)) {
+			assertionTemplate = new AssertionTemplate(saml20Details, signingCredential);
+			assertionTemplates.put(saml20Details.getId(), assertionTemplate);
+		}
+		return assertionTemplate;
+	}
+
+	public Cache<String, AssertionTemplate> getAssertionTemplates() {
+		return assertionTemplates;
+	}
+
+	public void setTemplateEnabled(boolean templateEnabled) {
+		this.templateEnabled = templateEnabled;
+	}
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.saml20.provider.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.maxkey.constants.ConstsBoolean;
+import org.maxkey.entity.ExtraAttr;
+import org.maxkey.entity.ExtraAttrs;
+import org.maxkey.entity.apps.AppsSAML20Details;
+import org.opensaml.Configuration;
+import org.opensaml.common.impl.SAMLObjectContentReference;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.xml.io.Marshaller;
+import org.opensaml.xml.security.credential.BasicCredential;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.keyinfo.KeyInfoGenerator;
+import org.opensaml.xml.security.keyinfo.KeyInfoGeneratorFactory;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.signature.impl.SignatureBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 单个SP的断言模板,签名算法、摘要算法、签名证书、KeyInfo生成器及扩展属性只解析一次.
+ * <p>
+ * 与{@link AssertionGenerator}原实现的结果一致,区别在于摘要算法设置在断言自身的签名引用上,
+ * 不再修改全局安全配置,不同SP并发签名时互不影响.
+ * 应用的签名、摘要、扩展属性或签名证书变化后与模板不一致,重新创建.
+ * </p>
+ */
+public class AssertionTemplate {
+	private final static Logger logger = LoggerFactory.getLogger(AssertionTemplate.class);
+
+	static final Map<String, String> SIGNATURE_ALGORITHMS = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+	static final Map<String, String> DIGEST_METHODS = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		SIGNATURE_ALGORITHMS.put("RSAwithSHA1", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1);
+		SIGNATURE_ALGORITHMS.put("RSAwithSHA256", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+		SIGNATURE_ALGORITHMS.put("RSAwithSHA384", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA384);
+		SIGNATURE_ALGORITHMS.put("RSAwithSHA512", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512);
+		SIGNATURE_ALGORITHMS.put("RSAwithMD5", SignatureConstants.ALGO_ID_SIGNATURE_NOT_RECOMMENDED_RSA_MD5);
+		SIGNATURE_ALGORITHMS.put("RSAwithRIPEMD160", SignatureConstants.ALGO_ID_SIGNATURE_RSA_RIPEMD160);
+		SIGNATURE_ALGORITHMS.put("DSAwithSHA1", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA1);
+		SIGNATURE_ALGORITHMS.put("ECDSAwithSHA256", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256);
+		SIGNATURE_ALGORITHMS.put("ECDSAwithSHA384", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384);
+		SIGNATURE_ALGORITHMS.put("ECDSAwithSHA512", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512);
+		SIGNATURE_ALGORITHMS.put("HMAC-MD5", SignatureConstants.ALGO_ID_MAC_HMAC_NOT_RECOMMENDED_MD5);
+		SIGNATURE_ALGORITHMS.put("HMAC-SHA1", SignatureConstants.ALGO_ID_MAC_HMAC_SHA1);
+		SIGNATURE_ALGORITHMS.put("HMAC-SHA256", SignatureConstants.ALGO_ID_MAC_HMAC_SHA256);
+		SIGNATURE_ALGORITHMS.put("HMAC-SHA384", SignatureConstants.ALGO_ID_MAC_HMAC_SHA384);
+		SIGNATURE_ALGORITHMS.put("HMAC-SHA512", SignatureConstants.ALGO_ID_MAC_HMAC_SHA512);
+		SIGNATURE_ALGORITHMS.put("HMAC-RIPEMD160", SignatureConstants.ALGO_ID_MAC_HMAC_RIPEMD160);
+
+		DIGEST_METHODS.put("MD5", SignatureConstants.ALGO_ID_DIGEST_NOT_RECOMMENDED_MD5);
+		DIGEST_METHODS.put("SHA1", SignatureConstants.ALGO_ID_DIGEST_SHA1);
+		DIGEST_METHODS.put("SHA256", SignatureConstants.ALGO_ID_DIGEST_SHA256);
+		DIGEST_METHODS.put("SHA384", SignatureConstants.ALGO_ID_DIGEST_SHA384);
+		DIGEST_METHODS.put("SHA512", SignatureConstants.ALGO_ID_DIGEST_SHA512);
+		DIGEST_METHODS.put("RIPEMD-160", SignatureConstants.ALGO_ID_DIGEST_RIPEMD160);
+	}
+
+	final String signature;
+
+	final String digestMethod;
+
+	final int isExtendAttr;
+
+	final String extendAttr;
+
+	final Credential signingCredential;
+
+	final String signatureAlgorithm;
+
+	final String digestAlgorithm;
+
+	final BasicCredential basicCredential;
+
+	final KeyInfoGenerator keyInfoGenerator;
+
+	final List<ExtraAttr> extraAttrs;
+
+	public AssertionTemplate(AppsSAML20Details saml20Details, Credential signingCredential) {
+		this.signature = saml20Details.getSignature();
+		this.digestMethod = saml20Details.getDigestMethod();
+		this.isExtendAttr = saml20Details.getIsExtendAttr();
+		this.extendAttr = saml20Details.getExtendAttr();
+		this.signingCredential = signingCredential;
+
+		this.signatureAlgorithm = signature == null ? null : SIGNATURE_ALGORITHMS.get(signature);
+		this.digestAlgorithm = digestAlgorithm(digestMethod);
+
+		if(signingCredential != null) {
+			basicCredential = new BasicCredential();
+			basicCredential.setPrivateKey(signingCredential.getPrivateKey());
+			KeyInfoGeneratorFactory keyInfoGeneratorFactory = Configuration
+					.getGlobalSecurityConfiguration()
+					.getKeyInfoGeneratorManager().getDefaultManager()
+					.getFactory(signingCredential);
+			keyInfoGenerator = keyInfoGeneratorFactory.newInstance();
+		}else {
+			basicCredential = null;
+			keyInfoGenerator = null;
+		}
+
+		this.extraAttrs = parseExtraAttrs(saml20Details);
+		logger.debug("SAML APPID [{}] assertion template , signature {} , digest {}",
+				saml20Details.getId(), signatureAlgorithm, digestAlgorithm);
+	}
+
+	/**
+	 * 摘要算法名称(SHA256等)对应的算法URI,未知或为空时返回null
+	 * @param digestMethod
+	 * @return
+	 */
+	public static String digestAlgorithm(String digestMethod) {
+		return digestMethod == null ? null : DIGEST_METHODS.get(digestMethod);
+	}
+
+	static List<ExtraAttr> parseExtraAttrs(AppsSAML20Details saml20Details) {
+		if(!ConstsBoolean.isTrue(saml20Details.getIsExtendAttr()) || saml20Details.getExtendAttr() == null) {
+			return Collections.emptyList();
+		}
+		List<ExtraAttr> extraAttrs = new ArrayList<ExtraAttr>();
+		for(ExtraAttr extraAttr : new ExtraAttrs(saml20Details.getExtendAttr()).getExtraAttrs()) {
+			extraAttr.setValue(extraAttr.getValue().replaceAll(
+					AttributeStatementGenerator.COMMA_ISO8859_1, AttributeStatementGenerator.COMMA));
+			extraAttrs.add(extraAttr);
+		}
+		return Collections.unmodifiableList(extraAttrs);
+	}
+
+	boolean matches(AppsSAML20Details saml20Details, Credential signingCredential) {
+		return this.signingCredential == signingCredential
+				&& Objects.equals(signature, saml20Details.getSignature())
+				&& Objects.equals(digestMethod, saml20Details.getDigestMethod())
+				&& isExtendAttr == saml20Details.getIsExtendAttr()
+				&& Objects.equals(extendAttr, saml20Details.getExtendAttr());
+	}
+
+	/**
+	 * marshall and sign the assertion , the DOM is kept and reused when the Response is marshalled
+	 * @param assertion
+	 * @throws Exception
+	 */
+	public void sign(Assertion assertion) throws Exception {
+		if(signingCredential == null) {
+			throw new Exception("Signing Credential is null..." );
+		}
+		Signature signature = new SignatureBuilder().buildObject();
+		signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+		signature.setSigningCredential(basicCredential);
+		signature.setKeyInfo(keyInfoGenerator.generate(signingCredential));
+		signature.setSignatureAlgorithm(signatureAlgorithm);
+
+		assertion.setSignature(signature);
+		if(digestAlgorithm != null) {
+			//digest of this assertion only , global security configuration is not touched
+			((SAMLObjectContentReference) signature.getContentReferences().get(0)).setDigestAlgorithm(digestAlgorithm);
+		}
+
+		Marshaller marshaller = Configuration.getMarshallerFactory().getMarshaller(assertion);
+		marshaller.marshall(assertion);
+		Signer.signObject(signature);
+	}
+
+	public List<ExtraAttr> getExtraAttrs() {
+		return extraAttrs;
+	}
+
+	public Credential getSigningCredential() {
+		return signingCredential;
+	}
+
+	public String getSignatureAlgorithm() {
+		return signatureAlgorithm;
+	}
+
+	public String getDigestAlgorithm() {
+		return digestAlgorithm;
+	}
+}
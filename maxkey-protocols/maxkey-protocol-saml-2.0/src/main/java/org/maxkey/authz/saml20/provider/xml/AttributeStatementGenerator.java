@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -86,21 +87,49 @@ public class AttributeStatementGenerator {
 			ExtraAttrs extraAttrs=new ExtraAttrs(saml20Details.getExtendAttr());
 			for(ExtraAttr extraAttr : extraAttrs.getExtraAttrs()) {
 				extraAttr.setValue(extraAttr.getValue().replaceAll(COMMA_ISO8859_1, COMMA));
-				logger.debug("Attribute : {} , Vale : {} , Type : {}",
-								extraAttr.getAttr(),extraAttr.getValue(),extraAttr.getType());
-				
-				attributeStatement.getAttributes().add(builderAttribute(
-																extraAttr.getAttr(),
-																extraAttr.getValue(),
-																extraAttr.getType()
-															)
-														);
 			}
+			addExtraAttributes(attributeStatement, extraAttrs.getExtraAttrs());
 		}
 		
 		return attributeStatement;
 	}
 	
+	/**
+	 * same as {@link #generateAttributeStatement(AppsSAML20Details, ArrayList, HashMap)} ,
+	 * extend attributes are parsed by the assertion template
+	 */
+	public AttributeStatement generateAttributeStatement(
+					ArrayList<GrantedAuthority> grantedAuthoritys,
+					HashMap<String,String>attributeMap,
+					List<ExtraAttr> extraAttrs) {
+		AttributeStatementBuilder attributeStatementBuilder = (AttributeStatementBuilder) builderFactory.getBuilder(AttributeStatement.DEFAULT_ELEMENT_NAME);
+		AttributeStatement attributeStatement = attributeStatementBuilder.buildObject();
+		
+		attributeStatement.getAttributes().add(builderGrantedAuthority(grantedAuthoritys));
+		
+		putUserAttributes(attributeMap);
+		for(Map.Entry<String, String> entry : attributeMap.entrySet()) {
+			attributeStatement.getAttributes().add(builderAttribute(entry.getKey(),entry.getValue(),Attribute.BASIC));
+		}
+		
+		addExtraAttributes(attributeStatement, extraAttrs);
+		return attributeStatement;
+	}
+	
+	void addExtraAttributes(AttributeStatement attributeStatement, List<ExtraAttr> extraAttrs) {
+		for(ExtraAttr extraAttr : extraAttrs) {
+			logger.debug("Attribute : {} , Vale : {} , Type : {}",
+							extraAttr.getAttr(),extraAttr.getValue(),extraAttr.getType());
+			
+			attributeStatement.getAttributes().add(builderAttribute(
+															extraAttr.getAttr(),
+															extraAttr.getValue(),
+															extraAttr.getType()
+														)
+													);
+		}
+	}
+	
 	public Attribute builderAttribute(String attributeName,String value ,String nameFormat){
 		AttributeBuilder attributeBuilder = (AttributeBuilder) builderFactory.getBuilder(Attribute.DEFAULT_ELEMENT_NAME);
 		Attribute attribute = attributeBuilder.buildObject();
@@ -42,7 +42,11 @@ import org.opensaml.xml.security.keyinfo.KeyInfoGeneratorFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class AuthnResponseGenerator {
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+public class AuthnResponseGenerator implements MeterBinder {
 	private final static Logger logger = LoggerFactory.getLogger(AuthnResponseGenerator.class);
 	private  String issuerName;
 	private  IDService idService;
@@ -116,5 +120,15 @@ public class AuthnResponseGenerator {
 		return authResponse;
 	}
 	
+	/**
+	 * @param templateEnabled false to build every assertion with the generator chain
+	 */
+	public void setAssertionTemplateEnabled(boolean templateEnabled) {
+		assertionGenerator.setTemplateEnabled(templateEnabled);
+	}
 	
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, assertionGenerator.getAssertionTemplates(), "saml20AssertionTemplate");
+	}
 }
@@ -28,6 +28,7 @@ import org.maxkey.authz.saml.service.TimeService;
 import org.maxkey.authz.saml20.binding.decoder.OpenHTTPPostDecoder;
 import org.maxkey.authz.saml20.binding.decoder.OpenHTTPPostSimpleSignDecoder;
 import org.maxkey.authz.saml20.binding.decoder.OpenHTTPRedirectDecoder;
+import org.maxkey.authz.saml20.binding.SpTrustMaterialCache;
 import org.maxkey.authz.saml20.binding.impl.ExtractPostBindingAdapter;
 import org.maxkey.authz.saml20.binding.impl.ExtractRedirectBindingAdapter;
 import org.maxkey.authz.saml20.binding.impl.PostBindingAdapter;
@@ -107,9 +108,11 @@ public class Saml20AutoConfiguration implements InitializingBean {
      */
     @Bean(name = "authnResponseGenerator")
     public AuthnResponseGenerator authnResponseGenerator(TimeService timeService,IDService idService,
-            @Value("${maxkey.saml.v20.idp.issuer}") String issuerEntityName) {
+            @Value("${maxkey.saml.v20.idp.issuer}") String issuerEntityName,
+            @Value("${maxkey.saml.v20.assertion.template.enabled:true}") boolean templateEnabled) {
         _logger.debug("issuerEntityName " + issuerEntityName);
         AuthnResponseGenerator generator = new AuthnResponseGenerator(issuerEntityName,timeService,idService);
+        generator.setAssertionTemplateEnabled(templateEnabled);
         return generator;
     }
     
@@ -302,6 +305,16 @@ public class Saml20AutoConfiguration implements InitializingBean {
     }
     
     
+    /**
+     * SAML应用KeyStore、证书及安全策略缓存.
+     * @return spTrustMaterialCache
+     */
+    @Bean(name = "spTrustMaterialCache")
+    public SpTrustMaterialCache spTrustMaterialCache(
+            KeyStoreLoader keyStoreLoader,IssueInstantRule issueInstantRule,MessageReplayRule messageReplayRule) {
+        return new SpTrustMaterialCache(keyStoreLoader, issueInstantRule, messageReplayRule);
+    }
+    
     /**
      * PostSimpleSignBindingAdapter.
      * @return postSimpleSignBindingAdapter
@@ -17,102 +17,333 @@
 
 package org.maxkey.synchronizer.activedirectory;
 
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.maxkey.constants.ConstsStatus;
 import org.maxkey.constants.ldap.ActiveDirectoryUser;
 import org.maxkey.crypto.DigestUtils;
-import org.maxkey.entity.HistorySynchronizer;
 import org.maxkey.entity.Organizations;
 import org.maxkey.entity.SynchroRelated;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.persistence.ldap.ActiveDirectoryUtils;
+import org.maxkey.persistence.ldap.DirSyncControl;
 import org.maxkey.persistence.ldap.LdapUtils;
 import org.maxkey.synchronizer.AbstractSynchronizerService;
 import org.maxkey.synchronizer.ISynchronizerService;
+import org.maxkey.synchronizer.SynchronizerWatermark;
+import org.maxkey.synchronizer.UsersBulkSynchronizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class ActiveDirectoryUsersService extends AbstractSynchronizerService    implements ISynchronizerService{
 	final static Logger _logger = LoggerFactory.getLogger(ActiveDirectoryUsersService.class);
 
+	static final String USN_CHANGED = "uSNChanged";
+	
+	static final String IS_DELETED = "isDeleted";
+	
+	static final String HIGHEST_COMMITTED_USN = "highestCommittedUSN";
+	
+	static final String DS_SERVICE_NAME = "dsServiceName";
+	
+	static final String DEFAULT_NAMING_CONTEXT = "defaultNamingContext";
+	
+	static final String DIRSYNC_WATERMARK = "DirSync";
+	
 	ActiveDirectoryUtils ldapUtils;
 	
+	@Value("${maxkey.synchronizer.ldap.page.size:500}")
+	int pageSize;
+	
+	@Value("${maxkey.synchronizer.ldap.incremental:true}")
+	boolean incremental;
+	
+	@Value("${maxkey.synchronizer.ldap.full.interval:24}")
+	int fullInterval;
+	
+	/**
+	 * 使用DirSync控件增量同步,需要"复制目录更改"权限,否则使用uSNChanged
+	 */
+	@Value("${maxkey.synchronizer.activedirectory.dirsync:false}")
+	boolean dirSync;
+	
 	public void sync() {
 		_logger.info("Sync ActiveDirectory Users...");
 		loadOrgsByInstId(this.synchronizer.getInstId(),Organizations.ROOT_ORG_ID);
+		SynchronizerWatermark watermark = 
+				SynchronizerWatermark.load(synchroRelatedService, synchronizer, UserInfo.CLASS_TYPE);
+		UsersBulkSynchronizer usersBulkSynchronizer = newUsersBulkSynchronizer();
+		//no mobile , use id for new users
+		usersBulkSynchronizer.setBeforeInsert(userInfo -> {
+			if(StringUtils.isBlank(userInfo.getMobile())) {
+				userInfo.setMobile(userInfo.getId());
+			}
+		});
 		try {
-			SearchControls constraints = new SearchControls();
-			constraints.setSearchScope(ldapUtils.getSearchScope());
-			String filter = StringUtils.isNotBlank(this.getSynchronizer().getFilters())?
-								getSynchronizer().getFilters() : "(&(objectClass=User))";
-			NamingEnumeration<SearchResult> results = 
-					ldapUtils.getConnection().search(ldapUtils.getBaseDN(), filter, constraints);
-			
-			long recordCount = 0;
-			while (null != results && results.hasMoreElements()) {
-				Object obj = results.nextElement();
-				if (obj instanceof SearchResult) {
-					SearchResult sr = (SearchResult) obj;
-					if(sr.getNameInNamespace().contains("CN=Users,")
-					        ||sr.getNameInNamespace().contains("OU=Domain Controllers,")) {
-					    _logger.trace("Skip 'CN=Users' or 'OU=Domain Controllers' . ");
-					    continue;
-					}
-					_logger.debug("Sync User {} , name [{}] , NameInNamespace [{}]" , 
-						    		(++recordCount),sr.getName(),sr.getNameInNamespace());
-					
-					HashMap<String,Attribute> attributeMap = new HashMap<String,Attribute>();
-					NamingEnumeration<? extends Attribute>  attrs = sr.getAttributes().getAll();
-					while (null != attrs && attrs.hasMoreElements()) {
-						Attribute  objAttrs = attrs.nextElement();
-						_logger.trace("attribute {} : {}" ,
-												objAttrs.getID(), 
-												ActiveDirectoryUtils.getAttrStringValue(objAttrs)
-									);
-						attributeMap.put(objAttrs.getID().toLowerCase(), objAttrs);
-					}
-					
-					String originId = DigestUtils.md5B64(sr.getNameInNamespace());
-					
-					UserInfo userInfo =buildUserInfo(attributeMap,sr.getName(),sr.getNameInNamespace());
-					if(userInfo != null) {
-						userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
-						userInfoService.saveOrUpdate(userInfo);
-						_logger.info("userInfo " + userInfo);
-						
-						SynchroRelated synchroRelated = new SynchroRelated(
-								userInfo.getId(),
-								userInfo.getUsername(),
-								userInfo.getDisplayName(),
-								UserInfo.CLASS_TYPE,
-								synchronizer.getId(),
-								synchronizer.getName(),
-								originId,
-								userInfo.getDisplayName(),
-								"",
-								"",
-								synchronizer.getInstId());
-						
-						synchroRelatedService.updateSynchroRelated(
-								this.synchronizer,synchroRelated,UserInfo.CLASS_TYPE);
-					}
-				}
+			if(incremental && dirSync) {
+				syncDirSync(usersBulkSynchronizer,watermark);
+			}else {
+				syncUSNChanged(usersBulkSynchronizer,watermark);
 			}
-
 			//ldapUtils.close();
 		} catch (NamingException e) {
 			_logger.error("NamingException " , e);
+		} finally {
+			usersBulkSynchronizer.finish();
+		}
+		
+	}
+	
+	/**
+	 * uSNChanged大于上次highestCommittedUSN的用户,USN为每台DC独立,DC变化时全量同步;
+	 * 已删除的用户从tombstone(Show Deleted)中查找
+	 */
+	void syncUSNChanged(UsersBulkSynchronizer usersBulkSynchronizer,SynchronizerWatermark watermark) throws NamingException {
+		//read before search , changes during the sync are fetched next time
+		Attributes rootDSE = ldapUtils.getRootDSE(HIGHEST_COMMITTED_USN,DS_SERVICE_NAME,DEFAULT_NAMING_CONTEXT);
+		String highestCommittedUSN = LdapUtils.getAttrStringValue(rootDSE, HIGHEST_COMMITTED_USN);
+		String dsServiceName = LdapUtils.getAttrStringValue(rootDSE, DS_SERVICE_NAME);
+		boolean full = !incremental 
+				|| watermark.isFullSyncDue(fullInterval)
+				|| !NumberUtils.isDigits(watermark.getValue())
+				|| !dsServiceName.equalsIgnoreCase(watermark.getCookie());
+		String filter = getUserFilter();
+		String usnFrom = null;
+		if(!full) {
+			usnFrom = String.valueOf(Long.parseLong(watermark.getValue()) + 1);
+			filter = LdapUtils.andFilter(filter, "(" + USN_CHANGED + ">=" + usnFrom + ")");
 		}
+		_logger.info("{} sync , DC {} , highestCommittedUSN {} , filter {}" , 
+				full ? "Full" : "Incremental" , dsServiceName , highestCommittedUSN , filter);
 		
+		searchUsers(usersBulkSynchronizer,filter);
+		if(full) {
+			usersBulkSynchronizer.removeMissing();
+		}else {
+			removeDeleted(usersBulkSynchronizer,
+					LdapUtils.getAttrStringValue(rootDSE, DEFAULT_NAMING_CONTEXT),usnFrom);
+		}
+		usersBulkSynchronizer.flush();
+		if(usersBulkSynchronizer.isFlushFailed()) {
+			//failed batches are fetched again from the current watermark
+			_logger.warn("Failed batches , keep watermark {}" , watermark.getValue());
+			return;
+		}
+		//failed users are retried by the next full sync
+		watermark.save(synchroRelatedService, 
+				StringUtils.isBlank(highestCommittedUSN) ? "" : highestCommittedUSN, dsServiceName, full);
+	}
+	
+	void searchUsers(UsersBulkSynchronizer usersBulkSynchronizer,String filter) throws NamingException {
+		SearchControls constraints = new SearchControls();
+		constraints.setSearchScope(ldapUtils.getSearchScope());
+		long recordCount = ldapUtils.pagedSearch(ldapUtils.getBaseDN(), filter, constraints, pageSize, null, 
+				sr -> syncUser(usersBulkSynchronizer,sr.getName(),sr.getNameInNamespace(),sr.getAttributes()));
+		_logger.info("Fetched {} users" , recordCount);
+	}
+	
+	void removeDeleted(UsersBulkSynchronizer usersBulkSynchronizer,String namingContext,String usnFrom) {
+		SearchControls constraints = new SearchControls();
+		constraints.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		constraints.setReturningAttributes(new String[] { ActiveDirectoryUser.SAMACCOUNTNAME });
+		List<String> usernames = new ArrayList<String>();
+		try {
+			ldapUtils.pagedSearch(namingContext, 
+					"(&(" + IS_DELETED + "=TRUE)(objectClass=user)(" + USN_CHANGED + ">=" + usnFrom + "))", 
+					constraints, pageSize, new Control[] { DirSyncControl.showDeleted() }, 
+					sr -> addUsername(usernames, sr.getAttributes()));
+		} catch (NamingException e) {
+			_logger.warn("Search deleted users error , removed by the next full sync : {}" , e.getMessage());
+			return;
+		}
+		_logger.info("Deleted {} users" , usernames.size());
+		usersBulkSynchronizer.removeUsers(usernames);
+	}
+	
+	/**
+	 * DirSync按cookie返回上次之后变更的对象(只包含变更的属性),变更的用户按DN重新读取全部属性;
+	 * 全量同步时先取得当前cookie,再分页查询全部用户
+	 */
+	void syncDirSync(UsersBulkSynchronizer usersBulkSynchronizer,SynchronizerWatermark watermark) throws NamingException {
+		Attributes rootDSE = ldapUtils.getRootDSE(DEFAULT_NAMING_CONTEXT);
+		String namingContext = LdapUtils.getAttrStringValue(rootDSE, DEFAULT_NAMING_CONTEXT);
+		boolean full = watermark.isFullSyncDue(fullInterval)
+				|| !DIRSYNC_WATERMARK.equals(watermark.getValue())
+				|| StringUtils.isBlank(watermark.getCookie());
+		byte[] cookie = full ? null : Base64.getDecoder().decode(watermark.getCookie());
+		_logger.info("{} DirSync , naming context {}" , full ? "Full" : "Incremental" , namingContext);
+		
+		LdapContext ldapContext = ldapUtils.getLdapContext();
+		SearchControls constraints = new SearchControls();
+		constraints.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		LinkedHashSet<String> changedNames = new LinkedHashSet<String>();
+		List<String> deletedNames = new ArrayList<String>();
+		try {
+			boolean moreResults;
+			do {
+				ldapContext.setRequestControls(new Control[] { 
+						new DirSyncControl(DirSyncControl.OBJECT_SECURITY, 0, cookie) });
+				NamingEnumeration<SearchResult> results = ldapContext.search(namingContext, getUserFilter(), constraints);
+				try {
+					while (results.hasMore()) {
+						SearchResult sr = results.next();
+						if(full) {
+							continue;
+						}
+						if("TRUE".equalsIgnoreCase(LdapUtils.getAttrStringValue(sr.getAttributes(), IS_DELETED))) {
+							deletedNames.add(sr.getNameInNamespace());
+						}else {
+							changedNames.add(sr.getNameInNamespace());
+						}
+					}
+				} finally {
+					results.close();
+				}
+				DirSyncControl.Response response = DirSyncControl.parse(ldapContext.getResponseControls());
+				moreResults = response != null && response.hasMoreResults();
+				if(response != null) {
+					cookie = response.getCookie();
+				}
+			} while (moreResults);
+			_logger.info("DirSync changed {} , deleted {}" , changedNames.size() , deletedNames.size());
+			
+			ldapContext.setRequestControls(null);
+			if(full) {
+				searchUsers(usersBulkSynchronizer,getUserFilter());
+			}
+			for(String nameInNamespace : changedNames) {
+				String name = relativeName(nameInNamespace);
+				if(name == null) {
+					continue;
+				}
+				try {
+					syncUser(usersBulkSynchronizer,name,nameInNamespace,
+							ldapContext.getAttributes(new LdapName(nameInNamespace)));
+				} catch (NameNotFoundException e) {
+					_logger.debug("User {} not found , deleted or moved" , nameInNamespace);
+				}
+			}
+			
+			if(full) {
+				usersBulkSynchronizer.removeMissing();
+			}else if(!deletedNames.isEmpty()) {
+				//changed attributes only , read sAMAccountName from tombstone
+				ldapContext.setRequestControls(new Control[] { DirSyncControl.showDeleted() });
+				List<String> usernames = new ArrayList<String>();
+				for(String nameInNamespace : deletedNames) {
+					try {
+						addUsername(usernames,ldapContext.getAttributes(new LdapName(nameInNamespace), 
+								new String[] { ActiveDirectoryUser.SAMACCOUNTNAME }));
+					} catch (NameNotFoundException e) {
+						_logger.debug("Tombstone {} not found" , nameInNamespace);
+					}
+				}
+				usersBulkSynchronizer.removeUsers(usernames);
+			}
+		} finally {
+			ldapContext.setRequestControls(null);
+		}
+		usersBulkSynchronizer.flush();
+		if(usersBulkSynchronizer.isFlushFailed()) {
+			//cookie not saved , changes are returned again
+			_logger.warn("Failed batches , keep DirSync cookie");
+			return;
+		}
+		watermark.save(synchroRelatedService, DIRSYNC_WATERMARK, 
+				cookie == null ? "" : Base64.getEncoder().encodeToString(cookie), full);
+	}
+	
+	void syncUser(UsersBulkSynchronizer usersBulkSynchronizer,String name,String nameInNamespace,
+			Attributes attributes) throws NamingException {
+		if(nameInNamespace.contains("CN=Users,")
+		        ||nameInNamespace.contains("OU=Domain Controllers,")) {
+		    _logger.trace("Skip 'CN=Users' or 'OU=Domain Controllers' . ");
+		    return;
+		}
+		_logger.debug("Sync User name [{}] , NameInNamespace [{}]" , name,nameInNamespace);
+		
+		HashMap<String,Attribute> attributeMap = new HashMap<String,Attribute>();
+		NamingEnumeration<? extends Attribute>  attrs = attributes.getAll();
+		while (null != attrs && attrs.hasMoreElements()) {
+			Attribute  objAttrs = attrs.nextElement();
+			_logger.trace("attribute {} : {}" ,
+									objAttrs.getID(), 
+									ActiveDirectoryUtils.getAttrStringValue(objAttrs)
+						);
+			attributeMap.put(objAttrs.getID().toLowerCase(), objAttrs);
+		}
+		
+		String originId = DigestUtils.md5B64(nameInNamespace);
+		
+		UserInfo userInfo =buildUserInfo(attributeMap,name,nameInNamespace);
+		if(userInfo != null) {
+			userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
+			_logger.debug("userInfo " + userInfo);
+			
+			SynchroRelated synchroRelated = new SynchroRelated(
+					userInfo.getId(),
+					userInfo.getUsername(),
+					userInfo.getDisplayName(),
+					UserInfo.CLASS_TYPE,
+					synchronizer.getId(),
+					synchronizer.getName(),
+					originId,
+					userInfo.getDisplayName(),
+					"",
+					"",
+					synchronizer.getInstId());
+			
+			usersBulkSynchronizer.sync(userInfo, synchroRelated);
+		}
+	}
+	
+	void addUsername(List<String> usernames,Attributes attributes) {
+		String username = LdapUtils.getAttrStringValue(attributes, ActiveDirectoryUser.SAMACCOUNTNAME);
+		if(StringUtils.isNotBlank(username)) {
+			usernames.add(username);
+		}
+	}
+	
+	/**
+	 * DirSync查询基准为命名上下文,转换为相对同步基准DN的名称,不在基准DN下返回null
+	 */
+	String relativeName(String nameInNamespace) {
+		String baseDN = ldapUtils.getBaseDN();
+		if(nameInNamespace.equalsIgnoreCase(baseDN)) {
+			return "";
+		}
+		String suffix = "," + baseDN;
+		if(nameInNamespace.length() > suffix.length() 
+				&& nameInNamespace.regionMatches(true, 
+						nameInNamespace.length() - suffix.length(), suffix, 0, suffix.length())) {
+			return nameInNamespace.substring(0, nameInNamespace.length() - suffix.length());
+		}
+		return null;
+	}
+	
+	String getUserFilter() {
+		return StringUtils.isNotBlank(this.getSynchronizer().getFilters())?
+				getSynchronizer().getFilters() : "(&(objectClass=User))";
 	}
 
 	public UserInfo buildUserInfo(HashMap<String,Attribute> attributeMap,String name,String nameInNamespace) {
@@ -162,9 +393,7 @@ public class ActiveDirectoryUsersService extends AbstractSynchronizerService
 			userInfo.setWorkPostalCode(LdapUtils.getAttributeStringValue(ActiveDirectoryUser.POSTALCODE,attributeMap));//
 			userInfo.setWorkAddressFormatted(LdapUtils.getAttributeStringValue(ActiveDirectoryUser.POSTOFFICEBOX,attributeMap));//
 			
-			if(LdapUtils.getAttributeStringValue(ActiveDirectoryUser.MOBILE,attributeMap).equals("")) {
-			    userInfo.setMobile(userInfo.getId());
-			}else {
+			if(!LdapUtils.getAttributeStringValue(ActiveDirectoryUser.MOBILE,attributeMap).equals("")) {
 			    userInfo.setMobile(LdapUtils.getAttributeStringValue(ActiveDirectoryUser.MOBILE,attributeMap));//
 			}
 			userInfo.setHomePhoneNumber(LdapUtils.getAttributeStringValue(ActiveDirectoryUser.HOMEPHONE,attributeMap));//
@@ -181,17 +410,6 @@ public class ActiveDirectoryUsersService extends AbstractSynchronizerService
 			userInfo.setStatus(ConstsStatus.ACTIVE);
 			userInfo.setInstId(this.synchronizer.getInstId());
 
-		    HistorySynchronizer historySynchronizer =new HistorySynchronizer();
-            historySynchronizer.setId(historySynchronizer.generateId());
-            historySynchronizer.setSyncId(this.synchronizer.getId());
-            historySynchronizer.setSyncName(this.synchronizer.getName());
-            historySynchronizer.setObjectId(userInfo.getId());
-            historySynchronizer.setObjectName(userInfo.getUsername());
-            historySynchronizer.setObjectType(Organizations.class.getSimpleName());
-            historySynchronizer.setInstId(synchronizer.getInstId());
-            historySynchronizer.setResult("success");
-            this.historySynchronizerService.insert(historySynchronizer);
-
 		} catch (NamingException e) {
 			e.printStackTrace();
 		}
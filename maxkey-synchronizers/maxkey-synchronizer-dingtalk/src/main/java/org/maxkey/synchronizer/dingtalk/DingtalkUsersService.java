@@ -27,6 +27,7 @@ import org.maxkey.entity.SynchroRelated;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.synchronizer.AbstractSynchronizerService;
 import org.maxkey.synchronizer.ISynchronizerService;
+import org.maxkey.synchronizer.UsersBulkSynchronizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -44,6 +45,7 @@ public class DingtalkUsersService  extends AbstractSynchronizerService implement
 	
 	public void sync() {
 		_logger.info("Sync Dingtalk Users...");
+		UsersBulkSynchronizer usersBulkSynchronizer = newUsersBulkSynchronizer();
 		try {
 			List<SynchroRelated> synchroRelateds = 
 					synchroRelatedService.findOrgs(this.synchronizer);
@@ -68,7 +70,6 @@ public class DingtalkUsersService  extends AbstractSynchronizerService implement
 						UserInfo userInfo  = buildUserInfo(user,relatedOrg);
 						_logger.trace("userInfo {}" , userInfo);
 						userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
-						userInfoService.saveOrUpdate(userInfo);
 						
 						SynchroRelated synchroRelated = new SynchroRelated(
 								userInfo.getId(),
@@ -82,10 +83,9 @@ public class DingtalkUsersService  extends AbstractSynchronizerService implement
 								user.getUserid(),
 								"",
 								synchronizer.getInstId());
-						synchroRelatedService.updateSynchroRelated(
-								this.synchronizer,synchroRelated,UserInfo.CLASS_TYPE);
-						
-						socialsAssociate(synchroRelated,"dingtalk");
+						//associate after the user is committed
+						usersBulkSynchronizer.sync(userInfo, synchroRelated,
+								() -> socialsAssociate(synchroRelated,"dingtalk"));
 					}
 				}
 			}
@@ -93,6 +93,8 @@ public class DingtalkUsersService  extends AbstractSynchronizerService implement
 			
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			usersBulkSynchronizer.finish();
 		}
 		
 	}
@@ -25,6 +25,7 @@ import org.maxkey.entity.SynchroRelated;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.synchronizer.AbstractSynchronizerService;
 import org.maxkey.synchronizer.ISynchronizerService;
+import org.maxkey.synchronizer.UsersBulkSynchronizer;
 import org.maxkey.synchronizer.feishu.entity.FeishuUsers;
 import org.maxkey.synchronizer.feishu.entity.FeishuUsersResponse;
 import org.maxkey.util.AuthorizationHeaderUtils;
@@ -44,6 +45,7 @@ public class FeishuUsersService extends AbstractSynchronizerService implements I
 	
 	public void sync() {
 		_logger.info("Sync Feishu Users...");
+		UsersBulkSynchronizer usersBulkSynchronizer = newUsersBulkSynchronizer();
 		try {
 			List<SynchroRelated> synchroRelateds = 
 					synchroRelatedService.findOrgs(this.synchronizer);
@@ -60,7 +62,6 @@ public class FeishuUsersService extends AbstractSynchronizerService implements I
 						UserInfo userInfo  = buildUserInfo(feiShuUser,relatedOrg);
 						_logger.debug("userInfo : " + userInfo);
 						userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
-						userInfoService.saveOrUpdate(userInfo);
 						
 						SynchroRelated synchroRelated = new SynchroRelated(
 								userInfo.getId(),
@@ -74,11 +75,11 @@ public class FeishuUsersService extends AbstractSynchronizerService implements I
 								feiShuUser.getUser_id(),
 								feiShuUser.getUnion_id(),
 								synchronizer.getInstId());
-						synchroRelatedService.updateSynchroRelated(
-								this.synchronizer,synchroRelated,UserInfo.CLASS_TYPE);
-						
-						synchroRelated.setOriginId(feiShuUser.getUnion_id());
-						socialsAssociate(synchroRelated,"feishu");
+						//associate after the user is committed
+						usersBulkSynchronizer.sync(userInfo, synchroRelated, () -> {
+							synchroRelated.setOriginId(feiShuUser.getUnion_id());
+							socialsAssociate(synchroRelated,"feishu");
+						});
 						
 					}
 				}
@@ -86,6 +87,8 @@ public class FeishuUsersService extends AbstractSynchronizerService implements I
 			
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			usersBulkSynchronizer.finish();
 		}
 		
 	}
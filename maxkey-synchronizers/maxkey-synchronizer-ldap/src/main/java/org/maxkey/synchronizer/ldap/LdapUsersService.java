@@ -22,83 +22,121 @@ import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.SearchControls;
-import javax.naming.directory.SearchResult;
 
 import org.apache.commons.lang3.StringUtils;
 import org.maxkey.constants.ldap.InetOrgPerson;
 import org.maxkey.crypto.DigestUtils;
-import org.maxkey.entity.HistorySynchronizer;
 import org.maxkey.entity.Organizations;
 import org.maxkey.entity.SynchroRelated;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.persistence.ldap.LdapUtils;
 import org.maxkey.synchronizer.AbstractSynchronizerService;
 import org.maxkey.synchronizer.ISynchronizerService;
+import org.maxkey.synchronizer.SynchronizerWatermark;
+import org.maxkey.synchronizer.UsersBulkSynchronizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class LdapUsersService extends AbstractSynchronizerService  implements ISynchronizerService{
 	final static Logger _logger = LoggerFactory.getLogger(LdapUsersService.class);
 
+	static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+	
 	LdapUtils ldapUtils;
 	
+	@Value("${maxkey.synchronizer.ldap.page.size:500}")
+	int pageSize;
+	
+	@Value("${maxkey.synchronizer.ldap.incremental:true}")
+	boolean incremental;
+	
+	/**
+	 * 全量同步间隔(小时),增量同步不能发现已删除的用户
+	 */
+	@Value("${maxkey.synchronizer.ldap.full.interval:24}")
+	int fullInterval;
+	
 	public void sync() {
 		_logger.info("Sync Ldap Users ...");
 		loadOrgsByInstId(this.synchronizer.getInstId(),Organizations.ROOT_ORG_ID);
+		SynchronizerWatermark watermark = 
+				SynchronizerWatermark.load(synchroRelatedService, synchronizer, UserInfo.CLASS_TYPE);
+		boolean full = !incremental || watermark.isFullSyncDue(fullInterval);
+		String filter = StringUtils.isNotBlank(this.getSynchronizer().getFilters()) ? 
+							getSynchronizer().getFilters() : "(&(objectClass=inetOrgPerson))";
+		if(!full) {
+			filter = LdapUtils.andFilter(filter, "(" + MODIFY_TIMESTAMP + ">=" + watermark.getValue() + ")");
+		}
+		_logger.info("{} sync , filter {}" , full ? "Full" : "Incremental" , filter);
+		UsersBulkSynchronizer usersBulkSynchronizer = newUsersBulkSynchronizer();
+		//no mobile , use id for new users
+		usersBulkSynchronizer.setBeforeInsert(userInfo -> {
+			if(StringUtils.isBlank(userInfo.getMobile())) {
+				userInfo.setMobile(userInfo.getId());
+			}
+		});
 		try {
 			SearchControls constraints = new SearchControls();
 			constraints.setSearchScope(ldapUtils.getSearchScope());
-			String filter = StringUtils.isNotBlank(this.getSynchronizer().getFilters()) ? 
-								getSynchronizer().getFilters() : "(&(objectClass=inetOrgPerson))";
-			NamingEnumeration<SearchResult> results = 
-					ldapUtils.getConnection().search(ldapUtils.getBaseDN(), filter, constraints);
-			
-			long recordCount = 0;
-			while (null != results && results.hasMoreElements()) {
-				Object obj = results.nextElement();
-				if (obj instanceof SearchResult) {
-					SearchResult sr = (SearchResult) obj;
-					_logger.debug("Sync User {} , name [{}] , NameInNamespace [{}]" , 
-				    				(++recordCount),sr.getName(),sr.getNameInNamespace());
-					
-					HashMap<String,Attribute> attributeMap = new HashMap<String,Attribute>();
-					NamingEnumeration<? extends Attribute>  attrs = sr.getAttributes().getAll();
-					while (null != attrs && attrs.hasMoreElements()) {
-						Attribute  objAttrs = attrs.nextElement();
-						_logger.trace("attribute {} : {}" ,
-											objAttrs.getID(), 
-											LdapUtils.getAttrStringValue(objAttrs)
-								);
-						attributeMap.put(objAttrs.getID(), objAttrs);
-					}
-					String originId = DigestUtils.md5B64(sr.getNameInNamespace());
-					UserInfo userInfo  = buildUserInfo(attributeMap,sr.getName(),sr.getNameInNamespace());
-					userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
-					userInfoService.saveOrUpdate(userInfo);
-					SynchroRelated synchroRelated = new SynchroRelated(
-							userInfo.getId(),
-							userInfo.getUsername(),
-							userInfo.getDisplayName(),
-							UserInfo.CLASS_TYPE,
-							synchronizer.getId(),
-							synchronizer.getName(),
-							originId,
-							userInfo.getDisplayName(),
-							"",
-							"",
-							synchronizer.getInstId());
-					
-					synchroRelatedService.updateSynchroRelated(
-							this.synchronizer,synchroRelated,UserInfo.CLASS_TYPE);
-					_logger.info("userInfo " + userInfo);
+			constraints.setReturningAttributes(new String[] { "*" , MODIFY_TIMESTAMP });
+			//GeneralizedTime of the same server compares as string
+			String [] highWatermark = { watermark.getValue() };
+			long recordCount = ldapUtils.pagedSearch(ldapUtils.getBaseDN(), filter, constraints, pageSize, null, sr -> {
+				_logger.debug("Sync User name [{}] , NameInNamespace [{}]" , sr.getName(),sr.getNameInNamespace());
+				
+				HashMap<String,Attribute> attributeMap = new HashMap<String,Attribute>();
+				NamingEnumeration<? extends Attribute>  attrs = sr.getAttributes().getAll();
+				while (null != attrs && attrs.hasMoreElements()) {
+					Attribute  objAttrs = attrs.nextElement();
+					_logger.trace("attribute {} : {}" ,
+										objAttrs.getID(), 
+										LdapUtils.getAttrStringValue(objAttrs)
+							);
+					attributeMap.put(objAttrs.getID().toLowerCase(), objAttrs);
 				}
+				String modifyTimestamp = LdapUtils.getAttributeStringValue(MODIFY_TIMESTAMP, attributeMap);
+				if(StringUtils.isBlank(highWatermark[0]) || modifyTimestamp.compareTo(highWatermark[0]) > 0) {
+					highWatermark[0] = modifyTimestamp;
+				}
+				String originId = DigestUtils.md5B64(sr.getNameInNamespace());
+				UserInfo userInfo  = buildUserInfo(attributeMap,sr.getName(),sr.getNameInNamespace());
+				userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
+				SynchroRelated synchroRelated = new SynchroRelated(
+						userInfo.getId(),
+						userInfo.getUsername(),
+						userInfo.getDisplayName(),
+						UserInfo.CLASS_TYPE,
+						synchronizer.getId(),
+						synchronizer.getName(),
+						originId,
+						userInfo.getDisplayName(),
+						"",
+						"",
+						synchronizer.getInstId());
+				
+				usersBulkSynchronizer.sync(userInfo, synchroRelated);
+				_logger.debug("userInfo " + userInfo);
+			});
+			_logger.info("Fetched {} users" , recordCount);
+			if(full) {
+				usersBulkSynchronizer.removeMissing();
+			}
+			usersBulkSynchronizer.flush();
+			if(usersBulkSynchronizer.isFlushFailed()) {
+				//failed batches are fetched again from the current watermark
+				_logger.warn("Failed batches , keep watermark {}" , watermark.getValue());
+			}else {
+				//failed users are retried by the next full sync
+				watermark.save(synchroRelatedService, highWatermark[0], null, full);
 			}
-
 			//ldapUtils.close();
 		} catch (NamingException e) {
-			e.printStackTrace();
+			_logger.error("NamingException " , e);
+		} finally {
+			usersBulkSynchronizer.finish();
 		}
 		
 	}
@@ -170,9 +208,7 @@ public class LdapUsersService extends AbstractSynchronizerService  implements IS
 			userInfo.setHomePhoneNumber(LdapUtils.getAttributeStringValue(InetOrgPerson.HOMEPHONE,attributeMap));
 			userInfo.setHomeAddressFormatted(LdapUtils.getAttributeStringValue(InetOrgPerson.HOMEPOSTALADDRESS,attributeMap));
 			
-			if(LdapUtils.getAttributeStringValue(InetOrgPerson.MOBILE,attributeMap).equals("")) {
-			    userInfo.setMobile(userInfo.getId());
-			}else {
+			if(!LdapUtils.getAttributeStringValue(InetOrgPerson.MOBILE,attributeMap).equals("")) {
 			    userInfo.setMobile(LdapUtils.getAttributeStringValue(InetOrgPerson.MOBILE,attributeMap));
             }
 			
@@ -185,17 +221,6 @@ public class LdapUsersService extends AbstractSynchronizerService  implements IS
 			userInfo.setStatus(1);
 			userInfo.setInstId(this.synchronizer.getInstId());
 
-            HistorySynchronizer historySynchronizer =new HistorySynchronizer();
-            historySynchronizer.setId(historySynchronizer.generateId());
-            historySynchronizer.setSyncId(this.synchronizer.getId());
-            historySynchronizer.setSyncName(this.synchronizer.getName());
-            historySynchronizer.setObjectId(userInfo.getId());
-            historySynchronizer.setObjectName(userInfo.getUsername());
-            historySynchronizer.setObjectType(Organizations.class.getSimpleName());
-            historySynchronizer.setInstId(synchronizer.getInstId());
-            historySynchronizer.setResult("success");
-            this.historySynchronizerService.insert(historySynchronizer);
-           
 		} catch (NamingException e) {
 			e.printStackTrace();
 		}
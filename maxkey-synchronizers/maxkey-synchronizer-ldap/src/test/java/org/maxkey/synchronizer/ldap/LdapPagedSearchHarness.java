@@ -0,0 +1,255 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.synchronizer.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.SearchControls;
+
+import org.maxkey.entity.Organizations;
+import org.maxkey.entity.SynchroRelated;
+import org.maxkey.entity.Synchronizers;
+import org.maxkey.persistence.ldap.LdapUtils;
+import org.maxkey.persistence.service.OrganizationsService;
+import org.maxkey.persistence.service.SynchroRelatedService;
+import org.maxkey.persistence.service.UserInfoService;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+
+/**
+ * 内存LDAP(UnboundID)中10万inetOrgPerson,服务器限制每次返回1000条,
+ * 对比分页全量查询与修改1%后按modifyTimestamp增量查询的耗时及数量;
+ * 再以H2内存库(MySQL模式)运行LdapUsersService.sync,对比修改1%后增量同步与全量同步的耗时.
+ * <pre>
+ * main方法直接运行,参数为用户数量
+ * </pre>
+ */
+public class LdapPagedSearchHarness {
+
+    static final String BASE_DN = "dc=maxkey,dc=top";
+
+    static final String PEOPLE_DN = "ou=People," + BASE_DN;
+
+    static final String FILTER = "(&(objectClass=inetOrgPerson))";
+
+    static final int SIZE_LIMIT = 1000;
+
+    static final int PAGE_SIZE = 500;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials("cn=Directory Manager", "maxkey");
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+        config.setMaxSizeLimit(SIZE_LIMIT);
+        InMemoryDirectoryServer server = new InMemoryDirectoryServer(config);
+        server.startListening();
+        try {
+            long start = System.currentTimeMillis();
+            server.add(new Entry(BASE_DN, 
+                    new Attribute("objectClass", "top", "domain"),
+                    new Attribute("dc", "maxkey")));
+            server.add(new Entry(PEOPLE_DN, 
+                    new Attribute("objectClass", "top", "organizationalUnit"),
+                    new Attribute("ou", "People")));
+            for (int i = 0; i < users; i++) {
+                server.add(new Entry("uid=user" + i + "," + PEOPLE_DN,
+                        new Attribute("objectClass", "top", "person", "organizationalPerson", "inetOrgPerson"),
+                        new Attribute("uid", "user" + i),
+                        new Attribute("cn", "User " + i),
+                        new Attribute("sn", "User"),
+                        new Attribute("givenName", "" + i),
+                        new Attribute("mail", "user" + i + "@maxkey.top"),
+                        new Attribute("mobile", "138" + String.format("%08d", i))));
+            }
+            System.out.println("seed " + users + " users in " + (System.currentTimeMillis() - start) + " ms");
+
+            LdapUtils ldapUtils = new LdapUtils("ldap://127.0.0.1:" + server.getListenPort(),
+                    "cn=Directory Manager", "maxkey", BASE_DN);
+            ldapUtils.openConnection();
+            SearchControls constraints = new SearchControls();
+            constraints.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            constraints.setReturningAttributes(new String[] { "*", "modifyTimestamp" });
+
+            try {
+                search(ldapUtils, FILTER, constraints, 0, null);
+                System.out.println("unpaged search , size limit not exceeded");
+            } catch (SizeLimitExceededException e) {
+                System.out.println("unpaged search , size limit " + SIZE_LIMIT + " exceeded");
+            }
+
+            String[] watermark = { "" };
+            search(ldapUtils, FILTER, constraints, PAGE_SIZE, watermark);
+
+            //GeneralizedTime in seconds
+            Thread.sleep(1100);
+            List<Modification> modifications = new ArrayList<Modification>();
+            modifications.add(new Modification(ModificationType.REPLACE, "title", "Engineer"));
+            int modified = 0;
+            for (int i = 0; i < users; i += 100) {
+                server.modify("uid=user" + i + "," + PEOPLE_DN, modifications);
+                modified++;
+            }
+            System.out.println("modified " + modified + " users");
+
+            search(ldapUtils, LdapUtils.andFilter(FILTER, "(modifyTimestamp>=" + watermark[0] + ")"),
+                    constraints, PAGE_SIZE, watermark);
+
+            SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+                    "jdbc:h2:mem:harness;MODE=MySQL;DB_CLOSE_DELAY=-1", true);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            createTables(jdbcTemplate);
+            LdapUsersService usersService = usersService(ldapUtils, jdbcTemplate);
+            sync(usersService, "initial full", jdbcTemplate);
+            modify(server, users, "Manager");
+            sync(usersService, "incremental", jdbcTemplate);
+            modify(server, users, "Director");
+            usersService.incremental = false;
+            sync(usersService, "full", jdbcTemplate);
+            dataSource.destroy();
+            ldapUtils.close();
+        } finally {
+            server.shutDown(true);
+        }
+    }
+
+    /**
+     * 修改1%的用户,GeneralizedTime精确到秒,修改前后各等待1秒
+     */
+    static void modify(InMemoryDirectoryServer server, int users, String title) throws Exception {
+        Thread.sleep(1100);
+        List<Modification> modifications = Collections.singletonList(
+                new Modification(ModificationType.REPLACE, "title", title));
+        for (int i = 0; i < users; i += 100) {
+            server.modify("uid=user" + i + "," + PEOPLE_DN, modifications);
+        }
+        Thread.sleep(1100);
+    }
+
+    static void sync(LdapUsersService usersService, String label, JdbcTemplate jdbcTemplate) {
+        //only the summary of this run
+        jdbcTemplate.update("delete from mxk_history_synchronizer");
+        long start = System.currentTimeMillis();
+        usersService.sync();
+        System.out.println(String.format("%s sync : %d ms , users %d , %s",
+                label, System.currentTimeMillis() - start,
+                jdbcTemplate.queryForObject("select count(*) from mxk_userinfo", Integer.class),
+                jdbcTemplate.queryForList("select objectname , result from mxk_history_synchronizer where objectname "
+                        + "in ('load' , 'fetched' , 'unchanged' , 'inserted' , 'updated' , 'deleted' , 'failed')")));
+    }
+
+    /**
+     * 数据库写入使用H2,机构及水位使用Mock
+     */
+    static LdapUsersService usersService(LdapUtils ldapUtils, JdbcTemplate harnessJdbcTemplate) {
+        Synchronizers synchronizer = new Synchronizers("sync-ldap");
+        synchronizer.setName("ldap");
+        synchronizer.setInstId("1");
+        Organizations root = new Organizations();
+        root.setId(Organizations.ROOT_ORG_ID);
+        root.setName("MaxKey");
+        root.setInstId("1");
+        OrganizationsService organizationsService = Mockito.mock(OrganizationsService.class);
+        Mockito.when(organizationsService.find(Mockito.anyString()))
+                .thenReturn(new ArrayList<Organizations>(Collections.singletonList(root)));
+        AtomicReference<SynchroRelated> watermark = new AtomicReference<SynchroRelated>();
+        SynchroRelatedService synchroRelatedService = Mockito.mock(SynchroRelatedService.class);
+        Mockito.when(synchroRelatedService.findByOriginId(
+                Mockito.any(Synchronizers.class), Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> watermark.get());
+        Mockito.when(synchroRelatedService.insert(Mockito.any(SynchroRelated.class))).thenAnswer(invocation -> {
+            SynchroRelated related = (SynchroRelated) invocation.getArguments()[0];
+            related.setId("watermark");
+            watermark.set(related);
+            return true;
+        });
+        Mockito.when(synchroRelatedService.update(Mockito.any(SynchroRelated.class))).thenReturn(true);
+
+        LdapUsersService usersService = new LdapUsersService() {
+            {
+                jdbcTemplate = harnessJdbcTemplate;
+            }
+        };
+        usersService.setLdapUtils(ldapUtils);
+        usersService.setSynchronizer(synchronizer);
+        usersService.setOrganizationsService(organizationsService);
+        usersService.setSynchroRelatedService(synchroRelatedService);
+        usersService.setUserInfoService(Mockito.mock(UserInfoService.class));
+        usersService.pageSize = PAGE_SIZE;
+        usersService.incremental = true;
+        usersService.fullInterval = 24;
+        return usersService;
+    }
+
+    static void createTables(JdbcTemplate jdbcTemplate) {
+        StringBuilder columns = new StringBuilder();
+        for (String column : new String[] { "windowsaccount", "displayname", "nickname", "namezhshortspell",
+                "givenname", "familyname", "formattedname", "website", "email", "mobile", "preferredlanguage",
+                "timezone", "usertype", "userstate", "workcountry", "workregion", "worklocality",
+                "workstreetaddress", "workaddressformatted", "workemail", "workphonenumber", "workpostalcode",
+                "workfax", "homephonenumber", "homeaddressformatted", "employeenumber", "division",
+                "departmentid", "department", "jobtitle", "entrydate", "ldapdn", "description" }) {
+            columns.append(" , ").append(column).append(" varchar(400)");
+        }
+        jdbcTemplate.execute("create table mxk_userinfo ("
+                + "id varchar(45) not null primary key , username varchar(100) not null ,"
+                + " password varchar(200) , decipherable varchar(400) , passwordlastsettime varchar(45) ,"
+                + " createddate varchar(45) , modifieddate varchar(45) , instid varchar(45) not null ,"
+                + " gender int , status int" + columns + ")");
+        jdbcTemplate.execute("create unique index username_unique on mxk_userinfo(username)");
+        jdbcTemplate.execute("create table mxk_synchro_related ("
+                + "id varchar(45) not null primary key , objectid varchar(45) , objectname varchar(100) ,"
+                + " objectdisplayname varchar(100) , objecttype varchar(45) , syncid varchar(45) ,"
+                + " syncname varchar(100) , originid varchar(100) , originid2 varchar(100) ,"
+                + " originid3 varchar(100) , originname varchar(100) , instid varchar(45) , synctime varchar(45))");
+        jdbcTemplate.execute("create table mxk_history_synchronizer ("
+                + "id varchar(45) not null primary key , syncid varchar(45) , syncname varchar(100) ,"
+                + " objectid varchar(45) , objecttype varchar(45) , objectname varchar(200) ,"
+                + " result varchar(200) , instid varchar(45))");
+    }
+
+    static long search(LdapUtils ldapUtils, String filter, SearchControls constraints,
+            int pageSize, String[] watermark) throws NamingException {
+        long start = System.currentTimeMillis();
+        long count = ldapUtils.pagedSearch(BASE_DN, filter, constraints, pageSize, null, sr -> {
+            if (watermark != null) {
+                String modifyTimestamp = LdapUtils.getAttrStringValue(sr.getAttributes(), "modifyTimestamp");
+                if (modifyTimestamp.compareTo(watermark[0]) > 0) {
+                    watermark[0] = modifyTimestamp;
+                }
+            }
+        });
+        System.out.println(String.format("search %s , page size %d : %d entries in %d ms , watermark %s",
+                filter, pageSize, count, System.currentTimeMillis() - start, watermark == null ? "" : watermark[0]));
+        return count;
+    }
+}
@@ -24,6 +24,7 @@ import org.maxkey.entity.SynchroRelated;
 import org.maxkey.entity.UserInfo;
 import org.maxkey.synchronizer.AbstractSynchronizerService;
 import org.maxkey.synchronizer.ISynchronizerService;
+import org.maxkey.synchronizer.UsersBulkSynchronizer;
 import org.maxkey.synchronizer.workweixin.entity.WorkWeixinUsers;
 import org.maxkey.synchronizer.workweixin.entity.WorkWeixinUsersResponse;
 import org.maxkey.util.JsonUtils;
@@ -42,6 +43,7 @@ public class WorkweixinUsersService extends AbstractSynchronizerService implemen
 	
 	public void sync() {
 		_logger.info("Sync Workweixin Users...");
+		UsersBulkSynchronizer usersBulkSynchronizer = newUsersBulkSynchronizer();
 		try {
 			List<SynchroRelated> synchroRelateds = 
 					synchroRelatedService.findOrgs(this.synchronizer);
@@ -56,7 +58,6 @@ public class WorkweixinUsersService extends AbstractSynchronizerService implemen
 					UserInfo userInfo  = buildUserInfo(user);
 					_logger.debug("userInfo : " + userInfo);
 					userInfo.setPassword(userInfo.getUsername() + UserInfo.DEFAULT_PASSWORD_SUFFIX);
-					userInfoService.saveOrUpdate(userInfo);
 					
 					SynchroRelated synchroRelated = new SynchroRelated(
 							userInfo.getId(),
@@ -71,15 +72,16 @@ public class WorkweixinUsersService extends AbstractSynchronizerService implemen
 							"",
 							synchronizer.getInstId());
 					
-					synchroRelatedService.updateSynchroRelated(
-							this.synchronizer,synchroRelated,UserInfo.CLASS_TYPE);
-					
-					socialsAssociate(synchroRelated,"workweixin");
+					//associate after the user is committed
+					usersBulkSynchronizer.sync(userInfo, synchroRelated,
+							() -> socialsAssociate(synchroRelated,"workweixin"));
 				}
 			}
 			
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			usersBulkSynchronizer.finish();
 		}
 		
 	}
@@ -25,6 +25,7 @@ import org.maxkey.entity.Organizations;
 import org.maxkey.entity.SocialsAssociate;
 import org.maxkey.entity.SynchroRelated;
 import org.maxkey.entity.Synchronizers;
+import org.maxkey.persistence.mq.MqPersistService;
 import org.maxkey.persistence.service.HistorySynchronizerService;
 import org.maxkey.persistence.service.OrganizationsService;
 import org.maxkey.persistence.service.SynchroRelatedService;
@@ -33,6 +34,8 @@ import org.maxkey.persistence.service.SocialsAssociatesService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 public abstract class AbstractSynchronizerService {
     private static final Logger _logger = 
@@ -48,6 +51,16 @@ public abstract class AbstractSynchronizerService {
     protected SocialsAssociatesService socialsAssociatesService;
     @Autowired
     protected HistorySynchronizerService historySynchronizerService;
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+    @Autowired
+    protected MqPersistService mqPersistService;
+    
+    @Value("${maxkey.synchronizer.batch.size:500}")
+    protected int batchSize = UsersBulkSynchronizer.DEFAULT_BATCH_SIZE;
+    
+    @Value("${maxkey.synchronizer.remove.max.ratio:0.3}")
+    protected double removeMaxRatio = UsersBulkSynchronizer.DEFAULT_MAX_MISSING_RATIO;
     
     protected Synchronizers synchronizer;
     
@@ -82,6 +95,16 @@ public abstract class AbstractSynchronizerService {
         return orgsNamePathMap;
     }
     
+    /**
+     * 用户批量同步,已加载机构用户及本同步器的用户关联
+     */
+    public UsersBulkSynchronizer newUsersBulkSynchronizer() {
+        UsersBulkSynchronizer usersBulkSynchronizer = new UsersBulkSynchronizer(
+                jdbcTemplate, userInfoService, mqPersistService, synchronizer, batchSize);
+        usersBulkSynchronizer.setMaxMissingRatio(removeMaxRatio);
+        return usersBulkSynchronizer.load();
+    }
+    
     public void socialsAssociate(SynchroRelated synchroRelated,String provider) {
     	SocialsAssociate socialsAssociate =
     			socialsAssociatesService.findOne("instid = ? and userid = ? and socialuserid = ? and provider = ? ",
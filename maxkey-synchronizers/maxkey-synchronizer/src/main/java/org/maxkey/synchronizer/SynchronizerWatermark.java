@@ -0,0 +1,117 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ 
+
+package org.maxkey.synchronizer;
+
+import java.util.Date;
+
+import org.apache.commons.lang3.StringUtils;
+import org.maxkey.entity.SynchroRelated;
+import org.maxkey.entity.Synchronizers;
+import org.maxkey.persistence.service.SynchroRelatedService;
+import org.maxkey.util.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 增量同步水位,每个同步器每类对象一条,保存在mxk_synchro_related(objecttype=Watermark).
+ * <p>
+ * originId为对象类型(如UserInfo),originId2为水位值(modifyTimestamp或uSNChanged),
+ * originId3为水位所属的服务器或DirSync cookie,originName为最近一次全量同步时间.
+ * </p>
+ */
+public class SynchronizerWatermark {
+	static final Logger _logger = LoggerFactory.getLogger(SynchronizerWatermark.class);
+	
+	public static final String CLASS_TYPE = "Watermark";
+	
+	final SynchroRelated related;
+	
+	SynchronizerWatermark(SynchroRelated related) {
+		this.related = related;
+	}
+	
+	public static SynchronizerWatermark load(SynchroRelatedService synchroRelatedService,
+			Synchronizers synchronizer,String classType) {
+		SynchroRelated related = synchroRelatedService.findByOriginId(synchronizer, classType, CLASS_TYPE);
+		if(related == null) {
+			related = new SynchroRelated(
+					synchronizer.getId(),
+					synchronizer.getName(),
+					synchronizer.getName(),
+					CLASS_TYPE,
+					synchronizer.getId(),
+					synchronizer.getName(),
+					classType,
+					"",
+					"",
+					"",
+					synchronizer.getInstId());
+		}
+		_logger.debug("watermark {} , value {} , lastFullSync {}" , 
+				classType , related.getOriginId2() , related.getOriginName());
+		return new SynchronizerWatermark(related);
+	}
+	
+	/**
+	 * 没有水位或距上次全量同步超过fullIntervalHours时需要全量同步,
+	 * 全量同步才能发现源端已删除的对象
+	 * @param fullIntervalHours 小于等于0不定期全量
+	 */
+	public boolean isFullSyncDue(int fullIntervalHours) {
+		if(StringUtils.isBlank(getValue()) || StringUtils.isBlank(related.getOriginName())) {
+			return true;
+		}
+		if(fullIntervalHours <= 0) {
+			return false;
+		}
+		Date lastFullSync = DateUtils.parse(related.getOriginName(), DateUtils.FORMAT_DATE_YYYY_MM_DD_HH_MM_SS);
+		return lastFullSync == null 
+				|| System.currentTimeMillis() - lastFullSync.getTime() >= fullIntervalHours * 3600000L;
+	}
+	
+	public String getValue() {
+		return related.getOriginId2();
+	}
+	
+	public String getCookie() {
+		return related.getOriginId3();
+	}
+	
+	/**
+	 * 同步成功后更新并保存水位
+	 * @param value 水位值,null保持不变
+	 * @param cookie 
+	 * @param full 是否全量同步
+	 */
+	public void save(SynchroRelatedService synchroRelatedService,String value,String cookie,boolean full) {
+		if(value != null) {
+			related.setOriginId2(value);
+		}
+		related.setOriginId3(cookie == null ? "" : cookie);
+		if(full) {
+			related.setOriginName(DateUtils.getCurrentDateTimeAsString());
+		}
+		related.setSyncTime(DateUtils.getCurrentDateTimeAsString());
+		if(related.getId() == null) {
+			synchroRelatedService.insert(related);
+		}else {
+			synchroRelatedService.update(related);
+		}
+		_logger.debug("save watermark {} , value {} , full {}" , related.getOriginId() , related.getOriginId2() , full);
+	}
+}
@@ -0,0 +1,863 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.synchronizer;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.maxkey.constants.ConstsStatus;
+import org.maxkey.entity.HistorySynchronizer;
+import org.maxkey.entity.SynchroRelated;
+import org.maxkey.entity.Synchronizers;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.persistence.mq.MqIdentityAction;
+import org.maxkey.persistence.mq.MqIdentityTopic;
+import org.maxkey.persistence.mq.MqPersistService;
+import org.maxkey.persistence.service.UserInfoService;
+import org.maxkey.util.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 用户批量同步,按内容摘要比较后只写入变化的用户.
+ * <p>
+ * 开始时加载机构的用户(每列一个64位摘要)及本同步器的用户关联(mxk_synchro_related)到内存索引;
+ * 用户按用户名(不区分大小写)匹配,只比较源数据提供(非null)的列,未提供的列保持不变.
+ * 新增及变化的用户累积到batchSize后在一个事务内JDBC批量写入,新增用户时才设置初始密码;
+ * 提交后按批次一次查询重新加载完整用户,每个用户发送一条与单个写入相同的CREATE/UPDATE供应消息.
+ * removeMissing后本次未出现的关联用户置为停用并删除关联,增量同步时removeUsers停用源端已删除的用户;
+ * 未获取到用户、有批次写入失败或缺失比例超过maxMissingRatio时不执行removeMissing,避免源端异常时大量停用用户.
+ * 写入后的操作(如社交账号关联)在批次提交后执行.
+ * 各阶段耗时及数量(fetched/unchanged/inserted/updated/deleted)在finish时记录到同步历史.
+ * </p>
+ * 每次同步创建一个实例,非线程安全.
+ */
+public class UsersBulkSynchronizer {
+    private static final Logger _logger = LoggerFactory.getLogger(UsersBulkSynchronizer.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public static final double DEFAULT_MAX_MISSING_RATIO = 0.3;
+
+    /**
+     * 同步器写入的用户列,username为匹配键只在新增时写入
+     */
+    static final List<SyncColumn> COLUMNS = Arrays.asList(
+            new SyncColumn("windowsaccount", Types.VARCHAR, UserInfo::getWindowsAccount),
+            new SyncColumn("displayname", Types.VARCHAR, UserInfo::getDisplayName),
+            new SyncColumn("nickname", Types.VARCHAR, UserInfo::getNickName),
+            new SyncColumn("namezhshortspell", Types.VARCHAR, UserInfo::getNameZhShortSpell),
+            new SyncColumn("givenname", Types.VARCHAR, UserInfo::getGivenName),
+            new SyncColumn("familyname", Types.VARCHAR, UserInfo::getFamilyName),
+            new SyncColumn("formattedname", Types.VARCHAR, UserInfo::getFormattedName),
+            //0 as not provided
+            new SyncColumn("gender", Types.INTEGER, u -> u.getGender() == 0 ? null : u.getGender()),
+            new SyncColumn("website", Types.VARCHAR, UserInfo::getWebSite),
+            new SyncColumn("email", Types.VARCHAR, UserInfo::getEmail),
+            new SyncColumn("mobile", Types.VARCHAR, UserInfo::getMobile),
+            new SyncColumn("preferredlanguage", Types.VARCHAR, UserInfo::getPreferredLanguage),
+            new SyncColumn("timezone", Types.VARCHAR, UserInfo::getTimeZone),
+            new SyncColumn("usertype", Types.VARCHAR, UserInfo::getUserType),
+            new SyncColumn("userstate", Types.VARCHAR, UserInfo::getUserState),
+            new SyncColumn("workcountry", Types.VARCHAR, UserInfo::getWorkCountry),
+            new SyncColumn("workregion", Types.VARCHAR, UserInfo::getWorkRegion),
+            new SyncColumn("worklocality", Types.VARCHAR, UserInfo::getWorkLocality),
+            new SyncColumn("workstreetaddress", Types.VARCHAR, UserInfo::getWorkStreetAddress),
+            new SyncColumn("workaddressformatted", Types.VARCHAR, UserInfo::getWorkAddressFormatted),
+            new SyncColumn("workemail", Types.VARCHAR, UserInfo::getWorkEmail),
+            new SyncColumn("workphonenumber", Types.VARCHAR, UserInfo::getWorkPhoneNumber),
+            new SyncColumn("workpostalcode", Types.VARCHAR, UserInfo::getWorkPostalCode),
+            new SyncColumn("workfax", Types.VARCHAR, UserInfo::getWorkFax),
+            new SyncColumn("homephonenumber", Types.VARCHAR, UserInfo::getHomePhoneNumber),
+            new SyncColumn("homeaddressformatted", Types.VARCHAR, UserInfo::getHomeAddressFormatted),
+            new SyncColumn("employeenumber", Types.VARCHAR, UserInfo::getEmployeeNumber),
+            new SyncColumn("division", Types.VARCHAR, UserInfo::getDivision),
+            new SyncColumn("departmentid", Types.VARCHAR, UserInfo::getDepartmentId),
+            new SyncColumn("department", Types.VARCHAR, UserInfo::getDepartment),
+            new SyncColumn("jobtitle", Types.VARCHAR, UserInfo::getJobTitle),
+            new SyncColumn("entrydate", Types.VARCHAR, UserInfo::getEntryDate),
+            new SyncColumn("ldapdn", Types.VARCHAR, UserInfo::getLdapDn),
+            new SyncColumn("status", Types.INTEGER, UserInfo::getStatus),
+            new SyncColumn("description", Types.VARCHAR, UserInfo::getDescription)
+        );
+
+    static final String USERS_SELECT_STATEMENT =
+            "select id , username , " + columns("") + " from mxk_userinfo where instid = ?";
+
+    static final String USER_INSERT_STATEMENT =
+            "insert into mxk_userinfo (id , username , password , decipherable , passwordlastsettime , "
+            + "createddate , modifieddate , instid , " + columns("") + ") values (?,?,?,?,?,?,?,?,"
+            + String.join(",", Collections.nCopies(COLUMNS.size(), "?")) + ")";
+
+    static final int[] USER_INSERT_TYPES = types(new int[] {
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+
+    /**
+     * null parameter keeps the current value
+     */
+    static final String USER_UPDATE_STATEMENT =
+            "update mxk_userinfo set " + columns("coalesce") + " , modifieddate = ? where id = ?";
+
+    static final int[] USER_UPDATE_TYPES = types(new int[0], Types.VARCHAR, Types.VARCHAR);
+
+    static final String USER_DISABLE_STATEMENT =
+            "update mxk_userinfo set status = ? , modifieddate = ? where id = ?";
+
+    static final String RELATED_SELECT_STATEMENT =
+            "select id , objectid , objectname , objectdisplayname , originid , originid2 , originid3 , originname "
+            + "from mxk_synchro_related where instid = ? and syncid = ? and objecttype = ?";
+
+    static final String RELATED_INSERT_STATEMENT =
+            "insert into mxk_synchro_related (id , objectid , objectname , objectdisplayname , objecttype , "
+            + "syncid , syncname , originid , originid2 , originid3 , originname , instid , synctime) "
+            + "values (?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    static final String RELATED_UPDATE_STATEMENT =
+            "update mxk_synchro_related set objectid = ? , objectname = ? , objectdisplayname = ? , "
+            + "originid2 = ? , originid3 = ? , originname = ? , synctime = ? where id = ?";
+
+    static final String RELATED_DELETE_STATEMENT = "delete from mxk_synchro_related where id = ?";
+
+    static final String HISTORY_INSERT_STATEMENT =
+            "insert into mxk_history_synchronizer (id , syncid , syncname , objectid , objecttype , objectname , result , instid) "
+            + "values (?,?,?,?,?,?,?,?)";
+
+    final JdbcTemplate jdbcTemplate;
+
+    final TransactionTemplate transactionTemplate;
+
+    final UserInfoService userInfoService;
+
+    final MqPersistService mqPersistService;
+
+    final Synchronizers synchronizer;
+
+    final int batchSize;
+
+    final boolean provisioning;
+
+    /**
+     * lower case username -> user
+     */
+    final HashMap<String, ExistingUser> users = new HashMap<String, ExistingUser>();
+
+    /**
+     * originId -> related
+     */
+    final HashMap<String, ExistingRelated> relateds = new HashMap<String, ExistingRelated>();
+
+    final HashSet<String> syncedOrigins = new HashSet<String>();
+
+    final HashSet<String> syncedUsers = new HashSet<String>();
+
+    Consumer<UserInfo> beforeInsert;
+
+    /**
+     * removeMissing允许停用的关联比例,1及以上不限制
+     */
+    double maxMissingRatio = DEFAULT_MAX_MISSING_RATIO;
+
+    /**
+     * 有批次写入失败时不执行removeMissing,同步服务不保存水位
+     */
+    boolean flushFailed;
+
+    Chunk chunk = new Chunk();
+
+    long startTime;
+
+    long loadMillis;
+
+    long insertMillis;
+
+    long updateMillis;
+
+    long deleteMillis;
+
+    long fetched;
+
+    long unchanged;
+
+    long inserted;
+
+    long updated;
+
+    long deleted;
+
+    long failed;
+
+    boolean finished;
+
+    public UsersBulkSynchronizer(JdbcTemplate jdbcTemplate, UserInfoService userInfoService,
+            MqPersistService mqPersistService, Synchronizers synchronizer, int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate =
+                new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.userInfoService = userInfoService;
+        this.mqPersistService = mqPersistService;
+        this.synchronizer = synchronizer;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.provisioning = mqPersistService != null
+                && mqPersistService.getApplicationConfig().isMessageQueueSupport();
+    }
+
+    /**
+     * 加载机构的用户及本同步器的用户关联
+     */
+    public UsersBulkSynchronizer load() {
+        startTime = System.currentTimeMillis();
+        jdbcTemplate.query(USERS_SELECT_STATEMENT,
+                new Object[] { synchronizer.getInstId() }, new int[] { Types.VARCHAR },
+                (ResultSet rs) -> {
+                    long[] hashes = new long[COLUMNS.size()];
+                    for (int i = 0; i < hashes.length; i++) {
+                        hashes[i] = hash(rs.getString(COLUMNS.get(i).name));
+                    }
+                    users.put(usernameKey(rs.getString("username")), new ExistingUser(rs.getString("id"), hashes));
+                });
+        jdbcTemplate.query(RELATED_SELECT_STATEMENT,
+                new Object[] { synchronizer.getInstId(), synchronizer.getId(), UserInfo.CLASS_TYPE },
+                new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR },
+                (ResultSet rs) -> {
+                    relateds.put(rs.getString("originid"), new ExistingRelated(rs));
+                });
+        loadMillis = System.currentTimeMillis() - startTime;
+        _logger.info("Synchronizer {} loaded {} users , {} relateds in {} ms",
+                synchronizer.getName(), users.size(), relateds.size(), loadMillis);
+        return this;
+    }
+
+    /**
+     * 同步一个用户,有变化时加入当前批次,批次满时写入.
+     * 已有用户使用其id且不修改密码,新用户无id时生成.
+     * @param userInfo 源用户,新增时password为初始密码明文
+     * @param related 用户关联,objectId由此设置
+     * @return 用户或关联是否有变化
+     */
+    public boolean sync(UserInfo userInfo, SynchroRelated related) {
+        return sync(userInfo, related, null);
+    }
+
+    /**
+     * @param userInfo 源用户,新增时password为初始密码明文
+     * @param related 用户关联,objectId由此设置
+     * @param afterCommit 有变化时在所在批次提交后执行,批次回滚时不执行
+     * @return 用户或关联是否有变化
+     */
+    public boolean sync(UserInfo userInfo, SynchroRelated related, Runnable afterCommit) {
+        fetched++;
+        if (StringUtils.isBlank(userInfo.getUsername()) || StringUtils.isBlank(related.getOriginId())) {
+            _logger.warn("Skip user without username or origin id , {}", userInfo.getLdapDn());
+            //keep the related of a skipped user out of removeMissing
+            if (StringUtils.isNotBlank(related.getOriginId())) {
+                syncedOrigins.add(related.getOriginId());
+            }
+            failed++;
+            return false;
+        }
+        boolean changed = false;
+        String usernameKey = usernameKey(userInfo.getUsername());
+        ExistingUser existing = users.get(usernameKey);
+        if (existing == null) {
+            if (userInfo.getId() == null) {
+                userInfo.setId(userInfo.generateId());
+            }
+            if (beforeInsert != null) {
+                beforeInsert.accept(userInfo);
+            }
+            userInfoService.passwordEncoder(userInfo);
+            users.put(usernameKey, new ExistingUser(userInfo.getId(), hashes(userInfo, null)));
+            chunk.userInserts.add(userInsertArgs(userInfo));
+            chunk.reverts.add(() -> users.remove(usernameKey));
+            chunk.history(userInfo, "inserted");
+            if (provisioning) {
+                chunk.createdUsers.add(userInfo);
+            }
+            changed = true;
+        } else {
+            userInfo.setId(existing.id);
+            userInfo.setPassword(null);
+            long[] hashes = hashes(userInfo, existing.hashes);
+            if (!Arrays.equals(hashes, existing.hashes)) {
+                long[] previous = existing.hashes;
+                existing.hashes = hashes;
+                chunk.userUpdates.add(userUpdateArgs(userInfo));
+                chunk.reverts.add(() -> existing.hashes = previous);
+                chunk.history(userInfo, "updated");
+                chunk.updatedUsers.add(userInfo);
+                changed = true;
+            }
+        }
+        syncedUsers.add(userInfo.getId());
+
+        related.setObjectId(userInfo.getId());
+        String originId = related.getOriginId();
+        syncedOrigins.add(originId);
+        ExistingRelated existingRelated = relateds.get(originId);
+        long relatedHash = ExistingRelated.hash(related);
+        if (existingRelated == null) {
+            related.setId(related.generateId());
+            relateds.put(originId,
+                    new ExistingRelated(related.getId(), related.getObjectId(), related.getObjectName(), relatedHash));
+            chunk.relatedInserts.add(relatedInsertArgs(related));
+            chunk.reverts.add(() -> relateds.remove(originId));
+            changed = true;
+        } else if (changed || existingRelated.hash != relatedHash) {
+            related.setId(existingRelated.id);
+            long previousHash = existingRelated.hash;
+            String previousObjectId = existingRelated.objectId;
+            String previousObjectName = existingRelated.objectName;
+            existingRelated.hash = relatedHash;
+            existingRelated.objectId = related.getObjectId();
+            existingRelated.objectName = related.getObjectName();
+            chunk.relatedUpdates.add(relatedUpdateArgs(related));
+            chunk.reverts.add(() -> {
+                existingRelated.hash = previousHash;
+                existingRelated.objectId = previousObjectId;
+                existingRelated.objectName = previousObjectName;
+            });
+            changed = true;
+        }
+
+        if (!changed) {
+            unchanged++;
+        } else if (afterCommit != null) {
+            chunk.afterCommits.add(afterCommit);
+        }
+        if (chunk.size() >= batchSize) {
+            flush();
+        }
+        return changed;
+    }
+
+    /**
+     * 写入当前批次,失败时回滚该批次并恢复内存索引
+     */
+    public void flush() {
+        Chunk current = chunk;
+        chunk = new Chunk();
+        if (current.size() == 0) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                long start = System.currentTimeMillis();
+                batchUpdate(USER_INSERT_STATEMENT, current.userInserts, USER_INSERT_TYPES);
+                long updateStart = System.currentTimeMillis();
+                insertMillis += updateStart - start;
+                batchUpdate(USER_UPDATE_STATEMENT, current.userUpdates, USER_UPDATE_TYPES);
+                batchUpdate(RELATED_INSERT_STATEMENT, current.relatedInserts, null);
+                batchUpdate(RELATED_UPDATE_STATEMENT, current.relatedUpdates, null);
+                batchUpdate(HISTORY_INSERT_STATEMENT, current.histories, null);
+                updateMillis += System.currentTimeMillis() - updateStart;
+            });
+        } catch (RuntimeException e) {
+            _logger.error("Synchronizer " + synchronizer.getName() + " batch of "
+                    + current.userInserts.size() + " inserts , " + current.userUpdates.size() + " updates failed", e);
+            for (int i = current.reverts.size() - 1; i >= 0; i--) {
+                current.reverts.get(i).run();
+            }
+            failed += current.userInserts.size() + current.userUpdates.size();
+            flushFailed = true;
+            return;
+        }
+        inserted += current.userInserts.size();
+        updated += current.userUpdates.size();
+
+        for (Runnable afterCommit : current.afterCommits) {
+            try {
+                afterCommit.run();
+            } catch (RuntimeException e) {
+                _logger.error("Synchronizer " + synchronizer.getName() + " after commit error", e);
+            }
+        }
+
+        //login cache and dynamic group membership of the written users
+        for (UserInfo userInfo : current.createdUsers) {
+            userInfoService.invalidatePrincipal(userInfo.getId());
+        }
+        for (UserInfo userInfo : current.updatedUsers) {
+            userInfoService.invalidatePrincipal(userInfo.getId());
+            if (userInfo.getStatus() != ConstsStatus.ACTIVE) {
+                userInfoService.accountUpdate(userInfo);
+            }
+        }
+        if (provisioning) {
+            provision(current.createdUsers, MqIdentityAction.CREATE_ACTION);
+            provision(current.updatedUsers, MqIdentityAction.UPDATE_ACTION);
+        }
+    }
+
+    /**
+     * 源用户只包含同步的列,重新加载已写入的完整用户(含部门、兼职)后逐个发送,
+     * 消息内容及action与UserInfoService单个写入相同,按用户id保证顺序
+     */
+    void provision(List<UserInfo> userInfos, String action) {
+        if (userInfos.isEmpty()) {
+            return;
+        }
+        List<String> userIds = new ArrayList<String>(userInfos.size());
+        for (UserInfo userInfo : userInfos) {
+            userIds.add(userInfo.getId());
+        }
+        try {
+            Map<String, UserInfo> loadUserInfos = userInfoService.findUserRelated(userIds);
+            for (String userId : userIds) {
+                UserInfo loadUserInfo = loadUserInfos.get(userId);
+                if (loadUserInfo != null) {
+                    mqPersistService.send(MqIdentityTopic.USERINFO_TOPIC, loadUserInfo, action);
+                }
+            }
+        } catch (RuntimeException e) {
+            _logger.error("Synchronizer " + synchronizer.getName() + " provisioning of "
+                    + userIds.size() + " users error", e);
+        }
+    }
+
+    /**
+     * 源数据已完整遍历后调用,本次未出现的关联用户置为停用并删除关联;
+     * 关联变化(如LDAP DN变更)但用户已同步的只删除关联.
+     * @return 是否执行,未获取到用户、有批次写入失败或缺失比例超过maxMissingRatio时不执行
+     */
+    public boolean removeMissing() {
+        flush();
+        if (fetched == 0) {
+            _logger.warn("Synchronizer {} fetched no user , skip remove missing", synchronizer.getName());
+            return false;
+        }
+        if (flushFailed) {
+            _logger.warn("Synchronizer {} has failed batches , skip remove missing", synchronizer.getName());
+            return false;
+        }
+        List<Map.Entry<String, ExistingRelated>> missing = new ArrayList<Map.Entry<String, ExistingRelated>>();
+        for (Map.Entry<String, ExistingRelated> entry : relateds.entrySet()) {
+            if (!syncedOrigins.contains(entry.getKey())) {
+                missing.add(entry);
+            }
+        }
+        if (maxMissingRatio < 1 && missing.size() > relateds.size() * maxMissingRatio) {
+            _logger.warn("Synchronizer {} missing {} of {} relateds , above ratio {} , skip remove missing",
+                    synchronizer.getName(), missing.size(), relateds.size(), maxMissingRatio);
+            return false;
+        }
+        remove(missing);
+        return true;
+    }
+
+    /**
+     * 增量同步时源端报告已删除的用户(如AD tombstone),按用户名置为停用并删除关联;
+     * 本次已同步的用户(删除后重建)不处理.
+     * @param usernames
+     */
+    public void removeUsers(Collection<String> usernames) {
+        flush();
+        HashSet<String> userIds = new HashSet<String>();
+        for (String username : usernames) {
+            ExistingUser existingUser = users.get(usernameKey(username));
+            if (existingUser != null && !syncedUsers.contains(existingUser.id)) {
+                userIds.add(existingUser.id);
+            }
+        }
+        List<Map.Entry<String, ExistingRelated>> removed = new ArrayList<Map.Entry<String, ExistingRelated>>();
+        if (!userIds.isEmpty()) {
+            for (Map.Entry<String, ExistingRelated> entry : relateds.entrySet()) {
+                if (userIds.contains(entry.getValue().objectId) && !syncedOrigins.contains(entry.getKey())) {
+                    removed.add(entry);
+                }
+            }
+        }
+        _logger.debug("remove users {} , relateds {}", usernames.size(), removed.size());
+        remove(removed);
+    }
+
+    void remove(List<Map.Entry<String, ExistingRelated>> missing) {
+        long start = System.currentTimeMillis();
+        for (int from = 0; from < missing.size(); from += batchSize) {
+            List<Map.Entry<String, ExistingRelated>> batch =
+                    missing.subList(from, Math.min(from + batchSize, missing.size()));
+            List<Object[]> relatedDeletes = new ArrayList<Object[]>(batch.size());
+            List<Object[]> userDisables = new ArrayList<Object[]>(batch.size());
+            List<Object[]> histories = new ArrayList<Object[]>(batch.size());
+            List<UserInfo> disabledUsers = new ArrayList<UserInfo>(batch.size());
+            String modifiedDate = DateUtils.getCurrentDateTimeAsString();
+            for (Map.Entry<String, ExistingRelated> entry : batch) {
+                ExistingRelated related = entry.getValue();
+                relatedDeletes.add(new Object[] { related.id });
+                if (related.objectId != null && !syncedUsers.contains(related.objectId)) {
+                    UserInfo userInfo = new UserInfo();
+                    userInfo.setId(related.objectId);
+                    userInfo.setUsername(related.objectName);
+                    userInfo.setStatus(ConstsStatus.INACTIVE);
+                    userInfo.setInstId(synchronizer.getInstId());
+                    userDisables.add(new Object[] { ConstsStatus.INACTIVE, modifiedDate, related.objectId });
+                    histories.add(historyArgs(related.objectId, UserInfo.CLASS_TYPE, related.objectName, "deleted"));
+                    disabledUsers.add(userInfo);
+                }
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    batchUpdate(USER_DISABLE_STATEMENT, userDisables, null);
+                    batchUpdate(RELATED_DELETE_STATEMENT, relatedDeletes, null);
+                    batchUpdate(HISTORY_INSERT_STATEMENT, histories, null);
+                });
+            } catch (RuntimeException e) {
+                _logger.error("Synchronizer " + synchronizer.getName() + " remove " + batch.size() + " relateds failed", e);
+                failed += disabledUsers.size();
+                continue;
+            }
+            deleted += disabledUsers.size();
+            for (Map.Entry<String, ExistingRelated> entry : batch) {
+                relateds.remove(entry.getKey());
+            }
+            for (UserInfo userInfo : disabledUsers) {
+                userInfoService.invalidatePrincipal(userInfo.getId());
+                userInfoService.accountUpdate(userInfo);
+            }
+            if (provisioning) {
+                provision(disabledUsers, MqIdentityAction.UPDATE_ACTION);
+            }
+        }
+        deleteMillis += System.currentTimeMillis() - start;
+    }
+
+    /**
+     * 写入剩余批次,记录各阶段耗时及数量
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        flush();
+        long totalMillis = System.currentTimeMillis() - startTime;
+        long fetchMillis = totalMillis - loadMillis - insertMillis - updateMillis - deleteMillis;
+        _logger.info("Synchronizer {} users fetched {} in {} ms , unchanged {} , inserted {} in {} ms , "
+                + "updated {} in {} ms , deleted {} in {} ms , failed {} , total {} ms",
+                synchronizer.getName(), fetched, fetchMillis, unchanged, inserted, insertMillis,
+                updated, updateMillis, deleted, deleteMillis, failed, totalMillis);
+        String runId = new HistorySynchronizer().generateId();
+        List<Object[]> summary = new ArrayList<Object[]>();
+        summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "load", users.size() + " , " + loadMillis + "ms"));
+        summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "fetched", fetched + " , " + fetchMillis + "ms"));
+        summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "unchanged", String.valueOf(unchanged)));
+        summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "inserted", inserted + " , " + insertMillis + "ms"));
+        summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "updated", updated + " , " + updateMillis + "ms"));
+        summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "deleted", deleted + " , " + deleteMillis + "ms"));
+        if (failed > 0) {
+            summary.add(historyArgs(runId, UserInfo.CLASS_TYPE, "failed", String.valueOf(failed)));
+        }
+        try {
+            batchUpdate(HISTORY_INSERT_STATEMENT, summary, null);
+        } catch (RuntimeException e) {
+            _logger.error("Synchronizer history error", e);
+        }
+    }
+
+    /**
+     * 新增用户写入前调用,如设置默认值
+     */
+    public void setBeforeInsert(Consumer<UserInfo> beforeInsert) {
+        this.beforeInsert = beforeInsert;
+    }
+
+    /**
+     * removeMissing允许停用的关联比例,如0.3,1及以上不限制
+     */
+    public void setMaxMissingRatio(double maxMissingRatio) {
+        this.maxMissingRatio = maxMissingRatio;
+    }
+
+    /**
+     * 用户名唯一索引不区分大小写时,大小写不同的用户名为同一用户
+     */
+    static String usernameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    void batchUpdate(String sql, List<Object[]> batchArgs, int[] argTypes) {
+        if (batchArgs.isEmpty()) {
+            return;
+        }
+        if (argTypes == null) {
+            jdbcTemplate.batchUpdate(sql, batchArgs);
+        } else {
+            jdbcTemplate.batchUpdate(sql, batchArgs, argTypes);
+        }
+    }
+
+    Object[] userInsertArgs(UserInfo userInfo) {
+        String now = DateUtils.getCurrentDateTimeAsString();
+        Object[] args = new Object[8 + COLUMNS.size()];
+        args[0] = userInfo.getId();
+        args[1] = userInfo.getUsername();
+        args[2] = userInfo.getPassword();
+        args[3] = userInfo.getDecipherable();
+        args[4] = userInfo.getPasswordLastSetTime() == null ? now : userInfo.getPasswordLastSetTime();
+        args[5] = now;
+        args[6] = now;
+        args[7] = userInfo.getInstId();
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            args[8 + i] = COLUMNS.get(i).value(userInfo);
+        }
+        return args;
+    }
+
+    Object[] userUpdateArgs(UserInfo userInfo) {
+        Object[] args = new Object[COLUMNS.size() + 2];
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            args[i] = COLUMNS.get(i).value(userInfo);
+        }
+        args[COLUMNS.size()] = DateUtils.getCurrentDateTimeAsString();
+        args[COLUMNS.size() + 1] = userInfo.getId();
+        return args;
+    }
+
+    Object[] relatedInsertArgs(SynchroRelated related) {
+        return new Object[] {
+                related.getId(), related.getObjectId(), related.getObjectName(), related.getObjectDisplayName(),
+                related.getObjectType(), related.getSyncId(), related.getSyncName(), related.getOriginId(),
+                related.getOriginId2(), related.getOriginId3(), related.getOriginName(), related.getInstId(),
+                DateUtils.getCurrentDateTimeAsString()
+            };
+    }
+
+    Object[] relatedUpdateArgs(SynchroRelated related) {
+        return new Object[] {
+                related.getObjectId(), related.getObjectName(), related.getObjectDisplayName(),
+                related.getOriginId2(), related.getOriginId3(), related.getOriginName(),
+                DateUtils.getCurrentDateTimeAsString(), related.getId()
+            };
+    }
+
+    Object[] historyArgs(String objectId, String objectType, String objectName, String result) {
+        return new Object[] {
+                new HistorySynchronizer().generateId(), synchronizer.getId(), synchronizer.getName(),
+                objectId, objectType, objectName, result, synchronizer.getInstId()
+            };
+    }
+
+    /**
+     * @param userInfo
+     * @param current 已有用户的摘要,未提供的列沿用;新增时为null
+     */
+    static long[] hashes(UserInfo userInfo, long[] current) {
+        long[] hashes = new long[COLUMNS.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            Object value = COLUMNS.get(i).value(userInfo);
+            hashes[i] = (value == null && current != null) ? current[i] : hash(value);
+        }
+        return hashes;
+    }
+
+    /**
+     * FNV-1a 64,null及空串为0
+     */
+    static long hash(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        String string = value.toString();
+        if (string.isEmpty()) {
+            return 0L;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static String columns(String function) {
+        StringBuilder columns = new StringBuilder();
+        for (SyncColumn column : COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(" , ");
+            }
+            if (function.isEmpty()) {
+                columns.append(column.name);
+            } else {
+                columns.append(column.name).append(" = ").append(function)
+                       .append("(? , ").append(column.name).append(")");
+            }
+        }
+        return columns.toString();
+    }
+
+    /**
+     * @return leading types , column types , trailing types
+     */
+    static int[] types(int[] leading, int... trailing) {
+        int[] types = new int[leading.length + COLUMNS.size() + trailing.length];
+        System.arraycopy(leading, 0, types, 0, leading.length);
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            types[leading.length + i] = COLUMNS.get(i).type;
+        }
+        System.arraycopy(trailing, 0, types, leading.length + COLUMNS.size(), trailing.length);
+        return types;
+    }
+
+    public long getFetched() {
+        return fetched;
+    }
+
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return 是否有批次写入失败,失败时不应推进增量同步水位
+     */
+    public boolean isFlushFailed() {
+        return flushFailed;
+    }
+
+    static class SyncColumn {
+        final String name;
+
+        final int type;
+
+        final Function<UserInfo, Object> getter;
+
+        SyncColumn(String name, int type, Function<UserInfo, Object> getter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+        }
+
+        Object value(UserInfo userInfo) {
+            return getter.apply(userInfo);
+        }
+    }
+
+    static class ExistingUser {
+        final String id;
+
+        long[] hashes;
+
+        ExistingUser(String id, long[] hashes) {
+            this.id = id;
+            this.hashes = hashes;
+        }
+    }
+
+    static class ExistingRelated {
+        final String id;
+
+        String objectId;
+
+        String objectName;
+
+        long hash;
+
+        ExistingRelated(String id, String objectId, String objectName, long hash) {
+            this.id = id;
+            this.objectId = objectId;
+            this.objectName = objectName;
+            this.hash = hash;
+        }
+
+        ExistingRelated(ResultSet rs) throws SQLException {
+            this.id = rs.getString("id");
+            this.objectId = rs.getString("objectid");
+            this.objectName = rs.getString("objectname");
+            this.hash = hash(objectId, objectName, rs.getString("objectdisplayname"),
+                    rs.getString("originid2"), rs.getString("originid3"), rs.getString("originname"));
+        }
+
+        static long hash(SynchroRelated related) {
+            return hash(related.getObjectId(), related.getObjectName(), related.getObjectDisplayName(),
+                    related.getOriginId2(), related.getOriginId3(), related.getOriginName());
+        }
+
+        static long hash(String... values) {
+            long hash = 0L;
+            for (String value : values) {
+                hash = hash * 31 + UsersBulkSynchronizer.hash(value);
+            }
+            return hash;
+        }
+    }
+
+    class Chunk {
+        final List<Object[]> userInserts = new ArrayList<Object[]>();
+
+        final List<Object[]> userUpdates = new ArrayList<Object[]>();
+
+        final List<Object[]> relatedInserts = new ArrayList<Object[]>();
+
+        final List<Object[]> relatedUpdates = new ArrayList<Object[]>();
+
+        final List<Object[]> histories = new ArrayList<Object[]>();
+
+        final List<UserInfo> createdUsers = new ArrayList<UserInfo>();
+
+        final List<UserInfo> updatedUsers = new ArrayList<UserInfo>();
+
+        /**
+         * restore memory indexes when the batch is rolled back
+         */
+        final List<Runnable> reverts = new ArrayList<Runnable>();
+
+        /**
+         * run after the batch is committed
+         */
+        final List<Runnable> afterCommits = new ArrayList<Runnable>();
+
+        void history(UserInfo userInfo, String result) {
+            histories.add(historyArgs(userInfo.getId(), UserInfo.CLASS_TYPE, userInfo.getUsername(), result));
+        }
+
+        int size() {
+            return userInserts.size() + userUpdates.size() + relatedInserts.size() + relatedUpdates.size();
+        }
+    }
+}
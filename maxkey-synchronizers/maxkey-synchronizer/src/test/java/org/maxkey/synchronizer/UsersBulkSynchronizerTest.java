@@ -0,0 +1,327 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.synchronizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.maxkey.configuration.ApplicationConfig;
+import org.maxkey.constants.ConstsStatus;
+import org.maxkey.entity.SynchroRelated;
+import org.maxkey.entity.Synchronizers;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.persistence.mq.MqIdentityAction;
+import org.maxkey.persistence.mq.MqIdentityTopic;
+import org.maxkey.persistence.mq.MqPersistService;
+import org.maxkey.persistence.service.UserInfoService;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * UsersBulkSynchronizer,H2内存库(MySQL模式)
+ */
+public class UsersBulkSynchronizerTest {
+
+    static final String INST_ID = "1";
+
+    SingleConnectionDataSource dataSource;
+
+    JdbcTemplate jdbcTemplate;
+
+    UserInfoService userInfoService;
+
+    Synchronizers synchronizer;
+
+    @Before
+    public void setup() {
+        dataSource = new SingleConnectionDataSource(
+                "jdbc:h2:mem:synchronizer;MODE=MySQL;DB_CLOSE_DELAY=-1", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        createTables(jdbcTemplate);
+        userInfoService = Mockito.mock(UserInfoService.class);
+        synchronizer = new Synchronizers("sync-1");
+        synchronizer.setName("ldap");
+        synchronizer.setInstId(INST_ID);
+    }
+
+    @After
+    public void tearDown() {
+        jdbcTemplate.execute("drop all objects");
+        dataSource.destroy();
+    }
+
+    @Test
+    public void diff() {
+        UsersBulkSynchronizer first = newSynchronizer(10);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(first.sync(newUser("user" + i), newRelated("origin" + i, "user" + i)));
+        }
+        first.finish();
+        assertEquals(3, first.getInserted());
+        assertEquals(3, count("select count(*) from mxk_userinfo"));
+        assertEquals(3, count("select count(*) from mxk_synchro_related"));
+
+        //same source , nothing written
+        UsersBulkSynchronizer second = newSynchronizer(10);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(second.sync(newUser("user" + i), newRelated("origin" + i, "user" + i)));
+        }
+        second.finish();
+        assertEquals(3, second.getUnchanged());
+        assertEquals(0, second.getInserted());
+        assertEquals(0, second.getUpdated());
+
+        //one changed column , columns not provided keep the current value
+        UsersBulkSynchronizer third = newSynchronizer(10);
+        UserInfo changed = newUser("user1");
+        changed.setEmail("changed@maxkey.top");
+        changed.setDisplayName(null);
+        assertTrue(third.sync(changed, newRelated("origin1", "user1")));
+        assertFalse(third.sync(newUser("user2"), newRelated("origin2", "user2")));
+        third.finish();
+        assertEquals(1, third.getUpdated());
+        assertEquals("changed@maxkey.top", string("select email from mxk_userinfo where username = 'user1'"));
+        assertEquals("User user1", string("select displayname from mxk_userinfo where username = 'user1'"));
+    }
+
+    @Test
+    public void chunkRollback() {
+        UsersBulkSynchronizer first = newSynchronizer(10);
+        first.sync(newUser("user1"), newRelated("origin1", "user1"));
+        first.finish();
+        String user1Id = string("select id from mxk_userinfo where username = 'user1'");
+
+        AtomicInteger committed = new AtomicInteger();
+        //a user and its related per sync , two syncs per batch
+        UsersBulkSynchronizer second = newSynchronizer(4);
+        //origin1 moves to a new user , in the same batch as a user the database rejects
+        second.sync(newUser("user2"), newRelated("origin1", "user2"), committed::incrementAndGet);
+        second.sync(newUser(tooLong()), newRelated("origin3", "user3"), committed::incrementAndGet);
+        second.sync(newUser("user4"), newRelated("origin4", "user4"), committed::incrementAndGet);
+        second.finish();
+
+        assertEquals(2, second.getFailed());
+        assertEquals(1, second.getInserted());
+        assertEquals(1, committed.get());
+        assertEquals(0, count("select count(*) from mxk_userinfo where username = 'user2'"));
+        assertEquals(1, count("select count(*) from mxk_userinfo where username = 'user4'"));
+        assertEquals(user1Id, string("select objectid from mxk_synchro_related where originid = 'origin1'"));
+
+        //memory indexes restored , related points to the committed user
+        assertNull(second.users.get("user2"));
+        assertNull(second.relateds.get("origin3"));
+        UsersBulkSynchronizer.ExistingRelated related = second.relateds.get("origin1");
+        assertEquals(user1Id, related.objectId);
+        assertEquals("user1", related.objectName);
+
+        //failed batch , no user is disabled
+        assertFalse(second.removeMissing());
+        assertEquals(0, second.getDeleted());
+    }
+
+    @Test
+    public void removeMissing() {
+        syncUsers(4);
+
+        UsersBulkSynchronizer second = newSynchronizer(10);
+        for (int i = 0; i < 3; i++) {
+            second.sync(newUser("user" + i), newRelated("origin" + i, "user" + i));
+        }
+        assertTrue(second.removeMissing());
+        second.finish();
+
+        assertEquals(1, second.getDeleted());
+        assertEquals(ConstsStatus.INACTIVE, count("select status from mxk_userinfo where username = 'user3'"));
+        assertEquals(ConstsStatus.ACTIVE, count("select status from mxk_userinfo where username = 'user0'"));
+        assertEquals(0, count("select count(*) from mxk_synchro_related where originid = 'origin3'"));
+        assertEquals(3, count("select count(*) from mxk_synchro_related"));
+    }
+
+    @Test
+    public void removeMissingNothingFetched() {
+        syncUsers(4);
+
+        UsersBulkSynchronizer second = newSynchronizer(10);
+        assertFalse(second.removeMissing());
+        assertEquals(0, second.getDeleted());
+        assertEquals(4, count("select count(*) from mxk_synchro_related"));
+    }
+
+    @Test
+    public void removeMissingAboveRatio() {
+        syncUsers(4);
+
+        UsersBulkSynchronizer second = newSynchronizer(10);
+        second.sync(newUser("user0"), newRelated("origin0", "user0"));
+        assertFalse(second.removeMissing());
+        assertEquals(0, second.getDeleted());
+        assertEquals(0, count("select count(*) from mxk_userinfo where status = " + ConstsStatus.INACTIVE));
+
+        //no limit
+        UsersBulkSynchronizer third = newSynchronizer(10);
+        third.setMaxMissingRatio(1);
+        third.sync(newUser("user0"), newRelated("origin0", "user0"));
+        assertTrue(third.removeMissing());
+        assertEquals(3, third.getDeleted());
+    }
+
+    @Test
+    public void removeMissingSkippedUser() {
+        syncUsers(4);
+
+        UsersBulkSynchronizer second = newSynchronizer(10);
+        for (int i = 0; i < 3; i++) {
+            second.sync(newUser("user" + i), newRelated("origin" + i, "user" + i));
+        }
+        //present in the source without username
+        assertFalse(second.sync(newUser(""), newRelated("origin3", "")));
+        assertTrue(second.removeMissing());
+        assertEquals(0, second.getDeleted());
+        assertEquals(4, count("select count(*) from mxk_synchro_related"));
+        assertEquals(ConstsStatus.ACTIVE, count("select status from mxk_userinfo where username = 'user3'"));
+    }
+
+    @Test
+    public void usernameCase() {
+        syncUsers(2);
+
+        UsersBulkSynchronizer second = newSynchronizer(10);
+        UserInfo upper = newUser("USER1");
+        upper.setEmail("changed@maxkey.top");
+        assertTrue(second.sync(upper, newRelated("origin1", "USER1")));
+        second.finish();
+        //updates the existing user instead of hitting the unique key
+        assertEquals(0, second.getInserted());
+        assertEquals(1, second.getUpdated());
+        assertEquals(0, second.getFailed());
+        assertEquals(2, count("select count(*) from mxk_userinfo"));
+        assertEquals("changed@maxkey.top", string("select email from mxk_userinfo where username = 'user1'"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void provisioning() {
+        ApplicationConfig applicationConfig = Mockito.mock(ApplicationConfig.class);
+        Mockito.when(applicationConfig.isMessageQueueSupport()).thenReturn(true);
+        MqPersistService mqPersistService = Mockito.mock(MqPersistService.class);
+        Mockito.when(mqPersistService.getApplicationConfig()).thenReturn(applicationConfig);
+        //full rows reloaded after the batch commits
+        Mockito.when(userInfoService.findUserRelated(Mockito.anyList())).thenAnswer(invocation -> {
+            HashMap<String, UserInfo> loaded = new HashMap<String, UserInfo>();
+            for (String userId : (List<String>) invocation.getArgument(0)) {
+                UserInfo userInfo = new UserInfo();
+                userInfo.setId(userId);
+                loaded.put(userId, userInfo);
+            }
+            return loaded;
+        });
+
+        UsersBulkSynchronizer first = new UsersBulkSynchronizer(
+                jdbcTemplate, userInfoService, mqPersistService, synchronizer, 10).load();
+        for (int i = 0; i < 3; i++) {
+            first.sync(newUser("user" + i), newRelated("origin" + i, "user" + i));
+        }
+        first.finish();
+
+        //one query per batch , one message per user keyed by the user
+        Mockito.verify(userInfoService, Mockito.times(1)).findUserRelated(Mockito.anyList());
+        Mockito.verify(mqPersistService, Mockito.times(3)).send(
+                Mockito.eq(MqIdentityTopic.USERINFO_TOPIC),
+                Mockito.any(UserInfo.class),
+                Mockito.eq(MqIdentityAction.CREATE_ACTION));
+        Mockito.verify(mqPersistService, Mockito.never()).send(
+                Mockito.anyString(), Mockito.any(), Mockito.eq(MqIdentityAction.UPDATE_ACTION));
+    }
+
+    void syncUsers(int size) {
+        UsersBulkSynchronizer usersBulkSynchronizer = newSynchronizer(10);
+        for (int i = 0; i < size; i++) {
+            usersBulkSynchronizer.sync(newUser("user" + i), newRelated("origin" + i, "user" + i));
+        }
+        usersBulkSynchronizer.finish();
+    }
+
+    UsersBulkSynchronizer newSynchronizer(int batchSize) {
+        return new UsersBulkSynchronizer(jdbcTemplate, userInfoService, null, synchronizer, batchSize).load();
+    }
+
+    static UserInfo newUser(String username) {
+        UserInfo userInfo = new UserInfo();
+        userInfo.setUsername(username);
+        userInfo.setDisplayName("User " + username);
+        userInfo.setEmail(username + "@maxkey.top");
+        userInfo.setStatus(ConstsStatus.ACTIVE);
+        userInfo.setInstId(INST_ID);
+        return userInfo;
+    }
+
+    SynchroRelated newRelated(String originId, String username) {
+        return new SynchroRelated(null, username, "User " + username, UserInfo.CLASS_TYPE,
+                synchronizer.getId(), synchronizer.getName(), originId, username, "", "", INST_ID);
+    }
+
+    static String tooLong() {
+        StringBuilder username = new StringBuilder();
+        while (username.length() <= 100) {
+            username.append("user");
+        }
+        return username.toString();
+    }
+
+    int count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Integer.class);
+    }
+
+    String string(String sql) {
+        return jdbcTemplate.queryForObject(sql, String.class);
+    }
+
+    static void createTables(JdbcTemplate jdbcTemplate) {
+        StringBuilder columns = new StringBuilder();
+        for (UsersBulkSynchronizer.SyncColumn column : UsersBulkSynchronizer.COLUMNS) {
+            columns.append(" , ").append(column.name)
+                   .append(column.type == Types.INTEGER ? " int" : " varchar(400)");
+        }
+        jdbcTemplate.execute("create table mxk_userinfo ("
+                + "id varchar(45) not null primary key , username varchar(100) not null ,"
+                + " password varchar(200) , decipherable varchar(400) , passwordlastsettime varchar(45) ,"
+                + " createddate varchar(45) , modifieddate varchar(45) , instid varchar(45) not null"
+                + columns + ")");
+        jdbcTemplate.execute("create unique index username_unique on mxk_userinfo(username)");
+        jdbcTemplate.execute("create table mxk_synchro_related ("
+                + "id varchar(45) not null primary key , objectid varchar(45) , objectname varchar(100) ,"
+                + " objectdisplayname varchar(100) , objecttype varchar(45) , syncid varchar(45) ,"
+                + " syncname varchar(100) , originid varchar(100) , originid2 varchar(100) ,"
+                + " originid3 varchar(100) , originname varchar(100) , instid varchar(45) , synctime varchar(45))");
+        jdbcTemplate.execute("create table mxk_history_synchronizer ("
+                + "id varchar(45) not null primary key , syncid varchar(45) , syncname varchar(100) ,"
+                + " objectid varchar(45) , objecttype varchar(45) , objectname varchar(200) ,"
+                + " result varchar(200) , instid varchar(45))");
+    }
+}
@@ -18,6 +18,7 @@
 package org.maxkey;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -29,6 +30,7 @@ import org.maxkey.authn.realm.ldap.LdapAuthenticationRealmService;
 import org.maxkey.authn.support.kerberos.KerberosProxy;
 import org.maxkey.authn.support.kerberos.RemoteKerberosService;
 import org.maxkey.authn.support.rememberme.AbstractRemeberMeService;
+import org.maxkey.authz.singlelogout.SingleLogoutDispatcher;
 import org.maxkey.configuration.EmailConfig;
 import org.maxkey.constants.ConstsPersistence;
 import org.maxkey.password.onetimepwd.AbstractOtpAuthn;
@@ -214,6 +216,27 @@ public class MaxKeyConfig  implements InitializingBean {
         return kerberosService;
     }
     
+    /**
+     * 后端通道单点注销异步并行发送,失败的应用按retry.interval指数退避重试.
+     */
+    @Bean(name = "singleLogoutDispatcher", destroyMethod = "shutdown")
+    public SingleLogoutDispatcher singleLogoutDispatcher(
+            @Value("${maxkey.slo.concurrency:32}") int concurrency,
+            @Value("${maxkey.slo.queue.capacity:10000}") int capacity,
+            @Value("${maxkey.slo.connect.timeout:2000}") int connectTimeout,
+            @Value("${maxkey.slo.socket.timeout:5000}") int socketTimeout,
+            @Value("${maxkey.slo.retry.max.attempts:5}") int maxAttempts,
+            @Value("${maxkey.slo.retry.interval:30000}") long retryInterval,
+            @Value("${maxkey.slo.spill.directory:${user.home}/.maxkey/maxkey/slo}") String spillDirectory) {
+        SingleLogoutDispatcher singleLogoutDispatcher = 
+                new SingleLogoutDispatcher(concurrency, capacity, connectTimeout, socketTimeout);
+        singleLogoutDispatcher.setMaxAttempts(maxAttempts);
+        singleLogoutDispatcher.setRetryInterval(retryInterval);
+        singleLogoutDispatcher.setSpillDirectory(new File(spillDirectory));
+        singleLogoutDispatcher.start();
+        return singleLogoutDispatcher;
+    }
+    
 
     
     @Override
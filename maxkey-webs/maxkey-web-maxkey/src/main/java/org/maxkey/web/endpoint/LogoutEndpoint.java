@@ -17,10 +17,7 @@
 
 package org.maxkey.web.endpoint;
 
-import java.util.Iterator;
-import java.util.Set;
 import java.util.UUID;
-import java.util.Map.Entry;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -28,13 +25,8 @@ import org.maxkey.authn.SigninPrincipal;
 import org.maxkey.authn.online.OnlineTicket;
 import org.maxkey.authn.online.OnlineTicketServices;
 import org.maxkey.authn.realm.AbstractAuthenticationRealm;
-import org.maxkey.authz.singlelogout.SamlSingleLogout;
-import org.maxkey.authz.singlelogout.DefaultSingleLogout;
-import org.maxkey.authz.singlelogout.LogoutType;
-import org.maxkey.authz.singlelogout.SingleLogout;
+import org.maxkey.authz.singlelogout.SingleLogoutDispatcher;
 import org.maxkey.configuration.ApplicationConfig;
-import org.maxkey.constants.ConstsProtocols;
-import org.maxkey.entity.apps.Apps;
 import org.maxkey.web.WebConstants;
 import org.maxkey.web.WebContext;
 import org.slf4j.Logger;
@@ -70,6 +62,9 @@ public class LogoutEndpoint {
     @Qualifier("onlineTicketServices")
     protected OnlineTicketServices onlineTicketServices;
 	
+	@Autowired
+	SingleLogoutDispatcher singleLogoutDispatcher;
+	
 	@Operation(summary = "单点注销接口", description = "reLoginUrl跳转地址",method="GET")
  	@RequestMapping(value={"/logout"})
  	public ModelAndView logout(
@@ -122,22 +117,8 @@ public class LogoutEndpoint {
  			String onlineTicketId = ((SigninPrincipal)WebContext.getAuthentication().getPrincipal()).getOnlineTicket().getTicketId();
  	 		OnlineTicket onlineTicket = onlineTicketServices.get(onlineTicketId);
  	 		if(onlineTicket != null) {
-		 		Set<Entry<String, Apps>> entrySet = onlineTicket.getAuthorizedApps().entrySet();
-		 
-		        Iterator<Entry<String, Apps>> iterator = entrySet.iterator();
-		        while (iterator.hasNext()) {
-		            Entry<String, Apps> mapEntry = iterator.next();
-		            _logger.debug("App Id : "+ mapEntry.getKey()+ " , " +mapEntry.getValue());
-		            if( mapEntry.getValue().getLogoutType() == LogoutType.BACK_CHANNEL){
-		                SingleLogout singleLogout;
-		                if(mapEntry.getValue().getProtocol().equalsIgnoreCase(ConstsProtocols.CAS)) {
-		                    singleLogout =new SamlSingleLogout();
-		                }else {
-		                    singleLogout = new DefaultSingleLogout();
-		                }
-		                singleLogout.sendRequest(onlineTicket.getAuthentication(), mapEntry.getValue());
-		            }
-		        }
+		 		//back channel logout is sent in parallel , the user does not wait for the apps
+		 		singleLogoutDispatcher.dispatch(onlineTicket.getAuthentication(), onlineTicket.getAuthorizedApps().values());
 		 		onlineTicketServices.remove(onlineTicketId);
  	 		}
  		}
@@ -0,0 +1,253 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.cas.endpoint.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.web.HttpResponseConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * CAS /serviceValidate响应(24个属性,部分多值)生成并写出的耗时,
+ * legacy为原StringBuffer拼接后getBytes,streaming为预编码片段写入线程复用缓冲后一次写出,
+ * gc.alloc.rate.norm为每个响应的内存分配.
+ * <pre>
+ * main方法直接运行,或gradle testClasses后通过org.openjdk.jmh.Main运行
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceResponseWriterBenchmark {
+
+    @Param({"xml", "json"})
+    String format;
+
+    LegacyServiceResponseBuilder legacyResponse;
+
+    ServiceResponseBuilder streamingResponse;
+
+    CountingOutputStream out;
+
+    @Setup
+    public void setup() {
+        legacyResponse = newResponse(new LegacyServiceResponseBuilder(), format);
+        streamingResponse = newResponse(new ServiceResponseBuilder(), format);
+        out = new CountingOutputStream();
+    }
+
+    @Benchmark
+    public long legacy() throws IOException {
+        out.write(legacyResponse.serviceResponseBuilder().getBytes(StandardCharsets.UTF_8));
+        return out.count;
+    }
+
+    @Benchmark
+    public long streaming() throws IOException {
+        streamingResponse.writeTo(out);
+        return out.count;
+    }
+
+    static <T extends ServiceResponseBuilder> T newResponse(T response, String format) {
+        response.success()
+            .setUser("admin")
+            .setTicket("PGTIOU-1-WyU7Y9qQGSwOdDsGmIyPbqkFrHt4ZbN0")
+            .setProxy("https://cas.maxkey.top:8443/demo-cas/proxyCallback")
+            .setFormat(format);
+        response.setAttribute("userId", "1b4a5d5cd5a44c0aa6f5f59c3d8c27d1")
+            .setAttribute("displayName", "系统管理员")
+            .setAttribute("firstName", "管理员")
+            .setAttribute("lastName", "系统")
+            .setAttribute("mainEmail", "admin@maxkey.top")
+            .setAttribute("mobile", "13800000000")
+            .setAttribute("gender", "1")
+            .setAttribute("employeeNumber", "E0001")
+            .setAttribute("department", "研发部 & 测试部")
+            .setAttribute("departmentId", "1001")
+            .setAttribute("jobTitle", "\"Chief\" <Architect>")
+            .setAttribute("company", "MaxKey")
+            .setAttribute("locale", "zh_CN")
+            .setAttribute("timeZone", "Asia/Shanghai")
+            .setAttribute("online", "true")
+            .setAttribute("instId", "1")
+            .setAttribute("instName", "MaxKey Top")
+            .setAttribute("address", "上海市浦东新区\n张江路 1 号")
+            .setAttribute("userType", "EMPLOYEE")
+            .setAttribute("state", "RESIDENT");
+        for (String attr : new String[] {"roles", "groups", "apps", "authorities"}) {
+            for (int i = 1; i <= 3; i++) {
+                response.setAttribute(attr, attr.toUpperCase() + "_" + i);
+            }
+        }
+        return response;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ServiceResponseWriterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * 代替servlet输出流,只统计字节数
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * 原StringBuffer实现,仅作对比基准
+     */
+    static class LegacyServiceResponseBuilder extends ServiceResponseBuilder {
+
+        @Override
+        public String serviceResponseBuilder() {
+            if (format.equalsIgnoreCase(HttpResponseConstants.FORMAT_TYPE.XML)) {
+                return serviceResponseXmlBuilder();
+            }
+            return serviceResponseJsonBuilder();
+        }
+
+        String serviceResponseXmlBuilder() {
+            StringBuffer responseResult = new StringBuffer("");
+            responseResult.append("<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">");
+            responseResult.append("<cas:authenticationSuccess>");
+            responseResult.append("<cas:user>").append(user).append("</cas:user>");
+            if (ticket != null) {
+                responseResult.append("<cas:proxyGrantingTicket>").append(ticket).append("</cas:proxyGrantingTicket>");
+            }
+            if (!casAttributes.isEmpty()) {
+                responseResult.append("<cas:attributes>");
+                Iterator<String> it = casAttributes.keySet().iterator();
+                while (it.hasNext()) {
+                    String key = (String) it.next();
+                    ArrayList<String> attrList = casAttributes.get(key);
+                    for (String value : attrList) {
+                        responseResult.append("<cas:").append(key).append(">");
+                        responseResult.append(value);
+                        responseResult.append("</cas:").append(key).append(">\r\n");
+                    }
+                }
+                responseResult.append("</cas:attributes>");
+            }
+            if (!proxies.isEmpty()) {
+                responseResult.append("<cas:proxies>");
+                for (String proxy : proxies) {
+                    responseResult.append("<cas:proxy>").append(proxy).append("</cas:proxy>");
+                }
+                responseResult.append("</cas:proxies>");
+            }
+            responseResult.append("</cas:authenticationSuccess>");
+            responseResult.append("</cas:serviceResponse>");
+            return responseResult.toString();
+        }
+
+        String serviceResponseJsonBuilder() {
+            StringBuffer responseResult = new StringBuffer("");
+            responseResult.append("{\"serviceResponse\" :{");
+            responseResult.append("\"authenticationSuccess\" : {");
+            responseResult.append("\"user\" : \"").append(user).append("\"");
+            if (ticket != null) {
+                responseResult.append(",\"proxyGrantingTicket\" : \"").append(ticket).append("\"");
+            }
+            if (!casAttributes.isEmpty()) {
+                responseResult.append(",\"attributes\" : {");
+                Iterator<String> it = casAttributes.keySet().iterator();
+                int attrCount = 1;
+                while (it.hasNext()) {
+                    String key = (String) it.next();
+                    ArrayList<String> attrList = casAttributes.get(key);
+                    if (attrCount == 1) {
+                        responseResult.append("\"").append(key).append("\":");
+                    } else {
+                        responseResult.append(",\"").append(key).append("\":");
+                    }
+                    String valueString = "";
+                    if (attrList.size() == 1) {
+                        valueString = "\"" + attrList.get(0) + "\"";
+                    } else {
+                        int valueCount = 1;
+                        valueString += "[";
+                        for (String value : attrList) {
+                            if (valueCount != 1) {
+                                valueString += ",";
+                            }
+                            valueString += "\"" + value + "\"";
+                            valueCount++;
+                        }
+                        valueString += "]";
+                    }
+                    responseResult.append(valueString);
+                    attrCount++;
+                }
+                responseResult.append("}");
+            }
+            if (!proxies.isEmpty()) {
+                responseResult.append(",\"proxies\" : [ ");
+                int proxyCount = 1;
+                for (String proxy : proxies) {
+                    if (proxyCount != 1) {
+                        responseResult.append(",");
+                    }
+                    responseResult.append("\"").append(proxy).append("\"");
+                    proxyCount++;
+                }
+                responseResult.append("]");
+            }
+            responseResult.append("}");
+            responseResult.append("}");
+            responseResult.append("}");
+            return responseResult.toString();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.cas.endpoint.ticket;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.maxkey.authn.SigninPrincipal;
+import org.maxkey.authz.cas.endpoint.ticket.st.RedisTicketServices;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.apps.AppsCasDetails;
+import org.maxkey.persistence.redis.EmbeddedRedisServer;
+import org.maxkey.persistence.redis.RedisConnection;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * CAS票据签发及/serviceValidate消费票据的吞吐量,Redis使用进程内替身{@link EmbeddedRedisServer}.
+ * <p>
+ * getdel为RedisTicketServices的脚本原子消费(一次往返),legacy为原来的GET后DEL(两次往返).
+ * main方法先输出两种方式下同一票据被并发重复消费的次数,再运行JMH.
+ * </p>
+ * <pre>
+ * main方法直接运行,或gradle testClasses后通过org.openjdk.jmh.Main运行
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class CasTicketValidateBenchmark {
+
+    @Param({"getdel", "legacy"})
+    String mode;
+
+    EmbeddedRedisServer redisServer;
+
+    RedisConnectionFactory connectionFactory;
+
+    RedisTicketServices ticketServices;
+
+    UsernamePasswordAuthenticationToken authentication;
+
+    AppsCasDetails casDetails;
+
+    @Setup
+    public void setup() throws Exception {
+        redisServer = new EmbeddedRedisServer();
+        connectionFactory = newConnectionFactory(redisServer);
+        ticketServices = new RedisTicketServices(connectionFactory);
+        authentication = newAuthentication();
+        casDetails = newCasDetails();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connectionFactory.getJedisPool().close();
+        redisServer.close();
+    }
+
+    @Benchmark
+    public Ticket grantAndValidate() throws Exception {
+        String ticketId = ticketServices.createTicket(new ServiceTicketImpl(authentication, casDetails), 300);
+        return consume(ticketServices, connectionFactory, mode, ticketId);
+    }
+
+    static Ticket consume(RedisTicketServices ticketServices, RedisConnectionFactory connectionFactory,
+            String mode, String ticketId) throws Exception {
+        if ("getdel".equals(mode)) {
+            return ticketServices.consumeTicket(ticketId);
+        }
+        RedisConnection conn = connectionFactory.getConnection();
+        try {
+            Ticket ticket = conn.getObject(ticketServices.prefixTicketId(ticketId));
+            conn.delete(ticketServices.prefixTicketId(ticketId));
+            if (ticket == null) {
+                throw new Exception("Invalid authorization code: " + ticketId);
+            }
+            return ticket;
+        } finally {
+            conn.close();
+        }
+    }
+
+    static RedisConnectionFactory newConnectionFactory(EmbeddedRedisServer redisServer) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(64);
+        poolConfig.setMaxIdle(64);
+        RedisConnectionFactory connectionFactory = new RedisConnectionFactory();
+        connectionFactory.setHostName("127.0.0.1");
+        connectionFactory.setPort(redisServer.getPort());
+        connectionFactory.setPoolConfig(poolConfig);
+        connectionFactory.initConnectionFactory();
+        return connectionFactory;
+    }
+
+    static UsernamePasswordAuthenticationToken newAuthentication() {
+        UserInfo userInfo = new UserInfo();
+        userInfo.setId("1b4a5d5cd5a44c0aa6f5f59c3d8c27d1");
+        userInfo.setUsername("admin");
+        userInfo.setDisplayName("系统管理员");
+        userInfo.setEmail("admin@maxkey.top");
+        userInfo.setInstId("1");
+
+        ArrayList<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        authorities.add(new SimpleGrantedAuthority("ROLE_USER"));
+        authorities.add(new SimpleGrantedAuthority("ROLE_ADMINISTRATORS"));
+
+        SigninPrincipal principal = new SigninPrincipal(userInfo);
+        principal.setGrantedAuthority(authorities);
+        principal.setAuthenticated(true);
+        return new UsernamePasswordAuthenticationToken(principal, "", authorities);
+    }
+
+    static AppsCasDetails newCasDetails() {
+        AppsCasDetails casDetails = new AppsCasDetails();
+        casDetails.setId("b32834accb544ea7a9a09dcae4a36403");
+        casDetails.setService("http://cas.maxkey.top:8080/demo-cas/");
+        casDetails.setCallbackUrl("http://cas.maxkey.top:8080/demo-cas/login/cas");
+        casDetails.setExpires(300);
+        return casDetails;
+    }
+
+    /**
+     * 两个线程同时消费同一票据,统计两次都成功的票据数
+     */
+    static int doubleConsumed(String mode, int tickets) throws Exception {
+        try (EmbeddedRedisServer redisServer = new EmbeddedRedisServer()) {
+            RedisConnectionFactory connectionFactory = newConnectionFactory(redisServer);
+            RedisTicketServices ticketServices = new RedisTicketServices(connectionFactory);
+            ServiceTicketImpl serviceTicket = new ServiceTicketImpl(newAuthentication(), newCasDetails());
+            AtomicInteger doubleConsumed = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            for (int i = 0; i < tickets; i++) {
+                String ticketId = ticketServices.createTicket(serviceTicket, 300);
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicInteger consumed = new AtomicInteger();
+                CountDownLatch done = new CountDownLatch(2);
+                for (int j = 0; j < 2; j++) {
+                    executor.execute(() -> {
+                        try {
+                            start.await();
+                            consume(ticketServices, connectionFactory, mode, ticketId);
+                            consumed.incrementAndGet();
+                        } catch (Exception e) {
+                            //consumed by the other validator
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                start.countDown();
+                done.await();
+                if (consumed.get() > 1) {
+                    doubleConsumed.incrementAndGet();
+                }
+            }
+            executor.shutdown();
+            connectionFactory.getJedisPool().close();
+            return doubleConsumed.get();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String mode : new String[] {"getdel", "legacy"}) {
+            System.out.println(String.format("%-8s double consumed %d of 10000 service tickets",
+                    mode, doubleConsumed(mode, 10000)));
+        }
+        Options options = new OptionsBuilder()
+                .include(CasTicketValidateBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.oidc.idtoken;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.authn.SigninPrincipal;
+import org.maxkey.authz.oauth2.common.OAuth2AccessToken;
+import org.maxkey.authz.oauth2.provider.OAuth2Authentication;
+import org.maxkey.authz.oauth2.provider.OAuth2Request;
+import org.maxkey.authz.oauth2.provider.token.DefaultTokenServices;
+import org.maxkey.authz.oauth2.provider.token.store.InMemoryTokenStore;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.apps.oauth2.provider.client.BaseClientDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+
+/**
+ * /oauth/v20/token 颁发access_token及id_token(scope openid,RS256签名)的耗时,
+ * 对比客户端签名服务缓存(cached)与每次重新创建(rebuild,即原实现的开销).
+ * <pre>
+ * main方法直接运行,或gradle testClasses后通过org.openjdk.jmh.Main运行
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OIDCTokenBenchmark {
+
+    static final String CLIENT_ID = "b32834accb544ea7a9a09dcae4a36403";
+
+    @Param({"cached", "rebuild"})
+    String mode;
+
+    ClientJwtServicesRegistry clientJwtServicesRegistry;
+
+    InMemoryTokenStore tokenStore;
+
+    DefaultTokenServices tokenServices;
+
+    OAuth2Authentication authentication;
+
+    @Setup
+    public void setup() throws Exception {
+        BaseClientDetails clientDetails = new BaseClientDetails(
+                CLIENT_ID, "", "read,write,openid", "authorization_code", "ROLE_CLIENT");
+        clientDetails.setAccessTokenValiditySeconds(3600);
+        clientDetails.setIssuer("https://sso.maxkey.top/maxkey");
+        clientDetails.setSignature("RS256");
+        clientDetails.setSignatureKey(new RSAKeyGenerator(2048)
+                .keyID(CLIENT_ID + "_sig")
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256)
+                .generate()
+                .toJSONString());
+        clientDetails.setAlgorithm("none");
+        clientDetails.setUserInfoResponse("NORMAL");
+
+        clientJwtServicesRegistry = new ClientJwtServicesRegistry();
+        OIDCIdTokenEnhancer tokenEnhancer = new OIDCIdTokenEnhancer();
+        tokenEnhancer.setClientDetailsService((clientId, cached) -> clientDetails);
+        tokenEnhancer.setClientJwtServicesRegistry(clientJwtServicesRegistry);
+
+        tokenStore = new InMemoryTokenStore();
+        tokenServices = new DefaultTokenServices();
+        tokenServices.setClientDetailsService((clientId, cached) -> clientDetails);
+        tokenServices.setTokenStore(tokenStore);
+        tokenServices.setTokenEnhancer(tokenEnhancer);
+        tokenServices.setSupportRefreshToken(false);
+
+        authentication = newOAuth2Authentication();
+    }
+
+    @Benchmark
+    public OAuth2AccessToken createAccessToken() {
+        if ("rebuild".equals(mode)) {
+            clientJwtServicesRegistry.invalidate(CLIENT_ID);
+        }
+        OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+        //next invocation issues a new token instead of returning the stored one
+        tokenStore.removeAccessToken(accessToken);
+        return accessToken;
+    }
+
+    static OAuth2Authentication newOAuth2Authentication() {
+        UserInfo userInfo = new UserInfo();
+        userInfo.setId("1b4a5d5cd5a44c0aa6f5f59c3d8c27d1");
+        userInfo.setUsername("admin");
+        userInfo.setDisplayName("系统管理员");
+        userInfo.setInstId("1");
+
+        SigninPrincipal principal = new SigninPrincipal(userInfo);
+        principal.setAuthenticated(true);
+        UsernamePasswordAuthenticationToken userAuthentication = new UsernamePasswordAuthenticationToken(
+                principal, "", Arrays.<GrantedAuthority>asList(new SimpleGrantedAuthority("ROLE_USER")));
+
+        HashMap<String, String> requestParameters = new HashMap<String, String>();
+        requestParameters.put("client_id", CLIENT_ID);
+        requestParameters.put("grant_type", "authorization_code");
+        requestParameters.put("scope", "openid");
+
+        OAuth2Request request = new OAuth2Request(
+                requestParameters,
+                CLIENT_ID,
+                Arrays.<GrantedAuthority>asList(new SimpleGrantedAuthority("ROLE_CLIENT")),
+                true,
+                new HashSet<String>(Arrays.asList("openid")),
+                new HashSet<String>(),
+                "http://sso.maxkey.top:8080/oauth/callback",
+                new HashSet<String>(Arrays.asList("code")),
+                null,
+                null,
+                new HashMap<String, java.io.Serializable>());
+        //nonce is carried in the request extensions
+        request.getExtensions().put("nonce", "n-0S6_WzA2Mj");
+        return new OAuth2Authentication(request, userAuthentication);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(OIDCTokenBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.saml20.binding.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.maxkey.authz.saml.common.AuthnRequestInfo;
+import org.maxkey.authz.saml.service.IDService;
+import org.maxkey.authz.saml.service.TimeService;
+import org.maxkey.authz.saml20.provider.xml.AssertionTemplate;
+import org.maxkey.authz.saml20.provider.xml.AuthnResponseGenerator;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.apps.AppsSAML20Details;
+import org.maxkey.web.WebContext;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml2.metadata.impl.AssertionConsumerServiceBuilder;
+import org.opensaml.xml.security.BasicSecurityConfiguration;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.KeyStoreCredentialResolver;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.util.Base64;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * POST绑定发送的Response及断言,签名引用的摘要算法均为SP配置的SHA256,与全局安全配置无关.
+ */
+public class PostBindingAdapterDigestTest {
+
+    static final String IDP_ENTITY_ID = "maxkey.top";
+
+    static final String KEYSTORE_PASSWORD = "maxkey";
+
+    static final String XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+
+    static final Pattern SAML_RESPONSE = Pattern.compile("name=\"SAMLResponse\" value=\"([^\"]+)\"");
+
+    static Credential signingCredential;
+
+    static VelocityEngine velocityEngine;
+
+    AppsSAML20Details saml20Details;
+
+    AuthnRequestInfo authnRequestInfo;
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = PostBindingAdapterDigestTest.class.getResourceAsStream("/config/samlServerKeystore.jks")) {
+            keyStore.load(in, KEYSTORE_PASSWORD.toCharArray());
+        }
+        Map<String, String> passwords = new HashMap<String, String>();
+        passwords.put(IDP_ENTITY_ID, KEYSTORE_PASSWORD);
+        signingCredential = new KeyStoreCredentialResolver(keyStore, passwords)
+                .resolveSingle(new CriteriaSet(new EntityIDCriteria(IDP_ENTITY_ID)));
+
+        velocityEngine = new VelocityEngine();
+        velocityEngine.setProperty("resource.loader", "classpath");
+        velocityEngine.setProperty("classpath.resource.loader.class",
+                "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+        velocityEngine.init();
+    }
+
+    @Before
+    public void setUp() {
+        //another SP signed with the default digest last
+        ((BasicSecurityConfiguration) Configuration.getGlobalSecurityConfiguration())
+                .setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA1);
+
+        saml20Details = new AppsSAML20Details();
+        saml20Details.setId("b32834accb544ea7a9a09dcae4a36403");
+        saml20Details.setSpAcsUrl("https://sp.maxkey.top/saml/acs");
+        saml20Details.setAudience("https://sp.maxkey.top/saml/metadata");
+        saml20Details.setValidityInterval("90");
+        saml20Details.setNameidFormat("persistent");
+        saml20Details.setNameIdConvert(0);
+        saml20Details.setSignature("RSAwithSHA256");
+        saml20Details.setDigestMethod("SHA256");
+        saml20Details.setEncrypted(0);
+        saml20Details.setIsExtendAttr(0);
+
+        authnRequestInfo = new AuthnRequestInfo(
+                saml20Details.getSpAcsUrl(), "_4f3c1d6e7a2b4c8d9e0f1a2b3c4d5e6f");
+
+        UserInfo userInfo = new UserInfo();
+        userInfo.setId("1b4a5d5cd5a44c0aa6f5f59c3d8c27d1");
+        userInfo.setUsername("admin");
+        userInfo.setDisplayName("admin");
+        userInfo.setInstId("1");
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("192.168.1.10");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        WebContext.setUserInfo(userInfo);
+        WebContext.setAuthentication(new UsernamePasswordAuthenticationToken(
+                userInfo, "", Arrays.<GrantedAuthority>asList(new SimpleGrantedAuthority("ROLE_USER"))));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void templateDigest() throws Exception {
+        assertSha256(send(true));
+    }
+
+    @Test
+    public void chainDigest() throws Exception {
+        assertSha256(send(false));
+    }
+
+    Element send(boolean templateEnabled) throws Exception {
+        PostBindingAdapter prototype = new PostBindingAdapter();
+        prototype.setVelocityEngine(velocityEngine);
+        prototype.setIssuerEntityName(IDP_ENTITY_ID);
+        prototype.afterPropertiesSet();
+
+        //same state as newBindingAdapter , without the SP keystore
+        PostBindingAdapter bindingAdapter = new PostBindingAdapter();
+        bindingAdapter.encoder = prototype.encoder;
+        bindingAdapter.issuerEntityName = IDP_ENTITY_ID;
+        bindingAdapter.saml20Details = saml20Details;
+        bindingAdapter.digestAlgorithm = AssertionTemplate.digestAlgorithm(saml20Details.getDigestMethod());
+        bindingAdapter.signingCredential = signingCredential;
+        bindingAdapter.authnRequestInfo = authnRequestInfo;
+
+        AuthnResponseGenerator authnResponseGenerator = new AuthnResponseGenerator(
+                "https://sso.maxkey.top/maxkey/saml", new TimeService(), new IDService());
+        authnResponseGenerator.setAssertionTemplateEnabled(templateEnabled);
+        Response authResponse = authnResponseGenerator.generateAuthnResponse(
+                saml20Details, authnRequestInfo, new HashMap<String, String>(), bindingAdapter);
+
+        AssertionConsumerService endpoint = new AssertionConsumerServiceBuilder().buildObject();
+        endpoint.setLocation(saml20Details.getSpAcsUrl());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        bindingAdapter.sendSAMLMessage(authResponse, endpoint, new MockHttpServletRequest(), response);
+
+        Matcher matcher = SAML_RESPONSE.matcher(response.getContentAsString());
+        assertTrue(matcher.find());
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        return documentBuilderFactory.newDocumentBuilder()
+                .parse(new ByteArrayInputStream(Base64.decode(matcher.group(1))))
+                .getDocumentElement();
+    }
+
+    void assertSha256(Element samlResponse) {
+        Element responseSignature = null;
+        for (Node child = samlResponse.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (XMLDSIG_NS.equals(child.getNamespaceURI()) && "Signature".equals(child.getLocalName())) {
+                responseSignature = (Element) child;
+            }
+        }
+        assertTrue(responseSignature != null);
+        assertEquals(SignatureConstants.ALGO_ID_DIGEST_SHA256, digestMethod(responseSignature));
+
+        //Response and Assertion
+        NodeList digestMethods = samlResponse.getElementsByTagNameNS(XMLDSIG_NS, "DigestMethod");
+        assertEquals(2, digestMethods.getLength());
+        for (int i = 0; i < digestMethods.getLength(); i++) {
+            assertEquals(SignatureConstants.ALGO_ID_DIGEST_SHA256,
+                    ((Element) digestMethods.item(i)).getAttribute("Algorithm"));
+        }
+    }
+
+    String digestMethod(Element signature) {
+        return ((Element) signature.getElementsByTagNameNS(XMLDSIG_NS, "DigestMethod").item(0))
+                .getAttribute("Algorithm");
+    }
+}
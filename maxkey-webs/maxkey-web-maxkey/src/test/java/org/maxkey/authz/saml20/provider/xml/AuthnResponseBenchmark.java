@@ -0,0 +1,172 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.authz.saml20.provider.xml;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.authz.saml.common.AuthnRequestInfo;
+import org.maxkey.authz.saml.service.IDService;
+import org.maxkey.authz.saml.service.TimeService;
+import org.maxkey.authz.saml20.binding.impl.PostBindingAdapter;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.entity.apps.AppsSAML20Details;
+import org.maxkey.web.WebContext;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.KeyStoreCredentialResolver;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.w3c.dom.Element;
+
+/**
+ * SAML断言签名并生成Response DOM(POST绑定发送前)的吞吐量,
+ * 对比SP断言模板(template)与原生成链(chain),gc.alloc.rate.norm为每个断言的内存分配.
+ * <pre>
+ * main方法直接运行,或gradle testClasses后通过org.openjdk.jmh.Main运行
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthnResponseBenchmark {
+
+    static final String IDP_ENTITY_ID = "maxkey.top";
+
+    static final String KEYSTORE_PASSWORD = "maxkey";
+
+    @Param({"template", "chain"})
+    String mode;
+
+    AuthnResponseGenerator authnResponseGenerator;
+
+    AppsSAML20Details saml20Details;
+
+    AuthnRequestInfo authnRequestInfo;
+
+    PostBindingAdapter bindingAdapter;
+
+    @Setup
+    public void setup() throws Exception {
+        DefaultBootstrap.bootstrap();
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = AuthnResponseBenchmark.class.getResourceAsStream("/config/samlServerKeystore.jks")) {
+            keyStore.load(in, KEYSTORE_PASSWORD.toCharArray());
+        }
+        Map<String, String> passwords = new HashMap<String, String>();
+        passwords.put(IDP_ENTITY_ID, KEYSTORE_PASSWORD);
+        CriteriaSet criteriaSet = new CriteriaSet(new EntityIDCriteria(IDP_ENTITY_ID));
+        Credential signingCredential = new KeyStoreCredentialResolver(keyStore, passwords).resolveSingle(criteriaSet);
+        bindingAdapter = new PostBindingAdapter() {
+            @Override
+            public Credential getSigningCredential() {
+                return signingCredential;
+            }
+        };
+
+        saml20Details = new AppsSAML20Details();
+        saml20Details.setId("b32834accb544ea7a9a09dcae4a36403");
+        saml20Details.setSpAcsUrl("https://sp.maxkey.top/saml/acs");
+        saml20Details.setAudience("https://sp.maxkey.top/saml/metadata");
+        saml20Details.setValidityInterval("90");
+        saml20Details.setNameidFormat("persistent");
+        saml20Details.setNameIdConvert(0);
+        saml20Details.setSignature("RSAwithSHA256");
+        saml20Details.setDigestMethod("SHA256");
+        saml20Details.setEncrypted(0);
+        saml20Details.setIsExtendAttr(1);
+        saml20Details.setExtendAttr("[{\"attr\":\"tenant\",\"type\":\"\",\"value\":\"maxkey#44;top\"}]");
+
+        authnRequestInfo = new AuthnRequestInfo(
+                saml20Details.getSpAcsUrl(), "_4f3c1d6e7a2b4c8d9e0f1a2b3c4d5e6f");
+
+        authnResponseGenerator = new AuthnResponseGenerator(
+                "https://sso.maxkey.top/maxkey/saml", new TimeService(), new IDService());
+        authnResponseGenerator.setAssertionTemplateEnabled("template".equals(mode));
+
+        UserInfo userInfo = new UserInfo();
+        userInfo.setId("1b4a5d5cd5a44c0aa6f5f59c3d8c27d1");
+        userInfo.setUsername("admin");
+        userInfo.setDisplayName("系统管理员");
+        userInfo.setEmail("admin@maxkey.top");
+        userInfo.setInstId("1");
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("192.168.1.10");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        WebContext.setUserInfo(userInfo);
+        WebContext.setAuthentication(new UsernamePasswordAuthenticationToken(
+                userInfo, "", Arrays.<GrantedAuthority>asList(new SimpleGrantedAuthority("ROLE_ADMINISTRATORS"))));
+    }
+
+    @TearDown
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public Element generateAuthnResponse() throws Exception {
+        HashMap<String, String> attributeMap = new HashMap<String, String>();
+        attributeMap.put("online_ticket", "OT-5f1b8a2c9d3e4f6a");
+        Response authResponse = authnResponseGenerator.generateAuthnResponse(
+                saml20Details, authnRequestInfo, attributeMap, bindingAdapter);
+        //the POST encoder marshalls the Response , the signed assertion DOM is reused
+        return Configuration.getMarshallerFactory().getMarshaller(authResponse).marshall(authResponse);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AuthnResponseBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * 压测用的进程内Redis替身,实现RESP协议及RedisConnection票据读写用到的命令:
+ * PING/AUTH/SELECT/QUIT/SET/SETEX/GET/DEL/EXISTS,以及GETDEL脚本的EVAL/EVALSHA.
+ * <p>
+ * 每个连接一个线程,数据不过期,只用于测量往返次数及客户端开销,不代表真实Redis性能.
+ * </p>
+ */
+public class EmbeddedRedisServer implements Closeable {
+
+    static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte[] PONG = "+PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte[] NIL = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    static final String GETDEL_SHA1 = DigestUtils.sha1Hex(RedisConnection.GETDEL_SCRIPT);
+
+    final ConcurrentHashMap<ByteBuffer, byte[]> store = new ConcurrentHashMap<ByteBuffer, byte[]>();
+
+    final Set<String> scripts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    final AtomicLong commands = new AtomicLong();
+
+    final ServerSocket serverSocket;
+
+    volatile boolean running = true;
+
+    public EmbeddedRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::accept, "embedded-redis-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return commands received , each command is one round trip unless pipelined
+     */
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(socket), "embedded-redis-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                //closed
+            }
+        }
+    }
+
+    void serve(Socket socket) {
+        try (Socket client = socket) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            while (running) {
+                byte[][] command = readCommand(in);
+                commands.incrementAndGet();
+                boolean quit = execute(command, out);
+                //flush when the pipeline is drained
+                if (in.available() == 0 || quit) {
+                    out.flush();
+                }
+                if (quit) {
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            //client closed
+        } catch (IOException e) {
+            //connection reset
+        }
+    }
+
+    boolean execute(byte[][] command, OutputStream out) throws IOException {
+        String name = new String(command[0], StandardCharsets.US_ASCII).toUpperCase();
+        switch (name) {
+            case "PING"     : out.write(PONG); break;
+            case "AUTH"     :
+            case "SELECT"   :
+            case "CLIENT"   : out.write(OK); break;
+            case "QUIT"     : out.write(OK); return true;
+            case "SET"      : store.put(ByteBuffer.wrap(command[1]), command[2]); out.write(OK); break;
+            case "SETEX"    : store.put(ByteBuffer.wrap(command[1]), command[3]); out.write(OK); break;
+            case "GET"      : writeBulk(out, store.get(ByteBuffer.wrap(command[1]))); break;
+            case "DEL"      :
+            case "EXISTS"   : {
+                long count = 0;
+                for (int i = 1; i < command.length; i++) {
+                    ByteBuffer key = ByteBuffer.wrap(command[i]);
+                    if ("DEL".equals(name) ? store.remove(key) != null : store.containsKey(key)) {
+                        count++;
+                    }
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "EVAL"     : {
+                String script = new String(command[1], StandardCharsets.UTF_8);
+                if (!RedisConnection.GETDEL_SCRIPT.equals(script)) {
+                    writeError(out, "ERR script not supported by embedded redis");
+                    break;
+                }
+                scripts.add(GETDEL_SHA1);
+                writeBulk(out, store.remove(ByteBuffer.wrap(command[3])));
+                break;
+            }
+            case "EVALSHA"  : {
+                String sha1 = new String(command[1], StandardCharsets.US_ASCII);
+                if (!scripts.contains(sha1)) {
+                    writeError(out, "NOSCRIPT No matching script. Please use EVAL.");
+                    break;
+                }
+                writeBulk(out, store.remove(ByteBuffer.wrap(command[3])));
+                break;
+            }
+            default         : writeError(out, "ERR unknown command '" + name + "'");
+        }
+        return false;
+    }
+
+    static byte[][] readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException();
+        }
+        if (type != '*') {
+            throw new IOException("inline command not supported");
+        }
+        int count = (int) readLong(in);
+        byte[][] command = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("bulk string expected");
+            }
+            int length = (int) readLong(in);
+            byte[] value = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = in.read(value, offset, length - offset);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+            in.read();
+            in.read();
+            command[i] = value;
+        }
+        return command;
+    }
+
+    static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write(NIL);
+            return;
+        }
+        out.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(value);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write((":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static void writeError(OutputStream out, String message) throws IOException {
+        out.write(("-" + message + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        store.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddedRedisServer [port=" + getPort() + ", keys=" + store.size() + ", scripts=" + Arrays.toString(scripts.toArray()) + "]";
+    }
+}
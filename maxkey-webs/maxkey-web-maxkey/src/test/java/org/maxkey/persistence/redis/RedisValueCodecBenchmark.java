@@ -0,0 +1,177 @@
+/*
+ * Copyright [2022] [MaxKey of copyright http://www.maxkey.top]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.maxkey.persistence.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.maxkey.authn.SigninPrincipal;
+import org.maxkey.authz.cas.endpoint.ticket.TicketGrantingTicketImpl;
+import org.maxkey.authz.oauth2.provider.OAuth2Authentication;
+import org.maxkey.authz.oauth2.provider.OAuth2Request;
+import org.maxkey.entity.UserInfo;
+import org.maxkey.persistence.redis.codec.CompactRedisValueCodec;
+import org.maxkey.persistence.redis.codec.HexRedisValueCodec;
+import org.maxkey.persistence.redis.codec.RedisValueCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * hex与compact编码器对OAuth2Authentication及TicketGrantingTicketImpl的编解码耗时对比,
+ * 启动时输出编码后的字节数.
+ * <pre>
+ * main方法直接运行,或gradle testClasses后通过org.openjdk.jmh.Main运行
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisValueCodecBenchmark {
+
+    @Param({"hex", "compact"})
+    String codecName;
+
+    RedisValueCodec codec;
+
+    OAuth2Authentication oauth2Authentication;
+
+    TicketGrantingTicketImpl ticketGrantingTicket;
+
+    byte[] oauth2AuthenticationBytes;
+
+    byte[] ticketGrantingTicketBytes;
+
+    @Setup
+    public void setup() {
+        codec = newCodec(codecName);
+        oauth2Authentication = newOAuth2Authentication();
+        ticketGrantingTicket = newTicketGrantingTicket();
+        oauth2AuthenticationBytes = codec.encode(oauth2Authentication);
+        ticketGrantingTicketBytes = codec.encode(ticketGrantingTicket);
+    }
+
+    @Benchmark
+    public byte[] encodeOAuth2Authentication() {
+        return codec.encode(oauth2Authentication);
+    }
+
+    @Benchmark
+    public Object decodeOAuth2Authentication() {
+        return codec.decode(oauth2AuthenticationBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeTicketGrantingTicket() {
+        return codec.encode(ticketGrantingTicket);
+    }
+
+    @Benchmark
+    public Object decodeTicketGrantingTicket() {
+        return codec.decode(ticketGrantingTicketBytes);
+    }
+
+    static RedisValueCodec newCodec(String codecName) {
+        return HexRedisValueCodec.CODEC_NAME.equals(codecName) ?
+                new HexRedisValueCodec() : new CompactRedisValueCodec();
+    }
+
+    static UsernamePasswordAuthenticationToken newUserAuthentication() {
+        UserInfo userInfo = new UserInfo();
+        userInfo.setId("1b4a5d5cd5a44c0aa6f5f59c3d8c27d1");
+        userInfo.setUsername("admin");
+        userInfo.setDisplayName("系统管理员");
+        userInfo.setEmail("admin@maxkey.top");
+        userInfo.setMobile("13800000000");
+        userInfo.setInstId("1");
+        userInfo.setDepartment("信息中心");
+
+        ArrayList<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        authorities.add(new SimpleGrantedAuthority("ROLE_USER"));
+        authorities.add(new SimpleGrantedAuthority("ROLE_ORDINARY_USER"));
+        authorities.add(new SimpleGrantedAuthority("ROLE_ADMINISTRATORS"));
+
+        SigninPrincipal principal = new SigninPrincipal(userInfo);
+        principal.setGrantedAuthority(authorities);
+        principal.setAuthenticated(true);
+        return new UsernamePasswordAuthenticationToken(principal, "", authorities);
+    }
+
+    static OAuth2Authentication newOAuth2Authentication() {
+        HashMap<String, String> requestParameters = new HashMap<String, String>();
+        requestParameters.put("client_id", "b32834accb544ea7a9a09dcae4a36403");
+        requestParameters.put("response_type", "code");
+        requestParameters.put("redirect_uri", "http://sso.maxkey.top:8080/oauth/callback");
+        requestParameters.put("scope", "read write openid");
+        requestParameters.put("state", "af0ifjsldkj");
+
+        OAuth2Request request = new OAuth2Request(
+                requestParameters,
+                "b32834accb544ea7a9a09dcae4a36403",
+                Arrays.<GrantedAuthority>asList(new SimpleGrantedAuthority("ROLE_CLIENT")),
+                true,
+                new HashSet<String>(Arrays.asList("read", "write", "openid")),
+                new HashSet<String>(Arrays.asList("b32834accb544ea7a9a09dcae4a36403")),
+                "http://sso.maxkey.top:8080/oauth/callback",
+                new HashSet<String>(Arrays.asList("code")),
+                null,
+                null,
+                new HashMap<String, java.io.Serializable>());
+        return new OAuth2Authentication(request, newUserAuthentication());
+    }
+
+    static TicketGrantingTicketImpl newTicketGrantingTicket() {
+        return new TicketGrantingTicketImpl(
+                "TGT-1-Ma0pIkfW3m9AHSbLUNbF6dLOeE9rC2n5bH1qIf", newUserAuthentication(), null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (String codecName : new String[] {"hex", "compact"}) {
+            RedisValueCodec codec = newCodec(codecName);
+            System.out.println(String.format("%-8s OAuth2Authentication %6d bytes , TicketGrantingTicketImpl %6d bytes",
+                    codecName,
+                    codec.encode(newOAuth2Authentication()).length,
+                    codec.encode(newTicketGrantingTicket()).length));
+        }
+        Options options = new OptionsBuilder()
+                .include(RedisValueCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
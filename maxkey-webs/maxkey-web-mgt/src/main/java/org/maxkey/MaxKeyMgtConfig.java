@@ -17,17 +17,25 @@
 
 package org.maxkey;
 
+import org.maxkey.constants.ConstsPersistence;
+import org.maxkey.identity.scim.filter.ScimUserQuery;
 import org.maxkey.password.onetimepwd.AbstractOtpAuthn;
 import org.maxkey.password.onetimepwd.impl.TimeBasedOtpAuthn;
+import org.maxkey.persistence.redis.RedisConnectionFactory;
 import org.maxkey.persistence.repository.LoginHistoryRepository;
+import org.maxkey.persistence.repository.LoginPrincipalCache;
 import org.maxkey.persistence.repository.LoginRepository;
 import org.maxkey.persistence.repository.PasswordPolicyValidator;
+import org.maxkey.persistence.service.DynamicGroupsEngine;
+import org.maxkey.persistence.service.UserInfoImporter;
 import org.maxkey.persistence.service.UserInfoService;
 import org.maxkey.authn.realm.jdbc.JdbcAuthenticationRealm;
 import org.maxkey.authn.support.rememberme.AbstractRemeberMeService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -61,6 +69,55 @@ public class MaxKeyMgtConfig  implements InitializingBean {
         return authenticationRealm;
     }
 
+	/**
+	 * 动态用户组增量计算,用户变更时由UserInfoService通知,Redis持久化时订阅其他节点的用户变更
+	 */
+	@Bean(name = "dynamicGroupsEngine", destroyMethod = "shutdown")
+	public DynamicGroupsEngine dynamicGroupsEngine(
+			JdbcTemplate jdbcTemplate,
+			ObjectProvider<LoginPrincipalCache> principalCache,
+			@Value("${maxkey.server.persistence}") int persistence,
+			RedisConnectionFactory redisConnFactory,
+			@Value("${maxkey.job.dynamic.groups.batch.size:500}") int batchSize,
+			@Value("${maxkey.job.dynamic.groups.full.interval:1440}") int fullInterval,
+			@Value("${maxkey.job.dynamic.groups.max.pending:10000}") int maxPending) {
+		DynamicGroupsEngine dynamicGroupsEngine = 
+				new DynamicGroupsEngine(jdbcTemplate, batchSize, fullInterval, maxPending);
+		dynamicGroupsEngine.setPrincipalCache(principalCache.getIfAvailable());
+		if (persistence == ConstsPersistence.REDIS) {
+			dynamicGroupsEngine.subscribe(redisConnFactory);
+		}
+		_logger.debug("DynamicGroupsEngine inited.");
+		return dynamicGroupsEngine;
+	}
+
+	/**
+	 * 用户Excel导入后台任务
+	 */
+	@Bean(name = "userInfoImporter", destroyMethod = "shutdown")
+	public UserInfoImporter userInfoImporter(
+			UserInfoService userInfoService,
+			JdbcTemplate jdbcTemplate,
+			@Value("${maxkey.import.users.batch.size:500}") int batchSize,
+			@Value("${maxkey.import.users.max.jobs:2}") int maxJobs,
+			@Value("${maxkey.import.users.password.threads:0}") int passwordThreads,
+			@Value("${maxkey.import.users.retain:1440}") int retain) {
+		UserInfoImporter userInfoImporter = 
+				new UserInfoImporter(userInfoService, jdbcTemplate, batchSize, maxJobs, passwordThreads, retain);
+		_logger.debug("UserInfoImporter inited.");
+		return userInfoImporter;
+	}
+
+	/**
+	 * SCIM用户查询,过滤条件编译为SQL
+	 */
+	@Bean(name = "scimUserQuery")
+	public ScimUserQuery scimUserQuery(JdbcTemplate jdbcTemplate) {
+		ScimUserQuery scimUserQuery = new ScimUserQuery(jdbcTemplate);
+		_logger.debug("ScimUserQuery inited.");
+		return scimUserQuery;
+	}
+
 	@Bean(name = "timeBasedOtpAuthn")
     public AbstractOtpAuthn timeBasedOtpAuthn() {
 		AbstractOtpAuthn tfaOtpAuthn = new TimeBasedOtpAuthn();
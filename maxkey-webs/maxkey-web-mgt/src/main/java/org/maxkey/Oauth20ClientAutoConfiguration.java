@@ -26,6 +26,7 @@ import org.maxkey.authz.oauth2.provider.token.TokenStore;
 import org.maxkey.authz.oauth2.provider.token.store.InMemoryTokenStore;
 import org.maxkey.authz.oauth2.provider.token.store.RedisTokenStore;
 import org.maxkey.persistence.redis.RedisConnectionFactory;
+import org.maxkey.persistence.repository.AppsConfigCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -48,9 +49,11 @@ public class Oauth20ClientAutoConfiguration  implements InitializingBean {
     
     @Bean(name = "oauth20JdbcClientDetailsService")
     public JdbcClientDetailsService jdbcClientDetailsService(
-                DataSource dataSource,PasswordEncoder passwordReciprocal) {
+                DataSource dataSource,PasswordEncoder passwordReciprocal,
+                AppsConfigCache appsConfigCache) {
 	    JdbcClientDetailsService clientDetailsService = new JdbcClientDetailsService(dataSource);
 	    clientDetailsService.setPasswordEncoder(passwordReciprocal);
+	    clientDetailsService.setAppsConfigCache(appsConfigCache);
 	    _logger.debug("JdbcClientDetailsService inited.");
         return clientDetailsService;
     }
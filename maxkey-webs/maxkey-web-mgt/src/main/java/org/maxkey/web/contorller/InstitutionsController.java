@@ -19,6 +19,7 @@ package org.maxkey.web.contorller;
 
 import org.maxkey.constants.ConstsOperateMessage;
 import org.maxkey.entity.Institutions;
+import org.maxkey.persistence.repository.InstitutionsRepository;
 import org.maxkey.persistence.service.InstitutionsService;
 import org.maxkey.web.WebContext;
 import org.maxkey.web.message.Message;
@@ -43,6 +44,9 @@ public class InstitutionsController {
 		@Autowired
 		private InstitutionsService institutionsService;
 		
+		@Autowired
+		private InstitutionsRepository institutionsRepository;
+		
 		/**
 		 * 读取
 		 * @return
@@ -63,11 +67,22 @@ public class InstitutionsController {
 		public Message updat(@ModelAttribute("institutions") Institutions institutions,BindingResult result) {
 			_logger.debug("updateRole institutions : "+institutions);
 			if(institutionsService.update(institutions)) {
+				institutionsRepository.refresh();
 				return new Message(WebContext.getI18nValue(ConstsOperateMessage.UPDATE_SUCCESS),MessageType.success);
 			} else {
 				return new Message(WebContext.getI18nValue(ConstsOperateMessage.UPDATE_ERROR),MessageType.error);
 			}
 		}
 		
+		/**
+		 * 重建机构域名索引
+		 * @return
+		 */
+		@RequestMapping(value={"/refresh"})
+		@ResponseBody
+		public Message refresh() {
+			institutionsRepository.refresh();
+			return new Message(WebContext.getI18nValue(ConstsOperateMessage.UPDATE_SUCCESS),MessageType.success);
+		}
 
 }
@@ -18,31 +18,26 @@
 package org.maxkey.web.contorller;
 
 import java.beans.PropertyEditorSupport;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.apache.mybatis.jpa.persistence.JpaPageResults;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.maxkey.constants.ConstsOperateMessage;
 import org.maxkey.constants.ConstsPasswordSetType;
 import org.maxkey.crypto.password.PasswordReciprocal;
 import org.maxkey.entity.ExcelImport;
 import org.maxkey.entity.UserInfo;
+import org.maxkey.persistence.service.UserInfoImporter;
+import org.maxkey.persistence.service.UserInfoImporter.ImportJob;
 import org.maxkey.persistence.service.UserInfoService;
-import org.maxkey.util.DateUtils;
-import org.maxkey.util.ExcelUtils;
 import org.maxkey.util.JsonUtils;
 import org.maxkey.util.StringUtils;
 import org.maxkey.web.WebContext;
@@ -56,7 +51,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.propertyeditors.CustomDateEditor;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.CollectionUtils;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
@@ -67,8 +61,6 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
-import com.google.common.collect.Lists;
-
 /**
  * @author Crystal.Sea
  *
@@ -81,6 +73,9 @@ public class UserInfoController {
 	@Autowired
 	@Qualifier("userInfoService")
 	private UserInfoService userInfoService;
+	
+	@Autowired
+	UserInfoImporter userInfoImporter;
 
 	
 	/**
@@ -287,48 +282,61 @@ public class UserInfoController {
 		}
 	}
 	
+    /**
+     * 上传文件后在后台导入,返回任务用于查询进度
+     */
     @RequestMapping(value = "/import")
     public ModelAndView importing(@ModelAttribute("excelImportFile")ExcelImport excelImportFile)  {
+        ModelAndView modelAndView = new ModelAndView("/userinfo/usersImport");
         if (excelImportFile.isExcelNotEmpty() ) {
             try {
-                List<UserInfo> userInfoList = Lists.newArrayList();
-                Workbook workbook = excelImportFile.biuldWorkbook();
-                int recordCount = 0;
-                int sheetSize = workbook.getNumberOfSheets();
-                for (int i = 0; i < sheetSize; i++) {//遍历sheet页
-                    Sheet sheet = workbook.getSheetAt(i);
-                    int rowSize = sheet.getLastRowNum() + 1;
-                    for (int j = 1; j < rowSize; j++) {//遍历行
-                        Row row = sheet.getRow(j);
-                        if (row == null || j <3 ) {//略过空行和前3行
-                            continue;
-                        } else {//其他行是数据行
-                        	UserInfo userInfo = buildUserFromSheetRow(row);
-                            userInfoList.add(userInfo);
-                            recordCount ++;
-                            _logger.debug("record {} user {} account {}",recordCount,userInfo.getDisplayName(),userInfo.getUsername());
-                        }
-                    }
-                }
-                // 数据去重
-                if(!CollectionUtils.isEmpty(userInfoList)){
-                    userInfoList = userInfoList.stream().collect(Collectors.collectingAndThen(Collectors.toCollection(() -> new TreeSet<>(Comparator.comparing(o -> o.getUsername()))), ArrayList::new));
-                    if( userInfoService.insertBatch(userInfoList)) {
-                    	new Message(WebContext.getI18nValue(ConstsOperateMessage.INSERT_SUCCESS), null, MessageType.success, OperateType.add, MessageScope.DB);
-                    }else {
-                    	new Message(WebContext.getI18nValue(ConstsOperateMessage.INSERT_ERROR), MessageType.error);
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }finally {
-            	excelImportFile.closeWorkbook();
+                File file = excelImportFile.transferToTempFile();
+                ImportJob importJob = userInfoImporter.submit(
+                        file, 
+                        excelImportFile.getExcelFile().getOriginalFilename(), 
+                        WebContext.getUserInfo().getInstId(),
+                        "yes".equalsIgnoreCase(excelImportFile.getUpdateExist()));
+                modelAndView.addObject("importJob", importJob);
+            } catch (IOException | RuntimeException e) {
+                //RuntimeException for a file without xls/xlsx suffix
+                _logger.error("import error", e);
+                new Message(WebContext.getI18nValue(ConstsOperateMessage.INSERT_ERROR), MessageType.error);
             }
         }else {
         	new Message(WebContext.getI18nValue(ConstsOperateMessage.INSERT_ERROR), MessageType.error);
         }
         
-        return new ModelAndView("/userinfo/usersImport");
+        return modelAndView;
+    }
+    
+    /**
+     * 导入任务进度
+     * @param jobId
+     * @return 任务不存在返回空
+     */
+    @ResponseBody
+    @RequestMapping(value = "/import/status/{jobId}")
+    public ImportJob importStatus(@PathVariable("jobId") String jobId)  {
+        return userInfoImporter.getJob(jobId, WebContext.getUserInfo().getInstId());
+    }
+    
+    /**
+     * 下载导入失败行的错误报告(CSV)
+     * @param jobId
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/import/errors/{jobId}")
+    public void importErrors(@PathVariable("jobId") String jobId, HttpServletResponse response) throws IOException {
+        ImportJob importJob = userInfoImporter.getJob(jobId, WebContext.getUserInfo().getInstId());
+        File errorReport = importJob == null ? null : importJob.getErrorReport();
+        if (errorReport == null || !errorReport.exists()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType("text/csv;charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=users_import_errors_" + jobId + ".csv");
+        Files.copy(errorReport.toPath(), response.getOutputStream());
     }
     
 	@InitBinder
@@ -349,110 +357,5 @@ public class UserInfoController {
 	        dateFormat.setLenient(false);  
 	        binder.registerCustomEditor(Date.class, new CustomDateEditor(dateFormat, true));
 	}
-	
-	
-	public UserInfo buildUserFromSheetRow(Row row) {
-		UserInfo userInfo = new UserInfo();
-        userInfo.setCreatedDate(DateUtils.formatDateTime(new Date()));
-		// 登录账号
-		userInfo.setUsername(ExcelUtils.getValue(row, 0));
-		// 密码
-		userInfo.setPassword(ExcelUtils.getValue(row, 1));
-		// 用户显示
-		userInfo.setDisplayName(ExcelUtils.getValue(row, 2));
-		// 姓
-		userInfo.setFamilyName(ExcelUtils.getValue(row, 3));
-		// 名
-		userInfo.setGivenName(ExcelUtils.getValue(row, 4));
-		// 中间名
-		userInfo.setMiddleName(ExcelUtils.getValue(row, 5));
-		// 昵称
-		userInfo.setNickName(ExcelUtils.getValue(row, 6));
-		// 性别
-		String gender = ExcelUtils.getValue(row, 7);
-		userInfo.setGender(gender.equals("") ? 1 : Integer.valueOf(gender));
-		// 语言偏好
-		userInfo.setPreferredLanguage(ExcelUtils.getValue(row, 8));
-		// 时区
-		userInfo.setTimeZone(ExcelUtils.getValue(row, 9));
-		// 用户类型
-		userInfo.setUserType(ExcelUtils.getValue(row, 10));
-		// 员工编码
-		userInfo.setEmployeeNumber(ExcelUtils.getValue(row, 11));
-		// AD域账号
-		userInfo.setWindowsAccount(ExcelUtils.getValue(row, 12));
-		// 所属机构
-		userInfo.setOrganization(ExcelUtils.getValue(row, 13));
-		// 分支机构
-		userInfo.setDivision(ExcelUtils.getValue(row, 14));
-		// 部门编号
-		userInfo.setDepartmentId(ExcelUtils.getValue(row, 15));
-		// 部门名称
-		userInfo.setDepartment(ExcelUtils.getValue(row, 16));
-		// 成本中心
-		userInfo.setCostCenter(ExcelUtils.getValue(row, 17));
-		// 职位
-		userInfo.setJobTitle(ExcelUtils.getValue(row, 18));
-		// 级别
-		userInfo.setJobLevel(ExcelUtils.getValue(row, 19));
-		// 上级经理
-		userInfo.setManager(ExcelUtils.getValue(row, 20));
-		// 助理
-		userInfo.setAssistant(ExcelUtils.getValue(row, 21));
-		// 入职时间
-		userInfo.setEntryDate(ExcelUtils.getValue(row, 22));
-		// 离职时间
-		userInfo.setQuitDate(ExcelUtils.getValue(row, 23));
-		// 工作-国家
-		userInfo.setWorkCountry(ExcelUtils.getValue(row, 24));
-		// 工作-省
-		userInfo.setWorkRegion(ExcelUtils.getValue(row, 25));
-		// 工作-城市
-		userInfo.setTimeZone(ExcelUtils.getValue(row, 26));
-		// 工作-地址
-		userInfo.setWorkLocality(ExcelUtils.getValue(row, 27));
-		// 邮编
-		userInfo.setWorkPostalCode(ExcelUtils.getValue(row, 28));
-		// 传真
-		userInfo.setWorkFax(ExcelUtils.getValue(row, 29));
-		// 工作电话
-		userInfo.setWorkPhoneNumber(ExcelUtils.getValue(row, 30));
-		// 工作邮件
-		userInfo.setWorkEmail(ExcelUtils.getValue(row, 31));
-		// 证件类型 todo 现在数据库中存储的是tinyint
-//      userInfo.setIdType(ExcelUtils.getValue(row, 32));
-		// 证件号码
-		userInfo.setIdCardNo(ExcelUtils.getValue(row, 33));
-		// 出生日期
-		userInfo.setBirthDate(ExcelUtils.getValue(row, 34));
-		// 婚姻状态 todo 现在数据字段类型是 tinyint
-//      userInfo.setMarried(ExcelUtils.getValue(row, 35));
-		// 开始工作时间
-		userInfo.setStartWorkDate(ExcelUtils.getValue(row, 36));
-		// 个人主页
-		userInfo.setWebSite(ExcelUtils.getValue(row, 37));
-		// 即时通讯
-		userInfo.setDefineIm(ExcelUtils.getValue(row, 38));
-		// 国家
-		userInfo.setHomeCountry(ExcelUtils.getValue(row, 39));
-		// 省
-		userInfo.setHomeRegion(ExcelUtils.getValue(row, 40));
-		// 城市
-		userInfo.setHomeLocality(ExcelUtils.getValue(row, 41));
-		// 家庭地址
-		userInfo.setHomeStreetAddress(ExcelUtils.getValue(row, 42));
-		// 家庭邮编
-		userInfo.setHomePostalCode(ExcelUtils.getValue(row, 43));
-		// 家庭传真
-		userInfo.setHomeFax(ExcelUtils.getValue(row, 44));
-		// 家庭电话
-		userInfo.setHomePhoneNumber(ExcelUtils.getValue(row, 45));
-		// 家庭邮箱
-		userInfo.setHomeEmail(ExcelUtils.getValue(row, 46));
-		userInfoService.passwordEncoder(userInfo);
-        userInfo.setStatus(1);
-        userInfo.setInstId(WebContext.getUserInfo().getInstId());
-        return userInfo;
-	}
 
 }
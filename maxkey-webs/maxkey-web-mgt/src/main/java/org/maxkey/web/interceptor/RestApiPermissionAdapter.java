@@ -88,9 +88,10 @@ public class RestApiPermissionAdapter  implements AsyncHandlerInterceptor  {
 				
 				if(oauth2Authentication != null) {
 					_logger.trace("Authentication token " + oauth2Authentication.getPrincipal().toString());
+					//与basic认证一致,使用调用方应用的clientId,用户令牌的principal为用户名
 					authenticationToken= new UsernamePasswordAuthenticationToken(
 			    			new User(
-			    					oauth2Authentication.getPrincipal().toString(), 
+			    					oauth2Authentication.getOAuth2Request().getClientId(),
 			    					"CLIENT_SECRET", 
 			    					oauth2Authentication.getAuthorities()), 
 	                        "PASSWORD", 
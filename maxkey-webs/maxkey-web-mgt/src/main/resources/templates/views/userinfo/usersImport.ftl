@@ -13,7 +13,25 @@
 	<script type="text/javascript">
 	<!--
 	$(function(){	
-					
+		<#if importJob??>
+		//import runs in background , poll progress
+		function importStatus(){
+			$.getJSON("<@base/>/userinfo/import/status/${importJob.id}", function(job){
+				if(!job){
+					return;
+				}
+				$("#importStatus").text(job.status + (job.message ? " " + job.message : ""));
+				$("#importProgress").text(job.processed + (job.total > 0 ? " / " + job.total : "")
+						+ " ( inserted " + job.inserted + " , updated " + job.updated + " , failed " + job.failed + " )");
+				if(!job.finished){
+					setTimeout(importStatus, 2000);
+				}else if(job.errorReportAvailable){
+					$("#importErrors").show();
+				}
+			});
+		}
+		importStatus();
+		</#if>
 	});
 	//-->
 	</script>
@@ -47,6 +65,16 @@
 					</select>
 				</td>
 			</tr>
+			<#if importJob??>
+			<tr>
+				<th><@locale code="import.progress" /></th>
+				<td>
+					<div id="importStatus">${importJob.status}</div>
+					<div id="importProgress"></div>
+					<a id="importErrors" style="display:none" href="<@base/>/userinfo/import/errors/${importJob.id}" ><@locale code="import.errors.download" /></a>
+				</td>
+			</tr>
+			</#if>
 			<tr>
 				<th colspan="2" style="color: red;">
 					<@locale code="import.tip" /> 
@@ -226,7 +226,7 @@ $(function () {
                          <input  id="adjunctUserIdRef"      type="hidden" />                
                          <input class="button btn btn-primary mr-3 window" id="usersImportBtn" type="button" 
                                 value="<@locale code="button.text.import"/>" 
-                                    wurl="<@base/>/userinfo/import" wwidth="400px" wheight="250px" />
+                                    wurl="<@base/>/userinfo/import" wwidth="400px" wheight="320px" />
                         <input class="button btn btn-primary mr-3" id="addBtn" type="button" value="<@locale code="button.text.add"/>" 
                                     wurl="<@base/>/userinfo/forwardAdd"
                                     wwidth="960"